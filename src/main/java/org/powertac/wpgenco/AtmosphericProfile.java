@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Per-hour atmospheric factors of a forecast at a turbine site. Forecast
+ * wind speeds refer to the reference height of the forecast and are
+ * extrapolated to hub height with the power law
+ * v_hub = v * (hubHeight / referenceHeight)^shearExponent. Air density
+ * comes from the forecast pressure, reduced to the site elevation with
+ * the barometric formula of the standard atmosphere, and the forecast
+ * temperature.
+ * <p>
+ * The factors are computed once per forecast and hour, so the scenario
+ * loops need one multiply-add per wind speed value:
+ * v_hub = windOffset[h] + windScale[h] * error.
+ */
+public class AtmosphericProfile
+{
+  private final double elevation;
+  private final double shearFactor;
+
+  private WeatherForecastCache.Entry forecast = null;
+  double[] windScale = new double[0];
+  double[] windOffset = new double[0];
+  double[] airDensity = new double[0];
+
+  /**
+   * Creates a profile for a site at elevation meters above sea level,
+   * with turbine hubs at hubHeight and forecasts valid at
+   * referenceHeight, both in meters above ground.
+   */
+  public AtmosphericProfile (double elevation, double hubHeight,
+                             double referenceHeight, double shearExponent)
+  {
+    this.elevation = elevation;
+    this.shearFactor = Math.pow(hubHeight / referenceHeight, shearExponent);
+  }
+
+  /**
+   * Profile for the same site as template, with factors of its own.
+   */
+  public AtmosphericProfile (AtmosphericProfile template)
+  {
+    this.elevation = template.elevation;
+    this.shearFactor = template.shearFactor;
+  }
+
+  /**
+   * Profile without elevation and shear correction.
+   */
+  public AtmosphericProfile ()
+  {
+    this(0.0, 1.0, 1.0, 0.0);
+  }
+
+  /**
+   * Computes the factors for forecast, unless they are computed for it
+   * already.
+   */
+  public void update (WeatherForecastCache.Entry forecast)
+  {
+    if (forecast == this.forecast) {
+      return;
+    }
+    int horizon = forecast.getHorizon();
+    if (windScale.length != horizon) {
+      windScale = new double[horizon];
+      windOffset = new double[horizon];
+      airDensity = new double[horizon];
+    }
+    double pressureRatio = getPressureRatio(elevation);
+    for (int h = 0; h < horizon; h++) {
+      windScale[h] = shearFactor;
+      windOffset[h] = shearFactor * forecast.windSpeed[h];
+      airDensity[h] =
+        WindfarmGenco.getDryAirDensity(forecast.airPressure[h] * pressureRatio,
+                                       forecast.temperature[h]);
+    }
+    this.forecast = forecast;
+  }
+
+  public int getHorizon ()
+  {
+    return windScale.length;
+  }
+
+  public double getShearFactor ()
+  {
+    return shearFactor;
+  }
+
+  /**
+   * Wind speed at hub height for a forecast error at reference height.
+   */
+  public double getWindSpeed (int hour, double error)
+  {
+    return windOffset[hour] + windScale[hour] * error;
+  }
+
+  public double getAirDensity (int hour)
+  {
+    return airDensity[hour];
+  }
+
+  /**
+   * Ratio of the pressure at the given elevation in meters to the sea
+   * level pressure, in the standard atmosphere.
+   */
+  static double getPressureRatio (double elevation)
+  {
+    return Math.pow(1.0 - 2.25577e-5 * elevation, 5.25588);
+  }
+
+} // class AtmosphericProfile
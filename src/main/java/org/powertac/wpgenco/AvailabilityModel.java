@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.BitSet;
+
+/**
+ * Availability of the turbines of a windfarm and the wake losses between
+ * them. The outage state of each turbine is a bit in a BitSet; once per
+ * timeslot, each running turbine fails with the hourly failure rate and
+ * each failed turbine is repaired with the hourly repair rate, a two-state
+ * Markov chain per turbine. The number of failed turbines is kept with
+ * the bits, so the available fraction is read in constant time.
+ * <p>
+ * Wake losses depend on the wind direction. They are precomputed for
+ * 10 degree sectors as wakeLoss * cos^2 of the angle between the wind and
+ * the direction of the turbine rows: wind along the rows puts most
+ * turbines in the wake of others, wind across them none.
+ */
+public class AvailabilityModel
+{
+  private static final int SECTORS = 36;
+  private static final double SECTOR_WIDTH = 360.0 / SECTORS;
+
+  private final int numberOfTurbines;
+  private final double failureRate;
+  private final double repairRate;
+  private final ScenarioRandom rng;
+
+  private final BitSet failed;
+  private int failedCount = 0;
+
+  // fraction of the output kept, per wind direction sector
+  private final double[] wakeFactor = new double[SECTORS];
+
+  /**
+   * Creates a model with all turbines running.
+   *
+   * @param failureRate probability per hour that a running turbine fails
+   * @param repairRate probability per hour that a failed turbine is repaired
+   * @param wakeLoss fraction of output lost with wind along the rows
+   * @param rowDirection direction of the turbine rows in degrees
+   */
+  public AvailabilityModel (int numberOfTurbines, double failureRate,
+                            double repairRate, double wakeLoss,
+                            double rowDirection, long seed)
+  {
+    this.numberOfTurbines = numberOfTurbines;
+    this.failureRate = failureRate;
+    this.repairRate = repairRate;
+    this.rng = new ScenarioRandom(seed);
+    this.failed = new BitSet(numberOfTurbines);
+    for (int sector = 0; sector < SECTORS; sector++) {
+      double direction = (sector + 0.5) * SECTOR_WIDTH;
+      double cos = Math.cos(Math.toRadians(direction - rowDirection));
+      wakeFactor[sector] = 1.0 - wakeLoss * cos * cos;
+    }
+  }
+
+  /**
+   * Advances the outage states by one timeslot.
+   */
+  public void update ()
+  {
+    for (int i = 0; i < numberOfTurbines; i++) {
+      double u = rng.nextDouble();
+      if (failed.get(i)) {
+        if (u < repairRate) {
+          failed.clear(i);
+          failedCount--;
+        }
+      }
+      else if (u < failureRate) {
+        failed.set(i);
+        failedCount++;
+      }
+    }
+  }
+
+  public int getNumberOfTurbines ()
+  {
+    return numberOfTurbines;
+  }
+
+  public int getFailedCount ()
+  {
+    return failedCount;
+  }
+
+  public boolean isFailed (int turbine)
+  {
+    return failed.get(turbine);
+  }
+
+  /**
+   * Fraction of the turbines that are running.
+   */
+  public double getAvailableFraction ()
+  {
+    if (numberOfTurbines == 0) {
+      return 0.0;
+    }
+    return (double) (numberOfTurbines - failedCount) / numberOfTurbines;
+  }
+
+  /**
+   * Fraction of the output kept after wake losses, for the wind direction
+   * in degrees.
+   */
+  public double getWakeFactor (double direction)
+  {
+    double normalized = direction % 360.0;
+    if (normalized < 0) {
+      normalized += 360.0;
+    }
+    int sector = (int) (normalized / SECTOR_WIDTH);
+    return wakeFactor[Math.min(sector, SECTORS - 1)];
+  }
+
+  /**
+   * Writes the output factor of each forecast hour, availability times
+   * wake factor, into result, growing it if needed; returns result.
+   */
+  public double[] getOutputFactors (WeatherForecastCache.Entry forecast,
+                                    double[] result)
+  {
+    int horizon = forecast.getHorizon();
+    if (result == null || result.length < horizon) {
+      result = new double[horizon];
+    }
+    double available = getAvailableFraction();
+    for (int h = 0; h < horizon; h++) {
+      result[h] = available * getWakeFactor(forecast.windDirection[h]);
+    }
+    return result;
+  }
+
+} // class AvailabilityModel
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.powertac.common.Competition;
+import org.powertac.common.config.ConfigurableValue;
+
+/**
+ * Headless driver that runs the forecast-to-offer pipeline over many days
+ * of weather and prices without a server, for offline strategy sweeps.
+ * Each simulated day takes a 24-hour forecast issued at midnight, builds
+ * the power scenarios with the same kernels the genco uses, picks the offer
+ * per hour with the revenue-maximizing search and settles it against the
+ * actual wind speed and the day's prices.
+ * <p>
+ * The error scenarios and the genco holding the power curve are shared
+ * read-only by all workers; each worker owns its scenario matrices and
+ * reuses them for all days it simulates. Results are written as a
+ * {@link ColumnarFile} with the columns day, hour, offer, actual, mcp,
+ * cleared and revenue.
+ * <p>
+ * Usage:
+ * <pre>
+ *   BatchSimulation [-days n | -weather file] [-prices file] [-scenarios n]
+ *                   [-sampler name] [-seed n] [-threads n] [-out file]
+ *                   [-genco.name value ...]
+ * </pre>
+ * The weather file holds lines day,hour,forecastWindSpeed,temperature,
+ * actualWindSpeed; without it, synthetic weather is generated for -days
+ * days. Without -prices, a {@link SyntheticPriceModel} is used. Options
+ * -genco.name set the configured value name of the genco, as
+ * wpgenco.windfarmGenco.name does in the server configuration, for example
+ * -genco.hubHeight 100; lists are comma-separated.
+ */
+public class BatchSimulation
+{
+  private static final int HOURS = 24;
+
+  private final WindfarmGenco genco;
+  private final ScenarioMatrix errors;
+  private final PriceModel prices;
+
+  // weather, indexed by day * HOURS + hour
+  private int days;
+  private double[] forecastWindSpeed;
+  private double[] temperature;
+  private double[] actualWindSpeed;
+
+  // results, indexed by day * HOURS + hour
+  private int[] dayColumn;
+  private int[] hourColumn;
+  private double[] offerColumn;
+  private double[] actualColumn;
+  private double[] mcpColumn;
+  private int[] clearedColumn;
+  private double[] revenueColumn;
+
+  public BatchSimulation (WindfarmGenco genco, ScenarioMatrix errors,
+                          PriceModel prices)
+  {
+    this.genco = genco;
+    this.errors = errors;
+    this.prices = prices;
+  }
+
+  public int getDays ()
+  {
+    return days;
+  }
+
+  /**
+   * Generates weather for the given number of days. Each day has a mean
+   * wind speed drawn between 3 and 12 m/sec with a daily cycle; the actual
+   * wind speed deviates from the forecast by an AR(1) error.
+   */
+  public void generateWeather (int numberOfDays, long seed)
+  {
+    allocateWeather(numberOfDays);
+    ScenarioRandom root = new ScenarioRandom(seed);
+    for (int day = 0; day < numberOfDays; day++) {
+      ScenarioRandom rng = root.split(day);
+      double mean = 3.0 + 9.0 * rng.nextDouble();
+      double phase = HOURS * rng.nextDouble();
+      double error = 0.0;
+      for (int h = 0; h < HOURS; h++) {
+        int index = day * HOURS + h;
+        double forecast =
+          Math.max(0.0, mean + 2.5 * Math.sin(2 * Math.PI * (h + phase) / HOURS));
+        error = 0.9 * error + 0.5 * rng.nextGaussian();
+        forecastWindSpeed[index] = forecast;
+        temperature[index] = 10.0;
+        actualWindSpeed[index] = Math.max(0.0, forecast + error);
+      }
+    }
+  }
+
+  /**
+   * Reads weather from a CSV file with lines
+   * day,hour,forecastWindSpeed,temperature,actualWindSpeed.
+   */
+  public void readWeather (String filename) throws IOException
+  {
+    List<double[]> lines = new ArrayList<double[]>();
+    int maxDay = -1;
+    BufferedReader in = new BufferedReader(new FileReader(filename));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split(",");
+        double[] values = new double[5];
+        for (int i = 0; i < values.length; i++) {
+          values[i] = Double.parseDouble(fields[i].trim());
+        }
+        maxDay = Math.max(maxDay, (int) values[0]);
+        lines.add(values);
+      }
+    }
+    finally {
+      in.close();
+    }
+    allocateWeather(maxDay + 1);
+    for (double[] values: lines) {
+      int index = (int) values[0] * HOURS + (int) values[1];
+      forecastWindSpeed[index] = values[2];
+      temperature[index] = values[3];
+      actualWindSpeed[index] = values[4];
+    }
+  }
+
+  private void allocateWeather (int numberOfDays)
+  {
+    days = numberOfDays;
+    forecastWindSpeed = new double[days * HOURS];
+    temperature = new double[days * HOURS];
+    actualWindSpeed = new double[days * HOURS];
+  }
+
+  /**
+   * Simulates all days on the given number of threads and returns the
+   * results.
+   */
+  public ColumnarFile run (int threads) throws Exception
+  {
+    int rows = days * HOURS;
+    dayColumn = new int[rows];
+    hourColumn = new int[rows];
+    offerColumn = new double[rows];
+    actualColumn = new double[rows];
+    mcpColumn = new double[rows];
+    clearedColumn = new int[rows];
+    revenueColumn = new double[rows];
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> tasks = new ArrayList<Future<?>>();
+      int chunk = (days + threads - 1) / threads;
+      for (int start = 0; start < days; start += chunk) {
+        final int first = start;
+        final int last = Math.min(days, start + chunk);
+        tasks.add(pool.submit(new Runnable() {
+          @Override
+          public void run ()
+          {
+            simulateDays(first, last);
+          }
+        }));
+      }
+      for (Future<?> task: tasks) {
+        task.get();
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+
+    ColumnarFile result = new ColumnarFile(rows);
+    result.addColumn("day", dayColumn);
+    result.addColumn("hour", hourColumn);
+    result.addColumn("offer", offerColumn);
+    result.addColumn("actual", actualColumn);
+    result.addColumn("mcp", mcpColumn);
+    result.addColumn("cleared", clearedColumn);
+    result.addColumn("revenue", revenueColumn);
+    return result;
+  }
+
+  // Simulates days [first, last), reusing one set of matrices
+  private void simulateDays (int first, int last)
+  {
+    int numScenarios = errors.getNumberOfScenarios();
+    ScenarioMatrix windSpeeds =
+      ScenarioMatrix.create(numScenarios, HOURS, ScenarioStorage.HEAP);
+    ScenarioMatrix power =
+      ScenarioMatrix.create(numScenarios, HOURS, ScenarioStorage.HEAP);
+    double[] windSpeed = new double[HOURS];
+    double[] temp = new double[HOURS];
+    double[] pressure = new double[HOURS];
+    Arrays.fill(pressure, WeatherForecastCache.standardAirPressure);
+    AtmosphericProfile profile =
+      new AtmosphericProfile(genco.getAtmosphericProfile());
+    double[] price = new double[3];
+    double maxCapacity = genco.getCurrentCapacity();
+    double askPrice = genco.getAskPrice();
+
+    for (int day = first; day < last; day++) {
+      int base = day * HOURS;
+      System.arraycopy(forecastWindSpeed, base, windSpeed, 0, HOURS);
+      System.arraycopy(temperature, base, temp, 0, HOURS);
+      WeatherForecastCache.Entry forecast =
+        WeatherForecastCache.Entry.of(windSpeed, temp, pressure);
+      profile.update(forecast);
+      ForecastScenarios.calcWindSpeedScenarios(errors, profile, windSpeeds);
+      ForecastScenarios.calcPowerScenarios(genco, windSpeeds, profile, null,
+                                           power);
+
+      for (int h = 0; h < HOURS; h++) {
+        int index = base + h;
+        prices.getPrices(day, h, price);
+        double mcp = price[PriceModel.CLEARING];
+        double crd = price[PriceModel.REGULATION_DOWN];
+        double cru = price[PriceModel.REGULATION_UP];
+        double offer =
+          WindFarmOfferCalculator.findOfferCapacity(power, h, maxCapacity,
+                                                    mcp, crd, cru, 1);
+        // actual wind speed, extrapolated to hub height like the forecast
+        double hubSpeed =
+          profile.getWindSpeed(h, actualWindSpeed[index] - windSpeed[h]);
+        double actual =
+          genco.getEstimatedPowerOutput(hubSpeed, profile.getAirDensity(h));
+        boolean cleared = offer > 0.0 && mcp >= askPrice;
+        double sold = cleared? offer: 0.0;
+
+        dayColumn[index] = day;
+        hourColumn[index] = h;
+        offerColumn[index] = offer;
+        actualColumn[index] = actual;
+        mcpColumn[index] = mcp;
+        clearedColumn[index] = cleared? 1: 0;
+        revenueColumn[index] = sold * mcp
+          + WindFarmOfferCalculator
+                  .getImbalanceRevenue(Math.max(actual - sold, 0.0),
+                                       Math.max(sold - actual, 0.0), crd, cru);
+      }
+    }
+  }
+
+  /**
+   * Sets the configured value name of target from its string form.
+   */
+  static void configure (Object target, String name, String value)
+  {
+    Field field = null;
+    try {
+      field = target.getClass().getDeclaredField(name);
+    }
+    catch (NoSuchFieldException nsfe) {
+      // reported below
+    }
+    if (field == null || !field.isAnnotationPresent(ConfigurableValue.class)) {
+      throw new IllegalArgumentException(target.getClass().getSimpleName()
+                                         + " has no configured value "
+                                         + name);
+    }
+    Class<?> type = field.getType();
+    Object parsed;
+    if (type == int.class || type == Integer.class) {
+      parsed = Integer.parseInt(value);
+    }
+    else if (type == long.class || type == Long.class) {
+      parsed = Long.parseLong(value);
+    }
+    else if (type == double.class || type == Double.class) {
+      parsed = Double.parseDouble(value);
+    }
+    else if (type == boolean.class || type == Boolean.class) {
+      parsed = Boolean.parseBoolean(value);
+    }
+    else if (type == String.class) {
+      parsed = value;
+    }
+    else {
+      List<String> list = new ArrayList<String>();
+      for (String element: value.split(",")) {
+        if (element.trim().length() > 0) {
+          list.add(element.trim());
+        }
+      }
+      parsed = list;
+    }
+    try {
+      field.setAccessible(true);
+      field.set(target, parsed);
+    }
+    catch (IllegalAccessException iae) {
+      throw new IllegalStateException("cannot set " + name, iae);
+    }
+  }
+
+  public static void main (String[] args) throws Exception
+  {
+    int numberOfDays = 365;
+    String weatherFile = null;
+    String priceFile = null;
+    int numScenarios = 1000;
+    String sampler = "montecarlo";
+    long seed = 1234567L;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String outFile = "batch-simulation.wfc";
+    Competition.newInstance("batch");
+    WindfarmGenco genco = new WindfarmGenco("batch");
+    for (int i = 0; i < args.length - 1; i += 2) {
+      String value = args[i + 1];
+      if ("-days".equals(args[i])) {
+        numberOfDays = Integer.parseInt(value);
+      }
+      else if ("-weather".equals(args[i])) {
+        weatherFile = value;
+      }
+      else if ("-prices".equals(args[i])) {
+        priceFile = value;
+      }
+      else if ("-scenarios".equals(args[i])) {
+        numScenarios = Integer.parseInt(value);
+      }
+      else if ("-sampler".equals(args[i])) {
+        sampler = value;
+      }
+      else if ("-seed".equals(args[i])) {
+        seed = Long.parseLong(value);
+      }
+      else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(value);
+      }
+      else if ("-out".equals(args[i])) {
+        outFile = value;
+      }
+      else if (args[i].startsWith("-genco.")) {
+        try {
+          configure(genco, args[i].substring("-genco.".length()), value);
+        }
+        catch (IllegalArgumentException iae) {
+          System.out.println("Bad option " + args[i] + " " + value + ": "
+                             + iae.getMessage());
+          return;
+        }
+      }
+      else {
+        System.out.println("Unknown option " + args[i]);
+        return;
+      }
+    }
+
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    generator.setNumberOfScenarios(numScenarios);
+    generator.setSampler(sampler);
+    generator.setSeed(seed);
+    // init() applies the configured hub height, outages and storage and
+    // generates the error scenarios
+    genco.setErrorGenerator(generator);
+    genco.init(null);
+    ScenarioMatrix errors =
+      genco.getForecastScenarios().getBaseErrorScenarios();
+    PriceModel prices = (priceFile != null)
+            ? new RecordedPriceModel(priceFile)
+            : new SyntheticPriceModel(seed);
+
+    BatchSimulation simulation = new BatchSimulation(genco, errors, prices);
+    if (weatherFile != null) {
+      simulation.readWeather(weatherFile);
+    }
+    else {
+      simulation.generateWeather(numberOfDays, seed);
+    }
+
+    long start = System.nanoTime();
+    ColumnarFile result = simulation.run(threads);
+    long elapsed = System.nanoTime() - start;
+    result.write(outFile);
+
+    double total = 0.0;
+    for (double revenue: result.getDoubleColumn("revenue")) {
+      total += revenue;
+    }
+    System.out.println(String.format("%d days, %d scenarios, %d threads: "
+                                     + "%.1f days/sec, revenue %.2f",
+                                     simulation.getDays(), numScenarios,
+                                     threads, simulation.getDays() * 1e9 / elapsed,
+                                     total));
+  }
+
+} // class BatchSimulation
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal column-oriented table file. All values of a column are stored
+ * together, so analysis tools can read single columns without parsing
+ * whole rows. Layout (big-endian):
+ * <pre>
+ *   int magic 'WFC1', int rows, int columns,
+ *   per column: UTF name, byte type ('I' int, 'D' double), rows values
+ * </pre>
+ */
+public class ColumnarFile
+{
+  private static final int MAGIC = 0x57464331;
+
+  private final int rows;
+  private final List<String> names = new ArrayList<String>();
+  private final List<Object> columns = new ArrayList<Object>();
+
+  public ColumnarFile (int rows)
+  {
+    this.rows = rows;
+  }
+
+  public int getRows ()
+  {
+    return rows;
+  }
+
+  public List<String> getColumnNames ()
+  {
+    return names;
+  }
+
+  public void addColumn (String name, int[] values)
+  {
+    checkLength(values.length);
+    names.add(name);
+    columns.add(values);
+  }
+
+  public void addColumn (String name, double[] values)
+  {
+    checkLength(values.length);
+    names.add(name);
+    columns.add(values);
+  }
+
+  public int[] getIntColumn (String name)
+  {
+    return (int[]) columns.get(names.indexOf(name));
+  }
+
+  public double[] getDoubleColumn (String name)
+  {
+    return (double[]) columns.get(names.indexOf(name));
+  }
+
+  private void checkLength (int length)
+  {
+    if (length != rows) {
+      throw new IllegalArgumentException("column has " + length
+                                         + " values, expected " + rows);
+    }
+  }
+
+  public void write (String filename) throws IOException
+  {
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(
+              new FileOutputStream(filename), 1 << 16));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(rows);
+      out.writeInt(columns.size());
+      for (int c = 0; c < columns.size(); c++) {
+        out.writeUTF(names.get(c));
+        Object column = columns.get(c);
+        if (column instanceof int[]) {
+          out.writeByte('I');
+          for (int value: (int[]) column) {
+            out.writeInt(value);
+          }
+        }
+        else {
+          out.writeByte('D');
+          for (double value: (double[]) column) {
+            out.writeDouble(value);
+          }
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  public static ColumnarFile read (String filename) throws IOException
+  {
+    DataInputStream in =
+      new DataInputStream(new BufferedInputStream(
+              new FileInputStream(filename), 1 << 16));
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(filename + " is not a columnar file");
+      }
+      ColumnarFile result = new ColumnarFile(in.readInt());
+      int numColumns = in.readInt();
+      for (int c = 0; c < numColumns; c++) {
+        String name = in.readUTF();
+        if (in.readByte() == 'I') {
+          int[] values = new int[result.rows];
+          for (int r = 0; r < values.length; r++) {
+            values[r] = in.readInt();
+          }
+          result.addColumn(name, values);
+        }
+        else {
+          double[] values = new double[result.rows];
+          for (int r = 0; r < values.length; r++) {
+            values[r] = in.readDouble();
+          }
+          result.addColumn(name, values);
+        }
+      }
+      return result;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+} // class ColumnarFile
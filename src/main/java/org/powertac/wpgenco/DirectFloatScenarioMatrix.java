@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Float precision variant of {@link DirectScenarioMatrix}: probabilities
+ * and values are kept as floats in a direct buffer, and rounded when they
+ * are set. The native memory is freed by release().
+ */
+class DirectFloatScenarioMatrix extends ScenarioMatrix
+{
+  private ByteBuffer buffer;
+  private FloatBuffer data;
+
+  DirectFloatScenarioMatrix (int numberOfScenarios, int horizon)
+  {
+    super(numberOfScenarios, horizon);
+    buffer = ByteBuffer.allocateDirect((int) getStorageBytes());
+    buffer.order(ByteOrder.nativeOrder());
+    data = buffer.asFloatBuffer();
+    addOffHeapBytes(getStorageBytes());
+  }
+
+  @Override
+  public ScenarioStorage getStorage ()
+  {
+    return ScenarioStorage.DIRECT_FLOAT;
+  }
+
+  @Override
+  public double get (int scenario, int hourIndex)
+  {
+    return data.get(numberOfScenarios * (hourIndex + 1) + scenario);
+  }
+
+  @Override
+  public void set (int scenario, int hourIndex, double value)
+  {
+    data.put(numberOfScenarios * (hourIndex + 1) + scenario, (float) value);
+  }
+
+  @Override
+  public double getProbability (int scenario)
+  {
+    return data.get(scenario);
+  }
+
+  @Override
+  public void setProbability (int scenario, double prob)
+  {
+    data.put(scenario, (float) prob);
+  }
+
+  @Override
+  public synchronized void release ()
+  {
+    if (buffer == null) {
+      return;
+    }
+    ByteBuffer old = buffer;
+    buffer = null;
+    data = null;
+    addOffHeapBytes(-getStorageBytes());
+    DirectScenarioMatrix.freeDirectBuffer(old);
+  }
+
+} // class DirectFloatScenarioMatrix
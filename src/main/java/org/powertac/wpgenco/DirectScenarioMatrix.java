@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Scenario matrix backed by a direct buffer, so the scenario values never
+ * reach the Java heap and are not scanned or copied by the garbage
+ * collector. The first numberOfScenarios doubles hold the probabilities,
+ * followed by the values hour by hour.
+ * 
+ * The native memory is freed by release(). If a matrix is dropped without
+ * being released, the memory is only reclaimed once the garbage collector
+ * finds the buffer unreachable.
+ */
+class DirectScenarioMatrix extends ScenarioMatrix
+{
+  private static Logger log = Logger.getLogger(DirectScenarioMatrix.class);
+
+  private ByteBuffer buffer;
+  private DoubleBuffer data;
+
+  DirectScenarioMatrix (int numberOfScenarios, int horizon)
+  {
+    super(numberOfScenarios, horizon);
+    buffer = ByteBuffer.allocateDirect((int) getStorageBytes());
+    buffer.order(ByteOrder.nativeOrder());
+    data = buffer.asDoubleBuffer();
+    addOffHeapBytes(getStorageBytes());
+  }
+
+  @Override
+  public ScenarioStorage getStorage ()
+  {
+    return ScenarioStorage.DIRECT;
+  }
+
+  @Override
+  public double get (int scenario, int hourIndex)
+  {
+    return data.get(numberOfScenarios * (hourIndex + 1) + scenario);
+  }
+
+  @Override
+  public void set (int scenario, int hourIndex, double value)
+  {
+    data.put(numberOfScenarios * (hourIndex + 1) + scenario, value);
+  }
+
+  @Override
+  public double getProbability (int scenario)
+  {
+    return data.get(scenario);
+  }
+
+  @Override
+  public void setProbability (int scenario, double prob)
+  {
+    data.put(scenario, prob);
+  }
+
+  @Override
+  public synchronized void release ()
+  {
+    if (buffer == null) {
+      return;
+    }
+    ByteBuffer old = buffer;
+    buffer = null;
+    data = null;
+    addOffHeapBytes(-getStorageBytes());
+    freeDirectBuffer(old);
+  }
+
+  /**
+   * Frees the native memory of a direct buffer right away instead of
+   * waiting for the garbage collector. Uses Unsafe.invokeCleaner() where
+   * available (Java 9 and later), and the buffer's own cleaner before that.
+   */
+  static void freeDirectBuffer (ByteBuffer buf)
+  {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner =
+        unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner.invoke(theUnsafe.get(null), buf);
+      return;
+    }
+    catch (NoSuchMethodException nsme) {
+      // before Java 9 - use the cleaner below
+    }
+    catch (Exception ex) {
+      log.warn("cannot free direct buffer, leaving it to the GC", ex);
+      return;
+    }
+    try {
+      Method cleanerMethod = buf.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buf);
+      if (cleaner != null) {
+        Method clean = cleaner.getClass().getMethod("clean");
+        clean.setAccessible(true);
+        clean.invoke(cleaner);
+      }
+    }
+    catch (Exception ex) {
+      log.warn("cannot free direct buffer, leaving it to the GC", ex);
+    }
+  }
+
+} // class DirectScenarioMatrix
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Learns the wind speed forecast errors of the running game and keeps the
+ * error scenarios calibrated to them. Each weather report is compared with
+ * the forecasts made for its timeslot at every lead time; the errors go
+ * into a sliding window per lead hour with running sums, so recording an
+ * observation is cheap.
+ * <p>
+ * Every rebuildInterval reports, a recalibrated copy of the base error
+ * scenarios is built on a background thread: per lead hour, the scenario
+ * values are shifted and scaled to the mean and standard deviation of the
+ * observed errors, which keeps the correlation between lead hours of the
+ * base scenarios. The owner picks up the new matrix with takeRebuilt()
+ * at a point where it does not use the old one; nothing blocks the caller.
+ */
+public class ForecastErrorLearner
+{
+  private static Logger log = Logger.getLogger(ForecastErrorLearner.class);
+
+  // shared by all learners; rebuilds are short and rare
+  private static ExecutorService executor = null;
+
+  private final ScenarioMatrix base;
+  private final ScenarioStorage storage;
+  private final int horizon;
+  private final int minSamples;
+  private final int rebuildInterval;
+
+  // per lead hour mean and std deviation of the base scenarios
+  private final double[] baseMean;
+  private final double[] baseStdDev;
+
+  // forecasts that still have unobserved lead hours, by timeslot serial
+  private final WeatherForecastCache.Entry[] forecasts;
+
+  // sliding windows of observed errors per lead hour
+  private final double[][] errors;
+  private final int[] errorCount;
+  private final int[] errorNext;
+  private final double[] errorSum;
+  private final double[] errorSumSq;
+
+  private int reportsSinceRebuild = 0;
+  private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+  private final AtomicReference<ScenarioMatrix> rebuilt =
+    new AtomicReference<ScenarioMatrix>();
+  private boolean released = false;
+
+  /**
+   * Creates a learner for the given base error scenarios. Observed errors
+   * are kept for window reports per lead hour; a lead hour is recalibrated
+   * once it has minSamples errors.
+   */
+  public ForecastErrorLearner (ScenarioMatrix base, ScenarioStorage storage,
+                               int window, int minSamples,
+                               int rebuildInterval)
+  {
+    this.base = base;
+    this.storage = storage;
+    this.horizon = base.getHorizon();
+    this.minSamples = minSamples;
+    this.rebuildInterval = rebuildInterval;
+    forecasts = new WeatherForecastCache.Entry[horizon + 1];
+    errors = new double[horizon][window];
+    errorCount = new int[horizon];
+    errorNext = new int[horizon];
+    errorSum = new double[horizon];
+    errorSumSq = new double[horizon];
+
+    baseMean = new double[horizon];
+    baseStdDev = new double[horizon];
+    int numScenarios = base.getNumberOfScenarios();
+    for (int h = 0; h < horizon; h++) {
+      double mean = 0.0;
+      double sq = 0.0;
+      for (int s = 0; s < numScenarios; s++) {
+        double p = base.getProbability(s);
+        double e = base.get(s, h);
+        mean += p * e;
+        sq += p * e * e;
+      }
+      baseMean[h] = mean;
+      baseStdDev[h] = Math.sqrt(Math.max(0.0, sq - mean * mean));
+    }
+  }
+
+  /**
+   * Remembers a forecast, so its errors can be computed as the weather
+   * reports for its timeslots come in.
+   */
+  public void recordForecast (WeatherForecastCache.Entry forecast)
+  {
+    int serial = forecast.getTimeslotSerial();
+    if (serial < 0) {
+      return;
+    }
+    forecasts[serial % forecasts.length] = forecast;
+  }
+
+  /**
+   * Records the wind speed observed in the given timeslot against all
+   * remembered forecasts for it, and starts a rebuild when due.
+   */
+  public void recordObservation (int timeslotSerial, double windSpeed)
+  {
+    for (WeatherForecastCache.Entry forecast: forecasts) {
+      if (forecast == null) {
+        continue;
+      }
+      // prediction i of a forecast is for the (i + 1)-th following timeslot
+      int lead = timeslotSerial - forecast.getTimeslotSerial() - 1;
+      if (lead >= 0 && lead < horizon && lead < forecast.getHorizon()) {
+        addError(lead, windSpeed - forecast.windSpeed[lead]);
+      }
+    }
+    if (++reportsSinceRebuild >= rebuildInterval) {
+      startRebuild();
+    }
+  }
+
+  private void addError (int lead, double error)
+  {
+    double[] window = errors[lead];
+    int next = errorNext[lead];
+    if (errorCount[lead] == window.length) {
+      double old = window[next];
+      errorSum[lead] -= old;
+      errorSumSq[lead] -= old * old;
+    }
+    else {
+      errorCount[lead]++;
+    }
+    window[next] = error;
+    errorSum[lead] += error;
+    errorSumSq[lead] += error * error;
+    errorNext[lead] = (next + 1) % window.length;
+  }
+
+  /**
+   * Number of observed errors in the window of a lead hour.
+   */
+  public int getErrorCount (int lead)
+  {
+    return errorCount[lead];
+  }
+
+  public double getErrorMean (int lead)
+  {
+    return (errorCount[lead] == 0)? 0.0: errorSum[lead] / errorCount[lead];
+  }
+
+  public double getErrorStdDev (int lead)
+  {
+    int n = errorCount[lead];
+    if (n < 2) {
+      return 0.0;
+    }
+    double mean = errorSum[lead] / n;
+    return Math.sqrt(Math.max(0.0, (errorSumSq[lead] - n * mean * mean)
+                                   / (n - 1)));
+  }
+
+  private void startRebuild ()
+  {
+    if (!rebuilding.compareAndSet(false, true)) {
+      // previous rebuild still running; try again with the next report
+      return;
+    }
+    reportsSinceRebuild = 0;
+    // the statistics are copied here, the task does not read the windows
+    final double[] shift = new double[horizon];
+    final double[] scale = new double[horizon];
+    int calibrated = 0;
+    for (int h = 0; h < horizon; h++) {
+      if (errorCount[h] >= minSamples && baseStdDev[h] > 0.0) {
+        scale[h] = getErrorStdDev(h) / baseStdDev[h];
+        shift[h] = getErrorMean(h) - baseMean[h] * scale[h];
+        calibrated++;
+      }
+      else {
+        scale[h] = 1.0;
+        shift[h] = 0.0;
+      }
+    }
+    if (calibrated == 0) {
+      rebuilding.set(false);
+      return;
+    }
+    getExecutor().execute(new Runnable() {
+      @Override
+      public void run ()
+      {
+        try {
+          publish(rebuild(shift, scale));
+        }
+        catch (RuntimeException e) {
+          log.error("error scenario rebuild failed", e);
+        }
+        finally {
+          rebuilding.set(false);
+        }
+      }
+    });
+  }
+
+  private ScenarioMatrix rebuild (double[] shift, double[] scale)
+  {
+    int numScenarios = base.getNumberOfScenarios();
+    ScenarioMatrix result =
+      ScenarioMatrix.create(numScenarios, horizon, storage);
+    for (int s = 0; s < numScenarios; s++) {
+      result.setProbability(s, base.getProbability(s));
+    }
+    for (int h = 0; h < horizon; h++) {
+      for (int s = 0; s < numScenarios; s++) {
+        result.set(s, h, shift[h] + scale[h] * base.get(s, h));
+      }
+    }
+    return result;
+  }
+
+  private synchronized void publish (ScenarioMatrix matrix)
+  {
+    if (released) {
+      matrix.release();
+      return;
+    }
+    ScenarioMatrix old = rebuilt.getAndSet(matrix);
+    if (old != null) {
+      // never picked up
+      old.release();
+    }
+    log.debug("error scenarios recalibrated");
+  }
+
+  /**
+   * Returns the latest rebuilt error scenarios, or null if there is no
+   * new rebuild since the last call. The caller owns the result.
+   */
+  public ScenarioMatrix takeRebuilt ()
+  {
+    return rebuilt.getAndSet(null);
+  }
+
+  /**
+   * Frees a rebuilt matrix that was not picked up, and any that is still
+   * being built.
+   */
+  public synchronized void release ()
+  {
+    released = true;
+    ScenarioMatrix matrix = rebuilt.getAndSet(null);
+    if (matrix != null) {
+      matrix.release();
+    }
+  }
+
+  private static synchronized ExecutorService getExecutor ()
+  {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable r)
+        {
+          Thread thread = new Thread(r, "forecast-error-learner");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+
+  /**
+   * Writes the error windows to a checkpoint, see {@link GencoCheckpoint}.
+   * The forecasts still waiting for observations are not written.
+   */
+  void writeState (DataOutputStream out) throws IOException
+  {
+    out.writeInt(horizon);
+    for (int h = 0; h < horizon; h++) {
+      GencoCheckpoint.writeDoubles(out, errors[h]);
+    }
+    GencoCheckpoint.writeInts(out, errorCount);
+    GencoCheckpoint.writeInts(out, errorNext);
+    GencoCheckpoint.writeDoubles(out, errorSum);
+    GencoCheckpoint.writeDoubles(out, errorSumSq);
+    out.writeInt(reportsSinceRebuild);
+  }
+
+  /**
+   * Restores the error windows written by writeState() by a learner with
+   * the same horizon and window, and starts recalibrating the scenarios
+   * to them.
+   */
+  void readState (ByteBuffer in)
+  {
+    if (in.getInt() != horizon) {
+      throw new IllegalStateException("error learner horizon changed");
+    }
+    for (int h = 0; h < horizon; h++) {
+      GencoCheckpoint.readDoubles(in, errors[h]);
+    }
+    GencoCheckpoint.readInts(in, errorCount);
+    GencoCheckpoint.readInts(in, errorNext);
+    GencoCheckpoint.readDoubles(in, errorSum);
+    GencoCheckpoint.readDoubles(in, errorSumSq);
+    reportsSinceRebuild = in.getInt();
+    startRebuild();
+  }
+
+} // class ForecastErrorLearner
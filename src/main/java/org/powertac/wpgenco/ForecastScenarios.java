@@ -16,15 +16,15 @@
 package org.powertac.wpgenco;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
-//import org.apache.log4j.Logger;
+import org.apache.log4j.Logger;
+import org.powertac.common.WeatherReport;
 import org.powertac.common.config.ConfigurableInstance;
 import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.state.Domain;
-import org.powertac.wpgenco.Scenario.ScenarioValue;
 
 /**
  * This class represents forecast scenarios for wind speed forecast errors,
@@ -38,7 +38,7 @@ import org.powertac.wpgenco.Scenario.ScenarioValue;
 public class ForecastScenarios
 {
 
-  //private static Logger log = Logger.getLogger(ForecastScenarios.class);
+  private static Logger log = Logger.getLogger(ForecastScenarios.class);
 
   /*
    * Condifured attributes
@@ -48,78 +48,550 @@ public class ForecastScenarios
 
   // member variables
   private final WindfarmGenco windfarmGenco;
-  private WindForecastErrorScenarios windspeedErrorScenarios = null;
-  private final List<Scenario> windSpeedForecastScenarios =
-    new ArrayList<Scenario>();
-  private final List<Scenario> windFarmPowerOutputScenarios =
-    new ArrayList<Scenario>();
+  private final ScenarioStorage storage;
+  // error scenarios as loaded, and as recalibrated by the learner
+  private ScenarioMatrix baseErrorScenarios = null;
+  private ScenarioMatrix windspeedErrorScenarios = null;
+  // recalibrated error scenarios replaced by newer ones, released after
+  // the next power output has been published
+  private ScenarioMatrix retiredErrorScenarios = null;
+  private ForecastErrorLearner errorLearner = null;
+  private ScenarioMatrix windSpeedForecastScenarios = null;
+  // power output is built into the buffers in turn and then published
+  private final PowerBuffer[] powerBuffers =
+    {new PowerBuffer(), new PowerBuffer()};
+  private int nextBuffer = 0;
+  private final AtomicReference<PowerOutputSnapshot> powerOutput =
+    new AtomicReference<PowerOutputSnapshot>();
+  // with a scenario tree, wind speed and power are computed per node of
+  // the tree of the current error scenarios, and the power scenario
+  // matrix is only filled from the nodes when it is asked for
+  private final double treeTolerance;
+  private ScenarioTree errorTree = null;
+  private ScenarioMatrix errorTreeSource = null;
+  private int treeHorizon = 0;
+  private double[] nodeWindSpeed = new double[0];
+
+  // storage of one published power output snapshot. A snapshot may hold
+  // on to any matrix of its buffer, so matrices of a shape no longer
+  // needed are kept as spares instead of being released, and reused when
+  // the shape comes back; they are only released by release()
+  private static final class PowerBuffer
+  {
+    ScenarioMatrix power = null;
+    final List<ScenarioMatrix> spares = new ArrayList<ScenarioMatrix>();
+    final ScenarioQuantiles quantiles = new ScenarioQuantiles();
+    double[] nodePower = new double[0];
+    // changed before the buffer is written, see PowerOutputSnapshot
+    final AtomicInteger version = new AtomicInteger();
+  }
 
   public ForecastScenarios (final WindfarmGenco ref)
+  {
+    this(ref, null);
+  }
+
+  /**
+   * Creates the scenarios of a genco from the given error scenarios, as
+   * restored from a checkpoint, or from loaded ones if null. The error
+   * scenarios are then owned by this instance.
+   */
+  ForecastScenarios (final WindfarmGenco ref, ScenarioMatrix errorScenarios)
   {
     this.windfarmGenco = ref;
-    windspeedErrorScenarios = WindForecastErrorScenarios.getWindForecastErrorScenarios();
+    this.storage = ref.getScenarioStorage();
+    this.treeTolerance = ref.getScenarioTreeTolerance();
+    if (errorScenarios != null) {
+      baseErrorScenarios = errorScenarios;
+    }
+    else {
+      baseErrorScenarios = loadErrorScenarios();
+    }
+    windspeedErrorScenarios = baseErrorScenarios;
+    if (ref.getErrorLearningWindow() > 0) {
+      errorLearner =
+        new ForecastErrorLearner(baseErrorScenarios, storage,
+                                 ref.getErrorLearningWindow(),
+                                 ref.getErrorLearningMinSamples(),
+                                 ref.getErrorRebuildInterval());
+    }
+  }
+
+  /**
+   * Records the wind speed of a weather report for error learning.
+   */
+  public void observeWeather (WeatherReport report)
+  {
+    if (errorLearner != null && report.getCurrentTimeslot() != null) {
+      errorLearner.recordObservation(report.getCurrentTimeslot()
+              .getSerialNumber(), report.getWindSpeed());
+    }
+  }
+
+  public ForecastErrorLearner getErrorLearner ()
+  {
+    return errorLearner;
+  }
+
+  /**
+   * The error scenarios as loaded, before any recalibration.
+   */
+  ScenarioMatrix getBaseErrorScenarios ()
+  {
+    return baseErrorScenarios;
+  }
+
+  // switches to recalibrated error scenarios, if the learner has new ones
+  private void updateErrorScenarios ()
+  {
+    if (errorLearner == null) {
+      return;
+    }
+    ScenarioMatrix rebuilt = errorLearner.takeRebuilt();
+    if (rebuilt != null) {
+      if (windspeedErrorScenarios != baseErrorScenarios) {
+        releaseRetiredErrorScenarios();
+        retiredErrorScenarios = windspeedErrorScenarios;
+      }
+      windspeedErrorScenarios = rebuilt;
+    }
+  }
+
+  private void releaseRetiredErrorScenarios ()
+  {
+    if (retiredErrorScenarios != null) {
+      retiredErrorScenarios.release();
+      retiredErrorScenarios = null;
+    }
+  }
+
+  /**
+   * Reads the error scenarios from the scenario file, or generates them
+   * if the genco's error scenario source is "generator" or no file is
+   * configured. Either way the scenarios cover the horizon of the genco.
+   */
+  private ScenarioMatrix loadErrorScenarios ()
+  {
+    final int horizon = windfarmGenco.getHorizon();
+    final String errorScenarioSource = windfarmGenco.getErrorScenarioSource();
+    if (!"generator".equals(errorScenarioSource)
+        && !WindForecastErrorScenarios.isDataFileConfigured()) {
+      log.warn("no error scenario file configured, generating scenarios");
+    }
+    if ("generator".equals(errorScenarioSource)
+        || !WindForecastErrorScenarios.isDataFileConfigured()) {
+      return windfarmGenco.getErrorGenerator().generate(storage, horizon);
+    }
+    return ScenarioMatrix.fromScenarios(WindForecastErrorScenarios
+            .getWindForecastErrorScenarios().getScenarios(), horizon, storage);
+  }
+
+  /**
+   * Describes the error scenarios loadErrorScenarios() creates for a
+   * genco: the scenario file, or the settings of its generator.
+   */
+  static String describeErrorScenarios (WindfarmGenco ref)
+  {
+    if ("generator".equals(ref.getErrorScenarioSource())
+        || !WindForecastErrorScenarios.isDataFileConfigured()) {
+      return "generator of " + ref.getErrorGenerator().describe();
+    }
+    return "file " + WindForecastErrorScenarios.getDataFile();
+  }
+
+  /**
+   * Returns matrix if it has the required shape, otherwise releases it
+   * and returns a new one. Only for matrices that are never published.
+   */
+  private ScenarioMatrix reuse (ScenarioMatrix matrix, int numScenarios,
+                                int horizon)
+  {
+    if (matrix != null && matrix.hasShape(numScenarios, horizon)) {
+      return matrix;
+    }
+    if (matrix != null) {
+      matrix.release();
+    }
+    return ScenarioMatrix.create(numScenarios, horizon, storage);
+  }
+
+  /**
+   * Sets the power matrix of buffer to one of the required shape: the
+   * current one, a spare of that shape, or a new one. A matrix of another
+   * shape becomes a spare, since an old snapshot may still refer to it.
+   */
+  private void reuse (PowerBuffer buffer, int numScenarios, int horizon)
+  {
+    if (buffer.power != null && buffer.power.hasShape(numScenarios, horizon)) {
+      return;
+    }
+    ScenarioMatrix result = null;
+    for (int i = 0; i < buffer.spares.size(); i++) {
+      if (buffer.spares.get(i).hasShape(numScenarios, horizon)) {
+        result = buffer.spares.remove(i);
+        break;
+      }
+    }
+    if (buffer.power != null) {
+      buffer.spares.add(buffer.power);
+    }
+    if (result == null) {
+      result = ScenarioMatrix.create(numScenarios, horizon, storage);
+    }
+    buffer.power = result;
+  }
+
+  /**
+   * Frees the storage of all scenario matrices. Must be called when the
+   * owning genco is discarded if off-heap storage is used.
+   */
+  public void release ()
+  {
+    if (errorLearner != null) {
+      errorLearner.release();
+    }
+    if (windspeedErrorScenarios != null
+        && windspeedErrorScenarios != baseErrorScenarios) {
+      windspeedErrorScenarios.release();
+    }
+    windspeedErrorScenarios = null;
+    releaseRetiredErrorScenarios();
+    errorTree = null;
+    errorTreeSource = null;
+    if (baseErrorScenarios != null) {
+      baseErrorScenarios.release();
+      baseErrorScenarios = null;
+    }
+    if (windSpeedForecastScenarios != null) {
+      windSpeedForecastScenarios.release();
+      windSpeedForecastScenarios = null;
+    }
+    powerOutput.set(null);
+    for (PowerBuffer buffer: powerBuffers) {
+      buffer.version.incrementAndGet();
+      if (buffer.power != null) {
+        buffer.power.release();
+        buffer.power = null;
+      }
+      for (ScenarioMatrix spare: buffer.spares) {
+        spare.release();
+      }
+      buffer.spares.clear();
+    }
   }
 
+  /**
+   * Bytes held by the scenario matrices of this instance.
+   */
+  public long getStorageBytes ()
+  {
+    long result = 0;
+    if (baseErrorScenarios != null) {
+      result += baseErrorScenarios.getStorageBytes();
+    }
+    if (windspeedErrorScenarios != null
+        && windspeedErrorScenarios != baseErrorScenarios) {
+      result += windspeedErrorScenarios.getStorageBytes();
+    }
+    if (retiredErrorScenarios != null) {
+      result += retiredErrorScenarios.getStorageBytes();
+    }
+    if (windSpeedForecastScenarios != null) {
+      result += windSpeedForecastScenarios.getStorageBytes();
+    }
+    for (PowerBuffer buffer: powerBuffers) {
+      if (buffer.power != null) {
+        result += buffer.power.getStorageBytes();
+      }
+      for (ScenarioMatrix spare: buffer.spares) {
+        result += spare.getStorageBytes();
+      }
+    }
+    return result;
+  }
 
   /**
    * calculate wind speed forecast scenarios
    */
   public void calcWindSpeedForecastScenarios ()
   {
-    windSpeedForecastScenarios.clear();
-    final List<Double> windSpeedForecastValues =
-      windfarmGenco.getWindForecast().getWindSpeeds();
-    for (final Scenario errorScenario : windspeedErrorScenarios.getScenarios()) {
-      int scenarioNumber = errorScenario.getScenarioNumber();
-      final double probability = errorScenario.getProbability();
-      Scenario windSpeedScenario = new Scenario(scenarioNumber, probability);
-      final Set<ScenarioValue> errorValues = errorScenario.getValues();
-      for (ScenarioValue ev : errorValues) {
-        final int    leadHour = ev.getHour();
-        final double errval = ev.getValue();
-        final double windforecast = windSpeedForecastValues.get(leadHour - 1);
-        final double windSpeed = windforecast + errval;
-        windSpeedScenario.addValue(new ScenarioValue(leadHour, windSpeed));       
-      }
-      windSpeedScenario.createValueList();
-      windSpeedForecastScenarios.add(windSpeedScenario);
-    } // for each error scenario
+    final WeatherForecastCache.Entry forecast =
+      windfarmGenco.getWindForecast().getForecast();
+    updateErrorScenarios();
+    if (errorLearner != null) {
+      errorLearner.recordForecast(forecast);
+    }
+    final int numScenarios = windspeedErrorScenarios.getNumberOfScenarios();
+    final int horizon = Math.min(windspeedErrorScenarios.getHorizon(),
+                                 forecast.getHorizon());
+    AtmosphericProfile profile = windfarmGenco.getAtmosphericProfile();
+    profile.update(forecast);
+    if (treeTolerance > 0) {
+      updateErrorTree();
+      treeHorizon = horizon;
+      calcNodeWindSpeeds(errorTree, treeHorizon, profile, nodeWindSpeed);
+      return;
+    }
+    windSpeedForecastScenarios =
+      reuse(windSpeedForecastScenarios, numScenarios, horizon);
+    calcWindSpeedScenarios(windspeedErrorScenarios, profile,
+                           windSpeedForecastScenarios);
   } // calcWindSpeedForecastScenarios()
 
   /**
-   * Calculate Wind Power output scenarios.
+   * Calculate Wind Power output scenarios into the next buffer and
+   * publish them as the current power output snapshot.
    */
   public void calcPowerOutputScenarios ()
   {
-    windFarmPowerOutputScenarios.clear();
-    final List<Double> powerOutputs = new ArrayList<Double>();
-    final List<Double> airPressures =
-      windfarmGenco.getWindForecast().getAirPressure();
-    final List<Double> temperatures =
-      windfarmGenco.getWindForecast().getTemperature();
-    for (final Scenario windSpForecastScenario: windSpeedForecastScenarios) {
-      final double probability = windSpForecastScenario.getProbability();
-      final int scenarioNumber = windSpForecastScenario.getScenarioNumber();
-      powerOutputs.clear();
-      final Set<ScenarioValue> windSpeeds = windSpForecastScenario.getValues();
-      Scenario powerOutputScenario = new Scenario(scenarioNumber, probability);
-      for (ScenarioValue wsp : windSpeeds) {
-        int hour = wsp.getHour();
-        double windSpeed = wsp.getValue();
-        double airpressure = airPressures.get(hour - 1);
-        double temperature = temperatures.get(hour - 1);
-        double airdensity = WindfarmGenco.getDryAirDensity(airpressure, temperature);
-        double powerout = windfarmGenco.getEstimatedPowerOutput(windSpeed, airdensity);
-        powerOutputScenario.addValue(new ScenarioValue(hour, powerout));
-      } //for each wind speed scenario value
-      powerOutputScenario.createValueList();
-      windFarmPowerOutputScenarios.add(powerOutputScenario);
-    } // for each wind speed scenario
-  }
-
-  public List<Scenario> getWindPowerOutputScenarios ()
-  {
-    return Collections.unmodifiableList(windFarmPowerOutputScenarios);
+    final PowerBuffer buffer = powerBuffers[nextBuffer];
+    nextBuffer = 1 - nextBuffer;
+    // invalidates the snapshot published from this buffer two calls ago
+    buffer.version.incrementAndGet();
+    final List<TurbineCluster> clusters = windfarmGenco.getClusters();
+    ScenarioMatrix paths = null;
+    if (treeTolerance > 0) {
+      if (buffer.nodePower.length < errorTree.getNodeCount()) {
+        buffer.nodePower = new double[errorTree.getNodeCount()];
+      }
+      calcNodePowers(windfarmGenco, errorTree, treeHorizon, nodeWindSpeed,
+                     windfarmGenco.getAtmosphericProfile(),
+                     windfarmGenco.getOutputFactors(), buffer.nodePower);
+      for (int c = 0; c < clusters.size(); c++) {
+        addClusterNodePower(clusters.get(c), errorTree, treeHorizon,
+                            buffer.nodePower);
+      }
+      buffer.quantiles.update(errorTree, treeHorizon, buffer.nodePower);
+      if (windfarmGenco.needsScenarioPaths()) {
+        final int numScenarios = errorTree.getNumberOfScenarios();
+        reuse(buffer, numScenarios, treeHorizon);
+        for (int s = 0; s < numScenarios; s++) {
+          buffer.power.setProbability(s, windspeedErrorScenarios
+                  .getProbability(s));
+        }
+        errorTree.expand(buffer.nodePower, buffer.power);
+        paths = buffer.power;
+      }
+    }
+    else {
+      final int numScenarios =
+        windSpeedForecastScenarios.getNumberOfScenarios();
+      final int horizon = windSpeedForecastScenarios.getHorizon();
+      reuse(buffer, numScenarios, horizon);
+      calcPowerScenarios(windfarmGenco, windSpeedForecastScenarios,
+                         windfarmGenco.getAtmosphericProfile(),
+                         windfarmGenco.getOutputFactors(), buffer.power);
+      for (int c = 0; c < clusters.size(); c++) {
+        addClusterPower(clusters.get(c), windspeedErrorScenarios,
+                        buffer.power);
+      }
+      buffer.quantiles.update(buffer.power);
+      paths = buffer.power;
+    }
+    int serial = windfarmGenco.getWindForecast().getForecast()
+            .getTimeslotSerial();
+    powerOutput.set(new PowerOutputSnapshot(serial, paths, buffer.quantiles,
+                                            (treeTolerance > 0)? errorTree
+                                                               : null,
+                                            buffer.nodePower,
+                                            buffer.version));
+    // nothing published refers to error scenarios replaced before this
+    releaseRetiredErrorScenarios();
+  }
+
+  /**
+   * Power output scenarios of the last calcPowerOutputScenarios() call,
+   * or null before the first one. Safe to call from any thread.
+   */
+  public PowerOutputSnapshot getPowerOutput ()
+  {
+    return powerOutput.get();
+  }
+
+  // builds the tree of the error scenarios when they have changed
+  private void updateErrorTree ()
+  {
+    if (errorTreeSource == windspeedErrorScenarios) {
+      return;
+    }
+    errorTree = ScenarioTree.build(windspeedErrorScenarios, treeTolerance);
+    errorTreeSource = windspeedErrorScenarios;
+    if (nodeWindSpeed.length < errorTree.getNodeCount()) {
+      nodeWindSpeed = new double[errorTree.getNodeCount()];
+    }
+    log.info("scenario tree: " + errorTree.getNodeCount() + " nodes for "
+             + errorTree.getNumberOfScenarios() + " scenarios x "
+             + errorTree.getHorizon() + " hours");
+  }
+
+  /**
+   * Scenario tree of the current error scenarios, or null if scenarios
+   * are kept as full paths.
+   */
+  public ScenarioTree getErrorTree ()
+  {
+    return errorTree;
+  }
+
+  /**
+   * Sorted per-hour distribution of the power output scenarios, updated
+   * by calcPowerOutputScenarios().
+   */
+  public ScenarioQuantiles getWindPowerOutputQuantiles ()
+  {
+    PowerOutputSnapshot current = powerOutput.get();
+    return (current == null)? null: current.getQuantiles();
+  }
+
+  /**
+   * Adds the power output of a turbine cluster to result. The wind speed
+   * scenarios of the cluster are the genco's forecast, translated to the
+   * cluster's hub height, plus the same errors as for the genco's own
+   * turbines, so errors are fully correlated across clusters. Hours beyond
+   * the forecast do not contribute.
+   */
+  static void addClusterPower (TurbineCluster cluster, ScenarioMatrix errors,
+                               ScenarioMatrix result)
+  {
+    final AtmosphericProfile profile = cluster.getAtmosphericProfile();
+    profile.update(cluster.getWindForecast().getForecast());
+    final int numScenarios = result.getNumberOfScenarios();
+    final int horizon = Math.min(result.getHorizon(), profile.getHorizon());
+    for (int h = 0; h < horizon; h++) {
+      final double offset = profile.windOffset[h];
+      final double scale = profile.windScale[h];
+      final double airdensity = profile.airDensity[h];
+      for (int s = 0; s < numScenarios; s++) {
+        double windSpeed = offset + scale * errors.get(s, h);
+        double power = cluster.getEstimatedPowerOutput(windSpeed, airdensity);
+        result.set(s, h, result.get(s, h) + power);
+      }
+    }
+  }
+
+
+  /**
+   * Computes hub height wind speeds, forecast plus error scaled by the
+   * shear factor, for the forecast of profile. result must have the number
+   * of scenarios of errors and at most the horizon of errors and profile.
+   */
+  static void calcWindSpeedScenarios (ScenarioMatrix errors,
+                                      AtmosphericProfile profile,
+                                      ScenarioMatrix result)
+  {
+    final int numScenarios = result.getNumberOfScenarios();
+    final int horizon = result.getHorizon();
+    for (int s = 0; s < numScenarios; s++) {
+      result.setProbability(s, errors.getProbability(s));
+    }
+    for (int h = 0; h < horizon; h++) {
+      final double offset = profile.windOffset[h];
+      final double scale = profile.windScale[h];
+      for (int s = 0; s < numScenarios; s++) {
+        result.set(s, h, offset + scale * errors.get(s, h));
+      }
+    }
+  }
+
+
+  /**
+   * Converts wind speed scenarios to power output scenarios with the power
+   * curve of genco and the air density of each hour from profile, scaled
+   * by the per-hour outputFactors for outages and wake losses (null for
+   * none). result must have the shape of windSpeeds.
+   */
+  static void calcPowerScenarios (WindfarmGenco genco,
+                                  ScenarioMatrix windSpeeds,
+                                  AtmosphericProfile profile,
+                                  double[] outputFactors,
+                                  ScenarioMatrix result)
+  {
+    final int numScenarios = result.getNumberOfScenarios();
+    final int horizon = result.getHorizon();
+    for (int s = 0; s < numScenarios; s++) {
+      result.setProbability(s, windSpeeds.getProbability(s));
+    }
+    for (int h = 0; h < horizon; h++) {
+      final double airdensity = profile.airDensity[h];
+      final double factor = outputFactors == null ? 1.0 : outputFactors[h];
+      for (int s = 0; s < numScenarios; s++) {
+        double windSpeed = windSpeeds.get(s, h);
+        double powerout = genco.getEstimatedPowerOutput(windSpeed, airdensity);
+        result.set(s, h, factor * powerout);
+      } // for each scenario
+    } // for each lead hour
+  }
+
+
+  /**
+   * Wind speeds at hub height per node of the tree of the error
+   * scenarios, for the first horizon lead hours.
+   */
+  static void calcNodeWindSpeeds (ScenarioTree tree, int horizon,
+                                  AtmosphericProfile profile,
+                                  double[] result)
+  {
+    for (int h = 0; h < horizon; h++) {
+      final double offset = profile.windOffset[h];
+      final double scale = profile.windScale[h];
+      final int end = tree.getFirstNode(h + 1);
+      for (int n = tree.getFirstNode(h); n < end; n++) {
+        result[n] = offset + scale * tree.getValue(n);
+      }
+    }
+  }
+
+  /**
+   * Power output per node from the node wind speeds, as
+   * calcPowerScenarios() does per scenario.
+   */
+  static void calcNodePowers (WindfarmGenco genco, ScenarioTree tree,
+                              int horizon, double[] windSpeeds,
+                              AtmosphericProfile profile,
+                              double[] outputFactors, double[] result)
+  {
+    for (int h = 0; h < horizon; h++) {
+      final double airdensity = profile.airDensity[h];
+      final double factor = outputFactors == null ? 1.0 : outputFactors[h];
+      final int end = tree.getFirstNode(h + 1);
+      for (int n = tree.getFirstNode(h); n < end; n++) {
+        result[n] = factor * genco.getEstimatedPowerOutput(windSpeeds[n],
+                                                           airdensity);
+      }
+    }
+  }
+
+  /**
+   * Adds the power output of a turbine cluster per node, as
+   * addClusterPower() does per scenario.
+   */
+  static void addClusterNodePower (TurbineCluster cluster, ScenarioTree tree,
+                                   int horizon, double[] result)
+  {
+    final AtmosphericProfile profile = cluster.getAtmosphericProfile();
+    profile.update(cluster.getWindForecast().getForecast());
+    final int hours = Math.min(horizon, profile.getHorizon());
+    for (int h = 0; h < hours; h++) {
+      final double offset = profile.windOffset[h];
+      final double scale = profile.windScale[h];
+      final double airdensity = profile.airDensity[h];
+      final int end = tree.getFirstNode(h + 1);
+      for (int n = tree.getFirstNode(h); n < end; n++) {
+        double windSpeed = offset + scale * tree.getValue(n);
+        result[n] += cluster.getEstimatedPowerOutput(windSpeed, airdensity);
+      }
+    }
+  }
+
+  /**
+   * Power output scenarios of the last calcPowerOutputScenarios() call,
+   * see getPowerOutput(). With a scenario tree, they are only filled in if
+   * the genco's offer optimizer needs them, and are null otherwise.
+   */
+  public ScenarioMatrix getWindPowerOutputScenarios ()
+  {
+    PowerOutputSnapshot current = powerOutput.get();
+    return (current == null)? null: current.getScenarios();
   }
 
 }
@@ -0,0 +1,470 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Instant;
+import org.powertac.common.ClearedTrade;
+import org.powertac.common.Competition;
+import org.powertac.common.TimeService;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.repo.TimeslotRepo;
+import org.powertac.common.repo.WeatherForecastRepo;
+
+/**
+ * Drives a {@link SimpleGencoService} from a recorded Power TAC state log,
+ * without a server. Weather forecasts, the timeslot sequence and cleared
+ * trades are read from the log; each recorded forecast starts one
+ * activation, with the cleared trades logged before it delivered to the
+ * gencos first. Repos and the broker proxy are local stand-ins.
+ * 
+ * At the end, throughput in timeslots/sec and latency percentiles for
+ * activate() and for each stage of WindfarmGenco.generateOrders() are
+ * printed. Usage:
+ * <pre>
+ *   GameLogReplay state-log [gencos [repeat [sequential|actors|workers
+ *                 [threads or processes]]]]
+ * </pre>
+ * In worker mode, the gencos run in worker processes, so the stage
+ * latencies, which are measured in this process, are not available.
+ * 
+ * The following state log records are used, all others are skipped:
+ * <pre>
+ *   msec:org.powertac.common.Timeslot::id::new::serial::start::...
+ *   msec:org.powertac.common.WeatherForecastPrediction::id::new::forecastTime::temperature::windSpeed::windDirection::cloudCover
+ *   msec:org.powertac.common.WeatherForecast::id::new::timeslot::(predictionId, ...)
+ *   msec:org.powertac.common.ClearedTrade::id::new::timeslot::mwh::price::...
+ * </pre>
+ * Timeslot references are ids, translated through the Timeslot records;
+ * values that match no Timeslot record are taken as serial numbers.
+ */
+public class GameLogReplay
+{
+  private static Logger log = Logger.getLogger(GameLogReplay.class);
+
+  private static final String COMMON = "org.powertac.common.";
+
+  // recorded events, in log order
+  private static class ForecastEvent
+  {
+    final int timeslot;
+    final List<WeatherForecastPrediction> predictions;
+
+    ForecastEvent (int timeslot, List<WeatherForecastPrediction> predictions)
+    {
+      this.timeslot = timeslot;
+      this.predictions = predictions;
+    }
+  }
+
+  private static class TradeEvent
+  {
+    final int timeslot;
+    final double mwh;
+    final double price;
+
+    TradeEvent (int timeslot, double mwh, double price)
+    {
+      this.timeslot = timeslot;
+      this.mwh = mwh;
+      this.price = price;
+    }
+  }
+
+  /**
+   * Timeslot repo with a precomputed window of open timeslots.
+   */
+  static class ReplayTimeslotRepo extends TimeslotRepo
+  {
+    private final long base;
+    private final int openSlots;
+    private final List<Timeslot> slots = new ArrayList<Timeslot>();
+    private int current = 0;
+    private List<Timeslot> enabled = new ArrayList<Timeslot>();
+
+    ReplayTimeslotRepo (long base, int openSlots)
+    {
+      super();
+      this.base = base;
+      this.openSlots = openSlots;
+    }
+
+    Timeslot slot (int serial)
+    {
+      while (slots.size() <= serial) {
+        slots.add(super.makeTimeslot(new Instant(base + slots.size()
+                                                 * TimeService.HOUR)));
+      }
+      return slots.get(serial);
+    }
+
+    void setCurrent (int serial)
+    {
+      current = serial;
+      slot(serial + openSlots);
+      enabled = slots.subList(serial + 1, serial + 1 + openSlots);
+    }
+
+    @Override
+    public Timeslot currentTimeslot ()
+    {
+      return slot(current);
+    }
+
+    @Override
+    public List<Timeslot> enabledTimeslots ()
+    {
+      return enabled;
+    }
+
+    @Override
+    public Timeslot findBySerialNumber (int serial)
+    {
+      return slot(serial);
+    }
+
+    @Override
+    public Timeslot findByInstant (Instant time)
+    {
+      long serial = (time.getMillis() - base) / TimeService.HOUR;
+      if (serial < 0 || serial >= slots.size()) {
+        return null;
+      }
+      return slots.get((int) serial);
+    }
+  }
+
+  /**
+   * Weather forecast repo holding just the current forecast.
+   */
+  static class ReplayWeatherForecastRepo extends WeatherForecastRepo
+  {
+    private WeatherForecast current = null;
+
+    @Override
+    public WeatherForecast currentWeatherForecast ()
+    {
+      return current;
+    }
+
+    void setCurrent (WeatherForecast forecast)
+    {
+      current = forecast;
+    }
+  }
+
+  /**
+   * Time service following the replayed timeslot.
+   */
+  static class ReplayTimeService extends TimeService
+  {
+    private Instant now = new Instant(0);
+
+    @Override
+    public Instant getCurrentTime ()
+    {
+      return now;
+    }
+
+    void setNow (Instant now)
+    {
+      this.now = now;
+    }
+  }
+
+  private final List<Object> events = new ArrayList<Object>();
+  private final Map<Long, Integer> timeslotSerials =
+    new HashMap<Long, Integer>();
+  private final Map<Long, WeatherForecastPrediction> predictions =
+    new HashMap<Long, WeatherForecastPrediction>();
+  private long base = -1;
+  private final AtomicLong orderCount = new AtomicLong(0);
+
+  /**
+   * Reads the events used for the replay from a state log.
+   */
+  public void readStateLog (String filename) throws IOException
+  {
+    BufferedReader in = new BufferedReader(new FileReader(filename));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        try {
+          parseLine(line);
+        }
+        catch (RuntimeException re) {
+          log.warn("skipping bad record: " + line);
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+    log.info("read " + events.size() + " events from " + filename);
+  }
+
+  private void parseLine (String line)
+  {
+    String[] fields = line.split("::");
+    if (fields.length < 4 || !"new".equals(fields[2])) {
+      return;
+    }
+    int colon = fields[0].indexOf(':');
+    String type = fields[0].substring(colon + 1);
+    if (!type.startsWith(COMMON)) {
+      return;
+    }
+    type = type.substring(COMMON.length());
+    long id = Long.parseLong(fields[1]);
+    if ("Timeslot".equals(type)) {
+      int serial = Integer.parseInt(fields[3]);
+      timeslotSerials.put(id, serial);
+      if (base < 0 && fields.length > 4) {
+        base = parseInstant(fields[4]) - serial * TimeService.HOUR;
+      }
+    }
+    else if ("WeatherForecastPrediction".equals(type)) {
+      predictions.put(id, new WeatherForecastPrediction(
+              Integer.parseInt(fields[3]), Double.parseDouble(fields[4]),
+              Double.parseDouble(fields[5]), Double.parseDouble(fields[6]),
+              Double.parseDouble(fields[7])));
+    }
+    else if ("WeatherForecast".equals(type)) {
+      List<WeatherForecastPrediction> list =
+        new ArrayList<WeatherForecastPrediction>();
+      for (String ref: fields[4].replaceAll("[\\[\\]() ]", "").split(",")) {
+        WeatherForecastPrediction wp = predictions.get(Long.valueOf(ref));
+        if (wp != null) {
+          list.add(wp);
+        }
+      }
+      events.add(new ForecastEvent(timeslot(fields[3]), list));
+    }
+    else if ("ClearedTrade".equals(type)) {
+      events.add(new TradeEvent(timeslot(fields[3]),
+                                Double.parseDouble(fields[4]),
+                                Double.parseDouble(fields[5])));
+    }
+  }
+
+  private int timeslot (String ref)
+  {
+    long value = Long.parseLong(ref);
+    Integer serial = timeslotSerials.get(value);
+    return (serial == null)? (int) value: serial;
+  }
+
+  private static long parseInstant (String value)
+  {
+    try {
+      return Long.parseLong(value);
+    }
+    catch (NumberFormatException nfe) {
+      return new Instant(value).getMillis();
+    }
+  }
+
+  /**
+   * Replays the recorded events repeat times with the given number of
+   * gencos and prints the statistics.
+   */
+  public void replay (int numGencos, int repeat)
+  {
+    replay(numGencos, repeat, "sequential");
+  }
+
+  /**
+   * Replays as above, with the given execution mode of the genco service.
+   */
+  public void replay (int numGencos, int repeat, String executionMode)
+  {
+    replay(numGencos, repeat, executionMode, 0);
+  }
+
+  /**
+   * Replays as above, with the given number of actor threads or worker
+   * processes, 0 for one per processor.
+   */
+  public void replay (int numGencos, int repeat, String executionMode,
+                      int parallelism)
+  {
+    int openSlots = 24;
+    Competition competition = Competition.currentCompetition();
+    if (competition != null) {
+      openSlots = competition.getTimeslotsOpen();
+    }
+    ReplayTimeslotRepo timeslotRepo =
+      new ReplayTimeslotRepo(Math.max(0, base), openSlots);
+    ReplayWeatherForecastRepo weatherRepo = new ReplayWeatherForecastRepo();
+    ReplayTimeService timeService = new ReplayTimeService();
+    BrokerProxy proxy = countingProxy();
+
+    List<WindfarmGenco> gencos = new ArrayList<WindfarmGenco>();
+    for (int i = 0; i < numGencos; i++) {
+      WindfarmGenco genco = new WindfarmGenco("replay-" + i);
+      if ("workers".equals(executionMode)) {
+        genco.initRemote(proxy, null);
+      }
+      else {
+        genco.init(proxy, timeslotRepo, weatherRepo);
+      }
+      gencos.add(genco);
+    }
+    SimpleGencoService service = new SimpleGencoService();
+    service.setExecutionMode(executionMode, parallelism);
+    service.init(gencos);
+    service.setServices(timeService, timeslotRepo, weatherRepo);
+
+    int activations = 0;
+    for (Object event: events) {
+      if (event instanceof ForecastEvent) {
+        activations++;
+      }
+    }
+    activations *= repeat;
+    long[] activateNanos = new long[activations];
+    long[][] stageNanos =
+      new long[WindfarmGenco.STAGE_NAMES.length][activations];
+
+    int n = 0;
+    long start = System.nanoTime();
+    for (int r = 0; r < repeat; r++) {
+      for (Object event: events) {
+        if (event instanceof TradeEvent) {
+          TradeEvent te = (TradeEvent) event;
+          ClearedTrade trade =
+            new ClearedTrade(timeslotRepo.slot(te.timeslot), te.mwh,
+                             te.price, timeService.getCurrentTime());
+          for (WindfarmGenco genco: gencos) {
+            genco.receiveMessage(trade);
+          }
+          continue;
+        }
+        ForecastEvent fe = (ForecastEvent) event;
+        Timeslot current = timeslotRepo.slot(fe.timeslot);
+        timeslotRepo.setCurrent(fe.timeslot);
+        timeService.setNow(current.getStartInstant());
+        weatherRepo.setCurrent(new WeatherForecast(current, fe.predictions));
+
+        long t0 = System.nanoTime();
+        service.activate(timeService.getCurrentTime(), 1);
+        activateNanos[n] = System.nanoTime() - t0;
+        for (int stage = 0; stage < stageNanos.length; stage++) {
+          long sum = 0;
+          for (WindfarmGenco genco: gencos) {
+            sum += genco.getStageNanos(stage);
+          }
+          stageNanos[stage][n] = sum;
+        }
+        n++;
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    service.stop();
+
+    System.out.println(String.format("%d gencos, %d timeslots in %.2f s: "
+                                     + "%.1f timeslots/sec, %d orders",
+                                     numGencos, n, seconds, n / seconds,
+                                     orderCount.get()));
+    System.out.println("phase          p50[ms]   p90[ms]   p99[ms]   max[ms]");
+    printPercentiles("activate", activateNanos, n);
+    for (int stage = 0; stage < stageNanos.length; stage++) {
+      printPercentiles(WindfarmGenco.STAGE_NAMES[stage], stageNanos[stage], n);
+    }
+  }
+
+  private static void printPercentiles (String name, long[] samples, int n)
+  {
+    if (n == 0) {
+      return;
+    }
+    long[] sorted = Arrays.copyOf(samples, n);
+    Arrays.sort(sorted);
+    System.out.println(String.format("%-12s %9.3f %9.3f %9.3f %9.3f", name,
+                                     percentile(sorted, 0.5) / 1e6,
+                                     percentile(sorted, 0.9) / 1e6,
+                                     percentile(sorted, 0.99) / 1e6,
+                                     sorted[n - 1] / 1e6));
+  }
+
+  static long percentile (long[] sorted, double q)
+  {
+    int index = (int) Math.ceil(q * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  // broker proxy that only counts the orders routed through it
+  private BrokerProxy countingProxy ()
+  {
+    return (BrokerProxy) Proxy
+            .newProxyInstance(BrokerProxy.class.getClassLoader(),
+                              new Class<?>[] {BrokerProxy.class},
+                              new InvocationHandler() {
+      @Override
+      public Object invoke (Object proxy, Method method, Object[] args)
+      {
+        if ("routeMessage".equals(method.getName())) {
+          orderCount.incrementAndGet();
+        }
+        else if ("hashCode".equals(method.getName())) {
+          return System.identityHashCode(proxy);
+        }
+        else if ("equals".equals(method.getName())) {
+          return proxy == args[0];
+        }
+        else if ("toString".equals(method.getName())) {
+          return "replay broker proxy";
+        }
+        return null;
+      }
+    });
+  }
+
+  public static void main (String[] args) throws IOException
+  {
+    if (args.length < 1) {
+      System.out.println("Usage: GameLogReplay state-log [gencos [repeat"
+                         + " [sequential|actors|workers"
+                         + " [threads or processes]]]]");
+      return;
+    }
+    int gencos = (args.length > 1)? Integer.parseInt(args[1]): 1;
+    int repeat = (args.length > 2)? Integer.parseInt(args[2]): 1;
+    String mode = (args.length > 3)? args[3]: "sequential";
+    int parallelism = (args.length > 4)? Integer.parseInt(args[4]): 0;
+    Competition.newInstance("replay");
+    GameLogReplay replay = new GameLogReplay();
+    replay.readStateLog(args[0]);
+    replay.replay(gencos, repeat, mode, parallelism);
+  }
+
+} // class GameLogReplay
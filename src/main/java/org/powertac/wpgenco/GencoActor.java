@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Instant;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherReport;
+
+/**
+ * Runs one {@link WindfarmGenco} as an actor: everything the genco does
+ * is an event in its mailbox, and the events of one genco are processed
+ * one at a time, in order, by whichever thread of a shared executor
+ * picks the actor up. Actors hold no thread of their own, so thousands of
+ * gencos share a pool of about one thread per processor.
+ * <p>
+ * Messages from the market - cleared trades, orderbooks and balancing
+ * transactions - are only queued when they arrive. They are processed at
+ * the start of the next activation, while the server waits for the
+ * gencos, so a genco never runs at the same time as the server reads or
+ * updates its market positions.
+ */
+class GencoActor implements Runnable
+{
+  private static Logger log = Logger.getLogger(GencoActor.class);
+
+  private final WindfarmGenco genco;
+  private final Executor executor;
+  private final Queue<Runnable> mailbox =
+    new ConcurrentLinkedQueue<Runnable>();
+  // true while the actor is queued in or running on the executor
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+  // activations queued, counted by the activating thread, and the number
+  // of the last one processed
+  private int activations = 0;
+  private volatile int completed = 0;
+
+  GencoActor (WindfarmGenco genco, Executor executor)
+  {
+    this.genco = genco;
+    this.executor = executor;
+  }
+
+  WindfarmGenco getGenco ()
+  {
+    return genco;
+  }
+
+  /**
+   * Queues a market message for the next activation.
+   */
+  void deliver (final Object message)
+  {
+    mailbox.add(new Runnable() {
+      @Override
+      public void run ()
+      {
+        genco.handleMessage(message);
+      }
+    });
+  }
+
+  /**
+   * Queues a weather report and an activation, and runs the mailbox. The
+   * latch is counted down once the activation has been processed, also
+   * if the genco fails.
+   */
+  void activate (final Instant when, final List<Timeslot> openSlots,
+                 final WeatherReport report, final CountDownLatch done)
+  {
+    final int number = ++activations;
+    mailbox.add(new Runnable() {
+      @Override
+      public void run ()
+      {
+        try {
+          // orders of an activation that ended too late are never routed
+          genco.takePendingQuantities();
+          if (report != null) {
+            genco.observeWeather(report);
+          }
+          genco.updateModel(when);
+          genco.generateOrders(when, openSlots);
+        }
+        finally {
+          completed = number;
+          done.countDown();
+        }
+      }
+    });
+    schedule();
+  }
+
+  /**
+   * True if the last activation has been processed; must be called by the
+   * thread that activates the actor. Once it returns true, the genco's
+   * orders of that activation may be routed.
+   */
+  boolean isDone ()
+  {
+    return completed == activations;
+  }
+
+  private void schedule ()
+  {
+    if (scheduled.compareAndSet(false, true)) {
+      executor.execute(this);
+    }
+  }
+
+  @Override
+  public void run ()
+  {
+    try {
+      Runnable event;
+      while ((event = mailbox.poll()) != null) {
+        try {
+          event.run();
+        }
+        catch (RuntimeException ex) {
+          log.error(genco.getUsername() + ": event failed", ex);
+        }
+      }
+    }
+    finally {
+      // also after an Error, so that the actor is run again
+      scheduled.set(false);
+      // an activation queued after the last poll must not be left behind
+      if (!mailbox.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+
+} // class GencoActor
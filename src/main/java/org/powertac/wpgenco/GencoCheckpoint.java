@@ -0,0 +1,604 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Instant;
+
+/**
+ * Checkpoint of the state a windfarm genco builds up while it runs, for a
+ * warm start after a restart: the loaded error scenarios, the learned
+ * forecast errors, the price history and price forecaster, the imbalance
+ * statistics, and the last snapshot with its offers.
+ * <p>
+ * Gencos write a checkpoint every checkpointInterval timeslots. The error
+ * scenarios do not change while a genco runs, so they are written to a
+ * file of their own the first time only, under a stamp the checkpoints
+ * refer to. The state
+ * is copied into a byte array on the genco's own thread, and written to
+ * the file by a background thread, so an activation only pays for the
+ * copy. A file is written under a temporary name and renamed when
+ * complete, so a reader never sees a partial checkpoint. On startup the
+ * file is memory mapped and the state read back directly from the
+ * mapping, instead of loading the scenario file and waiting for the
+ * histories to fill up again. Layout (big-endian):
+ * <pre>
+ *   checkpoint: int magic 'WGC1', int version, UTF genco, long time,
+ *     int horizon, UTF fingerprint, long scenarios stamp (0 for none),
+ *     sections: byte tag, int length, length bytes; a 0 tag ends the file
+ *   error scenarios: int magic, int version, UTF genco, long stamp,
+ *     int scenarios, int hours, probabilities, values by scenario
+ * </pre>
+ * Arrays are written as their length followed by the values. The
+ * fingerprint holds the settings the scenarios and learned errors depend
+ * on, see WindfarmGenco.getConfigFingerprint(). A checkpoint taken with
+ * other settings, or whose state does not fit the genco's configuration,
+ * for example after its window sizes changed, makes the genco start cold.
+ */
+final class GencoCheckpoint
+{
+  private static Logger log = Logger.getLogger(GencoCheckpoint.class);
+
+  static final int MAGIC = 0x57474331; // "WGC1"
+  static final int VERSION = 3;
+
+  // section tags
+  static final byte END = 0;
+  static final byte ERROR_SCENARIOS = 'S';
+  static final byte ERROR_LEARNER = 'L';
+  static final byte PRICE_INDEX = 'P';
+  static final byte PRICE_FORECASTER = 'F';
+  static final byte IMBALANCE = 'I';
+  static final byte SNAPSHOT = 'O';
+
+  // shared by all gencos; writes are short and rare
+  private static ExecutorService executor = null;
+
+  private final String genco;
+  private final long time;
+  private final int horizon;
+  private final String fingerprint;
+  private final long errorScenariosStamp;
+  private final Map<Byte, ByteBuffer> sections;
+
+  private GencoCheckpoint (String genco, long time, int horizon,
+                           String fingerprint, long errorScenariosStamp,
+                           Map<Byte, ByteBuffer> sections)
+  {
+    this.genco = genco;
+    this.time = time;
+    this.horizon = horizon;
+    this.fingerprint = fingerprint;
+    this.errorScenariosStamp = errorScenariosStamp;
+    this.sections = sections;
+  }
+
+  String getGenco ()
+  {
+    return genco;
+  }
+
+  /**
+   * Time of the activation the checkpoint was taken in.
+   */
+  long getTime ()
+  {
+    return time;
+  }
+
+  int getHorizon ()
+  {
+    return horizon;
+  }
+
+  /**
+   * The configuration the checkpoint was taken with.
+   */
+  String getFingerprint ()
+  {
+    return fingerprint;
+  }
+
+  /**
+   * Stamp of the error scenarios file the checkpoint refers to, or 0 if
+   * it has no error scenarios.
+   */
+  long getErrorScenariosStamp ()
+  {
+    return errorScenariosStamp;
+  }
+
+  /**
+   * The contents of a section, or null if the checkpoint does not have
+   * it.
+   */
+  ByteBuffer getSection (byte tag)
+  {
+    ByteBuffer section = sections.get(tag);
+    return (section == null)? null: section.duplicate();
+  }
+
+  /**
+   * Copies the state of a genco into a checkpoint, taken at the given
+   * time. Must be called by the thread that runs the genco.
+   */
+  static byte[] capture (WindfarmGenco genco, long time) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(genco.getUsername());
+    out.writeLong(time);
+    out.writeInt(genco.getHorizon());
+    out.writeUTF(genco.getConfigFingerprint());
+    out.writeLong(genco.getErrorScenariosStamp());
+
+    ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream(1 << 16);
+    DataOutputStream section = new DataOutputStream(sectionBytes);
+    ForecastScenarios scenarios = genco.getForecastScenarios();
+    // the learned errors only fit the error scenarios they were learned on
+    if (scenarios != null && scenarios.getErrorLearner() != null
+        && genco.getErrorScenariosStamp() != 0L) {
+      scenarios.getErrorLearner().writeState(section);
+      endSection(out, ERROR_LEARNER, sectionBytes);
+    }
+    if (genco.getPriceIndex() != null) {
+      genco.getPriceIndex().writeState(section);
+      endSection(out, PRICE_INDEX, sectionBytes);
+    }
+    if (genco.getPriceForecaster() != null) {
+      genco.getPriceForecaster().writeState(section);
+      endSection(out, PRICE_FORECASTER, sectionBytes);
+    }
+    if (genco.getImbalanceTracker() != null) {
+      genco.getImbalanceTracker().writeState(section);
+      endSection(out, IMBALANCE, sectionBytes);
+    }
+    if (genco.getSnapshot() != null) {
+      writeSnapshot(section, genco.getSnapshot());
+      endSection(out, SNAPSHOT, sectionBytes);
+    }
+    out.writeByte(END);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Copies the error scenarios of a genco into the contents of its error
+   * scenarios file, under the given stamp.
+   */
+  static byte[] captureErrorScenarios (WindfarmGenco genco, long stamp,
+                                       ScenarioMatrix errorScenarios)
+    throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(genco.getUsername());
+    out.writeLong(stamp);
+    writeMatrix(out, errorScenarios);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void endSection (DataOutputStream out, byte tag,
+                                  ByteArrayOutputStream section)
+    throws IOException
+  {
+    out.writeByte(tag);
+    out.writeInt(section.size());
+    section.writeTo(out);
+    section.reset();
+  }
+
+  /**
+   * Writes a captured checkpoint or error scenarios to the file in the
+   * background. pending, if not null, is cleared once the file is
+   * written. Files are written in the order they are passed in.
+   */
+  static void writeAsync (final byte[] data, final File file,
+                          final AtomicBoolean pending)
+  {
+    getExecutor().execute(new Runnable() {
+      @Override
+      public void run ()
+      {
+        try {
+          write(data, file);
+        }
+        catch (IOException ioe) {
+          log.error("cannot write checkpoint " + file, ioe);
+        }
+        finally {
+          if (pending != null) {
+            pending.set(false);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes a captured checkpoint to a temporary file, and renames it to
+   * the given one once it is on disk.
+   */
+  static void write (byte[] data, File file) throws IOException
+  {
+    File dir = file.getAbsoluteFile().getParentFile();
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("cannot create " + dir);
+    }
+    File temp = new File(file.getPath() + ".tmp");
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      out.write(data);
+      out.getFD().sync();
+    }
+    finally {
+      out.close();
+    }
+    if (!temp.renameTo(file)) {
+      // not atomic on all platforms if the target exists
+      file.delete();
+      if (!temp.renameTo(file)) {
+        throw new IOException("cannot rename " + temp + " to " + file);
+      }
+    }
+  }
+
+  /**
+   * Maps a checkpoint file and reads its header and section table, or
+   * returns null if there is no such file.
+   */
+  static GencoCheckpoint open (File file) throws IOException
+  {
+    if (!file.isFile()) {
+      return null;
+    }
+    ByteBuffer buffer = map(file);
+    try {
+      String genco = readUTF(buffer);
+      long time = buffer.getLong();
+      int horizon = buffer.getInt();
+      String fingerprint = readUTF(buffer);
+      long errorScenariosStamp = buffer.getLong();
+      Map<Byte, ByteBuffer> sections = new HashMap<Byte, ByteBuffer>();
+      byte tag;
+      while ((tag = buffer.get()) != END) {
+        int length = buffer.getInt();
+        ByteBuffer section = buffer.slice();
+        section.limit(length);
+        sections.put(tag, section);
+        buffer.position(buffer.position() + length);
+      }
+      return new GencoCheckpoint(genco, time, horizon, fingerprint,
+                                 errorScenariosStamp, sections);
+    }
+    catch (RuntimeException re) {
+      throw new IOException(file + " is truncated", re);
+    }
+  }
+
+  /**
+   * Maps the error scenarios file the checkpoint refers to, for
+   * readErrorScenarios(). Throws an IOException if it is missing or has
+   * another stamp, since the learned errors do not fit other scenarios.
+   */
+  void openErrorScenarios (File file) throws IOException
+  {
+    if (errorScenariosStamp == 0L) {
+      return;
+    }
+    if (!file.isFile()) {
+      throw new IOException("no error scenarios " + file);
+    }
+    ByteBuffer buffer = map(file);
+    try {
+      if (!genco.equals(readUTF(buffer))
+          || buffer.getLong() != errorScenariosStamp) {
+        throw new IOException(file + " does not belong to the checkpoint");
+      }
+      sections.put(ERROR_SCENARIOS, buffer.slice());
+    }
+    catch (RuntimeException re) {
+      throw new IOException(file + " is truncated", re);
+    }
+  }
+
+  // maps a file written by this class, positioned after the version
+  private static ByteBuffer map (File file) throws IOException
+  {
+    ByteBuffer buffer;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                                    raf.length());
+    }
+    finally {
+      // the mapping stays valid
+      raf.close();
+    }
+    if (buffer.remaining() < 8 || buffer.getInt() != MAGIC
+        || buffer.getInt() != VERSION) {
+      throw new IOException(file + " is not a genco checkpoint");
+    }
+    return buffer;
+  }
+
+  /**
+   * The error scenarios of the checkpoint, in a new matrix with the given
+   * storage, or null if there are none.
+   */
+  ScenarioMatrix readErrorScenarios (ScenarioStorage storage)
+  {
+    ByteBuffer in = getSection(ERROR_SCENARIOS);
+    if (in == null) {
+      return null;
+    }
+    int scenarios = in.getInt();
+    int hours = in.getInt();
+    ScenarioMatrix result = ScenarioMatrix.create(scenarios, hours, storage);
+    DoubleBuffer values = in.asDoubleBuffer();
+    for (int s = 0; s < scenarios; s++) {
+      result.setProbability(s, values.get());
+    }
+    double[] row = new double[hours];
+    for (int s = 0; s < scenarios; s++) {
+      values.get(row);
+      for (int h = 0; h < hours; h++) {
+        result.set(s, h, row[h]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Restores the learned state of a genco, whose error scenarios were
+   * created from this checkpoint. Throws a RuntimeException if a section
+   * does not fit the genco; the genco must then start cold.
+   */
+  void restore (WindfarmGenco target)
+  {
+    ByteBuffer in = getSection(ERROR_LEARNER);
+    ForecastErrorLearner learner =
+      target.getForecastScenarios().getErrorLearner();
+    if (in != null && learner != null) {
+      learner.readState(in);
+    }
+    in = getSection(PRICE_INDEX);
+    if (in != null) {
+      target.getPriceIndex().readState(in);
+    }
+    in = getSection(PRICE_FORECASTER);
+    if (in != null) {
+      target.getPriceForecaster().readState(in,
+                                            target.getCurrentSerial());
+    }
+    in = getSection(IMBALANCE);
+    if (in != null) {
+      target.getImbalanceTracker().readState(in);
+    }
+    in = getSection(SNAPSHOT);
+    if (in != null) {
+      target.restoreSnapshot(readSnapshot(in, genco));
+    }
+  }
+
+  private static void writeMatrix (DataOutputStream out, ScenarioMatrix matrix)
+    throws IOException
+  {
+    int scenarios = matrix.getNumberOfScenarios();
+    int hours = matrix.getHorizon();
+    out.writeInt(scenarios);
+    out.writeInt(hours);
+    for (int s = 0; s < scenarios; s++) {
+      out.writeDouble(matrix.getProbability(s));
+    }
+    for (int s = 0; s < scenarios; s++) {
+      for (int h = 0; h < hours; h++) {
+        out.writeDouble(matrix.get(s, h));
+      }
+    }
+  }
+
+  private static void writeSnapshot (DataOutputStream out,
+                                     GencoSnapshot snapshot)
+    throws IOException
+  {
+    int hours = snapshot.getHorizon();
+    double[][] power = new double[5][hours];
+    for (int h = 0; h < hours; h++) {
+      power[0][h] = snapshot.getPowerMean(h);
+      power[1][h] = snapshot.getPowerStdDev(h);
+      power[2][h] = snapshot.getPowerP10(h);
+      power[3][h] = snapshot.getPowerP50(h);
+      power[4][h] = snapshot.getPowerP90(h);
+    }
+    int offers = snapshot.getOfferCount();
+    int[] timeslots = new int[offers];
+    double[] quantities = new double[offers];
+    for (int i = 0; i < offers; i++) {
+      timeslots[i] = snapshot.getOfferTimeslot(i);
+      quantities[i] = snapshot.getOfferQuantity(i);
+    }
+    long[] stageNanos = new long[WindfarmGenco.STAGE_NAMES.length];
+    for (int stage = 0; stage < stageNanos.length; stage++) {
+      stageNanos[stage] = snapshot.getStageNanos(stage);
+    }
+    WeatherForecastCache.Entry forecast = snapshot.getForecast();
+    out.writeLong(snapshot.getTime().getMillis());
+    writeDoubles(out, forecast.windSpeed);
+    writeDoubles(out, forecast.temperature);
+    writeDoubles(out, forecast.airPressure);
+    for (double[] values: power) {
+      writeDoubles(out, values);
+    }
+    writeInts(out, timeslots);
+    writeDoubles(out, quantities);
+    out.writeDouble(snapshot.getAskPrice());
+    writeLongs(out, stageNanos);
+  }
+
+  // wind directions of the forecast are not kept
+  private static GencoSnapshot readSnapshot (ByteBuffer in, String genco)
+  {
+    Instant time = new Instant(in.getLong());
+    double[] windSpeed = readDoubleArray(in);
+    double[] temperature = readDoubleArray(in);
+    double[] airPressure = readDoubleArray(in);
+    double[][] power = new double[5][];
+    for (int i = 0; i < power.length; i++) {
+      power[i] = readDoubleArray(in);
+    }
+    int[] timeslots = new int[in.getInt()];
+    for (int i = 0; i < timeslots.length; i++) {
+      timeslots[i] = in.getInt();
+    }
+    double[] quantities = readDoubleArray(in);
+    double askPrice = in.getDouble();
+    long[] stageNanos = new long[WindfarmGenco.STAGE_NAMES.length];
+    readLongs(in, stageNanos);
+    return new GencoSnapshot(genco, time,
+                             WeatherForecastCache.Entry.of(windSpeed,
+                                                           temperature,
+                                                           airPressure),
+                             power[0], power[1], power[2], power[3],
+                             power[4], timeslots, quantities, askPrice,
+                             stageNanos);
+  }
+
+  private static String readUTF (ByteBuffer in) throws IOException
+  {
+    // as written by DataOutputStream.writeUTF()
+    int length = in.getShort() & 0xffff;
+    byte[] bytes = new byte[length + 2];
+    bytes[0] = (byte) (length >> 8);
+    bytes[1] = (byte) length;
+    in.get(bytes, 2, length);
+    return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+  }
+
+  static void writeDoubles (DataOutputStream out, double[] values)
+    throws IOException
+  {
+    out.writeInt(values.length);
+    for (double value: values) {
+      out.writeDouble(value);
+    }
+  }
+
+  static void writeInts (DataOutputStream out, int[] values)
+    throws IOException
+  {
+    out.writeInt(values.length);
+    for (int value: values) {
+      out.writeInt(value);
+    }
+  }
+
+  static void writeLongs (DataOutputStream out, long[] values)
+    throws IOException
+  {
+    out.writeInt(values.length);
+    for (long value: values) {
+      out.writeLong(value);
+    }
+  }
+
+  /**
+   * Reads an array written by writeDoubles() into target, which must have
+   * the same length.
+   */
+  static void readDoubles (ByteBuffer in, double[] target)
+  {
+    checkLength(in.getInt(), target.length);
+    readValues(in, target);
+  }
+
+  static void readInts (ByteBuffer in, int[] target)
+  {
+    checkLength(in.getInt(), target.length);
+    for (int i = 0; i < target.length; i++) {
+      target[i] = in.getInt();
+    }
+  }
+
+  static void readLongs (ByteBuffer in, long[] target)
+  {
+    checkLength(in.getInt(), target.length);
+    for (int i = 0; i < target.length; i++) {
+      target[i] = in.getLong();
+    }
+  }
+
+  private static double[] readDoubleArray (ByteBuffer in)
+  {
+    double[] result = new double[in.getInt()];
+    readValues(in, result);
+    return result;
+  }
+
+  private static void readValues (ByteBuffer in, double[] target)
+  {
+    in.asDoubleBuffer().get(target);
+    in.position(in.position() + 8 * target.length);
+  }
+
+  private static void checkLength (int length, int expected)
+  {
+    if (length != expected) {
+      throw new IllegalStateException("checkpoint has " + length
+                                      + " values, expected " + expected);
+    }
+  }
+
+  private static synchronized ExecutorService getExecutor ()
+  {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable r)
+        {
+          Thread thread = new Thread(r, "genco-checkpoint");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+} // class GencoCheckpoint
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.BalancingTransaction;
+import org.powertac.common.ClearedTrade;
+import org.powertac.common.Orderbook;
+import org.powertac.common.OrderbookOrder;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.WeatherReport;
+import org.powertac.common.config.ConfigurableValue;
+
+/**
+ * Binary protocol between the {@link GencoWorkerPool} of the server and
+ * its {@link GencoWorker} processes. All values are written with
+ * DataOutputStream; a message is its type byte followed by its fields:
+ * <pre>
+ *   hello     (worker) magic, worker index
+ *   INIT      timeslots open, start of timeslot 0 in msec, gencos:
+ *             (username, configuration, error generator
+ *              configuration, outage seed, clusters: (name, configuration))
+ *   ACTIVATE  time, current timeslot, open timeslots,
+ *             weather report?, weather forecast?,
+ *             market messages, per genco: (market positions,
+ *             indices of its market messages)
+ *   ORDERS    (worker) per genco: ask quantities of the open timeslots
+ *   SHUTDOWN
+ * </pre>
+ * Lists are written as a count followed by the elements; optional values
+ * as a boolean followed by the value if it is present. Market messages
+ * sent to several gencos, such as cleared trades, are written once per
+ * activation and referenced by their index.
+ * <p>
+ * Configurations are the values of the ConfigurableValue fields, written
+ * as (name, type tag, value), so a worker configures its gencos exactly
+ * as the server configured them.
+ */
+final class GencoProtocol
+{
+  private static Logger log = Logger.getLogger(GencoProtocol.class);
+
+  static final int MAGIC = 0x57504731; // "WPG1"
+
+  // message types
+  static final byte INIT = 1;
+  static final byte ACTIVATE = 2;
+  static final byte ORDERS = 3;
+  static final byte SHUTDOWN = 4;
+
+  // market message types
+  static final byte CLEARED_TRADE = 1;
+  static final byte ORDERBOOK = 2;
+  static final byte BALANCING = 3;
+
+  // configuration value tags
+  private static final byte INT_VALUE = 'I';
+  private static final byte LONG_VALUE = 'J';
+  private static final byte DOUBLE_VALUE = 'D';
+  private static final byte BOOLEAN_VALUE = 'Z';
+  private static final byte STRING_VALUE = 'S';
+  private static final byte LIST_VALUE = 'L';
+
+  private GencoProtocol ()
+  {
+    super();
+  }
+
+  /**
+   * Reads a message type, and checks that it is the expected one.
+   */
+  static void expect (DataInputStream in, byte type) throws IOException
+  {
+    byte actual = in.readByte();
+    if (actual != type) {
+      throw new IOException("expected message " + type + ", got " + actual);
+    }
+  }
+
+  /**
+   * True if a market message of this type can be forwarded to a worker.
+   */
+  static boolean isMarketMessage (Object message)
+  {
+    return message instanceof ClearedTrade || message instanceof Orderbook
+           || message instanceof BalancingTransaction;
+  }
+
+  /**
+   * Writes a market message; see isMarketMessage().
+   */
+  static void writeMarketMessage (DataOutputStream out, Object message)
+    throws IOException
+  {
+    if (message instanceof ClearedTrade) {
+      ClearedTrade trade = (ClearedTrade) message;
+      out.writeByte(CLEARED_TRADE);
+      out.writeInt(trade.getTimeslot().getSerialNumber());
+      out.writeDouble(trade.getExecutionMWh());
+      out.writeDouble(trade.getExecutionPrice());
+    }
+    else if (message instanceof Orderbook) {
+      Orderbook orderbook = (Orderbook) message;
+      out.writeByte(ORDERBOOK);
+      out.writeInt(orderbook.getTimeslot().getSerialNumber());
+      writeOptional(out, orderbook.getClearingPrice());
+      out.writeInt(orderbook.getAsks().size());
+      for (OrderbookOrder ask: orderbook.getAsks()) {
+        out.writeDouble(ask.getMWh());
+        writeOptional(out, ask.getLimitPrice());
+      }
+    }
+    else {
+      BalancingTransaction tx = (BalancingTransaction) message;
+      out.writeByte(BALANCING);
+      out.writeInt(tx.getTimeslot().getSerialNumber());
+      out.writeDouble(tx.getKWh());
+      out.writeDouble(tx.getCharge());
+    }
+  }
+
+  static void writeOptional (DataOutputStream out, Double value)
+    throws IOException
+  {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeDouble(value);
+    }
+  }
+
+  static Double readOptional (DataInputStream in) throws IOException
+  {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    return in.readDouble();
+  }
+
+  /**
+   * Writes a weather report, or its absence, without its timeslot, which
+   * is the current one.
+   */
+  static void writeReport (DataOutputStream out, WeatherReport report)
+    throws IOException
+  {
+    out.writeBoolean(report != null);
+    if (report != null) {
+      out.writeDouble(report.getTemperature());
+      out.writeDouble(report.getWindSpeed());
+      out.writeDouble(report.getWindDirection());
+      out.writeDouble(report.getCloudCover());
+    }
+  }
+
+  /**
+   * Writes the predictions of a weather forecast, or its absence, without
+   * its timeslot, which is the current one.
+   */
+  static void writeForecast (DataOutputStream out, WeatherForecast forecast)
+    throws IOException
+  {
+    out.writeBoolean(forecast != null);
+    if (forecast != null) {
+      List<WeatherForecastPrediction> predictions = forecast.getPredictions();
+      out.writeInt(predictions.size());
+      for (WeatherForecastPrediction wp: predictions) {
+        out.writeInt(wp.getForecastTime());
+        out.writeDouble(wp.getTemperature());
+        out.writeDouble(wp.getWindSpeed());
+        out.writeDouble(wp.getWindDirection());
+        out.writeDouble(wp.getCloudCover());
+      }
+    }
+  }
+
+  static List<WeatherForecastPrediction> readPredictions (DataInputStream in)
+    throws IOException
+  {
+    int count = in.readInt();
+    List<WeatherForecastPrediction> result =
+      new ArrayList<WeatherForecastPrediction>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(new WeatherForecastPrediction(in.readInt(), in.readDouble(),
+                                               in.readDouble(),
+                                               in.readDouble(),
+                                               in.readDouble()));
+    }
+    return result;
+  }
+
+  /**
+   * Writes the configured values of an object.
+   */
+  static void writeConfig (DataOutputStream out, Object target)
+    throws IOException
+  {
+    List<Field> fields = getConfigFields(target.getClass());
+    out.writeInt(fields.size());
+    for (Field field: fields) {
+      Object value;
+      try {
+        value = field.get(target);
+      }
+      catch (IllegalAccessException iae) {
+        throw new IOException("cannot read " + field.getName());
+      }
+      out.writeUTF(field.getName());
+      Class<?> type = field.getType();
+      if (type == int.class || type == Integer.class) {
+        out.writeByte(INT_VALUE);
+        out.writeInt((Integer) value);
+      }
+      else if (type == long.class || type == Long.class) {
+        out.writeByte(LONG_VALUE);
+        out.writeLong((Long) value);
+      }
+      else if (type == double.class || type == Double.class) {
+        out.writeByte(DOUBLE_VALUE);
+        out.writeDouble((Double) value);
+      }
+      else if (type == boolean.class || type == Boolean.class) {
+        out.writeByte(BOOLEAN_VALUE);
+        out.writeBoolean((Boolean) value);
+      }
+      else if (type == String.class) {
+        out.writeByte(STRING_VALUE);
+        out.writeUTF(String.valueOf(value));
+      }
+      else {
+        List<?> list = (List<?>) value;
+        out.writeByte(LIST_VALUE);
+        out.writeInt(list.size());
+        for (Object element: list) {
+          out.writeUTF(String.valueOf(element));
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads configured values written by writeConfig() into an object of
+   * the same class. Values of fields the object does not have are
+   * skipped.
+   */
+  static void readConfig (DataInputStream in, Object target)
+    throws IOException
+  {
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      String name = in.readUTF();
+      Object value;
+      byte tag = in.readByte();
+      if (tag == INT_VALUE) {
+        value = in.readInt();
+      }
+      else if (tag == LONG_VALUE) {
+        value = in.readLong();
+      }
+      else if (tag == DOUBLE_VALUE) {
+        value = in.readDouble();
+      }
+      else if (tag == BOOLEAN_VALUE) {
+        value = in.readBoolean();
+      }
+      else if (tag == STRING_VALUE) {
+        value = in.readUTF();
+      }
+      else if (tag == LIST_VALUE) {
+        int size = in.readInt();
+        List<String> list = new ArrayList<String>(size);
+        for (int j = 0; j < size; j++) {
+          list.add(in.readUTF());
+        }
+        value = list;
+      }
+      else {
+        throw new IOException("bad value tag " + tag + " of " + name);
+      }
+      setConfigValue(target, name, value);
+    }
+  }
+
+  private static void setConfigValue (Object target, String name,
+                                      Object value)
+  {
+    try {
+      Field field = target.getClass().getDeclaredField(name);
+      field.setAccessible(true);
+      field.set(target, value);
+    }
+    catch (NoSuchFieldException nsfe) {
+      log.warn(target.getClass().getSimpleName() + " has no field " + name);
+    }
+    catch (IllegalAccessException iae) {
+      log.error("cannot set " + name, iae);
+    }
+  }
+
+  private static List<Field> getConfigFields (Class<?> clazz)
+  {
+    List<Field> result = new ArrayList<Field>();
+    for (Field field: clazz.getDeclaredFields()) {
+      if (field.isAnnotationPresent(ConfigurableValue.class)
+          && !Modifier.isStatic(field.getModifiers())) {
+        field.setAccessible(true);
+        result.add(field);
+      }
+    }
+    return result;
+  }
+
+} // class GencoProtocol
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import org.joda.time.Instant;
+
+/**
+ * Immutable view of what a genco computed in one call of generateOrders():
+ * the forecast it used, summary statistics and quantiles of the power
+ * output scenarios and the offers it made. A new snapshot is published at
+ * the end of each call, so readers such as monitoring code always see a
+ * consistent state without locking, and never the scenario matrices while
+ * they are being rebuilt.
+ */
+public final class GencoSnapshot
+{
+  private final String genco;
+  private final Instant time;
+  private final WeatherForecastCache.Entry forecast;
+  private final double[] powerMean;
+  private final double[] powerStdDev;
+  private final double[] powerP10;
+  private final double[] powerP50;
+  private final double[] powerP90;
+  private final int[] offerTimeslots;
+  private final double[] offerQuantities;
+  private final double askPrice;
+  private final long[] stageNanos;
+
+  // the arrays are owned by the snapshot, see WindfarmGenco.publishSnapshot()
+  GencoSnapshot (String genco, Instant time,
+                 WeatherForecastCache.Entry forecast, double[] powerMean,
+                 double[] powerStdDev, double[] powerP10,
+                 double[] powerP50, double[] powerP90, int[] offerTimeslots,
+                 double[] offerQuantities, double askPrice,
+                 long[] stageNanos)
+  {
+    this.genco = genco;
+    this.time = time;
+    this.forecast = forecast;
+    this.powerMean = powerMean;
+    this.powerStdDev = powerStdDev;
+    this.powerP10 = powerP10;
+    this.powerP50 = powerP50;
+    this.powerP90 = powerP90;
+    this.offerTimeslots = offerTimeslots;
+    this.offerQuantities = offerQuantities;
+    this.askPrice = askPrice;
+    this.stageNanos = stageNanos;
+  }
+
+  public String getGenco ()
+  {
+    return genco;
+  }
+
+  public Instant getTime ()
+  {
+    return time;
+  }
+
+  /**
+   * Number of lead hours of the forecast and power statistics.
+   */
+  public int getHorizon ()
+  {
+    return powerMean.length;
+  }
+
+  WeatherForecastCache.Entry getForecast ()
+  {
+    return forecast;
+  }
+
+  public double getForecastWindSpeed (int hour)
+  {
+    return forecast.windSpeed[hour];
+  }
+
+  public double getForecastTemperature (int hour)
+  {
+    return forecast.temperature[hour];
+  }
+
+  /**
+   * Expected power output in MW for a lead hour, over all scenarios.
+   */
+  public double getPowerMean (int hour)
+  {
+    return powerMean[hour];
+  }
+
+  public double getPowerStdDev (int hour)
+  {
+    return powerStdDev[hour];
+  }
+
+  /**
+   * Output in MW of a lead hour that is not reached with probability 0.1.
+   */
+  public double getPowerP10 (int hour)
+  {
+    return powerP10[hour];
+  }
+
+  public double getPowerP50 (int hour)
+  {
+    return powerP50[hour];
+  }
+
+  public double getPowerP90 (int hour)
+  {
+    return powerP90[hour];
+  }
+
+  public int getOfferCount ()
+  {
+    return offerTimeslots.length;
+  }
+
+  /**
+   * Serial number of the timeslot of the i-th offer.
+   */
+  public int getOfferTimeslot (int i)
+  {
+    return offerTimeslots[i];
+  }
+
+  /**
+   * Quantity in MWh offered for the i-th timeslot.
+   */
+  public double getOfferQuantity (int i)
+  {
+    return offerQuantities[i];
+  }
+
+  public double getAskPrice ()
+  {
+    return askPrice;
+  }
+
+  /**
+   * Time in nanoseconds of a stage of generateOrders(), see
+   * WindfarmGenco.STAGE_NAMES.
+   */
+  public long getStageNanos (int stage)
+  {
+    return stageNanos[stage];
+  }
+
+} // class GencoSnapshot
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Instant;
+import org.powertac.common.ClearedTrade;
+import org.powertac.common.Competition;
+import org.powertac.common.MarketPosition;
+import org.powertac.common.Orderbook;
+import org.powertac.common.OrderbookOrder;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherReport;
+
+/**
+ * Worker process that runs a shard of the windfarm gencos of a server, see
+ * {@link GencoWorkerPool}. The worker connects to the pool on the local
+ * host, receives the configuration of its gencos, and then computes their
+ * offers in each activation, from the weather, market positions and
+ * market messages sent by the server. The offers are sent back as ask
+ * quantities; the server creates and routes the orders. Messages are
+ * described in {@link GencoProtocol}. The worker exits when the server
+ * shuts it down or closes the connection. Usage:
+ * <pre>
+ *   GencoWorker port index
+ * </pre>
+ */
+public class GencoWorker
+{
+  private static Logger log = Logger.getLogger(GencoWorker.class);
+
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final List<WindfarmGenco> gencos = new ArrayList<WindfarmGenco>();
+  private GameLogReplay.ReplayTimeslotRepo timeslotRepo = null;
+  private final GameLogReplay.ReplayWeatherForecastRepo weatherRepo =
+    new GameLogReplay.ReplayWeatherForecastRepo();
+
+  // a balancing transaction, as sent by the server
+  private static class Balancing
+  {
+    final Timeslot slot;
+    final double kWh;
+    final double charge;
+
+    Balancing (Timeslot slot, double kWh, double charge)
+    {
+      this.slot = slot;
+      this.kWh = kWh;
+      this.charge = charge;
+    }
+  }
+
+  GencoWorker (InputStream in, OutputStream out)
+  {
+    this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+  }
+
+  /**
+   * Processes messages until the server shuts the worker down or closes
+   * the connection.
+   */
+  void run () throws IOException
+  {
+    while (true) {
+      byte type;
+      try {
+        type = in.readByte();
+      }
+      catch (EOFException eof) {
+        log.info("connection closed");
+        return;
+      }
+      if (type == GencoProtocol.INIT) {
+        init();
+      }
+      else if (type == GencoProtocol.ACTIVATE) {
+        activate();
+      }
+      else if (type == GencoProtocol.SHUTDOWN) {
+        log.info("shutdown");
+        return;
+      }
+      else {
+        throw new IOException("unknown message " + type);
+      }
+    }
+  }
+
+  List<WindfarmGenco> getGencos ()
+  {
+    return gencos;
+  }
+
+  private void init () throws IOException
+  {
+    int timeslotsOpen = in.readInt();
+    long base = in.readLong();
+    Competition.newInstance("genco-worker").withTimeslotsOpen(timeslotsOpen);
+    timeslotRepo = new GameLogReplay.ReplayTimeslotRepo(base, timeslotsOpen);
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      WindfarmGenco genco = new WindfarmGenco(in.readUTF());
+      GencoProtocol.readConfig(in, genco);
+      WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+      GencoProtocol.readConfig(in, generator);
+      genco.setErrorGenerator(generator);
+      genco.setAvailabilitySeed(in.readLong());
+      int clusters = in.readInt();
+      for (int j = 0; j < clusters; j++) {
+        TurbineCluster cluster = new TurbineCluster(in.readUTF());
+        GencoProtocol.readConfig(in, cluster);
+        genco.addCluster(cluster);
+      }
+      genco.init(null, timeslotRepo, weatherRepo);
+      genco.setDeferOrders(true);
+      gencos.add(genco);
+    }
+    log.info("initialized " + count + " gencos");
+  }
+
+  private void activate () throws IOException
+  {
+    Instant now = new Instant(in.readLong());
+    int current = in.readInt();
+    timeslotRepo.setCurrent(current);
+    Timeslot currentSlot = timeslotRepo.slot(current);
+    int slots = in.readInt();
+    List<Timeslot> openSlots = new ArrayList<Timeslot>(slots);
+    for (int i = 0; i < slots; i++) {
+      openSlots.add(timeslotRepo.slot(in.readInt()));
+    }
+    WeatherReport report = null;
+    if (in.readBoolean()) {
+      report = new WeatherReport(currentSlot, in.readDouble(),
+                                 in.readDouble(), in.readDouble(),
+                                 in.readDouble());
+    }
+    if (in.readBoolean()) {
+      weatherRepo.setCurrent(new WeatherForecast(currentSlot, GencoProtocol
+              .readPredictions(in)));
+    }
+    Object[] messages = new Object[in.readInt()];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = readMarketMessage(now);
+    }
+
+    List<List<Double>> quantities = new ArrayList<List<Double>>();
+    for (WindfarmGenco genco: gencos) {
+      int positions = in.readInt();
+      for (int i = 0; i < positions; i++) {
+        Timeslot slot = timeslotRepo.slot(in.readInt());
+        genco.addMarketPosition(new MarketPosition(genco, slot,
+                                                   in.readDouble()), slot);
+      }
+      int count = in.readInt();
+      Object[] received = new Object[count];
+      for (int i = 0; i < count; i++) {
+        received[i] = messages[in.readInt()];
+      }
+      quantities.add(activateGenco(genco, received, now, openSlots, report));
+    }
+
+    out.writeByte(GencoProtocol.ORDERS);
+    for (List<Double> genco: quantities) {
+      if (genco == null) {
+        out.writeInt(0);
+        continue;
+      }
+      out.writeInt(genco.size());
+      for (double quantity: genco) {
+        out.writeDouble(quantity);
+      }
+    }
+    out.flush();
+  }
+
+  // runs one genco as SimpleGencoService.activate() does, and returns its
+  // ask quantities, or null if it made no offers
+  private List<Double> activateGenco (WindfarmGenco genco, Object[] messages,
+                                      Instant now, List<Timeslot> openSlots,
+                                      WeatherReport report)
+  {
+    try {
+      for (Object message: messages) {
+        if (message instanceof Balancing) {
+          Balancing tx = (Balancing) message;
+          genco.recordBalancing(tx.slot, tx.kWh, tx.charge);
+        }
+        else {
+          genco.handleMessage(message);
+        }
+      }
+      if (report != null) {
+        genco.observeWeather(report);
+      }
+      genco.updateModel(now);
+      genco.generateOrders(now, openSlots);
+      return genco.takePendingQuantities();
+    }
+    catch (RuntimeException re) {
+      log.error(genco.getUsername() + ": activation failed", re);
+      genco.takePendingQuantities();
+      return null;
+    }
+  }
+
+  private Object readMarketMessage (Instant now) throws IOException
+  {
+    byte type = in.readByte();
+    Timeslot slot = timeslotRepo.slot(in.readInt());
+    if (type == GencoProtocol.CLEARED_TRADE) {
+      return new ClearedTrade(slot, in.readDouble(), in.readDouble(), now);
+    }
+    else if (type == GencoProtocol.ORDERBOOK) {
+      Orderbook orderbook =
+        new Orderbook(slot, GencoProtocol.readOptional(in), now);
+      int asks = in.readInt();
+      for (int i = 0; i < asks; i++) {
+        orderbook.addAsk(new OrderbookOrder(in.readDouble(),
+                                            GencoProtocol.readOptional(in)));
+      }
+      return orderbook;
+    }
+    else if (type == GencoProtocol.BALANCING) {
+      return new Balancing(slot, in.readDouble(), in.readDouble());
+    }
+    throw new IOException("unknown market message " + type);
+  }
+
+  public static void main (String[] args) throws IOException
+  {
+    if (args.length < 2) {
+      System.out.println("Usage: GencoWorker port index");
+      return;
+    }
+    int port = Integer.parseInt(args[0]);
+    int index = Integer.parseInt(args[1]);
+    Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+    try {
+      socket.setTcpNoDelay(true);
+      GencoWorker worker =
+        new GencoWorker(socket.getInputStream(), socket.getOutputStream());
+      worker.out.writeInt(GencoProtocol.MAGIC);
+      worker.out.writeInt(index);
+      worker.out.flush();
+      worker.run();
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+} // class GencoWorker
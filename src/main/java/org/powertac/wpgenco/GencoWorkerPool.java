@@ -0,0 +1,479 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Instant;
+import org.powertac.common.BalancingTransaction;
+import org.powertac.common.Competition;
+import org.powertac.common.MarketPosition;
+import org.powertac.common.TimeService;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherReport;
+import org.powertac.common.repo.TimeslotRepo;
+import org.powertac.common.repo.WeatherForecastRepo;
+
+/**
+ * Runs the windfarm gencos of the server in {@link GencoWorker} processes
+ * on the same machine. The gencos are split into contiguous shards, one
+ * per worker; each worker holds the scenarios and models of its shard,
+ * while the gencos in the server only keep their market positions and
+ * route the orders. The workers are connected over local sockets and
+ * exchange the messages of {@link GencoProtocol}.
+ * <p>
+ * In an activation, the weather, the open timeslots, and the market
+ * positions and messages of each genco are sent to all workers first, so
+ * they compute in parallel; then their offers are read back in worker
+ * order. The orders are routed by the server in the order of the genco
+ * list, so they are the same however the gencos are sharded and however
+ * long each worker takes.
+ * <p>
+ * The replies are read with a timeout. A worker that fails or does not
+ * reply in time is shut down, and the gencos of its shard are moved to
+ * this process, where they are run by the pool from then on.
+ */
+class GencoWorkerPool
+{
+  private static Logger log = Logger.getLogger(GencoWorkerPool.class);
+
+  // msec to wait for the workers to connect
+  static final int CONNECT_TIMEOUT = 60000;
+
+  private final List<WindfarmGenco> gencos;
+  private final int size;
+  private final String jvmArgs;
+  private final List<Worker> workers = new ArrayList<Worker>();
+  private boolean initialized = false;
+  // the repos of the current activation, for gencos moved to this process
+  private TimeslotRepo timeslotRepo = null;
+  private WeatherForecastRepo weatherForecastRepo = null;
+
+  // a worker process and its connection
+  private static class Worker
+  {
+    final int index;
+    final List<WindfarmGenco> gencos;
+    Process process = null;
+    Socket socket = null;
+    DataInputStream in = null;
+    DataOutputStream out = null;
+    boolean failed = false;
+
+    Worker (int index, List<WindfarmGenco> gencos)
+    {
+      this.index = index;
+      this.gencos = gencos;
+    }
+
+    void connect (Socket socket, DataInputStream in) throws IOException
+    {
+      this.socket = socket;
+      this.in = in;
+      this.out =
+        new DataOutputStream(new BufferedOutputStream(socket
+                .getOutputStream(), 65536));
+    }
+
+    void close ()
+    {
+      if (socket != null) {
+        try {
+          socket.close();
+        }
+        catch (IOException ioe) {
+          // nothing more to do with it
+        }
+        socket = null;
+      }
+      if (process != null) {
+        process.destroy();
+        process = null;
+      }
+    }
+  }
+
+  /**
+   * Creates a pool of size workers for the given gencos; the workers are
+   * started with the given JVM arguments, separated by blanks.
+   */
+  GencoWorkerPool (List<WindfarmGenco> gencos, int size, String jvmArgs)
+  {
+    this.gencos = gencos;
+    this.size = Math.max(1, Math.min(size, gencos.size()));
+    this.jvmArgs = (jvmArgs == null)? "": jvmArgs.trim();
+  }
+
+  int getSize ()
+  {
+    return size;
+  }
+
+  /**
+   * Starts the worker processes and waits for them to connect. The
+   * gencos are switched to remote operation; their configuration is sent
+   * with the first activation, once the timeslots are known.
+   */
+  void start () throws IOException
+  {
+    ServerSocket server =
+      new ServerSocket(0, size, InetAddress.getByName("127.0.0.1"));
+    try {
+      server.setSoTimeout(CONNECT_TIMEOUT);
+      int n = gencos.size();
+      for (int i = 0; i < size; i++) {
+        Worker worker =
+          new Worker(i, gencos.subList(i * n / size, (i + 1) * n / size));
+        workers.add(worker);
+        worker.process = launch(server.getLocalPort(), i);
+      }
+      for (int i = 0; i < size; i++) {
+        Socket socket = server.accept();
+        socket.setTcpNoDelay(true);
+        DataInputStream in =
+          new DataInputStream(new BufferedInputStream(socket
+                  .getInputStream(), 65536));
+        if (in.readInt() != GencoProtocol.MAGIC) {
+          socket.close();
+          throw new IOException("bad hello from genco worker");
+        }
+        workers.get(in.readInt()).connect(socket, in);
+      }
+    }
+    finally {
+      server.close();
+    }
+    for (WindfarmGenco genco: gencos) {
+      genco.setRemote(true);
+    }
+    log.info(gencos.size() + " gencos on " + size + " worker processes");
+  }
+
+  // starts a worker JVM with the class path of this one
+  private Process launch (int port, final int index) throws IOException
+  {
+    List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+    if (jvmArgs.length() > 0) {
+      for (String arg: jvmArgs.split("\\s+")) {
+        command.add(arg);
+      }
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(GencoWorker.class.getName());
+    command.add(Integer.toString(port));
+    command.add(Integer.toString(index));
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.redirectErrorStream(true);
+    final Process process = builder.start();
+    // the output of the worker goes to the log
+    Thread output = new Thread("genco-worker-output-" + index) {
+      @Override
+      public void run ()
+      {
+        BufferedReader reader =
+          new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            log.info("worker " + index + ": " + line);
+          }
+        }
+        catch (IOException ioe) {
+          // the worker is gone
+        }
+      }
+    };
+    output.setDaemon(true);
+    output.start();
+    return process;
+  }
+
+  /**
+   * Sends an activation to all workers, and sets the offers they send
+   * back as the pending orders of the gencos, to be routed by the caller.
+   * The gencos of failed workers are run here while the workers compute.
+   * The replies are awaited for at most timeout msec in total, 0 for no
+   * limit; the gencos of a worker that does not reply in time make no
+   * offers in this timeslot, and run here from the next one.
+   */
+  void activate (Instant when, TimeslotRepo timeslotRepo,
+                 WeatherForecastRepo weatherForecastRepo,
+                 List<Timeslot> openSlots, WeatherReport report, int timeout)
+  {
+    long deadline = System.currentTimeMillis() + timeout;
+    this.timeslotRepo = timeslotRepo;
+    this.weatherForecastRepo = weatherForecastRepo;
+    WeatherForecast forecast = null;
+    if (weatherForecastRepo != null) {
+      forecast = weatherForecastRepo.currentWeatherForecast();
+    }
+    Timeslot current = timeslotRepo.currentTimeslot();
+    for (Worker worker: workers) {
+      if (worker.failed) {
+        continue;
+      }
+      try {
+        if (!initialized) {
+          sendInit(worker, current);
+        }
+        sendActivate(worker, when, timeslotRepo, current, openSlots, report,
+                     forecast);
+      }
+      catch (IOException ioe) {
+        fail(worker, ioe);
+      }
+    }
+    initialized = true;
+    for (Worker worker: workers) {
+      if (worker.failed) {
+        activateLocal(worker, when, openSlots, report);
+      }
+    }
+    for (Worker worker: workers) {
+      if (worker.failed) {
+        continue;
+      }
+      try {
+        int wait = 0;
+        if (timeout > 0) {
+          wait = (int) Math.max(1, deadline - System.currentTimeMillis());
+        }
+        worker.socket.setSoTimeout(wait);
+        readOrders(worker, openSlots);
+      }
+      catch (SocketTimeoutException ste) {
+        fail(worker, new IOException("no reply within " + timeout + " msec"));
+      }
+      catch (IOException ioe) {
+        fail(worker, ioe);
+      }
+    }
+  }
+
+  // shuts the worker down and moves its gencos to this process; the
+  // offers it sent in this timeslot are dropped
+  private void fail (Worker worker, IOException ioe)
+  {
+    log.error("genco worker " + worker.index + " failed, its "
+              + worker.gencos.size() + " gencos run in the server", ioe);
+    worker.failed = true;
+    worker.close();
+    for (WindfarmGenco genco: worker.gencos) {
+      genco.takePendingQuantities();
+      genco.initLocal(timeslotRepo, weatherForecastRepo);
+    }
+  }
+
+  // runs the gencos of a failed worker as the worker would
+  private void activateLocal (Worker worker, Instant when,
+                              List<Timeslot> openSlots, WeatherReport report)
+  {
+    for (WindfarmGenco genco: worker.gencos) {
+      try {
+        if (report != null) {
+          genco.observeWeather(report);
+        }
+        genco.updateModel(when);
+        genco.generateOrders(when, openSlots);
+      }
+      catch (RuntimeException re) {
+        log.error(genco.getUsername() + ": activation failed", re);
+        genco.takePendingQuantities();
+      }
+    }
+  }
+
+  private void sendInit (Worker worker, Timeslot current) throws IOException
+  {
+    int timeslotsOpen = WindfarmGenco.DEFAULT_HORIZON;
+    Competition competition = Competition.currentCompetition();
+    if (competition != null) {
+      timeslotsOpen = competition.getTimeslotsOpen();
+    }
+    DataOutputStream out = worker.out;
+    out.writeByte(GencoProtocol.INIT);
+    out.writeInt(timeslotsOpen);
+    out.writeLong(current.getStartInstant().getMillis()
+                  - current.getSerialNumber() * TimeService.HOUR);
+    out.writeInt(worker.gencos.size());
+    for (WindfarmGenco genco: worker.gencos) {
+      out.writeUTF(genco.getUsername());
+      GencoProtocol.writeConfig(out, genco);
+      GencoProtocol.writeConfig(out, genco.getErrorGenerator());
+      out.writeLong(genco.getOutageSeed());
+      out.writeInt(genco.getClusters().size());
+      for (TurbineCluster cluster: genco.getClusters()) {
+        out.writeUTF(cluster.getName());
+        GencoProtocol.writeConfig(out, cluster);
+      }
+    }
+  }
+
+  private void sendActivate (Worker worker, Instant when,
+                             TimeslotRepo timeslotRepo, Timeslot current,
+                             List<Timeslot> openSlots, WeatherReport report,
+                             WeatherForecast forecast)
+    throws IOException
+  {
+    DataOutputStream out = worker.out;
+    out.writeByte(GencoProtocol.ACTIVATE);
+    out.writeLong(when.getMillis());
+    out.writeInt(current.getSerialNumber());
+    out.writeInt(openSlots.size());
+    for (Timeslot slot: openSlots) {
+      out.writeInt(slot.getSerialNumber());
+    }
+    GencoProtocol.writeReport(out, report);
+    GencoProtocol.writeForecast(out, forecast);
+
+    // each market message once, in order of first arrival
+    List<List<Object>> received = new ArrayList<List<Object>>();
+    Map<Object, Integer> index = new IdentityHashMap<Object, Integer>();
+    List<Object> messages = new ArrayList<Object>();
+    for (WindfarmGenco genco: worker.gencos) {
+      List<Object> list = genco.takeRemoteMessages();
+      received.add(list);
+      for (Object message: list) {
+        if (!index.containsKey(message)) {
+          index.put(message, messages.size());
+          messages.add(message);
+        }
+      }
+    }
+    out.writeInt(messages.size());
+    for (Object message: messages) {
+      GencoProtocol.writeMarketMessage(out, message);
+    }
+
+    Timeslot previous = null;
+    if (!openSlots.isEmpty()) {
+      previous =
+        timeslotRepo.findBySerialNumber(openSlots.get(0).getSerialNumber() - 1);
+    }
+    for (int i = 0; i < worker.gencos.size(); i++) {
+      WindfarmGenco genco = worker.gencos.get(i);
+      List<Object> list = received.get(i);
+      writePositions(out, genco, previous, openSlots, list);
+      out.writeInt(list.size());
+      for (Object message: list) {
+        out.writeInt(index.get(message));
+      }
+    }
+    out.flush();
+  }
+
+  // the market positions the genco reads in the activation: those of the
+  // open timeslots and the one before, and of its balancing transactions
+  private void writePositions (DataOutputStream out, WindfarmGenco genco,
+                               Timeslot previous, List<Timeslot> openSlots,
+                               List<Object> messages)
+    throws IOException
+  {
+    List<Timeslot> slots = new ArrayList<Timeslot>();
+    if (previous != null) {
+      slots.add(previous);
+    }
+    slots.addAll(openSlots);
+    for (Object message: messages) {
+      if (message instanceof BalancingTransaction) {
+        Timeslot slot = ((BalancingTransaction) message).getTimeslot();
+        if (slot != null && !slots.contains(slot)) {
+          slots.add(slot);
+        }
+      }
+    }
+    List<MarketPosition> positions = new ArrayList<MarketPosition>();
+    for (Timeslot slot: slots) {
+      MarketPosition posn = genco.findMarketPositionByTimeslot(slot);
+      if (posn != null) {
+        positions.add(posn);
+      }
+    }
+    out.writeInt(positions.size());
+    for (MarketPosition posn: positions) {
+      out.writeInt(posn.getTimeslot().getSerialNumber());
+      out.writeDouble(posn.getOverallBalance());
+    }
+  }
+
+  private void readOrders (Worker worker, List<Timeslot> openSlots)
+    throws IOException
+  {
+    DataInputStream in = worker.in;
+    GencoProtocol.expect(in, GencoProtocol.ORDERS);
+    for (WindfarmGenco genco: worker.gencos) {
+      int count = in.readInt();
+      if (count == 0) {
+        continue;
+      }
+      if (count != openSlots.size()) {
+        throw new IOException(genco.getUsername() + ": " + count
+                              + " offers for " + openSlots.size()
+                              + " timeslots");
+      }
+      List<Double> quantities = new ArrayList<Double>(count);
+      for (int i = 0; i < count; i++) {
+        quantities.add(in.readDouble());
+      }
+      genco.setPendingOrders(openSlots, quantities);
+    }
+  }
+
+  /**
+   * Shuts the workers down, and returns the gencos to local operation.
+   */
+  void close ()
+  {
+    for (Worker worker: workers) {
+      if (worker.out != null && !worker.failed) {
+        try {
+          worker.out.writeByte(GencoProtocol.SHUTDOWN);
+          worker.out.flush();
+        }
+        catch (IOException ioe) {
+          log.warn("genco worker " + worker.index + " already gone");
+        }
+      }
+      worker.close();
+    }
+    workers.clear();
+    for (WindfarmGenco genco: gencos) {
+      genco.setRemote(false);
+      genco.setDeferOrders(false);
+    }
+  }
+
+} // class GencoWorkerPool
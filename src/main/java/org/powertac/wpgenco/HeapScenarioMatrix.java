@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Scenario matrix backed by double arrays on the Java heap.
+ */
+class HeapScenarioMatrix extends ScenarioMatrix
+{
+  private final double[] values;
+  private final double[] probabilities;
+
+  HeapScenarioMatrix (int numberOfScenarios, int horizon)
+  {
+    super(numberOfScenarios, horizon);
+    this.values = new double[numberOfScenarios * horizon];
+    this.probabilities = new double[numberOfScenarios];
+  }
+
+  @Override
+  public ScenarioStorage getStorage ()
+  {
+    return ScenarioStorage.HEAP;
+  }
+
+  @Override
+  public double get (int scenario, int hourIndex)
+  {
+    return values[hourIndex * numberOfScenarios + scenario];
+  }
+
+  @Override
+  public void set (int scenario, int hourIndex, double value)
+  {
+    values[hourIndex * numberOfScenarios + scenario] = value;
+  }
+
+  @Override
+  public double getProbability (int scenario)
+  {
+    return probabilities[scenario];
+  }
+
+  @Override
+  public void setProbability (int scenario, double prob)
+  {
+    probabilities[scenario] = prob;
+  }
+
+} // class HeapScenarioMatrix
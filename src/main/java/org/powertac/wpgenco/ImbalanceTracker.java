@@ -0,0 +1,290 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the realized imbalance of the genco over a window of recent
+ * timeslots. Committed quantity, actual output and settlement of each
+ * timeslot go into fixed-size ring buffers; the statistics are updated
+ * incrementally as values enter and leave the window, so recording a
+ * timeslot and reading the statistics take constant time.
+ * <p>
+ * Imbalance is actual - committed in MWh, positive for a surplus. The
+ * realized price of a surplus is the regulation down price, that of a
+ * shortfall the regulation up price; both are tracked as exponentially
+ * weighted moving averages and replace the assumed prices once enough
+ * settlements have been seen.
+ */
+public class ImbalanceTracker
+{
+  // number of histogram bins for the imbalance quantiles
+  private static final int BINS = 64;
+  // settlements needed before a realized price replaces the assumed one
+  private static int warmupSamples = 5;
+
+  private final double alpha;
+
+  // ring buffers, indexed by record number modulo window size
+  private final int[] timeslots;
+  private final double[] committed;
+  private final double[] actual;
+  private int count = 0;
+  private int next = 0;
+
+  // moving averages of the imbalance
+  private double meanImbalance = 0.0;
+  private double varImbalance = 0.0;
+  private double meanAbsImbalance = 0.0;
+  private long recorded = 0;
+
+  // realized imbalance prices per MWh
+  private double regulationDownPrice = 0.0;
+  private int regulationDownSamples = 0;
+  private double regulationUpPrice = 0.0;
+  private int regulationUpSamples = 0;
+
+  // histogram of the imbalances in the window
+  private final double range;
+  private final double binWidth;
+  private final int[] histogram = new int[BINS];
+
+  /**
+   * Creates a tracker for the given number of timeslots. The moving
+   * averages use the smoothing factor alpha; imbalances are binned over
+   * [-range, range] MWh for the quantiles. The window must be positive,
+   * alpha in (0, 1] and range not negative.
+   */
+  public ImbalanceTracker (int window, double alpha, double range)
+  {
+    if (window < 1) {
+      throw new IllegalArgumentException("window " + window);
+    }
+    if (!(alpha > 0.0 && alpha <= 1.0)) {
+      throw new IllegalArgumentException("alpha " + alpha);
+    }
+    if (!(range >= 0.0)) {
+      throw new IllegalArgumentException("range " + range);
+    }
+    this.alpha = alpha;
+    this.range = Math.max(range, 1e-6);
+    this.binWidth = 2 * this.range / BINS;
+    timeslots = new int[window];
+    committed = new double[window];
+    actual = new double[window];
+  }
+
+  /**
+   * Records the outcome of one timeslot: committed and actual quantities
+   * in MWh, and the imbalance charge, positive if paid to the genco.
+   */
+  public void record (int timeslot, double committedMWh, double actualMWh,
+                      double charge)
+  {
+    if (count == timeslots.length) {
+      // drop the oldest entry from the histogram
+      histogram[bin(actual[next] - committed[next])]--;
+    }
+    else {
+      count++;
+    }
+    timeslots[next] = timeslot;
+    committed[next] = committedMWh;
+    actual[next] = actualMWh;
+    next = (next + 1) % timeslots.length;
+
+    double imbalance = actualMWh - committedMWh;
+    histogram[bin(imbalance)]++;
+    if (recorded == 0) {
+      meanImbalance = imbalance;
+      meanAbsImbalance = Math.abs(imbalance);
+    }
+    else {
+      double diff = imbalance - meanImbalance;
+      meanImbalance += alpha * diff;
+      varImbalance = (1 - alpha) * (varImbalance + alpha * diff * diff);
+      meanAbsImbalance += alpha * (Math.abs(imbalance) - meanAbsImbalance);
+    }
+    recorded++;
+
+    if (imbalance > 0.0) {
+      regulationDownPrice =
+        updatePrice(regulationDownPrice, regulationDownSamples++,
+                    charge / imbalance);
+    }
+    else if (imbalance < 0.0) {
+      regulationUpPrice =
+        updatePrice(regulationUpPrice, regulationUpSamples++,
+                    charge / imbalance);
+    }
+  }
+
+  private double updatePrice (double average, int samples, double price)
+  {
+    if (samples == 0) {
+      return price;
+    }
+    return average + alpha * (price - average);
+  }
+
+  private int bin (double imbalance)
+  {
+    int bin = (int) Math.floor((imbalance + range) / binWidth);
+    return Math.max(0, Math.min(BINS - 1, bin));
+  }
+
+  /**
+   * Number of timeslots in the window.
+   */
+  public int size ()
+  {
+    return count;
+  }
+
+  /**
+   * Serial number of the timeslot recorded age entries ago, 0 being the
+   * most recent.
+   */
+  public int getTimeslot (int age)
+  {
+    return timeslots[index(age)];
+  }
+
+  public double getCommitted (int age)
+  {
+    return committed[index(age)];
+  }
+
+  public double getActual (int age)
+  {
+    return actual[index(age)];
+  }
+
+  private int index (int age)
+  {
+    if (age < 0 || age >= count) {
+      throw new IndexOutOfBoundsException("age " + age + ", size " + count);
+    }
+    return (next - 1 - age + timeslots.length) % timeslots.length;
+  }
+
+  public double getMeanImbalance ()
+  {
+    return meanImbalance;
+  }
+
+  public double getImbalanceStdDev ()
+  {
+    return Math.sqrt(varImbalance);
+  }
+
+  public double getMeanAbsImbalance ()
+  {
+    return meanAbsImbalance;
+  }
+
+  /**
+   * Approximate q-quantile of the imbalances in the window, interpolated
+   * within histogram bins. Returns 0 if nothing has been recorded.
+   */
+  public double getImbalanceQuantile (double q)
+  {
+    if (count == 0) {
+      return 0.0;
+    }
+    double target = q * count;
+    double cumulative = 0.0;
+    for (int b = 0; b < BINS; b++) {
+      if (histogram[b] > 0 && cumulative + histogram[b] >= target) {
+        double fraction = (target - cumulative) / histogram[b];
+        return -range + (b + fraction) * binWidth;
+      }
+      cumulative += histogram[b];
+    }
+    return range;
+  }
+
+  /**
+   * Realized regulation down price per MWh, or assumed if too few
+   * surpluses have been settled.
+   */
+  public double getRegulationDownPrice (double assumed)
+  {
+    return (regulationDownSamples >= warmupSamples)? regulationDownPrice: assumed;
+  }
+
+  /**
+   * Realized regulation up price per MWh, or assumed if too few
+   * shortfalls have been settled.
+   */
+  public double getRegulationUpPrice (double assumed)
+  {
+    return (regulationUpSamples >= warmupSamples)? regulationUpPrice: assumed;
+  }
+
+
+  /**
+   * Writes the window and the averages to a checkpoint, see
+   * {@link GencoCheckpoint}.
+   */
+  void writeState (DataOutputStream out) throws IOException
+  {
+    out.writeDouble(range);
+    GencoCheckpoint.writeInts(out, timeslots);
+    GencoCheckpoint.writeDoubles(out, committed);
+    GencoCheckpoint.writeDoubles(out, actual);
+    out.writeInt(count);
+    out.writeInt(next);
+    out.writeDouble(meanImbalance);
+    out.writeDouble(varImbalance);
+    out.writeDouble(meanAbsImbalance);
+    out.writeLong(recorded);
+    out.writeDouble(regulationDownPrice);
+    out.writeInt(regulationDownSamples);
+    out.writeDouble(regulationUpPrice);
+    out.writeInt(regulationUpSamples);
+    GencoCheckpoint.writeInts(out, histogram);
+  }
+
+  /**
+   * Restores the state written by writeState() by a tracker with the
+   * same window and range.
+   */
+  void readState (ByteBuffer in)
+  {
+    if (in.getDouble() != range) {
+      throw new IllegalStateException("imbalance range changed");
+    }
+    GencoCheckpoint.readInts(in, timeslots);
+    GencoCheckpoint.readDoubles(in, committed);
+    GencoCheckpoint.readDoubles(in, actual);
+    count = in.getInt();
+    next = in.getInt();
+    meanImbalance = in.getDouble();
+    varImbalance = in.getDouble();
+    meanAbsImbalance = in.getDouble();
+    recorded = in.getLong();
+    regulationDownPrice = in.getDouble();
+    regulationDownSamples = in.getInt();
+    regulationUpPrice = in.getDouble();
+    regulationUpSamples = in.getInt();
+    GencoCheckpoint.readInts(in, histogram);
+  }
+
+} // class ImbalanceTracker
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Latin hypercube sampling. For every dimension the probability range is
+ * split into one stratum per scenario, and each stratum is used by exactly
+ * one scenario, chosen by a random permutation per dimension. Within its
+ * stratum the point is placed at random.
+ */
+public class LatinHypercubeSampler extends ScenarioSampler
+{
+  private int numberOfScenarios = 0;
+  // strata[dimension][scenario]
+  private int[][] strata = null;
+
+  @Override
+  public void prepare (int numberOfScenarios, int dimensions,
+                       ScenarioRandom rng)
+  {
+    this.numberOfScenarios = numberOfScenarios;
+    strata = new int[dimensions][numberOfScenarios];
+    for (int d = 0; d < dimensions; d++) {
+      ScenarioRandom dimRng = rng.split(d);
+      int[] perm = strata[d];
+      for (int i = 0; i < numberOfScenarios; i++) {
+        perm[i] = i;
+      }
+      // Fisher-Yates shuffle
+      for (int i = numberOfScenarios - 1; i > 0; i--) {
+        int j = (int) (dimRng.nextDouble() * (i + 1));
+        int tmp = perm[i];
+        perm[i] = perm[j];
+        perm[j] = tmp;
+      }
+    }
+  }
+
+  @Override
+  public double nextGaussian (int scenario, int dimension, ScenarioRandom rng)
+  {
+    double u = (strata[dimension][scenario] + rng.nextDouble())
+               / numberOfScenarios;
+    return inverseNormal(u);
+  }
+
+} // class LatinHypercubeSampler
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Plain pseudo-random sampling of independent standard normal values.
+ */
+public class MonteCarloSampler extends ScenarioSampler
+{
+  @Override
+  public void prepare (int numberOfScenarios, int dimensions,
+                       ScenarioRandom rng)
+  {
+    // nothing to prepare
+  }
+
+  @Override
+  public double nextGaussian (int scenario, int dimension, ScenarioRandom rng)
+  {
+    return rng.nextGaussian();
+  }
+
+} // class MonteCarloSampler
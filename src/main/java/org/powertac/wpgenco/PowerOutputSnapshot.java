@@ -0,0 +1,168 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Power output scenarios of one timeslot, as published by
+ * {@link ForecastScenarios}. A snapshot is never changed while it is
+ * current: the next timeslot's scenarios are built into the other of two
+ * preallocated buffers and then published in place of this one, so
+ * readers need neither copies nor locks.
+ * <p>
+ * The buffer of a snapshot is reused for the timeslot after next. Its
+ * storage stays allocated until the genco is released, so reading an old
+ * snapshot is always safe, but its values may then be mixed with those of
+ * a later timeslot. isValid() tells a reader that keeps a snapshot longer
+ * than one timeslot that the buffer has been reused, and the current
+ * snapshot should be fetched instead. It is only a hint: the buffer
+ * version is not ordered with the reads of the values before it, so a
+ * true result does not prove that the values read belong to one
+ * timeslot. Readers that need that guarantee must read a snapshot while
+ * it is current or the one before it.
+ */
+public final class PowerOutputSnapshot
+{
+  private final int timeslotSerial;
+  private final ScenarioMatrix power;
+  private final ScenarioQuantiles quantiles;
+  private final ScenarioTree tree;
+  private final double[] nodePower;
+  private final AtomicInteger bufferVersion;
+  private final int version;
+
+  PowerOutputSnapshot (int timeslotSerial, ScenarioMatrix power,
+                       ScenarioQuantiles quantiles, ScenarioTree tree,
+                       double[] nodePower, AtomicInteger bufferVersion)
+  {
+    this.timeslotSerial = timeslotSerial;
+    this.power = power;
+    this.quantiles = quantiles;
+    this.tree = tree;
+    this.nodePower = nodePower;
+    this.bufferVersion = bufferVersion;
+    this.version = bufferVersion.get();
+  }
+
+  /**
+   * Serial number of the timeslot in which the forecast behind these
+   * scenarios was issued.
+   */
+  public int getTimeslotSerial ()
+  {
+    return timeslotSerial;
+  }
+
+  /**
+   * False once the buffer of this snapshot is being reused. A hint only,
+   * see the class comment.
+   */
+  public boolean isValid ()
+  {
+    return bufferVersion.get() == version;
+  }
+
+  public int getHorizon ()
+  {
+    return quantiles.getHorizon();
+  }
+
+  public int getNumberOfScenarios ()
+  {
+    return quantiles.getNumberOfScenarios();
+  }
+
+  /**
+   * True if the full scenario paths are available through get(); with a
+   * scenario tree they are only filled in when the genco needs them.
+   */
+  public boolean hasPaths ()
+  {
+    return power != null;
+  }
+
+  /**
+   * Power output in MW of scenario s in lead hour h.
+   */
+  public double get (int s, int h)
+  {
+    return power.get(s, h);
+  }
+
+  public double getProbability (int s)
+  {
+    return power.getProbability(s);
+  }
+
+  public double getQuantile (int h, double q)
+  {
+    return quantiles.getQuantile(h, q);
+  }
+
+  public double getMean (int h)
+  {
+    return quantiles.getMean(h);
+  }
+
+  public double getStdDev (int h)
+  {
+    return quantiles.getStdDev(h);
+  }
+
+  public double getExceedanceProbability (int h, double x)
+  {
+    return quantiles.getExceedanceProbability(h, x);
+  }
+
+  public double getExpectedShortfall (int h, double x)
+  {
+    return quantiles.getExpectedShortfall(h, x);
+  }
+
+  public double getExpectedExcess (int h, double x)
+  {
+    return quantiles.getExpectedExcess(h, x);
+  }
+
+  /**
+   * Scenario tree of the error scenarios, or null without a tree.
+   */
+  public ScenarioTree getTree ()
+  {
+    return tree;
+  }
+
+  /**
+   * Power output of node n of the tree.
+   */
+  public double getNodePower (int n)
+  {
+    return nodePower[n];
+  }
+
+  // for the offer calculator, which must not modify them
+  ScenarioMatrix getScenarios ()
+  {
+    return power;
+  }
+
+  ScenarioQuantiles getQuantiles ()
+  {
+    return quantiles;
+  }
+
+} // class PowerOutputSnapshot
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.powertac.common.Timeslot;
+
+/**
+ * Forecasts wholesale prices for the open timeslots with additive
+ * Holt-Winters smoothing over the hour of day. Cleared trades are
+ * accumulated per timeslot as they arrive; once a timeslot has closed,
+ * its volume-weighted price updates level, trend and the seasonal term of
+ * its hour in constant time. Nothing is refitted over the history. The
+ * model starts from the mean and hourly deviations of the first day's
+ * worth of closed timeslots; an hour of day seen more than once in it
+ * contributes its mean price.
+ * <p>
+ * Minimum and maximum ask prices are forecast as the clearing price
+ * forecast times the smoothed ratio of ask price range to clearing price
+ * seen in the order books.
+ */
+public class PriceForecaster
+{
+  private static final long HOUR = 60 * 60 * 1000;
+  private static final int SEASON = 24;
+  // ratios of the lowest and highest ask price to the clearing price
+  // assumed until order books have been seen: a wide range, so that
+  // offers stay cautious while the smoothed ratios move to the observed
+  // ones
+  private static final double INITIAL_MIN_ASK_RATIO = 0.5;
+  private static final double INITIAL_MAX_ASK_RATIO = 2.0;
+
+  private final double alpha;
+  private final double beta;
+  private final double gamma;
+
+  // Holt-Winters state
+  private double level = 0.0;
+  private double trend = 0.0;
+  private final double[] seasonal = new double[SEASON];
+  private int observations = 0;
+  // prices per hour of day in the first day, summed in seasonal
+  private final int[] firstDayCount = new int[SEASON];
+  private int lastSerial = -1; // timeslot of the last update
+
+  // trades of timeslots not yet closed, index serial % pending; holds the
+  // open timeslots and as many closed since the last closeTimeslots()
+  private final int pending;
+  private final int[] pendingSerial;
+  private final int[] pendingHour;
+  private final double[] pendingMWh;
+  private final double[] pendingValue;
+
+  // smoothed ask range relative to the clearing price
+  private double minAskRatio = INITIAL_MIN_ASK_RATIO;
+  private double maxAskRatio = INITIAL_MAX_ASK_RATIO;
+
+  /**
+   * Creates a forecaster with the smoothing factors for level, trend and
+   * seasonal terms, for the default number of open timeslots.
+   */
+  public PriceForecaster (double alpha, double beta, double gamma)
+  {
+    this(alpha, beta, gamma, WindfarmGenco.DEFAULT_HORIZON);
+  }
+
+  /**
+   * Creates a forecaster with the smoothing factors for level, trend and
+   * seasonal terms, for markets with horizon open timeslots.
+   */
+  public PriceForecaster (double alpha, double beta, double gamma,
+                          int horizon)
+  {
+    if (horizon < 1) {
+      throw new IllegalArgumentException("horizon " + horizon);
+    }
+    this.alpha = alpha;
+    this.beta = beta;
+    this.gamma = gamma;
+    pending = 2 * horizon;
+    pendingSerial = new int[pending];
+    pendingHour = new int[pending];
+    pendingMWh = new double[pending];
+    pendingValue = new double[pending];
+    for (int i = 0; i < pending; i++) {
+      pendingSerial[i] = -1;
+    }
+  }
+
+  /**
+   * Adds a cleared trade for a timeslot that has not closed yet.
+   */
+  public void addTrade (Timeslot timeslot, double mwh, double price)
+  {
+    int serial = timeslot.getSerialNumber();
+    if (serial <= lastSerial) {
+      return; // closed already
+    }
+    if (lastSerial >= 0 && serial - lastSerial > pending) {
+      return; // beyond the open timeslots, would displace pending trades
+    }
+    int index = serial % pending;
+    if (pendingSerial[index] != serial) {
+      pendingSerial[index] = serial;
+      pendingHour[index] = hourOfDay(timeslot.getStartInstant().getMillis());
+      pendingMWh[index] = 0.0;
+      pendingValue[index] = 0.0;
+    }
+    double volume = Math.max(Math.abs(mwh), 1e-9);
+    pendingMWh[index] += volume;
+    pendingValue[index] += volume * Math.abs(price);
+  }
+
+  /**
+   * Updates the ask range ratios from the clearing price and the lowest
+   * and highest ask prices of an order book.
+   */
+  public void addAskRange (double clearing, double minAsk, double maxAsk)
+  {
+    if (clearing <= 0.0) {
+      return;
+    }
+    minAskRatio += gamma * (minAsk / clearing - minAskRatio);
+    maxAskRatio += gamma * (maxAsk / clearing - maxAskRatio);
+  }
+
+  /**
+   * Closes all timeslots before firstOpenSerial and feeds their prices to
+   * the model, oldest first. Timeslots without trades only advance the
+   * level by the trend.
+   */
+  public void closeTimeslots (int firstOpenSerial)
+  {
+    if (firstOpenSerial <= lastSerial) {
+      // timeslots started over, as in a new game after a warm start
+      resetTimeslots();
+    }
+    if (lastSerial < 0) {
+      // start with the oldest timeslot that has trades
+      int oldest = firstOpenSerial;
+      for (int i = 0; i < pending; i++) {
+        if (pendingSerial[i] >= 0 && pendingSerial[i] < oldest) {
+          oldest = pendingSerial[i];
+        }
+      }
+      lastSerial = oldest - 1;
+    }
+    int first = Math.max(lastSerial + 1, firstOpenSerial - pending);
+    for (int serial = first; serial < firstOpenSerial; serial++) {
+      int index = serial % pending;
+      if (pendingSerial[index] == serial && pendingMWh[index] > 0.0) {
+        update(pendingHour[index], pendingValue[index] / pendingMWh[index]);
+        pendingSerial[index] = -1;
+      }
+      else if (observations >= SEASON) {
+        level += trend;
+      }
+    }
+    lastSerial = Math.max(lastSerial, firstOpenSerial - 1);
+  }
+
+  // forgets the closed and pending timeslots, but keeps the model
+  private void resetTimeslots ()
+  {
+    lastSerial = -1;
+    Arrays.fill(pendingSerial, -1);
+  }
+
+  private void update (int hour, double price)
+  {
+    if (observations < SEASON) {
+      // first day: collect prices, then start from the mean of the hourly
+      // means and the deviations of the hourly means from it
+      seasonal[hour] += price;
+      firstDayCount[hour]++;
+      observations++;
+      if (observations == SEASON) {
+        int hours = 0;
+        for (int h = 0; h < SEASON; h++) {
+          if (firstDayCount[h] > 0) {
+            seasonal[h] /= firstDayCount[h];
+            level += seasonal[h];
+            hours++;
+          }
+        }
+        level /= hours;
+        for (int h = 0; h < SEASON; h++) {
+          seasonal[h] = (firstDayCount[h] > 0)? seasonal[h] - level: 0.0;
+        }
+      }
+      return;
+    }
+    double previous = level;
+    level = alpha * (price - seasonal[hour]) + (1 - alpha) * (level + trend);
+    trend = beta * (level - previous) + (1 - beta) * trend;
+    seasonal[hour] = gamma * (price - level) + (1 - gamma) * seasonal[hour];
+    observations++;
+  }
+
+  /**
+   * True once a full day of closed timeslots has been seen.
+   */
+  public boolean isReady ()
+  {
+    return observations >= SEASON;
+  }
+
+  /**
+   * Writes the forecast clearing, minimum ask and maximum ask prices of
+   * each of the timeslots into the arrays, which must be at least as long
+   * as the list.
+   */
+  public void forecast (List<Timeslot> timeslots, double[] clearing,
+                        double[] minAsk, double[] maxAsk)
+  {
+    for (int i = 0; i < timeslots.size(); i++) {
+      Timeslot slot = timeslots.get(i);
+      int steps = Math.max(1, slot.getSerialNumber() - lastSerial);
+      int hour = hourOfDay(slot.getStartInstant().getMillis());
+      double price = Math.max(0.0, level + steps * trend + seasonal[hour]);
+      clearing[i] = price;
+      minAsk[i] = price * minAskRatio;
+      maxAsk[i] = price * maxAskRatio;
+    }
+  }
+
+  private static int hourOfDay (long millis)
+  {
+    return (int) ((millis / HOUR) % SEASON);
+  }
+
+
+  /**
+   * Writes the model state and the pending trades to a checkpoint, see
+   * {@link GencoCheckpoint}.
+   */
+  void writeState (DataOutputStream out) throws IOException
+  {
+    out.writeDouble(level);
+    out.writeDouble(trend);
+    GencoCheckpoint.writeDoubles(out, seasonal);
+    out.writeInt(observations);
+    GencoCheckpoint.writeInts(out, firstDayCount);
+    out.writeInt(lastSerial);
+    GencoCheckpoint.writeInts(out, pendingSerial);
+    GencoCheckpoint.writeInts(out, pendingHour);
+    GencoCheckpoint.writeDoubles(out, pendingMWh);
+    GencoCheckpoint.writeDoubles(out, pendingValue);
+    out.writeDouble(minAskRatio);
+    out.writeDouble(maxAskRatio);
+  }
+
+  /**
+   * Restores the state written by writeState(), for a game whose current
+   * timeslot is currentSerial, or -1 if it is not known. The closed and
+   * pending timeslots are only restored if the checkpoint is not ahead of
+   * the current timeslot; otherwise the timeslots started over, as in a
+   * new game, and only the model is restored.
+   */
+  void readState (ByteBuffer in, int currentSerial)
+  {
+    level = in.getDouble();
+    trend = in.getDouble();
+    GencoCheckpoint.readDoubles(in, seasonal);
+    observations = in.getInt();
+    GencoCheckpoint.readInts(in, firstDayCount);
+    lastSerial = in.getInt();
+    GencoCheckpoint.readInts(in, pendingSerial);
+    GencoCheckpoint.readInts(in, pendingHour);
+    GencoCheckpoint.readDoubles(in, pendingMWh);
+    GencoCheckpoint.readDoubles(in, pendingValue);
+    minAskRatio = in.getDouble();
+    maxAskRatio = in.getDouble();
+    if (currentSerial < 0 || lastSerial > currentSerial) {
+      resetTimeslots();
+    }
+  }
+
+} // class PriceForecaster
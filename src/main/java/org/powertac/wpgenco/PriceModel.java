@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Source of wholesale and balancing prices for offline runs of the
+ * forecast-to-offer pipeline, see {@link BatchSimulation}.
+ * Implementations must be safe for use from several threads.
+ */
+public interface PriceModel
+{
+  /** index of the market clearing price in the result of getPrices() */
+  int CLEARING = 0;
+  /** index of the regulation down price */
+  int REGULATION_DOWN = 1;
+  /** index of the regulation up price */
+  int REGULATION_UP = 2;
+
+  /**
+   * Writes the clearing, regulation down and regulation up prices for the
+   * given day and hour (0 - 23) into prices.
+   */
+  void getPrices (int day, int hour, double[] prices);
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Finds the offers for a sequence of consecutive timeslots that maximize
+ * the total expected revenue when the offer may change by at most a ramp
+ * limit from one timeslot to the next, and may be capped per timeslot by
+ * curtailment limits.
+ * <p>
+ * Offers are discretized to a grid of gridSteps + 1 levels between 0 and
+ * the capacity. Dynamic programming runs forward over the timeslots: the
+ * best total up to timeslot h at level j is the revenue of level j plus
+ * the best total of timeslot h - 1 within the ramp window around j. The
+ * window maxima are taken with a monotone deque in a single pass, so a
+ * run costs O(timeslots * levels) plus one O(log S) revenue evaluation
+ * per grid point; the best path is then traced back.
+ * <p>
+ * Instances keep their work arrays between runs and are not thread-safe.
+ */
+public class RampingOfferOptimizer
+{
+  private static final double NONE = Double.NEGATIVE_INFINITY;
+
+  private final int gridSteps;
+  private final int levels;
+
+  // work arrays, grown as needed
+  private double[] reward;
+  private double[] previous;
+  private double[] current;
+  private int[] deque;
+  private int[] choice = new int[0];
+
+  public RampingOfferOptimizer (int gridSteps)
+  {
+    if (gridSteps < 1) {
+      throw new IllegalArgumentException("gridSteps " + gridSteps);
+    }
+    this.gridSteps = gridSteps;
+    this.levels = gridSteps + 1;
+    this.reward = new double[levels];
+    this.previous = new double[levels];
+    this.current = new double[levels];
+    this.deque = new int[levels];
+  }
+
+  public int getGridSteps ()
+  {
+    return gridSteps;
+  }
+
+  /**
+   * Computes the offers of numSlots consecutive timeslots into result.
+   * Timeslot i uses lead hour i of quantiles; beyond the horizon of
+   * quantiles the output is unknown and the revenue is the offer times the
+   * clearing price. A NaN clearing price marks a timeslot without prices,
+   * in which every offer has zero revenue.
+   *
+   * @param upper
+   *          curtailment limit in MW per timeslot, or null for none
+   * @param rampLimit
+   *          largest change in MW between consecutive offers
+   * @param initial
+   *          offer of the timeslot before the first one, to which the ramp
+   *          limit also applies, or NaN if there is none
+   * @return the total expected revenue of the offers
+   */
+  public double optimize (ScenarioQuantiles quantiles, int numSlots,
+                          double maxCapacity, double[] mcp, double[] crd,
+                          double[] cru, double[] upper, double rampLimit,
+                          double initial, double[] result)
+  {
+    if (numSlots == 0) {
+      return 0;
+    }
+    if (maxCapacity <= 0) {
+      for (int i = 0; i < numSlots; i++) {
+        result[i] = 0;
+      }
+      return 0;
+    }
+    if (choice.length < numSlots * levels) {
+      choice = new int[numSlots * levels];
+    }
+    final double step = maxCapacity / gridSteps;
+    final int ramp = (int) Math.min(gridSteps,
+                                    Math.floor(rampLimit / step + 1e-9));
+    final int horizon = (quantiles == null)? 0: quantiles.getHorizon();
+
+    for (int h = 0; h < numSlots; h++) {
+      fillReward(quantiles, h, horizon, step, mcp[h], crd[h], cru[h],
+                 (upper == null)? maxCapacity: upper[h]);
+      int base = h * levels;
+      if (h == 0 && Double.isNaN(initial)) {
+        for (int j = 0; j < levels; j++) {
+          current[j] = reward[j];
+          choice[base + j] = -1;
+        }
+      }
+      else if (h == 0) {
+        int start = (int) Math.round(Math.max(0, Math.min(maxCapacity,
+                                                          initial)) / step);
+        for (int j = 0; j < levels; j++) {
+          current[j] = (Math.abs(j - start) <= ramp)? reward[j]: NONE;
+          choice[base + j] = -1;
+        }
+        if (isInfeasible(current)) {
+          // the curtailment limit cannot be reached within the ramp limit;
+          // the limit wins
+          System.arraycopy(reward, 0, current, 0, levels);
+        }
+      }
+      else {
+        windowStep(ramp, base);
+        if (isInfeasible(current)) {
+          windowStep(gridSteps, base);
+        }
+      }
+      double[] tmp = previous;
+      previous = current;
+      current = tmp;
+    }
+
+    // trace back the best path
+    int best = 0;
+    for (int j = 1; j < levels; j++) {
+      if (previous[j] > previous[best]) {
+        best = j;
+      }
+    }
+    double total = previous[best];
+    for (int h = numSlots - 1; h >= 0; h--) {
+      result[h] = best * step;
+      best = choice[h * levels + best];
+    }
+    return total;
+  }
+
+  /**
+   * current[j] = reward[j] + max of previous over [j - ramp, j + ramp],
+   * recording the argmax in choice.
+   */
+  private void windowStep (int ramp, int base)
+  {
+    int head = 0;
+    int tail = 0;
+    int next = 0;
+    for (int j = 0; j < levels; j++) {
+      int last = Math.min(gridSteps, j + ramp);
+      while (next <= last) {
+        while (tail > head && previous[deque[tail - 1]] <= previous[next]) {
+          tail--;
+        }
+        deque[tail++] = next++;
+      }
+      while (deque[head] < j - ramp) {
+        head++;
+      }
+      int from = deque[head];
+      double value = previous[from];
+      if (reward[j] == NONE || value == NONE) {
+        current[j] = NONE;
+      }
+      else {
+        current[j] = reward[j] + value;
+      }
+      choice[base + j] = from;
+    }
+  }
+
+  private void fillReward (ScenarioQuantiles quantiles, int h, int horizon,
+                           double step, double mcp, double crd, double cru,
+                           double limit)
+  {
+    int top = (int) Math.floor(Math.max(0, limit) / step + 1e-9);
+    for (int j = 0; j < levels; j++) {
+      double offer = j * step;
+      if (j > top) {
+        reward[j] = NONE;
+      }
+      else if (Double.isNaN(mcp)) {
+        reward[j] = 0;
+      }
+      else if (h < horizon) {
+        reward[j] = WindFarmOfferCalculator.getRevenue(quantiles, h, offer,
+                                                       mcp, crd, cru);
+      }
+      else {
+        reward[j] = offer * mcp;
+      }
+    }
+  }
+
+  private boolean isInfeasible (double[] row)
+  {
+    for (int j = 0; j < levels; j++) {
+      if (row[j] != NONE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+} // class RampingOfferOptimizer
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Prices read from a CSV file with lines
+ * <pre>
+ *   day,hour,clearingPrice,regulationDownPrice,regulationUpPrice
+ * </pre>
+ * Lines starting with # are ignored. Hours without a line have all
+ * prices at 0, so nothing is offered for them.
+ */
+public class RecordedPriceModel implements PriceModel
+{
+  // prices[day * 24 + hour][3]
+  private double[][] prices = new double[0][];
+
+  public RecordedPriceModel (String filename) throws IOException
+  {
+    BufferedReader in = new BufferedReader(new FileReader(filename));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split(",");
+        int index = Integer.parseInt(fields[0].trim()) * 24
+                    + Integer.parseInt(fields[1].trim());
+        ensureCapacity(index + 1);
+        prices[index] = new double[] {Double.parseDouble(fields[2].trim()),
+                                      Double.parseDouble(fields[3].trim()),
+                                      Double.parseDouble(fields[4].trim())};
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private void ensureCapacity (int size)
+  {
+    if (prices.length < size) {
+      double[][] bigger = new double[Math.max(size, prices.length * 2)][];
+      System.arraycopy(prices, 0, bigger, 0, prices.length);
+      prices = bigger;
+    }
+  }
+
+  @Override
+  public void getPrices (int day, int hour, double[] result)
+  {
+    int index = day * 24 + hour;
+    if (index >= prices.length || prices[index] == null) {
+      result[CLEARING] = 0;
+      result[REGULATION_DOWN] = 0;
+      result[REGULATION_UP] = 0;
+      return;
+    }
+    System.arraycopy(prices[index], 0, result, 0, 3);
+  }
+
+} // class RecordedPriceModel
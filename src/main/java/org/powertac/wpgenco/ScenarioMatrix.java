@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.powertac.wpgenco.Scenario.ScenarioValue;
+
+/**
+ * Dense storage for a set of scenarios over a number of lead hours.
+ * The values are kept hour by hour, so the values of all scenarios for
+ * one lead hour are adjacent in memory. Hour indexes start at 0, which
+ * corresponds to lead hour 1 in {@link Scenario}.
+ * 
+ * Matrices are created through {@link #create(int, int, ScenarioStorage)}.
+ * Off-heap matrices hold native memory until release() is called; the
+ * total is reported by {@link #getOffHeapBytes()}.
+ */
+public abstract class ScenarioMatrix
+{
+  private static final AtomicLong offHeapBytes = new AtomicLong(0);
+
+  protected final int numberOfScenarios;
+  protected final int horizon;
+
+  protected ScenarioMatrix (int numberOfScenarios, int horizon)
+  {
+    this.numberOfScenarios = numberOfScenarios;
+    this.horizon = horizon;
+  }
+
+  public static ScenarioMatrix create (int numberOfScenarios, int horizon,
+                                       ScenarioStorage storage)
+  {
+    switch (storage) {
+    case DIRECT:
+      return new DirectScenarioMatrix(numberOfScenarios, horizon);
+    case HEAP_FLOAT:
+      return new HeapFloatScenarioMatrix(numberOfScenarios, horizon);
+    case DIRECT_FLOAT:
+      return new DirectFloatScenarioMatrix(numberOfScenarios, horizon);
+    default:
+      return new HeapScenarioMatrix(numberOfScenarios, horizon);
+    }
+  }
+
+  /**
+   * Creates a matrix with the given horizon from a collection of
+   * scenarios. Each value goes to the column of its lead hour; values
+   * beyond the horizon are dropped, and lead hours a scenario has no value
+   * for repeat the value of the closest earlier lead hour (0 before the
+   * first).
+   */
+  public static ScenarioMatrix fromScenarios (Collection<Scenario> scenarios,
+                                              int horizon,
+                                              ScenarioStorage storage)
+  {
+    ScenarioMatrix result = create(scenarios.size(), horizon, storage);
+    int s = 0;
+    for (Scenario scn: scenarios) {
+      result.setProbability(s, scn.getProbability());
+      // values are sorted by lead hour
+      int next = 0;
+      double last = 0;
+      for (ScenarioValue sv: scn.getValues()) {
+        int h = sv.getHour() - 1;
+        if (h >= horizon) {
+          break;
+        }
+        while (next < h) {
+          result.set(s, next++, last);
+        }
+        last = sv.getValue();
+        result.set(s, next++, last);
+      }
+      while (next < horizon) {
+        result.set(s, next++, last);
+      }
+      s++;
+    }
+    return result;
+  }
+
+  /**
+   * Native memory in bytes currently held by unreleased off-heap matrices.
+   */
+  public static long getOffHeapBytes ()
+  {
+    return offHeapBytes.get();
+  }
+
+  static void addOffHeapBytes (long bytes)
+  {
+    offHeapBytes.addAndGet(bytes);
+  }
+
+  public int getNumberOfScenarios ()
+  {
+    return numberOfScenarios;
+  }
+
+  public int getHorizon ()
+  {
+    return horizon;
+  }
+
+  /**
+   * True if this matrix has the given dimensions and can be reused.
+   */
+  public boolean hasShape (int scenarios, int hours)
+  {
+    return (numberOfScenarios == scenarios) && (horizon == hours);
+  }
+
+  public abstract ScenarioStorage getStorage ();
+
+  /**
+   * Bytes used for values and probabilities.
+   */
+  public long getStorageBytes ()
+  {
+    return (long) getStorage().getBytesPerValue()
+           * numberOfScenarios * (horizon + 1);
+  }
+
+  public abstract double get (int scenario, int hourIndex);
+
+  public abstract void set (int scenario, int hourIndex, double value);
+
+  public abstract double getProbability (int scenario);
+
+  public abstract void setProbability (int scenario, double prob);
+
+  /**
+   * Frees the storage of this matrix. The matrix must not be used
+   * afterwards. Heap matrices are simply left to the garbage collector.
+   */
+  public void release ()
+  {
+    // nothing to do for heap storage
+  }
+
+} // class ScenarioMatrix
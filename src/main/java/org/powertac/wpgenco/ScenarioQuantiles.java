@@ -0,0 +1,295 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Per lead hour distribution of a scenario matrix: the values of each hour
+ * sorted ascending, with the cumulative probability and the cumulative
+ * probability-weighted value at each position. Quantiles, exceedance
+ * probabilities and the partial expectations needed for expected
+ * imbalance are then binary searches, O(log S) without allocation.
+ * <p>
+ * The distribution can also be built from the nodes of a scenario tree,
+ * where the number of distinct values differs between hours.
+ * <p>
+ * The arrays are reused by update() as long as they are large enough.
+ * Probabilities are normalized to sum to one per hour.
+ */
+public class ScenarioQuantiles
+{
+  // small ranges are sorted by insertion
+  private static final int INSERTION_SORT_SIZE = 16;
+
+  private int numScenarios = 0;
+  private int horizon = 0;
+  // start of the values of each hour, and the total size last
+  private int[] hourStart = new int[1];
+  // sorted values, cumulative probabilities and cumulative p * value,
+  // hour-major: index hourStart[h] + position
+  private double[] values = new double[0];
+  private double[] cumProb = new double[0];
+  private double[] cumMean = new double[0];
+
+  public ScenarioQuantiles ()
+  {
+    super();
+  }
+
+  /**
+   * Builds the sorted columns of the given matrix.
+   */
+  public void update (ScenarioMatrix scenarios)
+  {
+    resize(scenarios.getNumberOfScenarios(), scenarios.getHorizon(),
+           scenarios.getNumberOfScenarios() * scenarios.getHorizon());
+    for (int h = 0; h < horizon; h++) {
+      int base = h * numScenarios;
+      hourStart[h] = base;
+      for (int s = 0; s < numScenarios; s++) {
+        values[base + s] = scenarios.get(s, h);
+        cumProb[base + s] = scenarios.getProbability(s);
+      }
+    }
+    hourStart[horizon] = numScenarios * horizon;
+    accumulate();
+  }
+
+  /**
+   * Builds the sorted columns of the first hours lead hours from the nodes
+   * of a tree, with nodeValues[n] the value of node n. Each hour has one
+   * entry per node.
+   */
+  public void update (ScenarioTree tree, int hours, double[] nodeValues)
+  {
+    int size = tree.getFirstNode(hours);
+    resize(tree.getNumberOfScenarios(), hours, size);
+    for (int h = 0; h <= horizon; h++) {
+      hourStart[h] = tree.getFirstNode(h);
+    }
+    for (int n = 0; n < size; n++) {
+      values[n] = nodeValues[n];
+      cumProb[n] = tree.getProbability(n);
+    }
+    accumulate();
+  }
+
+  private void resize (int scenarios, int hours, int size)
+  {
+    numScenarios = scenarios;
+    horizon = hours;
+    if (hourStart.length != hours + 1) {
+      hourStart = new int[hours + 1];
+    }
+    if (values.length < size) {
+      values = new double[size];
+      cumProb = new double[size];
+      cumMean = new double[size];
+    }
+  }
+
+  // sorts each hour and turns the probabilities into cumulative ones
+  private void accumulate ()
+  {
+    for (int h = 0; h < horizon; h++) {
+      int base = hourStart[h];
+      int end = hourStart[h + 1];
+      sort(values, cumProb, base, end - 1);
+      double prob = 0.0;
+      double mean = 0.0;
+      for (int i = base; i < end; i++) {
+        prob += cumProb[i];
+        mean += cumProb[i] * values[i];
+        cumProb[i] = prob;
+        cumMean[i] = mean;
+      }
+      if (prob > 0.0) {
+        for (int i = base; i < end; i++) {
+          cumProb[i] /= prob;
+          cumMean[i] /= prob;
+        }
+      }
+    }
+  }
+
+  public int getNumberOfScenarios ()
+  {
+    return numScenarios;
+  }
+
+  public int getHorizon ()
+  {
+    return horizon;
+  }
+
+  /**
+   * Smallest scenario value of the hour whose cumulative probability is
+   * at least q.
+   */
+  public double getQuantile (int hour, double q)
+  {
+    int lo = hourStart[hour];
+    int hi = hourStart[hour + 1] - 1;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (cumProb[mid] < q) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return values[lo];
+  }
+
+  /**
+   * Probability that the value of the hour is greater than x.
+   */
+  public double getExceedanceProbability (int hour, double x)
+  {
+    int k = countAtMost(hour, x);
+    return (k == 0)? 1.0: 1.0 - cumProb[hourStart[hour] + k - 1];
+  }
+
+  /**
+   * Expected value of the hour.
+   */
+  public double getMean (int hour)
+  {
+    return cumMean[hourStart[hour + 1] - 1];
+  }
+
+  /**
+   * Standard deviation of the hour, in O(S).
+   */
+  public double getStdDev (int hour)
+  {
+    double mean = getMean(hour);
+    double sumSq = 0.0;
+    double before = 0.0;
+    for (int i = hourStart[hour]; i < hourStart[hour + 1]; i++) {
+      double d = values[i] - mean;
+      sumSq += (cumProb[i] - before) * d * d;
+      before = cumProb[i];
+    }
+    return Math.sqrt(sumSq);
+  }
+
+  /**
+   * Expected shortfall below x, E[(x - P)+].
+   */
+  public double getExpectedShortfall (int hour, double x)
+  {
+    int k = countAtMost(hour, x);
+    if (k == 0) {
+      return 0.0;
+    }
+    int i = hourStart[hour] + k - 1;
+    return x * cumProb[i] - cumMean[i];
+  }
+
+  /**
+   * Expected excess over x, E[(P - x)+].
+   */
+  public double getExpectedExcess (int hour, double x)
+  {
+    // E[(P - x)+] - E[(x - P)+] = E[P] - x
+    return getMean(hour) - x + getExpectedShortfall(hour, x);
+  }
+
+  // number of values of the hour that are <= x
+  private int countAtMost (int hour, double x)
+  {
+    int base = hourStart[hour];
+    int lo = 0;
+    int hi = hourStart[hour + 1] - base;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (values[base + mid] <= x) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // sorts keys[lo..hi] ascending, moving the entries of data along
+  private static void sort (double[] keys, double[] data, int lo, int hi)
+  {
+    while (hi - lo >= INSERTION_SORT_SIZE) {
+      // median of three as pivot
+      int mid = (lo + hi) >>> 1;
+      if (keys[mid] < keys[lo]) {
+        swap(keys, data, mid, lo);
+      }
+      if (keys[hi] < keys[lo]) {
+        swap(keys, data, hi, lo);
+      }
+      if (keys[hi] < keys[mid]) {
+        swap(keys, data, hi, mid);
+      }
+      double pivot = keys[mid];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i++;
+        }
+        while (keys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(keys, data, i, j);
+          i++;
+          j--;
+        }
+      }
+      // recurse into the smaller part, loop on the larger one
+      if (j - lo < hi - i) {
+        sort(keys, data, lo, j);
+        lo = i;
+      }
+      else {
+        sort(keys, data, i, hi);
+        hi = j;
+      }
+    }
+    for (int i = lo + 1; i <= hi; i++) {
+      double key = keys[i];
+      double value = data[i];
+      int j = i - 1;
+      while (j >= lo && keys[j] > key) {
+        keys[j + 1] = keys[j];
+        data[j + 1] = data[j];
+        j--;
+      }
+      keys[j + 1] = key;
+      data[j + 1] = value;
+    }
+  }
+
+  private static void swap (double[] keys, double[] data, int i, int j)
+  {
+    double key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+    double value = data[i];
+    data[i] = data[j];
+    data[j] = value;
+  }
+
+} // class ScenarioQuantiles
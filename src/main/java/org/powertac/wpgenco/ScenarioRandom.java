@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Small splittable pseudo-random generator (SplitMix64) for scenario
+ * generation. split() derives an independent stream from a stream index,
+ * so work can be divided into blocks that produce the same numbers no
+ * matter which thread runs them. Instances are not thread safe.
+ */
+public class ScenarioRandom
+{
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  private long state;
+  private double nextGaussian = 0;
+  private boolean haveNextGaussian = false;
+
+  public ScenarioRandom (long seed)
+  {
+    this.state = mix64(seed);
+  }
+
+  /**
+   * Returns the generator for the given stream index. The result depends
+   * only on the seed of this generator and the index.
+   */
+  public ScenarioRandom split (long streamIndex)
+  {
+    return new ScenarioRandom(state ^ mix64((streamIndex + 1) * GOLDEN_GAMMA));
+  }
+
+  public long nextLong ()
+  {
+    state += GOLDEN_GAMMA;
+    return mix64(state);
+  }
+
+  /**
+   * Uniform value in [0, 1)
+   */
+  public double nextDouble ()
+  {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Standard normal value, using the polar method.
+   */
+  public double nextGaussian ()
+  {
+    if (haveNextGaussian) {
+      haveNextGaussian = false;
+      return nextGaussian;
+    }
+    double v1, v2, s;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = Math.sqrt(-2 * Math.log(s) / s);
+    nextGaussian = v2 * multiplier;
+    haveNextGaussian = true;
+    return v1 * multiplier;
+  }
+
+  private static long mix64 (long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+} // class ScenarioRandom
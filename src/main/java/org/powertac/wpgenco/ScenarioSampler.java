@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Source of the standard normal innovations used by
+ * {@link WindForecastErrorGenerator}. Plain Monte Carlo sampling draws
+ * them independently; the low-discrepancy samplers spread them more
+ * evenly, so fewer scenarios give the same accuracy.
+ * 
+ * Samplers are prepared once for a given number of scenarios and
+ * dimensions (lead hours) and may then be queried from several threads,
+ * each with its own block stream.
+ */
+public abstract class ScenarioSampler
+{
+  /**
+   * Returns the sampler for a configured name: montecarlo, lhs or sobol.
+   */
+  public static ScenarioSampler forName (String name)
+  {
+    if ("lhs".equals(name)) {
+      return new LatinHypercubeSampler();
+    }
+    else if ("sobol".equals(name)) {
+      return new SobolSampler();
+    }
+    return new MonteCarloSampler();
+  }
+
+  /**
+   * Called once before any values are requested.
+   */
+  public abstract void prepare (int numberOfScenarios, int dimensions,
+                                ScenarioRandom rng);
+
+  /**
+   * Standard normal value for the given scenario and dimension. rng is the
+   * stream of the block the scenario belongs to; for a given scenario the
+   * dimensions are requested in increasing order.
+   */
+  public abstract double nextGaussian (int scenario, int dimension,
+                                       ScenarioRandom rng);
+
+  /**
+   * Inverse of the standard normal distribution function, after
+   * P. J. Acklam. Relative error is below 1.2e-9 for 0 < p < 1.
+   */
+  static double inverseNormal (double p)
+  {
+    if (p <= 0) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    if (p >= 1) {
+      return Double.POSITIVE_INFINITY;
+    }
+    if (p < P_LOW) {
+      double q = Math.sqrt(-2 * Math.log(p));
+      return (((((C[0] * q + C[1]) * q + C[2]) * q + C[3]) * q + C[4]) * q + C[5])
+             / ((((D[0] * q + D[1]) * q + D[2]) * q + D[3]) * q + 1);
+    }
+    if (p > 1 - P_LOW) {
+      double q = Math.sqrt(-2 * Math.log(1 - p));
+      return -(((((C[0] * q + C[1]) * q + C[2]) * q + C[3]) * q + C[4]) * q + C[5])
+             / ((((D[0] * q + D[1]) * q + D[2]) * q + D[3]) * q + 1);
+    }
+    double q = p - 0.5;
+    double r = q * q;
+    return (((((A[0] * r + A[1]) * r + A[2]) * r + A[3]) * r + A[4]) * r + A[5]) * q
+           / (((((B[0] * r + B[1]) * r + B[2]) * r + B[3]) * r + B[4]) * r + 1);
+  }
+
+  private static final double P_LOW = 0.02425;
+  private static final double[] A = {
+    -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+    1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+  private static final double[] B = {
+    -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+    6.680131188771972e+01, -1.328068155288572e+01 };
+  private static final double[] C = {
+    -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+    -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+  private static final double[] D = {
+    7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+    3.754408661907416e+00 };
+
+} // class ScenarioSampler
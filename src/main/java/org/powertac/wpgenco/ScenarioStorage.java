@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Where and at which precision the values of a {@link ScenarioMatrix} are
+ * kept. The float variants halve memory and memory bandwidth; scenario
+ * data rarely has more than a few significant digits.
+ */
+public enum ScenarioStorage
+{
+  /** double arrays on the Java heap */
+  HEAP(false, 8),
+  /** double direct buffers outside the Java heap */
+  DIRECT(true, 8),
+  /** float arrays on the Java heap */
+  HEAP_FLOAT(false, 4),
+  /** float direct buffers outside the Java heap */
+  DIRECT_FLOAT(true, 4);
+
+  private final boolean direct;
+  private final int bytesPerValue;
+
+  private ScenarioStorage (boolean direct, int bytesPerValue)
+  {
+    this.direct = direct;
+    this.bytesPerValue = bytesPerValue;
+  }
+
+  /**
+   * True for storage outside the Java heap, which must be freed by
+   * ScenarioMatrix.release().
+   */
+  public boolean isDirect ()
+  {
+    return direct;
+  }
+
+  public int getBytesPerValue ()
+  {
+    return bytesPerValue;
+  }
+
+  /**
+   * Returns the storage for configured names: heap or direct, and double
+   * or float precision.
+   */
+  public static ScenarioStorage forName (String name, String precision)
+  {
+    boolean compact = "float".equalsIgnoreCase(precision);
+    if ("direct".equalsIgnoreCase(name)) {
+      return compact? DIRECT_FLOAT: DIRECT;
+    }
+    return compact? HEAP_FLOAT: HEAP;
+  }
+}
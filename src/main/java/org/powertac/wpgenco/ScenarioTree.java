@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scenarios that share their values up to some lead hour stored as a tree:
+ * the scenarios pass through the same node as long as their values stay
+ * close, and branch once they separate. Error scenarios are usually almost
+ * identical at short leads and only spread out at longer ones, so the
+ * number of nodes is much smaller than scenarios times hours, and
+ * everything computed per node - wind speed, power, expectations - is
+ * cheaper by the same factor.
+ * <p>
+ * A tree is built from a scenario matrix. At each lead hour, scenarios
+ * are merged into one node if they were in the same node at the previous
+ * hour and their values fall into the same interval of width tolerance;
+ * with tolerance 0 only exactly equal values are merged. A node holds the
+ * probability-weighted mean value and the total probability of its
+ * scenarios. Nodes are stored hour by hour in arrays, so the nodes of lead
+ * hour h are getFirstNode(h) to getFirstNode(h + 1) - 1. Trees are
+ * immutable.
+ */
+public class ScenarioTree
+{
+  private final int numScenarios;
+  private final int horizon;
+  // index of the first node of each lead hour, and the node count last
+  private final int[] firstNode;
+  private final int[] parent;
+  private final double[] value;
+  private final double[] probability;
+  // node of each scenario at the last lead hour
+  private final int[] leaf;
+
+  private ScenarioTree (int numScenarios, int horizon, int[] firstNode,
+                        int[] parent, double[] value, double[] probability,
+                        int[] leaf)
+  {
+    this.numScenarios = numScenarios;
+    this.horizon = horizon;
+    this.firstNode = firstNode;
+    this.parent = parent;
+    this.value = value;
+    this.probability = probability;
+    this.leaf = leaf;
+  }
+
+  /**
+   * Builds the tree of the scenarios of matrix, merging values that lie
+   * in the same interval of width tolerance.
+   */
+  public static ScenarioTree build (ScenarioMatrix matrix, double tolerance)
+  {
+    final int numScenarios = matrix.getNumberOfScenarios();
+    final int horizon = matrix.getHorizon();
+    int capacity = Math.max(16, numScenarios);
+    int[] parent = new int[capacity];
+    double[] value = new double[capacity];
+    double[] probability = new double[capacity];
+    int[] firstNode = new int[horizon + 1];
+    int[] current = new int[numScenarios];
+    Map<NodeKey, Integer> nodes = new HashMap<NodeKey, Integer>();
+    int count = 0;
+
+    for (int h = 0; h < horizon; h++) {
+      firstNode[h] = count;
+      nodes.clear();
+      for (int s = 0; s < numScenarios; s++) {
+        double x = matrix.get(s, h);
+        long bucket = (tolerance > 0)? (long) Math.floor(x / tolerance)
+                                     : Double.doubleToLongBits(x);
+        int from = (h == 0)? -1: current[s];
+        NodeKey key = new NodeKey(from, bucket);
+        Integer node = nodes.get(key);
+        if (node == null) {
+          if (count == parent.length) {
+            capacity = 2 * capacity;
+            parent = Arrays.copyOf(parent, capacity);
+            value = Arrays.copyOf(value, capacity);
+            probability = Arrays.copyOf(probability, capacity);
+          }
+          node = count++;
+          parent[node] = from;
+          value[node] = 0;
+          probability[node] = 0;
+          nodes.put(key, node);
+        }
+        double p = matrix.getProbability(s);
+        // sums for now, turned into means below
+        value[node] += p * x;
+        probability[node] += p;
+        current[s] = node;
+      }
+    }
+    firstNode[horizon] = count;
+    for (int n = 0; n < count; n++) {
+      if (probability[n] > 0) {
+        value[n] /= probability[n];
+      }
+    }
+    return new ScenarioTree(numScenarios, horizon, firstNode,
+                            Arrays.copyOf(parent, count),
+                            Arrays.copyOf(value, count),
+                            Arrays.copyOf(probability, count), current);
+  }
+
+  // parent node and value interval of a node under construction
+  private static final class NodeKey
+  {
+    private final int parent;
+    private final long bucket;
+
+    NodeKey (int parent, long bucket)
+    {
+      this.parent = parent;
+      this.bucket = bucket;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return 31 * parent + (int) (bucket ^ (bucket >>> 32));
+    }
+
+    @Override
+    public boolean equals (Object o)
+    {
+      if (!(o instanceof NodeKey)) {
+        return false;
+      }
+      NodeKey other = (NodeKey) o;
+      return parent == other.parent && bucket == other.bucket;
+    }
+  }
+
+  public int getNumberOfScenarios ()
+  {
+    return numScenarios;
+  }
+
+  public int getHorizon ()
+  {
+    return horizon;
+  }
+
+  public int getNodeCount ()
+  {
+    return firstNode[horizon];
+  }
+
+  /**
+   * First node of lead hour h; getFirstNode(getHorizon()) is the node
+   * count.
+   */
+  public int getFirstNode (int h)
+  {
+    return firstNode[h];
+  }
+
+  public int getParent (int node)
+  {
+    return parent[node];
+  }
+
+  public double getValue (int node)
+  {
+    return value[node];
+  }
+
+  public double getProbability (int node)
+  {
+    return probability[node];
+  }
+
+  /**
+   * Node of scenario s at the last lead hour; its ancestors are the nodes
+   * of s at the earlier hours.
+   */
+  public int getLeaf (int s)
+  {
+    return leaf[s];
+  }
+
+  /**
+   * Writes the value of each node of nodeValues into the path of each
+   * scenario of result, which must have the scenarios of the tree and at
+   * most its horizon; the scenario probabilities of result are left
+   * alone. This costs scenarios times hours and is only needed by
+   * consumers of full paths.
+   */
+  public void expand (double[] nodeValues, ScenarioMatrix result)
+  {
+    final int hours = result.getHorizon();
+    for (int s = 0; s < numScenarios; s++) {
+      int node = leaf[s];
+      for (int h = horizon - 1; h >= 0; h--) {
+        if (h < hours) {
+          result.set(s, h, nodeValues[node]);
+        }
+        node = parent[node];
+      }
+    }
+  }
+
+} // class ScenarioTree
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Prices of the last two weeks of timeslots, indexed by hour. Each hour
+ * has a clearing price, a minimum ask price (used as regulation down
+ * price) and a maximum ask price (used as regulation up price), kept in
+ * primitive arrays addressed by absolute hour modulo the ring size, so
+ * that the entry for the same hour yesterday or last week is found by
+ * index arithmetic.
+ * <p>
+ * A lookup for an hour without prices of its own follows the fallback
+ * chain: the same hour yesterday, the same hour last week, or the mean
+ * over all hours in the ring, in the configured order. Lookups and
+ * updates take constant time and allocate nothing.
+ */
+public class SeasonalPriceIndex
+{
+  public static final int CLEARING = 0;
+  public static final int MIN_ASK = 1;
+  public static final int MAX_ASK = 2;
+  private static final int COMPONENTS = 3;
+  private static final int COMPLETE = (1 << COMPONENTS) - 1;
+
+  /** fallback to the same hour one day earlier */
+  public static final int FALLBACK_YESTERDAY = 0;
+  /** fallback to the same hour one week earlier */
+  public static final int FALLBACK_LAST_WEEK = 1;
+  /** fallback to the mean over the ring */
+  public static final int FALLBACK_MEAN = 2;
+
+  private static final long HOUR = 60 * 60 * 1000;
+  private static final int DAY_HOURS = 24;
+  private static final int WEEK_HOURS = 7 * DAY_HOURS;
+  private static final int SIZE = 2 * WEEK_HOURS;
+
+  private final int[] fallbackChain;
+
+  // ring entries, index hour % SIZE
+  private final long[] hours = new long[SIZE];
+  private final int[] present = new int[SIZE]; // bit per component
+  private final double[] prices = new double[SIZE * COMPONENTS];
+
+  // running sums over the ring, per component
+  private final double[] sums = new double[COMPONENTS];
+  private final int[] counts = new int[COMPONENTS];
+
+  /**
+   * Creates an index with the fallback chain yesterday, last week, mean.
+   */
+  public SeasonalPriceIndex ()
+  {
+    this(new int[] {FALLBACK_YESTERDAY, FALLBACK_LAST_WEEK, FALLBACK_MEAN});
+  }
+
+  public SeasonalPriceIndex (int[] fallbackChain)
+  {
+    this.fallbackChain = fallbackChain.clone();
+    for (int i = 0; i < SIZE; i++) {
+      hours[i] = -1;
+    }
+  }
+
+  /**
+   * Translates a configured fallback chain, a list of the names
+   * "yesterday", "lastweek" and "mean".
+   */
+  public static int[] parseFallbackChain (List<String> names)
+  {
+    int[] result = new int[names.size()];
+    for (int i = 0; i < result.length; i++) {
+      String name = names.get(i).trim();
+      if ("yesterday".equals(name)) {
+        result[i] = FALLBACK_YESTERDAY;
+      }
+      else if ("lastweek".equals(name)) {
+        result[i] = FALLBACK_LAST_WEEK;
+      }
+      else if ("mean".equals(name)) {
+        result[i] = FALLBACK_MEAN;
+      }
+      else {
+        throw new IllegalArgumentException("unknown price fallback " + name);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Records all three prices of the hour starting at startMillis.
+   */
+  public void record (long startMillis, double clearing, double minAsk,
+                      double maxAsk)
+  {
+    set(startMillis, CLEARING, clearing);
+    set(startMillis, MIN_ASK, minAsk);
+    set(startMillis, MAX_ASK, maxAsk);
+  }
+
+  /**
+   * Records one price of the hour starting at startMillis.
+   */
+  public void set (long startMillis, int component, double price)
+  {
+    long hour = startMillis / HOUR;
+    int slot = (int) (hour % SIZE);
+    if (hours[slot] != hour) {
+      evict(slot);
+      hours[slot] = hour;
+    }
+    int index = slot * COMPONENTS + component;
+    int bit = 1 << component;
+    if ((present[slot] & bit) != 0) {
+      sums[component] -= prices[index];
+    }
+    else {
+      present[slot] |= bit;
+      counts[component]++;
+    }
+    prices[index] = price;
+    sums[component] += price;
+  }
+
+  private void evict (int slot)
+  {
+    for (int c = 0; c < COMPONENTS; c++) {
+      if ((present[slot] & (1 << c)) != 0) {
+        sums[c] -= prices[slot * COMPONENTS + c];
+        counts[c]--;
+      }
+    }
+    present[slot] = 0;
+  }
+
+  /**
+   * Writes the clearing, minimum ask and maximum ask prices for the hour
+   * starting at startMillis into result, following the fallback chain if
+   * the hour has no prices of its own. Returns false and leaves result
+   * unchanged if no prices are known.
+   */
+  public boolean getPrices (long startMillis, double[] result)
+  {
+    long hour = startMillis / HOUR;
+    if (copy(hour, result)) {
+      return true;
+    }
+    for (int fallback: fallbackChain) {
+      switch (fallback) {
+      case FALLBACK_YESTERDAY:
+        if (copy(hour - DAY_HOURS, result)) {
+          return true;
+        }
+        break;
+      case FALLBACK_LAST_WEEK:
+        if (copy(hour - WEEK_HOURS, result)) {
+          return true;
+        }
+        break;
+      case FALLBACK_MEAN:
+        if (counts[CLEARING] > 0 && counts[MIN_ASK] > 0
+            && counts[MAX_ASK] > 0) {
+          for (int c = 0; c < COMPONENTS; c++) {
+            result[c] = sums[c] / counts[c];
+          }
+          return true;
+        }
+        break;
+      default:
+        break;
+      }
+    }
+    return false;
+  }
+
+  // copies the prices of hour if all three are known
+  private boolean copy (long hour, double[] result)
+  {
+    if (hour < 0) {
+      return false;
+    }
+    int slot = (int) (hour % SIZE);
+    if (hours[slot] != hour || present[slot] != COMPLETE) {
+      return false;
+    }
+    System.arraycopy(prices, slot * COMPONENTS, result, 0, COMPONENTS);
+    return true;
+  }
+
+
+  /**
+   * Writes the ring to a checkpoint, see {@link GencoCheckpoint}.
+   */
+  void writeState (DataOutputStream out) throws IOException
+  {
+    GencoCheckpoint.writeLongs(out, hours);
+    GencoCheckpoint.writeInts(out, present);
+    GencoCheckpoint.writeDoubles(out, prices);
+    GencoCheckpoint.writeDoubles(out, sums);
+    GencoCheckpoint.writeInts(out, counts);
+  }
+
+  /**
+   * Restores the ring written by writeState().
+   */
+  void readState (ByteBuffer in)
+  {
+    GencoCheckpoint.readLongs(in, hours);
+    GencoCheckpoint.readInts(in, present);
+    GencoCheckpoint.readDoubles(in, prices);
+    GencoCheckpoint.readDoubles(in, sums);
+    GencoCheckpoint.readInts(in, counts);
+  }
+
+} // class SeasonalPriceIndex
@@ -16,8 +16,16 @@
 
 package org.powertac.wpgenco;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.joda.time.Instant;
@@ -25,13 +33,17 @@ import org.joda.time.Instant;
 import org.powertac.common.Competition;
 import org.powertac.common.TimeService;
 import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherReport;
+import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.interfaces.BrokerProxy;
 import org.powertac.common.interfaces.InitializationService;
 import org.powertac.common.interfaces.ServerConfiguration;
 import org.powertac.common.interfaces.TimeslotPhaseProcessor;
 import org.powertac.common.repo.BrokerRepo;
-//import org.powertac.common.repo.RandomSeedRepo;
+import org.powertac.common.repo.RandomSeedRepo;
 import org.powertac.common.repo.TimeslotRepo;
+import org.powertac.common.repo.WeatherForecastRepo;
+import org.powertac.common.repo.WeatherReportRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -63,10 +75,32 @@ public class SimpleGencoService extends TimeslotPhaseProcessor
   @Autowired
   private BrokerProxy brokerProxyService;
 
-  // @Autowired
-  // private RandomSeedRepo randomSeedRepo;
+  @Autowired
+  private WeatherForecastRepo weatherForecastRepo;
+
+  @Autowired
+  private WeatherReportRepo weatherReportRepo;
+
+  @Autowired
+  private RandomSeedRepo randomSeedRepo;
+
+  @ConfigurableValue(valueType = "String", description = "sequential, actors to run the gencos concurrently on a shared pool, or workers to run them in worker processes")
+  private String executionMode = "sequential";
+  @ConfigurableValue(valueType = "Integer", description = "threads shared by the genco actors, 0 for one per processor")
+  private int actorThreads = 0;
+  @ConfigurableValue(valueType = "Integer", description = "msec to wait for the genco actors or workers in a timeslot, 0 for no limit")
+  private int activationTimeout = 60000;
+  @ConfigurableValue(valueType = "Integer", description = "number of genco worker processes, 0 for one per processor")
+  private int workers = 0;
+  @ConfigurableValue(valueType = "String", description = "JVM arguments of the genco worker processes")
+  private String workerJvmArgs = "";
 
   private List<WindfarmGenco> windfarmGencos;
+  // actor mode only
+  private List<GencoActor> actors = null;
+  private ExecutorService actorExecutor = null;
+  // worker mode only
+  private GencoWorkerPool workerPool = null;
 
   /**
    * Default constructor
@@ -91,18 +125,76 @@ public class SimpleGencoService extends TimeslotPhaseProcessor
     initialize (Competition competition, List<String> completedInits)
   {
     super.init();
+    serverConfig.configureMe(this);
+    // free the storage of the gencos of a previous game
+    if (windfarmGencos != null) {
+      for (WindfarmGenco windfarmGenco: windfarmGencos) {
+        windfarmGenco.release();
+      }
+    }
+    WeatherForecastCache.clear();
     // create the genco list
     windfarmGencos = new ArrayList<WindfarmGenco>();
     for (Object gencoObj: serverConfig.configureInstances(WindfarmGenco.class)) {
       WindfarmGenco windfarmGenco = (WindfarmGenco) gencoObj;
       brokerRepo.add(windfarmGenco);
-      windfarmGenco.init(brokerProxyService);
       windfarmGencos.add(windfarmGenco);
     }
+    // the error scenario generator is configured once and shared
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    serverConfig.configureMe(generator);
+    for (WindfarmGenco windfarmGenco: windfarmGencos) {
+      windfarmGenco.setErrorGenerator(generator);
+    }
+    addClusters(serverConfig.configureInstances(TurbineCluster.class));
+    // in worker mode, the models of the gencos live in the workers
+    startWorkers();
+    for (WindfarmGenco windfarmGenco: windfarmGencos) {
+      if (workerPool != null) {
+        windfarmGenco.initRemote(brokerProxyService, randomSeedRepo);
+      }
+      else {
+        windfarmGenco.init(brokerProxyService, timeslotRepo,
+                           weatherForecastRepo, randomSeedRepo);
+      }
+    }
+    startActors();
 
     return "WindfarmGenco";
   }
 
+  /**
+   * Attaches the turbine clusters to the gencos they name; clusters of
+   * unknown gencos are logged and skipped. Must be called before the
+   * gencos are initialized.
+   */
+  void addClusters (Collection<?> clusters)
+  {
+    if (clusters == null) {
+      return;
+    }
+    for (Object clusterObj: clusters) {
+      TurbineCluster cluster = (TurbineCluster) clusterObj;
+      WindfarmGenco owner = findGenco(cluster.getGenco());
+      if (owner == null) {
+        log.error("turbine cluster " + cluster.getName()
+                  + ": no genco " + cluster.getGenco());
+        continue;
+      }
+      owner.addCluster(cluster);
+    }
+  }
+
+  private WindfarmGenco findGenco (String username)
+  {
+    for (WindfarmGenco windfarmGenco: windfarmGencos) {
+      if (windfarmGenco.getUsername().equals(username)) {
+        return windfarmGenco;
+      }
+    }
+    return null;
+  }
+
   /**
    * Simply receives and stores the list of genco and buyer instances generated
    * by the initialization service.
@@ -110,11 +202,137 @@ public class SimpleGencoService extends TimeslotPhaseProcessor
   public void init (List<WindfarmGenco> windfarmGencos)
   {
     this.windfarmGencos = windfarmGencos;
+    startActors();
+    startWorkers();
+  }
+
+  /**
+   * Sets the execution mode, for running without Spring, with the number
+   * of actor threads or worker processes; must be called before init().
+   */
+  void setExecutionMode (String mode, int parallelism)
+  {
+    this.executionMode = mode;
+    this.actorThreads = parallelism;
+    this.workers = parallelism;
+  }
+
+  // in actor mode, creates an actor per genco on a shared pool; stops the
+  // actors of a previous game
+  private void startActors ()
+  {
+    stopActors();
+    if (!"actors".equals(executionMode)) {
+      return;
+    }
+    int threads = actorThreads;
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    final AtomicInteger count = new AtomicInteger();
+    actorExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread (Runnable r)
+      {
+        Thread thread = new Thread(r, "genco-actor-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    actors = new ArrayList<GencoActor>();
+    for (WindfarmGenco windfarmGenco: windfarmGencos) {
+      GencoActor actor = new GencoActor(windfarmGenco, actorExecutor);
+      windfarmGenco.setActor(actor);
+      actors.add(actor);
+    }
+    log.info(actors.size() + " genco actors on " + threads + " threads");
+  }
+
+  private void stopActors ()
+  {
+    if (actorExecutor != null) {
+      actorExecutor.shutdown();
+      actorExecutor = null;
+    }
+    if (actors != null) {
+      for (GencoActor actor: actors) {
+        actor.getGenco().setActor(null);
+      }
+      actors = null;
+    }
+  }
+
+  // in worker mode, starts the worker processes; stops the workers of a
+  // previous game. If the workers cannot be started, the gencos run in
+  // this process.
+  private void startWorkers ()
+  {
+    stopWorkers();
+    if (!"workers".equals(executionMode)) {
+      return;
+    }
+    int processes = workers;
+    if (processes <= 0) {
+      processes = Runtime.getRuntime().availableProcessors();
+    }
+    GencoWorkerPool pool =
+      new GencoWorkerPool(windfarmGencos, processes, workerJvmArgs);
+    try {
+      pool.start();
+      workerPool = pool;
+    }
+    catch (IOException ioe) {
+      log.error("cannot start genco workers, running gencos locally", ioe);
+      pool.close();
+    }
+  }
+
+  private void stopWorkers ()
+  {
+    if (workerPool != null) {
+      workerPool.close();
+      workerPool = null;
+    }
+  }
+
+  /**
+   * Stops the genco actors or worker processes, for running without
+   * Spring.
+   */
+  void stop ()
+  {
+    stopActors();
+    stopWorkers();
+  }
+
+  /**
+   * Sets the time to wait for the gencos in each timeslot in actor or
+   * worker mode, for running without Spring.
+   */
+  void setActivationTimeout (int msec)
+  {
+    this.activationTimeout = msec;
+  }
+
+  /**
+   * Sets the services used by activate(), for running without Spring.
+   */
+  void setServices (TimeService timeService, TimeslotRepo timeslotRepo,
+                    WeatherForecastRepo weatherForecastRepo)
+  {
+    this.timeService = timeService;
+    this.timeslotRepo = timeslotRepo;
+    this.weatherForecastRepo = weatherForecastRepo;
   }
 
   /**
    * Called once/timeslot, simply calls updateModel() and generateOrders() on
-   * each of the windfarmGencos.
+   * each of the windfarmGencos. In actor mode, the activation is sent to
+   * all genco actors, and their orders are routed once all of them are
+   * done, in the order of the gencos. In worker mode, the same is done
+   * by the worker processes. Gencos that are not done within the
+   * activation timeout make no offers in this timeslot; the gencos of a
+   * worker that timed out run in this process from the next timeslot.
    */
   @Override
   public void activate (Instant now, int phase)
@@ -122,9 +340,87 @@ public class SimpleGencoService extends TimeslotPhaseProcessor
     log.info("Activate");
     List<Timeslot> openSlots = timeslotRepo.enabledTimeslots();
     Instant when = timeService.getCurrentTime();
+    WeatherReport report = null;
+    if (weatherReportRepo != null) {
+      report = weatherReportRepo.currentWeatherReport();
+    }
+    if (workerPool != null) {
+      workerPool.activate(when, timeslotRepo, weatherForecastRepo, openSlots,
+                          report, activationTimeout);
+      routePendingOrders();
+    }
+    else if (actors != null) {
+      activateActors(when, openSlots, report);
+    }
+    else {
+      for (WindfarmGenco windfarmGenco: windfarmGencos) {
+        if (report != null) {
+          windfarmGenco.observeWeather(report);
+        }
+        windfarmGenco.updateModel(when);
+        windfarmGenco.generateOrders(when, openSlots);
+      }
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("scenario storage: " + getScenarioStorageBytes()
+                + " bytes, off-heap " + ScenarioMatrix.getOffHeapBytes()
+                + " bytes");
+    }
+  }
+
+  private void activateActors (Instant when, List<Timeslot> openSlots,
+                               WeatherReport report)
+  {
+    CountDownLatch done = new CountDownLatch(actors.size());
+    for (GencoActor actor: actors) {
+      actor.activate(when, openSlots, report, done);
+    }
+    try {
+      if (activationTimeout > 0) {
+        if (!done.await(activationTimeout, TimeUnit.MILLISECONDS)) {
+          log.error(done.getCount() + " of " + actors.size()
+                    + " gencos not done after " + activationTimeout
+                    + " msec");
+        }
+      }
+      else {
+        done.await();
+      }
+    }
+    catch (InterruptedException ie) {
+      log.error("interrupted waiting for the gencos");
+      Thread.currentThread().interrupt();
+    }
+    // a genco that is still busy may be writing its orders
+    for (GencoActor actor: actors) {
+      if (actor.isDone()) {
+        actor.getGenco().routePendingOrders();
+      }
+      else {
+        log.warn(actor.getGenco().getUsername()
+                 + ": not done, no offers in this timeslot");
+      }
+    }
+  }
+
+  private void routePendingOrders ()
+  {
     for (WindfarmGenco windfarmGenco: windfarmGencos) {
-      windfarmGenco.updateModel(when);
-      windfarmGenco.generateOrders(when, openSlots);
+      windfarmGenco.routePendingOrders();
+    }
+  }
+
+  /**
+   * Total bytes held by the scenario matrices of all windfarm gencos.
+   */
+  public long getScenarioStorageBytes ()
+  {
+    long result = 0;
+    if (windfarmGencos != null) {
+      for (WindfarmGenco windfarmGenco: windfarmGencos) {
+        result += windfarmGenco.getScenarioStorageBytes();
+      }
     }
+    return result;
   }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Randomized Sobol sequence. Scenario s uses point s + 1 of the sequence
+ * (point 0 is the origin), with a random digital shift per dimension so
+ * that different seeds give different, equally well spread point sets.
+ * Points are computed directly from their index, so blocks of scenarios
+ * can be generated independently.
+ * 
+ * Direction numbers are those of Joe and Kuo for the first
+ * {@link #MAX_DIMENSIONS} dimensions; further dimensions fall back to
+ * Latin hypercube sampling.
+ */
+public class SobolSampler extends ScenarioSampler
+{
+  private static Logger log = Logger.getLogger(SobolSampler.class);
+
+  private static final int BITS = 32;
+
+  // Joe-Kuo direction number parameters for dimensions 2 and up:
+  // degree s, polynomial coefficients a, initial numbers m1 .. ms
+  private static final int[][] PARAMS = {
+    {1, 0, 1}, {2, 1, 1, 3}, {3, 1, 1, 3, 1}, {3, 2, 1, 1, 1},
+    {4, 1, 1, 1, 3, 3}, {4, 4, 1, 3, 5, 13}, {5, 2, 1, 1, 5, 5, 17},
+    {5, 4, 1, 1, 5, 5, 5}, {5, 7, 1, 1, 7, 11, 19}, {5, 11, 1, 1, 5, 1, 1},
+    {5, 13, 1, 1, 1, 3, 11}, {5, 14, 1, 3, 5, 5, 31},
+    {6, 1, 1, 3, 3, 9, 7, 49}, {6, 13, 1, 1, 1, 15, 21, 21},
+    {6, 16, 1, 3, 1, 13, 27, 49}, {6, 19, 1, 1, 1, 15, 7, 5},
+    {6, 22, 1, 3, 1, 15, 13, 25}, {6, 25, 1, 1, 5, 5, 19, 61},
+    {7, 1, 1, 3, 7, 11, 23, 15, 103}, {7, 4, 1, 3, 7, 13, 13, 15, 69},
+    {7, 7, 1, 1, 3, 13, 7, 35, 63}, {7, 8, 1, 3, 5, 9, 1, 25, 53},
+    {7, 14, 1, 3, 1, 13, 9, 35, 107}, {7, 19, 1, 3, 1, 5, 27, 61, 31},
+    {7, 21, 1, 1, 5, 11, 19, 41, 61}, {7, 28, 1, 3, 5, 3, 3, 13, 69},
+    {7, 31, 1, 1, 7, 13, 1, 19, 1}, {7, 32, 1, 3, 7, 5, 13, 19, 59},
+    {7, 37, 1, 1, 3, 9, 25, 29, 41}, {7, 41, 1, 3, 5, 13, 23, 1, 55},
+    {7, 42, 1, 3, 7, 3, 13, 59, 17}, {7, 50, 1, 3, 1, 3, 5, 53, 69},
+    {7, 55, 1, 1, 5, 5, 23, 33, 13}, {7, 56, 1, 1, 7, 7, 1, 61, 123},
+    {7, 59, 1, 1, 7, 9, 13, 61, 49}, {7, 62, 1, 3, 3, 5, 3, 55, 33}
+  };
+
+  /** number of dimensions with Sobol direction numbers */
+  public static final int MAX_DIMENSIONS = PARAMS.length + 1;
+
+  private int sobolDimensions = 0;
+  // direction[dimension][bit]
+  private int[][] direction = null;
+  private int[] shift = null;
+  private LatinHypercubeSampler overflow = null;
+
+  @Override
+  public void prepare (int numberOfScenarios, int dimensions,
+                       ScenarioRandom rng)
+  {
+    sobolDimensions = Math.min(dimensions, MAX_DIMENSIONS);
+    direction = new int[sobolDimensions][];
+    shift = new int[sobolDimensions];
+    for (int d = 0; d < sobolDimensions; d++) {
+      direction[d] = directionNumbers(d);
+      shift[d] = (int) rng.nextLong();
+    }
+    if (dimensions > sobolDimensions) {
+      log.warn("Sobol sampling supports " + MAX_DIMENSIONS
+               + " dimensions, using Latin hypercube for the remaining "
+               + (dimensions - sobolDimensions));
+      overflow = new LatinHypercubeSampler();
+      overflow.prepare(numberOfScenarios, dimensions - sobolDimensions,
+                       rng.split(dimensions));
+    }
+  }
+
+  @Override
+  public double nextGaussian (int scenario, int dimension, ScenarioRandom rng)
+  {
+    if (dimension >= sobolDimensions) {
+      return overflow.nextGaussian(scenario, dimension - sobolDimensions, rng);
+    }
+    int x = bits(scenario, direction[dimension]) ^ shift[dimension];
+    double u = ((x & 0xffffffffL) + 0.5) / 4294967296.0;
+    return inverseNormal(u);
+  }
+
+  /**
+   * Point of the unshifted Sobol sequence in the given dimension, in
+   * [0, 1). Scenario 0 is the first point after the origin.
+   */
+  static double getPoint (int scenario, int dimension)
+  {
+    int x = bits(scenario, directionNumbers(dimension));
+    return (x & 0xffffffffL) / 4294967296.0;
+  }
+
+  // the bits of a point, from the direction numbers of its dimension
+  private static int bits (int scenario, int[] v)
+  {
+    int index = scenario + 1;
+    int gray = index ^ (index >>> 1);
+    int x = 0;
+    for (int bit = 0; gray != 0; bit++, gray >>>= 1) {
+      if ((gray & 1) != 0) {
+        x ^= v[bit];
+      }
+    }
+    return x;
+  }
+
+  private static int[] directionNumbers (int dimension)
+  {
+    int[] v = new int[BITS];
+    if (dimension == 0) {
+      for (int k = 0; k < BITS; k++) {
+        v[k] = 1 << (BITS - 1 - k);
+      }
+      return v;
+    }
+    int[] p = PARAMS[dimension - 1];
+    int s = p[0];
+    int a = p[1];
+    for (int k = 0; k < s; k++) {
+      v[k] = p[2 + k] << (BITS - 1 - k);
+    }
+    for (int k = s; k < BITS; k++) {
+      v[k] = v[k - s] ^ (v[k - s] >>> s);
+      for (int j = 1; j < s; j++) {
+        if (((a >>> (s - 1 - j)) & 1) != 0) {
+          v[k] ^= v[k - j];
+        }
+      }
+    }
+    return v;
+  }
+
+} // class SobolSampler
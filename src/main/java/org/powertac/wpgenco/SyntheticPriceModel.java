@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Price model with a daily profile plus noise. The clearing price follows
+ * meanPrice + dailyAmplitude * sin(2 pi (hour - 6) / 24) plus normal noise;
+ * regulation prices are fixed fractions and multiples of it. Prices only
+ * depend on the seed, day and hour.
+ */
+public class SyntheticPriceModel implements PriceModel
+{
+  private final ScenarioRandom root;
+  private double meanPrice = 40.0;
+  private double dailyAmplitude = 15.0;
+  private double noise = 5.0;
+  private double regulationDownFactor = 0.5;
+  private double regulationUpFactor = 1.8;
+
+  public SyntheticPriceModel (long seed)
+  {
+    this.root = new ScenarioRandom(seed);
+  }
+
+  public void setMeanPrice (double price)
+  {
+    this.meanPrice = price;
+  }
+
+  public void setDailyAmplitude (double amplitude)
+  {
+    this.dailyAmplitude = amplitude;
+  }
+
+  public void setNoise (double noise)
+  {
+    this.noise = noise;
+  }
+
+  @Override
+  public void getPrices (int day, int hour, double[] prices)
+  {
+    ScenarioRandom rng = root.split(day * 24L + hour);
+    double mcp = meanPrice
+                 + dailyAmplitude * Math.sin(2 * Math.PI * (hour - 6) / 24)
+                 + noise * rng.nextGaussian();
+    mcp = Math.max(0.0, mcp);
+    prices[CLEARING] = mcp;
+    prices[REGULATION_DOWN] = mcp * regulationDownFactor;
+    prices[REGULATION_UP] = mcp * regulationUpFactor;
+  }
+
+} // class SyntheticPriceModel
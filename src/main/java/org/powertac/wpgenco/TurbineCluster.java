@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.powertac.common.config.ConfigurableInstance;
+import org.powertac.common.config.ConfigurableValue;
+import org.powertac.common.repo.WeatherForecastRepo;
+
+/**
+ * A group of turbines of a windfarm genco at a sub-site with its own
+ * elevation, hub height, turbine type and efficiency curve. The genco's
+ * own turbines form its primary cluster; further clusters are configured
+ * as named instances that name their genco, for example
+ * <pre>
+ *   wpgenco.turbineCluster.instances = ridge
+ *   wpgenco.turbineCluster.ridge.genco = WindfarmGenco1
+ *   wpgenco.turbineCluster.ridge.hubHeight = 100
+ *   wpgenco.turbineCluster.ridge.numberOfTurbines = 40
+ * </pre>
+ * The server publishes a single weather forecast, so all clusters share
+ * the forecast of their genco; they differ in how it translates to wind
+ * speed and air density at their turbines. The power output of a cluster
+ * is added to that of the genco in every scenario.
+ */
+@ConfigurableInstance
+public class TurbineCluster
+{
+  private String name;
+
+  @ConfigurableValue(valueType = "String", description = "username of the genco the cluster belongs to")
+  private String genco = "";
+  @ConfigurableValue(valueType = "Integer", description = "number of turbines in the cluster")
+  private int numberOfTurbines = 10;
+  @ConfigurableValue(valueType = "Double", description = "capacity of each turbine in MW")
+  private double turbineCapacity = 1.5;
+  @ConfigurableValue(valueType = "Double", description = "minimum wind speed at which the turbines produce power")
+  private double cutInSpeed = 4.0; // meters/sec
+  @ConfigurableValue(valueType = "Double", description = "maximum wind speed at which the turbines produce power")
+  private double cutOutSpeed = 25.0; // meters/sec
+  @ConfigurableValue(valueType = "Double", description = "minimum wind speed at which the turbines produce power at their high limit")
+  private double maxPowerOutputspeed = 14.0; // meters/sec
+  @ConfigurableValue(valueType = "Double", description = "sweep area of turbine in m^2")
+  private double sweepAreaOfTurbine = 2391.2; // m^2
+  @ConfigurableValue(valueType = "Double", description = "elevation of the cluster above sea level in m")
+  private double elevation = 0.0;
+  @ConfigurableValue(valueType = "Double", description = "hub height of the turbines above ground in m")
+  private double hubHeight = 80.0;
+  @ConfigurableValue(valueType = "Double", description = "height above ground in m that forecast wind speeds refer to")
+  private double forecastHeight = 10.0;
+  @ConfigurableValue(valueType = "Double", description = "wind shear exponent for the extrapolation to hub height, 0 for none")
+  private double windShearExponent = 0.0;
+  @ConfigurableValue(valueType = "List", description = "wind speed bands of the efficiency curve, empty for the default curve")
+  private List<String> cfgWindSpeedbands = Arrays.asList();
+  @ConfigurableValue(valueType = "List", description = "slopes of the efficiency curve")
+  private List<String> cfgSlope = Arrays.asList();
+  @ConfigurableValue(valueType = "List", description = "y intercepts of the efficiency curve")
+  private List<String> cfgYIntercept = Arrays.asList();
+
+  private WindFarmEfficiencyCurve efficiencyCurve = null;
+  private final WindForecast windForecast = new WindForecast();
+  private AtmosphericProfile atmosphericProfile = new AtmosphericProfile();
+
+  public TurbineCluster (String name)
+  {
+    super();
+    this.name = name;
+  }
+
+  /**
+   * Builds the efficiency curve and connects the forecast, which is read
+   * under the genco's location so that the decoded forecast is shared
+   * with it; called by the genco once the configuration is applied.
+   */
+  void init (WeatherForecastRepo weatherForecastRepo, String location)
+  {
+    if (cfgWindSpeedbands.isEmpty()) {
+      efficiencyCurve = new WindFarmEfficiencyCurve();
+    }
+    else {
+      efficiencyCurve =
+        new WindFarmEfficiencyCurve(cfgWindSpeedbands, cfgSlope, cfgYIntercept);
+    }
+    if (weatherForecastRepo != null) {
+      windForecast.setWeatherForecastRepo(weatherForecastRepo);
+    }
+    windForecast.setLocation(location);
+    atmosphericProfile =
+      new AtmosphericProfile(elevation, hubHeight, forecastHeight,
+                             windShearExponent);
+  }
+
+  public String getName ()
+  {
+    return name;
+  }
+
+  public String getGenco ()
+  {
+    return genco;
+  }
+
+  public WindForecast getWindForecast ()
+  {
+    return windForecast;
+  }
+
+  public AtmosphericProfile getAtmosphericProfile ()
+  {
+    return atmosphericProfile;
+  }
+
+  public double getNominalCapacity ()
+  {
+    return turbineCapacity * numberOfTurbines;
+  }
+
+  /**
+   * Estimated power output of the cluster in MW.
+   */
+  public double getEstimatedPowerOutput (double windSpeed, double airDensity)
+  {
+    return WindfarmGenco.getPowerOutput(windSpeed, airDensity, cutInSpeed,
+                                        cutOutSpeed, maxPowerOutputspeed,
+                                        turbineCapacity, numberOfTurbines,
+                                        sweepAreaOfTurbine, efficiencyCurve);
+  }
+
+} // class TurbineCluster
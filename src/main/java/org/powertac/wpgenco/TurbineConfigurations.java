@@ -0,0 +1,188 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * A batch of candidate turbine configurations, evaluated together against
+ * one wind speed scenario matrix. The configurations are kept as parallel
+ * primitive arrays, one per configured genco parameter, so the evaluation
+ * loops run over contiguous data. The efficiency for each wind speed is
+ * looked up once and shared by all configurations; only the cheap per
+ * configuration arithmetic is repeated.
+ * <p>
+ * Power output follows {@link WindfarmGenco#getEstimatedPowerOutput}.
+ * All configurations share one efficiency curve.
+ */
+public class TurbineConfigurations
+{
+  private final WindFarmEfficiencyCurve efficiencyCurve;
+
+  private int size = 0;
+  private int[] numberOfTurbines = new int[8];
+  private double[] turbineCapacity = new double[8];
+  private double[] cutInSpeed = new double[8];
+  private double[] cutOutSpeed = new double[8];
+  private double[] maxPowerOutputspeed = new double[8];
+  private double[] sweepAreaOfTurbine = new double[8];
+
+  public TurbineConfigurations (WindFarmEfficiencyCurve efficiencyCurve)
+  {
+    this.efficiencyCurve = efficiencyCurve;
+  }
+
+  /**
+   * Adds a configuration, returns its index.
+   */
+  public int add (int turbines, double capacity, double cutIn,
+                  double cutOut, double maxPowerSpeed, double sweepArea)
+  {
+    if (size == numberOfTurbines.length) {
+      grow();
+    }
+    numberOfTurbines[size] = turbines;
+    turbineCapacity[size] = capacity;
+    cutInSpeed[size] = cutIn;
+    cutOutSpeed[size] = cutOut;
+    maxPowerOutputspeed[size] = maxPowerSpeed;
+    sweepAreaOfTurbine[size] = sweepArea;
+    return size++;
+  }
+
+  private void grow ()
+  {
+    int length = numberOfTurbines.length * 2;
+    int[] turbines = new int[length];
+    System.arraycopy(numberOfTurbines, 0, turbines, 0, size);
+    numberOfTurbines = turbines;
+    turbineCapacity = copyOf(turbineCapacity, length);
+    cutInSpeed = copyOf(cutInSpeed, length);
+    cutOutSpeed = copyOf(cutOutSpeed, length);
+    maxPowerOutputspeed = copyOf(maxPowerOutputspeed, length);
+    sweepAreaOfTurbine = copyOf(sweepAreaOfTurbine, length);
+  }
+
+  private double[] copyOf (double[] values, int length)
+  {
+    double[] result = new double[length];
+    System.arraycopy(values, 0, result, 0, size);
+    return result;
+  }
+
+  public int size ()
+  {
+    return size;
+  }
+
+  /**
+   * Nameplate capacity of configuration c in MW.
+   */
+  public double getCapacity (int c)
+  {
+    return turbineCapacity[c] * numberOfTurbines[c];
+  }
+
+  /**
+   * Computes power output scenarios of all configurations for the given
+   * wind speed scenarios and per-hour air density, into newly allocated
+   * heap matrices.
+   */
+  public ScenarioMatrix[] evaluate (ScenarioMatrix windSpeeds,
+                                    double[] airDensity)
+  {
+    ScenarioMatrix[] result = new ScenarioMatrix[size];
+    for (int c = 0; c < size; c++) {
+      result[c] = ScenarioMatrix.create(windSpeeds.getNumberOfScenarios(),
+                                        windSpeeds.getHorizon(),
+                                        ScenarioStorage.HEAP);
+    }
+    evaluate(windSpeeds, airDensity, result);
+    return result;
+  }
+
+  /**
+   * Computes power output scenarios of all configurations into result,
+   * which must hold one matrix per configuration shaped like windSpeeds.
+   */
+  public void evaluate (ScenarioMatrix windSpeeds, double[] airDensity,
+                        ScenarioMatrix[] result)
+  {
+    final int numScenarios = windSpeeds.getNumberOfScenarios();
+    final int horizon = windSpeeds.getHorizon();
+    // per scenario values shared by all configurations
+    final double[] speed = new double[numScenarios];
+    final double[] cubic = new double[numScenarios];
+    for (int c = 0; c < size; c++) {
+      for (int s = 0; s < numScenarios; s++) {
+        result[c].setProbability(s, windSpeeds.getProbability(s));
+      }
+    }
+    for (int h = 0; h < horizon; h++) {
+      for (int s = 0; s < numScenarios; s++) {
+        double ws = windSpeeds.get(s, h);
+        speed[s] = ws;
+        // power per m^2 of sweep area and turbine, in MW
+        cubic[s] = 0.5 * efficiencyCurve.getEfficiency(ws) * airDensity[h]
+                   * ws * ws * ws / 1000000;
+      }
+      for (int c = 0; c < size; c++) {
+        final double cutIn = cutInSpeed[c];
+        final double cutOut = cutOutSpeed[c];
+        final double maxSpeed = maxPowerOutputspeed[c];
+        final double full = turbineCapacity[c] * numberOfTurbines[c];
+        final double area = sweepAreaOfTurbine[c] * numberOfTurbines[c];
+        final ScenarioMatrix power = result[c];
+        for (int s = 0; s < numScenarios; s++) {
+          final double ws = speed[s];
+          double value;
+          if (ws < cutIn || ws > cutOut) {
+            value = 0.0;
+          }
+          else if (ws >= maxSpeed && ws < cutOut) {
+            value = full;
+          }
+          else {
+            value = cubic[s] * area;
+          }
+          power.set(s, h, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Offer quantities per configuration and hour for the given power
+   * scenarios and per-hour clearing, regulation down and regulation up
+   * prices.
+   */
+  public double[][] findOfferCapacities (ScenarioMatrix[] power,
+                                         double[] mcp, double[] crd,
+                                         double[] cru)
+  {
+    double[][] result = new double[size][];
+    for (int c = 0; c < size; c++) {
+      int horizon = power[c].getHorizon();
+      result[c] = new double[horizon];
+      for (int h = 0; h < horizon; h++) {
+        result[c][h] =
+          WindFarmOfferCalculator.findOfferCapacity(power[c], h,
+                                                    getCapacity(c), mcp[h],
+                                                    crd[h], cru[h], 1);
+      }
+    }
+    return result;
+  }
+
+} // class TurbineConfigurations
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+
+/**
+ * Weather forecasts decoded into primitive arrays, kept per location.
+ * A forecast is decoded once, the first time any wind forecast at its
+ * location asks for it; all gencos at that location then share the same
+ * immutable copy until the next forecast arrives.
+ */
+public class WeatherForecastCache
+{
+  // sea level pressure in Pa; forecasts carry no pressure
+  static final double standardAirPressure = 101325.0;
+
+  /**
+   * One decoded forecast. The arrays must not be modified.
+   */
+  public static final class Entry
+  {
+    private final long forecastId;
+    private final int timeslotSerial;
+    final double[] windSpeed;
+    final double[] temperature;
+    final double[] airPressure;
+    final double[] windDirection;
+
+    private Entry (long forecastId, int timeslotSerial, int size)
+    {
+      this.forecastId = forecastId;
+      this.timeslotSerial = timeslotSerial;
+      this.windSpeed = new double[size];
+      this.temperature = new double[size];
+      this.airPressure = new double[size];
+      this.windDirection = new double[size];
+    }
+
+    private Entry (double[] windSpeed, double[] temperature,
+                   double[] airPressure)
+    {
+      this.forecastId = -1;
+      this.timeslotSerial = -1;
+      this.windSpeed = windSpeed;
+      this.temperature = temperature;
+      this.airPressure = airPressure;
+      this.windDirection = new double[windSpeed.length];
+    }
+
+    /**
+     * Wraps forecast data that does not come from the weather forecast
+     * repo, such as historical data in batch runs. The arrays are not
+     * copied and must not be changed afterwards.
+     */
+    public static Entry of (double[] windSpeed, double[] temperature,
+                            double[] airPressure)
+    {
+      return new Entry(windSpeed, temperature, airPressure);
+    }
+
+    public int getHorizon ()
+    {
+      return windSpeed.length;
+    }
+
+    /**
+     * Serial number of the timeslot the forecast was issued in, -1 if it
+     * was not decoded from a WeatherForecast.
+     */
+    public int getTimeslotSerial ()
+    {
+      return timeslotSerial;
+    }
+
+    /**
+     * True if this entry was decoded from the given forecast.
+     */
+    boolean isDecodedFrom (WeatherForecast forecast)
+    {
+      return forecastId == forecast.getId()
+             && timeslotSerial == serialOf(forecast);
+    }
+  }
+
+  /** entry without data, used before the first forecast arrives */
+  public static final Entry EMPTY = new Entry(-1, -1, 0);
+
+  private static final ConcurrentHashMap<String, Entry> entries =
+    new ConcurrentHashMap<String, Entry>();
+
+  private WeatherForecastCache ()
+  {
+    super();
+  }
+
+  /**
+   * Returns the decoded form of forecast for location, decoding it only
+   * if it differs from the last forecast seen for that location.
+   */
+  public static Entry get (String location, WeatherForecast forecast)
+  {
+    Entry entry = entries.get(location);
+    if (entry != null && entry.isDecodedFrom(forecast)) {
+      return entry;
+    }
+    // concurrent callers may decode the same forecast twice; either copy
+    // is correct, the last one stays in the cache
+    entry = decode(forecast);
+    entries.put(location, entry);
+    return entry;
+  }
+
+  /**
+   * Drops all entries, for example at the start of a new game.
+   */
+  public static void clear ()
+  {
+    entries.clear();
+  }
+
+  private static Entry decode (WeatherForecast forecast)
+  {
+    List<WeatherForecastPrediction> predictions = forecast.getPredictions();
+    Entry entry = new Entry(forecast.getId(), serialOf(forecast),
+                            predictions.size());
+    int i = 0;
+    for (WeatherForecastPrediction wp: predictions) {
+      entry.windSpeed[i] = wp.getWindSpeed();
+      entry.airPressure[i] = standardAirPressure;
+      entry.temperature[i] = wp.getTemperature();
+      entry.windDirection[i] = wp.getWindDirection();
+      i++;
+    }
+    return entry;
+  }
+
+  private static int serialOf (WeatherForecast forecast)
+  {
+    if (forecast.getCurrentTimeslot() == null) {
+      return -1;
+    }
+    return forecast.getCurrentTimeslot().getSerialNumber();
+  }
+
+} // class WeatherForecastCache
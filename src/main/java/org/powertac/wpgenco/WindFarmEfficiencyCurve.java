@@ -16,6 +16,7 @@
 package org.powertac.wpgenco;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.powertac.common.config.ConfigurableInstance;
@@ -57,13 +58,22 @@ public class WindFarmEfficiencyCurve
     }
   } // static class WindSpeedband
 
-  /** Configured values to be read as List of Strings */
+  /** Configured values to be read as List of Strings, defaults as in
+   *  windfarm-genco.properties */
   @ConfigurableValue(valueType = "List", description = "wind speed bands")
-  private List<String> cfgWindSpeedbands = null;
+  private List<String> cfgWindSpeedbands =
+    Arrays.asList("4-5", "5-6", "6-7", "7-8", "8-9", "9-10", "10-11",
+                  "11-12", "12-13", "13-14");
   @ConfigurableValue(valueType = "List", description = "value of slope in a linear equation")
-  private List<String> cfgSlope = null;
+  private List<String> cfgSlope =
+    Arrays.asList("0.112704918", "0.048960386", "0.022516468", "0.01184951",
+                  "0.012746067", "0.007222986", "-0.029581606",
+                  "-0.068315931", "-0.068956675", "-0.055775751");
   @ConfigurableValue(valueType = "List", description = "value of y intercept in a linear equation")
-  private List<String> cfgYIntercept = null;
+  private List<String> cfgYIntercept =
+    Arrays.asList("-0.215582134", "0.103140528", "0.261804034", "0.33647274",
+                  "0.329300284", "0.379008009", "0.747053936", "1.173131512",
+                  "1.180820432", "1.009468425");
 
   /** This map should be populated from configured values */
   private List<WindSpeedband> windSpeedbands = new ArrayList<WindSpeedband>();
@@ -78,6 +88,20 @@ public class WindFarmEfficiencyCurve
     initialize();
   } // WindFarmEfficiencyCurve()
 
+  /**
+   * Constructor for a curve given by its own band, slope and y intercept
+   * lists, in the format of the configured values.
+   */
+  public WindFarmEfficiencyCurve (List<String> windSpeedbands,
+                                  List<String> slopes,
+                                  List<String> yIntercepts)
+  {
+    this.cfgWindSpeedbands = windSpeedbands;
+    this.cfgSlope = slopes;
+    this.cfgYIntercept = yIntercepts;
+    initialize();
+  }
+
   private void initialize ()
   {
 
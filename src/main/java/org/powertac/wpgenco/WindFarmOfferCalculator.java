@@ -16,16 +16,11 @@
 package org.powertac.wpgenco;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
-import org.joda.time.Instant;
 import org.powertac.common.Timeslot;
 import org.powertac.common.repo.TimeslotRepo;
-import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * This class provides functionality to determine optimal offers from the wind
@@ -39,63 +34,284 @@ public class WindFarmOfferCalculator
 {
   private static Logger log = Logger.getLogger(WindFarmOfferCalculator.class);
   private static double stepSize = 0.1; // must be > 0 and less than 0.5
+  // number of scenarios used for the first pass of a time-budgeted run
+  private static int coarseSampleSize = 16;
 
-  @Autowired
-  TimeslotRepo timeslotRepo;
+  private TimeslotRepo timeslotRepo;
 
-  private Map<Timeslot, Double> mapTimeSlotClearingPrices =
-    new HashMap<Timeslot, Double>();
-  private Map<Timeslot, Double> mapTimeSlotMinAskPrices =
-    new HashMap<Timeslot, Double>();
-  private Map<Timeslot, Double> mapTimeSlotMaxAskPrices =
-    new HashMap<Timeslot, Double>();
-  private Map<Timeslot, Integer> mapTimeslotToHour =
-    new HashMap<Timeslot, Integer>();
+  private SeasonalPriceIndex priceIndex;
+  // clearing, min ask and max ask price of the timeslot being evaluated
+  private final double[] prices = new double[3];
+  // forecast prices per component and enabled timeslot, null if not given
+  private final double[][] forecastPrices = new double[3][];
+  // enabled timeslots are consecutive; a timeslot's index among them is
+  // its lead hour in the scenarios and forecast prices
+  private int firstSerial = 0;
+  private int numberOfSlots = 0;
 
   private double maxCapacity = 0; // maximum capacity of windfarm
-  private List<Scenario> windfarmOutputScenarios = null;
+  private ScenarioMatrix windfarmOutputScenarios = null;
+  private ImbalanceTracker imbalanceTracker = null;
+  private ScenarioQuantiles outputQuantiles = null;
+  // inter-temporal mode, see setRampLimit()
+  private RampingOfferOptimizer rampingOptimizer = null;
+  private double rampLimit = 0;
+  private double initialOffer = Double.NaN;
+  private double[] curtailmentLimits = null;
+
+  // deadline in System.nanoTime() units, 0 if there is no deadline
+  private long deadline = 0;
+  // quality of the last result, see getScenarioFraction()
+  private double scenarioFraction = 1.0;
+  private double refinementDelta = 0.0;
 
   /**
    * Constructor.
    */
-  public WindFarmOfferCalculator (double maxCap, List<Scenario> wpScenarios)
+  public WindFarmOfferCalculator (double maxCap, ScenarioMatrix wpScenarios,
+                                  TimeslotRepo timeslotRepo)
+  {
+    this(maxCap, wpScenarios, timeslotRepo, new SeasonalPriceIndex());
+  }
+
+  /**
+   * Constructor with the price index of the genco, which keeps the price
+   * history across timeslots.
+   */
+  public WindFarmOfferCalculator (double maxCap, ScenarioMatrix wpScenarios,
+                                  TimeslotRepo timeslotRepo,
+                                  SeasonalPriceIndex priceIndex)
   {
+    this.timeslotRepo = timeslotRepo;
+    this.priceIndex = priceIndex;
     this.maxCapacity = maxCap;
     this.windfarmOutputScenarios = wpScenarios;
-    for (int i = 0; i < timeslotRepo.enabledTimeslots().size(); i++) {
-      Timeslot ts = timeslotRepo.enabledTimeslots().get(i);
-      mapTimeslotToHour.put(ts, i + 1);
+    List<Timeslot> enabled = timeslotRepo.enabledTimeslots();
+    if (!enabled.isEmpty()) {
+      firstSerial = enabled.get(0).getSerialNumber();
+      numberOfSlots = enabled.size();
     }
   }
 
+  /**
+   * Sets forecast clearing prices for the enabled timeslots, in the order
+   * of the timeslot repo. Forecasts take precedence over the price index.
+   */
   public void addClearingPrices (double[] prices)
   {
-    addPrices(mapTimeSlotClearingPrices, prices);
+    addPrices(SeasonalPriceIndex.CLEARING, prices);
   }
 
   public void addMinAskPrices (double[] prices)
   {
-    addPrices(mapTimeSlotMinAskPrices, prices);
+    addPrices(SeasonalPriceIndex.MIN_ASK, prices);
   }
 
   public void addMaxAskPrices (double[] prices)
   {
-    addPrices(mapTimeSlotMaxAskPrices, prices);
+    addPrices(SeasonalPriceIndex.MAX_ASK, prices);
+  }
+
+  /**
+   * Sets the tracker of realized imbalance settlements. Once it has seen
+   * enough settlements, its realized regulation prices replace the
+   * assumed ones.
+   */
+  public void setImbalanceTracker (ImbalanceTracker tracker)
+  {
+    this.imbalanceTracker = tracker;
+  }
+
+  /**
+   * Sets the sorted power output scenarios. With them, offers are found
+   * by findBreakpointOffer() over all scenarios instead of the capacity
+   * grid search, and a deadline has no effect. The power output scenarios
+   * passed to the constructor may then be null.
+   */
+  public void setOutputQuantiles (ScenarioQuantiles quantiles)
+  {
+    this.outputQuantiles = quantiles;
+  }
+
+  /**
+   * Switches to inter-temporal optimization: the offers of all open
+   * timeslots are found together by optimizer such that consecutive offers
+   * differ by at most rampLimit MW. The first offer is also limited
+   * relative to initialOffer, the commitment of the timeslot before the
+   * first open one, unless that is NaN. Requires output quantiles.
+   */
+  public void setRampLimit (RampingOfferOptimizer optimizer,
+                            double rampLimit, double initialOffer)
+  {
+    this.rampingOptimizer = optimizer;
+    this.rampLimit = rampLimit;
+    this.initialOffer = initialOffer;
+  }
+
+  /**
+   * Sets upper limits of the offers in MW, one per open timeslot, for
+   * curtailment ordered ahead of time. Only the inter-temporal mode uses
+   * them.
+   */
+  public void setCurtailmentLimits (double[] limits)
+  {
+    this.curtailmentLimits = limits;
+  }
+
+  /**
+   * Sets the deadline for getOptimalOfferCapacities() as a
+   * System.nanoTime() value. Once a deadline is set, the offers are first
+   * computed from a subsample of the scenarios, and then refined with
+   * larger subsamples as long as time remains. A value of 0 removes
+   * the deadline.
+   * 
+   * Only the refinement passes stop at the deadline. The coarse pass
+   * always runs to completion, so the call may return after the deadline
+   * by the time of that pass.
+   */
+  public void setDeadline (long nanoTime)
+  {
+    this.deadline = nanoTime;
+  }
+
+  /**
+   * Fraction of the power output scenarios that contributed to the
+   * offers returned by the last call to getOptimalOfferCapacities(),
+   * taken over the worst timeslot. 1.0 means the result is exact.
+   */
+  public double getScenarioFraction ()
+  {
+    return scenarioFraction;
+  }
+
+  /**
+   * Largest change of an offer capacity in MW between the last two
+   * refinement levels of a time-budgeted run. Small values indicate
+   * that the subsample estimate has settled.
+   */
+  public double getRefinementDelta ()
+  {
+    return refinementDelta;
   }
 
   public List<Double> getOptimalOfferCapacities (List<Timeslot> openSlots)
   {
+    if (rampingOptimizer != null && outputQuantiles != null) {
+      return getRampedOfferCapacities(openSlots);
+    }
+    if (deadline != 0 && outputQuantiles == null) {
+      return getBudgetedOfferCapacities(openSlots);
+    }
     List<Double> offerCaps = new ArrayList<Double>();
 
     for (Timeslot ts: openSlots) {
-      double oc = determineOfferCapacity(ts);
+      double oc = determineOfferCapacity(ts, 1);
       offerCaps.add(oc);
     }
+    scenarioFraction = 1.0;
+    refinementDelta = 0.0;
+
+    return offerCaps;
+  }
+
+  /**
+   * Anytime version of getOptimalOfferCapacities(). The first pass uses
+   * every n-th scenario so that about coarseSampleSize scenarios are
+   * evaluated; each further pass halves the stride until either all
+   * scenarios are used or the deadline passes. A pass that is interrupted
+   * by the deadline keeps the results of the previous pass for the
+   * timeslots it did not reach.
+   */
+  private List<Double> getBudgetedOfferCapacities (List<Timeslot> openSlots)
+  {
+    int numSlots = openSlots.size();
+    int numScenarios = windfarmOutputScenarios.getNumberOfScenarios();
+    double[] offers = new double[numSlots];
+    int[] strides = new int[numSlots];
+    int stride = Math.max(1, numScenarios / coarseSampleSize);
+
+    // coarse pass - always completed, whatever the deadline
+    for (int i = 0; i < numSlots; i++) {
+      offers[i] = determineOfferCapacity(openSlots.get(i), stride);
+      strides[i] = stride;
+    }
+    refinementDelta = maxCapacity;
+
+    // refinement passes
+    while (stride > 1 && System.nanoTime() < deadline) {
+      stride = stride / 2;
+      double delta = 0;
+      for (int i = 0; i < numSlots; i++) {
+        if (System.nanoTime() >= deadline) {
+          log.info("offer refinement stopped at stride " + stride
+                   + ", timeslot " + i + " of " + numSlots);
+          delta = maxCapacity;
+          break;
+        }
+        double oc = determineOfferCapacity(openSlots.get(i), stride);
+        delta = Math.max(delta, Math.abs(oc - offers[i]));
+        offers[i] = oc;
+        strides[i] = stride;
+      }
+      refinementDelta = delta;
+    }
+
+    int worstStride = 1;
+    for (int i = 0; i < numSlots; i++) {
+      worstStride = Math.max(worstStride, strides[i]);
+    }
+    scenarioFraction = (worstStride == 1)? 1.0: 1.0 / worstStride;
+    if (worstStride == 1) {
+      refinementDelta = 0.0;
+    }
+    log.debug("budgeted offers: scenario fraction " + scenarioFraction
+              + ", refinement delta " + refinementDelta);
+
+    List<Double> offerCaps = new ArrayList<Double>();
+    for (int i = 0; i < numSlots; i++) {
+      offerCaps.add(offers[i]);
+    }
+    return offerCaps;
+  }
 
+  /**
+   * Inter-temporal version of getOptimalOfferCapacities(), see
+   * setRampLimit().
+   */
+  private List<Double> getRampedOfferCapacities (List<Timeslot> openSlots)
+  {
+    int numSlots = openSlots.size();
+    double[] mcp = new double[numSlots];
+    double[] crd = new double[numSlots];
+    double[] cru = new double[numSlots];
+    for (int i = 0; i < numSlots; i++) {
+      if (findPrices(openSlots.get(i))) {
+        mcp[i] = prices[SeasonalPriceIndex.CLEARING];
+        crd[i] = prices[SeasonalPriceIndex.MIN_ASK];
+        cru[i] = prices[SeasonalPriceIndex.MAX_ASK];
+      }
+      else {
+        mcp[i] = Double.NaN;
+      }
+    }
+    double[] upper = null;
+    if (curtailmentLimits != null && curtailmentLimits.length >= numSlots) {
+      upper = curtailmentLimits;
+    }
+    double[] offers = new double[numSlots];
+    rampingOptimizer.optimize(outputQuantiles, numSlots, maxCapacity,
+                              mcp, crd, cru, upper, rampLimit, initialOffer,
+                              offers);
+    scenarioFraction = 1.0;
+    refinementDelta = 0.0;
+    List<Double> offerCaps = new ArrayList<Double>();
+    for (int i = 0; i < numSlots; i++) {
+      offerCaps.add(offers[i]);
+    }
     return offerCaps;
   }
 
-  private void addPrices (Map<Timeslot, Double> mapPriceStore, double[] prices)
+  private void addPrices (int component, double[] prices)
   {
     // sanity check
     if (prices == null) {
@@ -104,66 +320,158 @@ public class WindFarmOfferCalculator
     if (prices.length <= 0) {
       return;
     }
-    // get open timeslots
-    List<Timeslot> tsList = timeslotRepo.enabledTimeslots();
-    if (tsList == null) {
-      log.error("addClearingPrices: there are no enabled timeslots");
-      return;
-    }
-    if (tsList.size() != prices.length) {
+    if (numberOfSlots != prices.length) {
       log.error("addClearingPrices: invalid data");
       return;
     }
+    double[] forecast = new double[prices.length];
     for (int i = 0; i < prices.length; i++) {
-      Timeslot ts = tsList.get(i);
-      Double cp = Math.abs(prices[i]);
-      mapPriceStore.put(ts, cp);
-    }
-    // delete old data
-    Timeslot currTimeslot = timeslotRepo.currentTimeslot();
-    List<Timeslot> tobeRemoved = new ArrayList<Timeslot>();
-    Set<Timeslot> keySet = mapPriceStore.keySet();
-    for (Timeslot ts: keySet) {
-      Instant keyInstant = ts.getStartInstant();
-      Instant now = currTimeslot.getStartInstant();
-      if (now.isAfter(keyInstant.getMillis())) {
-        tobeRemoved.add(ts);
-      }
-    }
-    for (Timeslot ts: tobeRemoved) {
-      mapPriceStore.remove(ts);
+      forecast[i] = Math.abs(prices[i]);
     }
+    forecastPrices[component] = forecast;
   } // addClearingPrices()
 
+  /**
+   * Index of ts among the enabled timeslots, which is its lead hour in
+   * the scenarios, or -1 if it is not enabled.
+   */
+  private int getLeadIndex (Timeslot ts)
+  {
+    int index = ts.getSerialNumber() - firstSerial;
+    return (index >= 0 && index < numberOfSlots)? index: -1;
+  }
+
   /**
    * Determines optimal capacity to submit ask offer
    * 
    * @param ts
    *          timeslot for which the calculation is done.
+   * @param stride
+   *          only every stride-th scenario is evaluated; 1 uses all of them
    * @return optimal capacity
    */
-  private double determineOfferCapacity (Timeslot ts)
+  private double determineOfferCapacity (Timeslot ts, int stride)
   {
-    if (!mapTimeSlotClearingPrices.containsKey(ts)
-        || !mapTimeSlotMinAskPrices.containsKey(ts)
-        || !mapTimeSlotMaxAskPrices.containsKey(ts)) {
+    if (!findPrices(ts)) {
+      log.debug("no prices for timeslot: " + ts);
       return 0;
     }
-    Double cmcp = (double) 0; // market clearing price
-    Double crup = (double) 0; // regulation up price
-    Double crdn = (double) 0; // regulation down price
+    double cmcp = prices[SeasonalPriceIndex.CLEARING]; // market clearing price
+    double crdn = prices[SeasonalPriceIndex.MIN_ASK]; // regulation down price
+    double crup = prices[SeasonalPriceIndex.MAX_ASK]; // regulation up price
+    int tiIndex = getLeadIndex(ts);
+    int horizon = (outputQuantiles != null)? outputQuantiles.getHorizon()
+                                           : windfarmOutputScenarios
+                                                   .getHorizon();
+    if ((tiIndex < 0) || (tiIndex >= horizon)) {
+      // no data to calculate imbalance revenue
+      return (cmcp > 0)? maxCapacity: 0;
+    }
+    if (outputQuantiles != null) {
+      return findBreakpointOffer(outputQuantiles, tiIndex, maxCapacity,
+                                 cmcp, crdn, crup);
+    }
+    return findOfferCapacity(windfarmOutputScenarios, tiIndex, maxCapacity,
+                             cmcp, crdn, crup, stride);
+  } // calcOfferCapacity()
+
+  /**
+   * Looks up the clearing and regulation prices of ts into prices: the
+   * forecast if given, otherwise from the price index, falling back to
+   * earlier hours if necessary. The regulation prices are replaced by the
+   * realized ones of the imbalance tracker once it has enough data.
+   * Returns false if there are no prices.
+   */
+  private boolean findPrices (Timeslot ts)
+  {
+    int index = getLeadIndex(ts);
+    if (index >= 0 && forecastPrices[SeasonalPriceIndex.CLEARING] != null
+        && forecastPrices[SeasonalPriceIndex.MIN_ASK] != null
+        && forecastPrices[SeasonalPriceIndex.MAX_ASK] != null) {
+      for (int c = 0; c < prices.length; c++) {
+        prices[c] = forecastPrices[c][index];
+      }
+    }
+    else if (!priceIndex.getPrices(ts.getStartInstant().getMillis(), prices)) {
+      return false;
+    }
+    if (imbalanceTracker != null) {
+      prices[SeasonalPriceIndex.MIN_ASK] = imbalanceTracker
+              .getRegulationDownPrice(prices[SeasonalPriceIndex.MIN_ASK]);
+      prices[SeasonalPriceIndex.MAX_ASK] = imbalanceTracker
+              .getRegulationUpPrice(prices[SeasonalPriceIndex.MAX_ASK]);
+    }
+    return true;
+  }
 
-    // get the prices
-    if (!getPrices(ts, cmcp, crdn, crup)) {
-      log.error("failed to get prices for timeslot: " + ts);
+  /**
+   * Finds the offer that maximizes the expected revenue in one lead hour
+   * exactly. The expected revenue is piecewise linear in the offer with
+   * breakpoints at the scenario values; its slope is
+   * (mcp - crd) - (cru - crd) * F(offer), where F is the distribution of
+   * the output. If cru > crd, it is concave and the optimum is the
+   * quantile of the critical fractile (mcp - crd) / (cru - crd);
+   * otherwise the optimum is at 0 or maxCapacity.
+   */
+  static double findBreakpointOffer (ScenarioQuantiles quantiles, int tiIndex,
+                                     double maxCapacity, double mcp,
+                                     double crd, double cru)
+  {
+    if (maxCapacity <= 0) {
       return 0;
     }
-    // at this point we know we have the prices
+    if (cru > crd) {
+      double fractile = (mcp - crd) / (cru - crd);
+      if (fractile <= 0) {
+        return 0;
+      }
+      if (fractile >= 1) {
+        return maxCapacity;
+      }
+      double offer = quantiles.getQuantile(tiIndex, fractile);
+      return Math.max(0, Math.min(maxCapacity, offer));
+    }
+    double none = getRevenue(quantiles, tiIndex, 0, mcp, crd, cru);
+    double all = getRevenue(quantiles, tiIndex, maxCapacity, mcp, crd, cru);
+    return (all > none)? maxCapacity: 0;
+  } // findBreakpointOffer()
+
+  /**
+   * Expected revenue of offering pbid in lead hour tiIndex, as in
+   * getRevenue() for scenario matrices, in O(log S).
+   */
+  static double getRevenue (ScenarioQuantiles quantiles, int tiIndex,
+                            double pbid, double mcp, double crd, double cru)
+  {
+    return pbid * mcp
+           + getImbalanceRevenue(quantiles.getExpectedExcess(tiIndex, pbid),
+                                 quantiles.getExpectedShortfall(tiIndex, pbid),
+                                 crd, cru);
+  }
+
+  /**
+   * Searches the capacity grid for the offer that maximizes the expected
+   * revenue in one lead hour of the given power output scenarios.
+   * 
+   * @param stride
+   *          only every stride-th scenario is evaluated; 1 uses all of them
+   */
+  static double findOfferCapacity (ScenarioMatrix scenarios, int tiIndex,
+                                   double maxCapacity, double mcp,
+                                   double crd, double cru, int stride)
+  {
     double revenue = 0; // we need to maximize this
     double offerCap = 0;
-    for (double currCap = 0; currCap <= maxCapacity; currCap +=
-      currCap * stepSize) {
-      double currRev = getRevenue(currCap, cmcp, crdn, crup, ts);
+    if (maxCapacity <= 0) {
+      return 0;
+    }
+    // grid points are counted, not summed, so that maxCapacity itself is
+    // always evaluated
+    final int steps = (int) Math.round(1.0 / stepSize);
+    for (int i = 0; i <= steps; i++) {
+      double currCap = (i == steps)? maxCapacity: maxCapacity * i / steps;
+      double currRev =
+        getRevenue(scenarios, tiIndex, currCap, mcp, crd, cru, stride);
       if (currRev > revenue) {
         revenue = currRev;
         offerCap = currCap;
@@ -171,76 +479,49 @@ public class WindFarmOfferCalculator
     }
 
     return offerCap;
-  } // calcOfferCapacity()
+  } // findOfferCapacity()
 
-  private double getRevenue (double pbid, double mcp, double crd, double cru,
-                             Timeslot ts)
+  /**
+   * Expected revenue of offering pbid in lead hour tiIndex, given the
+   * market clearing price and the regulation down and up prices; the
+   * imbalance is priced by getImbalanceRevenue().
+   */
+  static double getRevenue (ScenarioMatrix scenarios, int tiIndex,
+                            double pbid, double mcp, double crd, double cru,
+                            int stride)
   {
     double mcpRevenue = pbid * mcp;
-    // get imbalance revenue - positive revenue indicate profit, -ve revenue
-    // loss
-    int tiIndex = mapTimeslotToHour.get(ts) - 1;
-    if ((tiIndex < 0) || (tiIndex > 23)) {
-      return mcpRevenue; // no data to calculate imbalance revenue
-    }
-    double imbalanceRevenue = 0;
-    double negativeImbalance = 0;
-    double positiveImbalance = 0;
-    for (Scenario powerScenario: windfarmOutputScenarios) {
-      double pi = powerScenario.getValueList().get(tiIndex).getValue(); //power for ith scenario
-      double prob = powerScenario.getProbability();
-      if (pi > pbid) { // negative imbalance
-        negativeImbalance += (pi - pbid) * prob;
+    double surplus = 0;
+    double shortfall = 0;
+    double totalProb = 0;
+    int numScenarios = scenarios.getNumberOfScenarios();
+    for (int s = 0; s < numScenarios; s += stride) {
+      double pi = scenarios.get(s, tiIndex); //power for ith scenario
+      double prob = scenarios.getProbability(s);
+      totalProb += prob;
+      if (pi > pbid) {
+        surplus += (pi - pbid) * prob;
       }
-      else if (pbid > pi) { // positive imbalance
-        positiveImbalance += (pbid - pi) * prob;
+      else if (pbid > pi) {
+        shortfall += (pbid - pi) * prob;
       }
     }
-    imbalanceRevenue = (crd * positiveImbalance) + (-cru * negativeImbalance);
-    double totalRevenue = mcpRevenue + imbalanceRevenue;
-    return totalRevenue;
-  } // getRevenue()
-
-  private boolean getPrices (Timeslot ts, Double mcp, Double minp, Double maxp)
-  {
-    // get the prices - this is little tricky
-    if (mapTimeSlotClearingPrices.get(ts) == null) {
-      long tsi = ts.getStartInstant().getMillis();
-      // go back 24 hours
-      tsi -= 24 * 60 * 60 * 1000; // convert 24 hours to miliseconds
-      Timeslot oldTs = timeslotRepo.findByInstant(new Instant(tsi));
-      if (oldTs == null) {
-        oldTs = timeslotRepo.makeTimeslot(new Instant(tsi)); // is this
-                                                             // permitted?
-      }
-      // make sure everything is alright before proceeding further
-      if (!mapTimeSlotClearingPrices.containsKey(oldTs)
-          || !mapTimeSlotMinAskPrices.containsKey(oldTs)
-          || !mapTimeSlotMaxAskPrices.containsKey(oldTs)
-          || mapTimeSlotClearingPrices.get(oldTs) == null
-          || mapTimeSlotMinAskPrices.get(oldTs) == null
-          || mapTimeSlotMaxAskPrices.get(oldTs) == null) {
-        return false;
-      }
-      mcp = mapTimeSlotClearingPrices.get(oldTs);
-      maxp = mapTimeSlotMaxAskPrices.get(oldTs);
-      minp = mapTimeSlotMinAskPrices.get(oldTs);
-    }
-    else {
-      // make sure everything is alright before proceeding further
-      if (!mapTimeSlotClearingPrices.containsKey(ts)
-          || !mapTimeSlotMinAskPrices.containsKey(ts)
-          || !mapTimeSlotMaxAskPrices.containsKey(ts)
-          || mapTimeSlotClearingPrices.get(ts) == null
-          || mapTimeSlotMinAskPrices.get(ts) == null
-          || mapTimeSlotMaxAskPrices.get(ts) == null) {
-        return false;
-      }
-      mcp = mapTimeSlotClearingPrices.get(ts);
-      maxp = mapTimeSlotMaxAskPrices.get(ts);
-      minp = mapTimeSlotMinAskPrices.get(ts);
+    if (stride > 1 && totalProb > 0) {
+      // renormalize the probabilities of the subsample
+      surplus /= totalProb;
+      shortfall /= totalProb;
     }
+    return mcpRevenue + getImbalanceRevenue(surplus, shortfall, crd, cru);
+  } // getRevenue()
 
-    return true;
+  /**
+   * Revenue of an imbalance in MWh: a surplus, output above the offer,
+   * is sold at the regulation down price crd, and a shortfall is bought
+   * back at the regulation up price cru. Negative revenue is a loss.
+   */
+  static double getImbalanceRevenue (double surplus, double shortfall,
+                                     double crd, double cru)
+  {
+    return crd * surplus - cru * shortfall;
   }
 } // class WindFarmOfferCalculator
@@ -15,73 +15,94 @@
  */
 package org.powertac.wpgenco;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 import org.apache.log4j.Logger;
 import org.powertac.common.WeatherForecast;
-import org.powertac.common.WeatherForecastPrediction;
 import org.powertac.common.repo.WeatherForecastRepo;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * Retrieves weather forecast data from the weather forecast repo.
- * Provides API to retrieve the forecast data.
+ * Provides API to retrieve the forecast data. Forecasts are decoded
+ * through the {@link WeatherForecastCache}, so a forecast is only decoded
+ * once for all gencos at the same location.
  * @author shashpan
  *
  */
 public class WindForecast
 {
   private static Logger log = Logger.getLogger(WindForecast.class);
-  private static final double defaultAirPressure = 1.225;
 
   @Autowired
   private WeatherForecastRepo weatherForecastRepo;
 
-  private List<Double> windSpeeds = new ArrayList<Double>();
-  private List<Double> airPressure = new ArrayList<Double>();
-  private List<Double> temperature = new ArrayList<Double>();
+  private String location = "default";
+  private WeatherForecastCache.Entry forecast = WeatherForecastCache.EMPTY;
 
   public WindForecast ()
   {
 
   }
 
-  public List<Double> getWindSpeeds ()
+  /**
+   * Sets the repo to read forecasts from, for use outside of Spring.
+   */
+  public void setWeatherForecastRepo (WeatherForecastRepo repo)
+  {
+    this.weatherForecastRepo = repo;
+  }
+
+  public void setLocation (String location)
+  {
+    this.location = location;
+  }
+
+  /**
+   * The current forecast, decoded.
+   */
+  WeatherForecastCache.Entry getForecast ()
   {
-    return Collections.unmodifiableList(windSpeeds);
+    return forecast;
   }
 
-  public List<Double> getAirPressure ()
+  /**
+   * Number of hours covered by the current forecast.
+   */
+  public int getHorizon ()
   {
-    return Collections.unmodifiableList(airPressure);
+    return forecast.getHorizon();
   }
 
-  public List<Double> getTemperature ()
+  public double getWindSpeed (int hourIndex)
   {
-    return Collections.unmodifiableList(temperature);
+    return forecast.windSpeed[hourIndex];
+  }
+
+  public double getAirPressure (int hourIndex)
+  {
+    return forecast.airPressure[hourIndex];
+  }
+
+  public double getTemperature (int hourIndex)
+  {
+    return forecast.temperature[hourIndex];
   }
 
   public void refreshWeatherForecast ()
   {
-    windSpeeds.clear();
-    airPressure.clear();
-    temperature.clear();
     if (weatherForecastRepo == null) {
       log.error("WeatherForecastRepo is not initialized");
+      forecast = WeatherForecastCache.EMPTY;
       return;
     }
 
     WeatherForecast weatherForecast =
       weatherForecastRepo.currentWeatherForecast();
-    List<WeatherForecastPrediction> windPredictions =
-      weatherForecast.getPredictions();
-    for (WeatherForecastPrediction wp: windPredictions) {
-      windSpeeds.add(wp.getWindSpeed());
-      airPressure.add(defaultAirPressure);
-      temperature.add(wp.getTemperature());
-    } // for each prediction
+    if (weatherForecast == null) {
+      log.error("no current weather forecast");
+      forecast = WeatherForecastCache.EMPTY;
+      return;
+    }
+    forecast = WeatherForecastCache.get(location, weatherForecast);
   } // refreshWeatherForecast()
 
 } // class WindForecast
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.config.ConfigurableInstance;
+import org.powertac.common.config.ConfigurableValue;
+
+/**
+ * Generates wind speed forecast error scenarios from an autoregressive
+ * model, as an alternative to the scenario file read by
+ * {@link WindForecastErrorScenarios}. For lead hour h the error is
+ * e(h) = phi(h) * e(h-1) + sigma(h) * z(h), with e(0) = 0 and z(h)
+ * standard normal. All scenarios are equally likely.
+ * 
+ * Scenarios are generated in blocks, in parallel. Each block draws from
+ * its own stream of a seeded {@link ScenarioRandom}, so the result only
+ * depends on the configuration and not on the number of threads. The
+ * innovations z(h) come from the configured {@link ScenarioSampler}; the
+ * Latin hypercube and Sobol samplers need far fewer scenarios than plain
+ * Monte Carlo for the same accuracy.
+ */
+@ConfigurableInstance
+public class WindForecastErrorGenerator
+{
+  private static Logger log = Logger.getLogger(WindForecastErrorGenerator.class);
+
+  // configured parameters
+  @ConfigurableValue(valueType = "Integer", description = "number of error scenarios to generate")
+  private int numberOfScenarios = 1000;
+  @ConfigurableValue(valueType = "Integer", description = "number of lead hours")
+  private int horizon = 24;
+  @ConfigurableValue(valueType = "Long", description = "seed for the scenario generator")
+  private long seed = 1234567L;
+  @ConfigurableValue(valueType = "List", description = "AR(1) coefficient per lead hour, last value is repeated")
+  private List<String> cfgArCoefficients = Arrays.asList("0.9");
+  @ConfigurableValue(valueType = "List", description = "innovation std deviation in m/sec per lead hour, last value is repeated")
+  private List<String> cfgInnovationStdDev = Arrays.asList("0.5");
+  @ConfigurableValue(valueType = "Integer", description = "number of scenarios generated by one parallel task")
+  private int blockSize = 4096;
+  @ConfigurableValue(valueType = "String", description = "innovation sampler: montecarlo, lhs or sobol")
+  private String sampler = "montecarlo";
+
+  public WindForecastErrorGenerator ()
+  {
+    super();
+  }
+
+  public int getNumberOfScenarios ()
+  {
+    return numberOfScenarios;
+  }
+
+  public int getHorizon ()
+  {
+    return horizon;
+  }
+
+  public void setNumberOfScenarios (int number)
+  {
+    this.numberOfScenarios = number;
+  }
+
+  public void setHorizon (int horizon)
+  {
+    this.horizon = horizon;
+  }
+
+  public void setSeed (long seed)
+  {
+    this.seed = seed;
+  }
+
+  public void setSampler (String name)
+  {
+    this.sampler = name;
+  }
+
+  /**
+   * The settings the generated scenarios depend on, apart from the
+   * horizon.
+   */
+  public String describe ()
+  {
+    return numberOfScenarios + " " + sampler + " scenarios, seed " + seed
+           + ", ar " + cfgArCoefficients + ", stddev " + cfgInnovationStdDev
+           + ", blocks of " + blockSize;
+  }
+
+  /**
+   * Generates the error scenarios into a matrix with the given storage.
+   * Throws an IllegalStateException if a block of scenarios cannot be
+   * generated.
+   */
+  public ScenarioMatrix generate (ScenarioStorage storage)
+  {
+    return generate(storage, horizon);
+  }
+
+  /**
+   * Generates the error scenarios for the given number of lead hours
+   * instead of the configured horizon. Does not change the generator, so
+   * it can be shared by gencos.
+   */
+  public ScenarioMatrix generate (ScenarioStorage storage, final int hours)
+  {
+    final ScenarioMatrix result =
+      ScenarioMatrix.create(numberOfScenarios, hours, storage);
+    final double[] phi = expand(cfgArCoefficients, hours);
+    final double[] sigma = expand(cfgInnovationStdDev, hours);
+    final ScenarioRandom root = new ScenarioRandom(seed);
+    final ScenarioSampler innovations = ScenarioSampler.forName(sampler);
+    // stream index -1 is reserved for the sampler, blocks use 0, 1, ..
+    innovations.prepare(numberOfScenarios, hours, root.split(-1));
+    int numBlocks = (numberOfScenarios + blockSize - 1) / blockSize;
+    int threads =
+      Math.min(numBlocks, Runtime.getRuntime().availableProcessors());
+
+    if (threads <= 1) {
+      try {
+        for (int b = 0; b < numBlocks; b++) {
+          generateBlock(result, innovations, phi, sigma, root.split(b),
+                        b * blockSize);
+        }
+      }
+      catch (RuntimeException re) {
+        result.release();
+        throw re;
+      }
+      return result;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> tasks = new ArrayList<Future<?>>();
+      for (int b = 0; b < numBlocks; b++) {
+        final ScenarioRandom rng = root.split(b);
+        final int first = b * blockSize;
+        tasks.add(executor.submit(new Runnable() {
+          @Override
+          public void run ()
+          {
+            generateBlock(result, innovations, phi, sigma, rng, first);
+          }
+        }));
+      }
+      for (Future<?> task: tasks) {
+        task.get();
+      }
+    }
+    catch (InterruptedException ie) {
+      failed(executor, result);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while generating error"
+                                      + " scenarios", ie);
+    }
+    catch (ExecutionException ee) {
+      failed(executor, result);
+      throw new IllegalStateException("failed to generate error scenarios",
+                                      ee.getCause());
+    }
+    finally {
+      executor.shutdown();
+    }
+    return result;
+  }
+
+  // a block failed: the matrix is incomplete, and its probabilities no
+  // longer sum to 1. Blocks still running may write to it, so they are
+  // stopped first.
+  private void failed (ExecutorService executor, ScenarioMatrix result)
+  {
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+        log.error("error scenario blocks still running, matrix not released");
+        return;
+      }
+    }
+    catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    result.release();
+  }
+
+  /**
+   * Fills scenarios first .. first + blockSize - 1. Blocks write to
+   * disjoint cells of the matrix.
+   */
+  private void generateBlock (ScenarioMatrix result,
+                              ScenarioSampler innovations, double[] phi,
+                              double[] sigma, ScenarioRandom rng, int first)
+  {
+    int last = Math.min(first + blockSize, numberOfScenarios);
+    int hours = result.getHorizon();
+    double prob = 1.0 / numberOfScenarios;
+    for (int s = first; s < last; s++) {
+      double error = 0;
+      for (int h = 0; h < hours; h++) {
+        error = phi[h] * error
+                + sigma[h] * innovations.nextGaussian(s, h, rng);
+        result.set(s, h, error);
+      }
+      result.setProbability(s, prob);
+    }
+  }
+
+  /**
+   * Turns a configured list into one value per lead hour. The last
+   * configured value is used for hours beyond the end of the list.
+   */
+  static double[] expand (List<String> cfgValues, int hours)
+  {
+    double[] result = new double[hours];
+    double value = 0;
+    for (int h = 0; h < hours; h++) {
+      if (h < cfgValues.size()) {
+        value = Double.valueOf(cfgValues.get(h));
+      }
+      result[h] = value;
+    }
+    return result;
+  }
+
+} // class WindForecastErrorGenerator
@@ -73,6 +73,22 @@ public class WindForecastErrorScenarios
     return windSpeedForecastErrorScenarios.addAll(scenarioCollection);
   }
 
+  /**
+   * True if a scenario data file has been configured.
+   */
+  public static boolean isDataFileConfigured ()
+  {
+    return errorScenarioDataFile != null && errorScenarioDataFile.length() > 0;
+  }
+
+  /**
+   * The configured scenario data file, or null if there is none.
+   */
+  public static String getDataFile ()
+  {
+    return isDataFileConfigured()? errorScenarioDataFile: null;
+  }
+
   public Set<Scenario> getScenarios ()
   {
     return Collections.unmodifiableSortedSet(windSpeedForecastErrorScenarios);
@@ -15,19 +15,35 @@
  */
 package org.powertac.wpgenco;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.apache.log4j.Logger;
 import org.joda.time.Instant;
 
+import org.powertac.common.BalancingTransaction;
 import org.powertac.common.Broker;
+import org.powertac.common.ClearedTrade;
+import org.powertac.common.Competition;
 import org.powertac.common.IdGenerator;
 import org.powertac.common.MarketPosition;
 import org.powertac.common.Order;
+import org.powertac.common.Orderbook;
+import org.powertac.common.OrderbookOrder;
 import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherReport;
 import org.powertac.common.config.ConfigurableInstance;
 import org.powertac.common.config.ConfigurableValue;
 import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.repo.RandomSeedRepo;
+import org.powertac.common.repo.TimeslotRepo;
+import org.powertac.common.repo.WeatherForecastRepo;
 import org.powertac.common.state.Domain;
 import org.powertac.common.state.StateChange;
 
@@ -58,9 +74,60 @@ public class WindfarmGenco extends Broker
   private double carbonEmissionRate = 0.0;
 
   protected BrokerProxy brokerProxyService;
+  private TimeslotRepo timeslotRepo;
 
   private WindForecast windForecast = new WindForecast();
+  // number of open timeslots, which is the number of lead hours of the
+  // scenarios
+  private int horizon = DEFAULT_HORIZON;
+  private AtmosphericProfile atmosphericProfile = new AtmosphericProfile();
+  private AvailabilityModel availabilityModel = null;
+  // per-hour availability and wake factors of the current forecast
+  private double[] outputFactors = null;
+  // turbine clusters in addition to the genco's own turbines
+  private final List<TurbineCluster> clusters = new ArrayList<TurbineCluster>();
   private ForecastScenarios forecastScenarios = null;
+  private ImbalanceTracker imbalanceTracker = null;
+  private SeasonalPriceIndex priceIndex = null;
+  private PriceForecaster priceForecaster = null;
+  private RampingOfferOptimizer rampingOptimizer = null;
+
+  /** horizon used when there is no competition */
+  public static final int DEFAULT_HORIZON = 24;
+
+  /** stages of generateOrders(), timed on each call */
+  public static final int STAGE_FORECAST = 0;
+  public static final int STAGE_SCENARIOS = 1;
+  public static final int STAGE_OFFERS = 2;
+  public static final int STAGE_ORDERS = 3;
+  public static final String[] STAGE_NAMES =
+    {"forecast", "scenarios", "offers", "orders"};
+  private final long[] stageNanos = new long[STAGE_NAMES.length];
+
+  // set when run as an actor, see setActor()
+  private GencoActor actor = null;
+  // offers of the last generateOrders() call not yet routed, if deferred
+  private boolean deferOrders = false;
+  private List<Timeslot> pendingSlots = null;
+  private List<Double> pendingQuantities = null;
+  // set when run in a worker process: market messages for the worker,
+  // see setRemote()
+  private List<Object> remoteMessages = null;
+  // seed of the turbine outages
+  private long outageSeed = 0L;
+
+  // timeslots since the last checkpoint, and whether it is still being
+  // written
+  private int timeslotsSinceCheckpoint = 0;
+  private final AtomicBoolean checkpointPending = new AtomicBoolean(false);
+  // stamp of the error scenarios file, 0 until it is written
+  private long errorScenariosStamp = 0L;
+  // see setErrorGenerator()
+  private WindForecastErrorGenerator errorGenerator = null;
+
+  // state of the last generateOrders() call, for monitoring
+  private final AtomicReference<GencoSnapshot> snapshot =
+    new AtomicReference<GencoSnapshot>();
 
   // configured parameters
   @ConfigurableValue(valueType = "String", description = "Location of weather data to be reported")
@@ -79,6 +146,63 @@ public class WindfarmGenco extends Broker
   private double maxPowerOutputspeed = 14.0; // meters/sec
   @ConfigurableValue(valueType = "Double", description = "sweep area of turbine in m^2")
   private double sweepAreaOfTurbine = 2391.2; // m^2
+  @ConfigurableValue(valueType = "Double", description = "elevation of the site above sea level in m")
+  private double elevation = 0.0;
+  @ConfigurableValue(valueType = "Double", description = "hub height of the turbines above ground in m")
+  private double hubHeight = 80.0;
+  @ConfigurableValue(valueType = "Double", description = "height above ground in m that forecast wind speeds refer to")
+  private double forecastHeight = 10.0;
+  @ConfigurableValue(valueType = "Double", description = "wind shear exponent for the extrapolation to hub height, 0 for none")
+  private double windShearExponent = 0.0;
+  @ConfigurableValue(valueType = "Integer", description = "time budget in msec for generating orders, 0 for no limit")
+  private int optimizationBudget = 0; // msec
+  @ConfigurableValue(valueType = "String", description = "storage of scenario matrices: heap or direct (off-heap)")
+  private String scenarioStorage = "heap";
+  @ConfigurableValue(valueType = "String", description = "precision of scenario matrices: double or float")
+  private String scenarioPrecision = "double";
+  @ConfigurableValue(valueType = "String", description = "source of forecast error scenarios: file or generator")
+  private String errorScenarioSource = "file";
+  @ConfigurableValue(valueType = "Integer", description = "observed errors kept per lead hour for error learning, 0 to disable")
+  private int errorLearningWindow = 168;
+  @ConfigurableValue(valueType = "Integer", description = "observed errors needed before a lead hour is recalibrated")
+  private int errorLearningMinSamples = 24;
+  @ConfigurableValue(valueType = "Integer", description = "weather reports between rebuilds of the error scenarios")
+  private int errorRebuildInterval = 24;
+  @ConfigurableValue(valueType = "Double", description = "width in m/sec of the error intervals merged into one scenario tree node, 0 for no tree")
+  private double scenarioTreeTolerance = 0.0;
+  @ConfigurableValue(valueType = "Integer", description = "number of timeslots kept for imbalance statistics")
+  private int imbalanceWindow = 168;
+  @ConfigurableValue(valueType = "Double", description = "smoothing factor of the realized imbalance averages")
+  private double imbalanceSmoothing = 0.1;
+  @ConfigurableValue(valueType = "String", description = "offer optimization: breakpoint (exact, from sorted scenarios), grid, or ramping (across timeslots)")
+  private String offerOptimizer = "breakpoint";
+  @ConfigurableValue(valueType = "Double", description = "largest change of the offer between consecutive timeslots, as fraction of capacity")
+  private double rampRate = 0.25;
+  @ConfigurableValue(valueType = "Integer", description = "number of offer levels of the ramping optimizer")
+  private int rampGridSteps = 100;
+  @ConfigurableValue(valueType = "List", description = "fallbacks for timeslots without prices: yesterday, lastweek, mean")
+  private List<String> cfgPriceFallback =
+    Arrays.asList("yesterday", "lastweek", "mean");
+  @ConfigurableValue(valueType = "Double", description = "Holt-Winters smoothing factor of the price level")
+  private double priceSmoothingLevel = 0.3;
+  @ConfigurableValue(valueType = "Double", description = "Holt-Winters smoothing factor of the price trend")
+  private double priceSmoothingTrend = 0.05;
+  @ConfigurableValue(valueType = "Double", description = "Holt-Winters smoothing factor of the hourly price pattern")
+  private double priceSmoothingSeasonal = 0.2;
+  @ConfigurableValue(valueType = "Double", description = "probability per hour that a running turbine fails")
+  private double turbineFailureRate = 0.0005;
+  @ConfigurableValue(valueType = "Double", description = "probability per hour that a failed turbine is repaired")
+  private double turbineRepairRate = 0.02;
+  @ConfigurableValue(valueType = "Double", description = "fraction of output lost to wakes with wind along the turbine rows")
+  private double wakeLoss = 0.1;
+  @ConfigurableValue(valueType = "Double", description = "direction of the turbine rows in degrees")
+  private double turbineRowDirection = 270.0;
+  @ConfigurableValue(valueType = "Long", description = "seed of the turbine outages when no random seed repo is available")
+  private long availabilitySeed = 42L;
+  @ConfigurableValue(valueType = "String", description = "directory of the checkpoints of the genco state for a warm start, empty for none")
+  private String checkpointDirectory = "";
+  @ConfigurableValue(valueType = "Integer", description = "timeslots between checkpoints")
+  private int checkpointInterval = 24;
 
   /**
    * Constructor to create instance of wind park genco (or windfarm genco)
@@ -99,10 +223,405 @@ public class WindfarmGenco extends Broker
    * @param randomSeedRepo
    */
   public void init (BrokerProxy proxy)
+  {
+    init(proxy, null, null);
+  }
+
+  /**
+   * Initialize the wind park genco with the repos it reads from. The repos
+   * are passed in since gencos are not Spring beans.
+   */
+  public void init (BrokerProxy proxy, TimeslotRepo timeslotRepo,
+                    WeatherForecastRepo weatherForecastRepo)
+  {
+    init(proxy, timeslotRepo, weatherForecastRepo, null);
+  }
+
+  /**
+   * Initialize the wind park genco. The turbine outages are drawn from a
+   * seed of randomSeedRepo, so they are reproduced when a game is
+   * replayed; without the repo the configured seed is used.
+   */
+  public void init (BrokerProxy proxy, TimeslotRepo timeslotRepo,
+                    WeatherForecastRepo weatherForecastRepo,
+                    RandomSeedRepo randomSeedRepo)
   {
     log.info("init " + getUsername());
     this.brokerProxyService = proxy;
-    forecastScenarios = new ForecastScenarios(this);
+    this.timeslotRepo = timeslotRepo;
+    if (weatherForecastRepo != null) {
+      windForecast.setWeatherForecastRepo(weatherForecastRepo);
+    }
+    windForecast.setLocation(location);
+    Competition competition = Competition.currentCompetition();
+    if (competition != null) {
+      horizon = competition.getTimeslotsOpen();
+    }
+    atmosphericProfile =
+      new AtmosphericProfile(elevation, hubHeight, forecastHeight,
+                             windShearExponent);
+    for (TurbineCluster cluster: clusters) {
+      cluster.init(weatherForecastRepo, location);
+    }
+    outageSeed = drawOutageSeed(randomSeedRepo);
+    availabilityModel =
+      new AvailabilityModel(numberOfTurbines, turbineFailureRate,
+                            turbineRepairRate, wakeLoss, turbineRowDirection,
+                            outageSeed);
+    errorScenariosStamp = 0L;
+    GencoCheckpoint checkpoint = openCheckpoint();
+    ScenarioMatrix errorScenarios = null;
+    if (checkpoint != null) {
+      errorScenarios = checkpoint.readErrorScenarios(getScenarioStorage());
+    }
+    forecastScenarios = new ForecastScenarios(this, errorScenarios);
+    createModels();
+    if (checkpoint != null) {
+      restoreCheckpoint(checkpoint);
+    }
+  }
+
+  private void createModels ()
+  {
+    imbalanceTracker = new ImbalanceTracker(imbalanceWindow, imbalanceSmoothing,
+                                            getNominalCapacity());
+    priceIndex =
+      new SeasonalPriceIndex(SeasonalPriceIndex
+              .parseFallbackChain(cfgPriceFallback));
+    priceForecaster =
+      new PriceForecaster(priceSmoothingLevel, priceSmoothingTrend,
+                          priceSmoothingSeasonal, horizon);
+  }
+
+  /**
+   * Serial number of the current timeslot, or -1 if there is no timeslot
+   * repo or no current timeslot.
+   */
+  int getCurrentSerial ()
+  {
+    if (timeslotRepo == null || timeslotRepo.currentTimeslot() == null) {
+      return -1;
+    }
+    return timeslotRepo.currentTimeslot().getSerialNumber();
+  }
+
+  File getCheckpointFile ()
+  {
+    return new File(checkpointDirectory, getUsername() + ".checkpoint");
+  }
+
+  File getErrorScenariosFile ()
+  {
+    return new File(checkpointDirectory, getUsername() + ".scenarios");
+  }
+
+  long getErrorScenariosStamp ()
+  {
+    return errorScenariosStamp;
+  }
+
+  /**
+   * The settings the error scenarios and the learned errors of a
+   * checkpoint depend on; a checkpoint taken with other settings is not
+   * used.
+   */
+  String getConfigFingerprint ()
+  {
+    return "errors=" + ForecastScenarios.describeErrorScenarios(this)
+           + ";storage=" + scenarioStorage + "/" + scenarioPrecision
+           + ";tree=" + scenarioTreeTolerance + ";learning="
+           + errorLearningWindow + "/" + errorLearningMinSamples + "/"
+           + errorRebuildInterval;
+  }
+
+  // the checkpoint of this genco, or null if there is none it can use
+  private GencoCheckpoint openCheckpoint ()
+  {
+    if (checkpointDirectory.length() == 0) {
+      return null;
+    }
+    try {
+      GencoCheckpoint checkpoint = GencoCheckpoint.open(getCheckpointFile());
+      if (checkpoint == null) {
+        return null;
+      }
+      if (!getUsername().equals(checkpoint.getGenco())
+          || checkpoint.getHorizon() != horizon) {
+        log.warn(getUsername() + ": checkpoint of " + checkpoint.getGenco()
+                 + " with horizon " + checkpoint.getHorizon()
+                 + " does not fit, starting cold");
+        return null;
+      }
+      String fingerprint = getConfigFingerprint();
+      if (!fingerprint.equals(checkpoint.getFingerprint())) {
+        log.warn(getUsername() + ": checkpoint taken with "
+                 + checkpoint.getFingerprint() + ", not " + fingerprint
+                 + ", starting cold");
+        return null;
+      }
+      checkpoint.openErrorScenarios(getErrorScenariosFile());
+      return checkpoint;
+    }
+    catch (IOException ioe) {
+      log.warn(getUsername() + ": cannot read checkpoint, starting cold", ioe);
+      return null;
+    }
+  }
+
+  // restores the learned state; if the checkpoint does not fit the
+  // configuration, the genco starts cold
+  private void restoreCheckpoint (GencoCheckpoint checkpoint)
+  {
+    try {
+      checkpoint.restore(this);
+      errorScenariosStamp = checkpoint.getErrorScenariosStamp();
+      log.info(getUsername() + ": warm start from checkpoint at "
+               + checkpoint.getTime());
+    }
+    catch (RuntimeException re) {
+      log.warn(getUsername() + ": checkpoint does not fit, starting cold", re);
+      forecastScenarios.release();
+      forecastScenarios = new ForecastScenarios(this);
+      createModels();
+      snapshot.set(null);
+    }
+  }
+
+  // every checkpointInterval timeslots, copies the state and writes it
+  // in the background; the error scenarios are only written the first
+  // time, as they do not change
+  private void checkpoint (Instant now)
+  {
+    if (checkpointDirectory.length() == 0 || checkpointInterval <= 0
+        || ++timeslotsSinceCheckpoint < checkpointInterval) {
+      return;
+    }
+    if (!checkpointPending.compareAndSet(false, true)) {
+      // the previous one is still being written, retry next timeslot
+      return;
+    }
+    timeslotsSinceCheckpoint = 0;
+    try {
+      byte[] scenarios = captureErrorScenarios();
+      if (scenarios != null) {
+        GencoCheckpoint.writeAsync(scenarios, getErrorScenariosFile(), null);
+      }
+      GencoCheckpoint.writeAsync(GencoCheckpoint.capture(this,
+                                                         now.getMillis()),
+                                 getCheckpointFile(), checkpointPending);
+    }
+    catch (IOException ioe) {
+      checkpointPending.set(false);
+      log.error(getUsername() + ": cannot capture checkpoint", ioe);
+    }
+  }
+
+  /**
+   * Writes a checkpoint taken at the given time, and the error scenarios
+   * if they have not been written yet.
+   */
+  void writeCheckpoint (long time) throws IOException
+  {
+    byte[] scenarios = captureErrorScenarios();
+    if (scenarios != null) {
+      GencoCheckpoint.write(scenarios, getErrorScenariosFile());
+    }
+    GencoCheckpoint.write(GencoCheckpoint.capture(this, time),
+                          getCheckpointFile());
+  }
+
+  // the error scenarios under a new stamp, or null if they have been
+  // written already
+  private byte[] captureErrorScenarios () throws IOException
+  {
+    if (errorScenariosStamp != 0L || forecastScenarios == null
+        || forecastScenarios.getBaseErrorScenarios() == null) {
+      return null;
+    }
+    long stamp = System.currentTimeMillis();
+    byte[] result =
+      GencoCheckpoint.captureErrorScenarios(this, stamp,
+                                            forecastScenarios
+                                                    .getBaseErrorScenarios());
+    errorScenariosStamp = stamp;
+    return result;
+  }
+
+  /**
+   * Initializes a genco that runs in a worker process, see
+   * {@link GencoWorkerPool}: only the broker proxy is set, to route the
+   * orders computed by the worker, and the seed of the turbine outages is
+   * drawn as by init(), for the worker to use. The scenarios and models
+   * are not created, since the worker holds them.
+   */
+  void initRemote (BrokerProxy proxy, RandomSeedRepo randomSeedRepo)
+  {
+    log.info("init remote " + getUsername());
+    this.brokerProxyService = proxy;
+    outageSeed = drawOutageSeed(randomSeedRepo);
+  }
+
+  /**
+   * Moves a genco that ran in a worker process to this process, after the
+   * worker failed: the scenarios and models are created as by init(), with
+   * the outage seed given to the worker, and the messages kept for the
+   * worker are processed. The orders are held back for
+   * routePendingOrders().
+   */
+  void initLocal (TimeslotRepo timeslotRepo,
+                  WeatherForecastRepo weatherForecastRepo)
+  {
+    List<Object> messages = takeRemoteMessages();
+    setRemote(false);
+    availabilitySeed = outageSeed;
+    init(brokerProxyService, timeslotRepo, weatherForecastRepo, null);
+    setDeferOrders(true);
+    for (Object message: messages) {
+      handleMessage(message);
+    }
+  }
+
+  private long drawOutageSeed (RandomSeedRepo randomSeedRepo)
+  {
+    if (randomSeedRepo == null) {
+      return availabilitySeed;
+    }
+    return randomSeedRepo.getRandomSeed(WindfarmGenco.class.getName(), 0,
+                                        getUsername()).nextLong();
+  }
+
+  long getOutageSeed ()
+  {
+    return outageSeed;
+  }
+
+  /**
+   * Sets the configured seed of the turbine outages; used by workers to
+   * reproduce the outages of the genco in the server. Must be called
+   * before init().
+   */
+  void setAvailabilitySeed (long seed)
+  {
+    this.availabilitySeed = seed;
+  }
+
+  /**
+   * Adds a turbine cluster, a further group of turbines at a sub-site of
+   * the genco that shares its weather forecast. Must be called before
+   * init().
+   */
+  public void addCluster (TurbineCluster cluster)
+  {
+    clusters.add(cluster);
+  }
+
+  public List<TurbineCluster> getClusters ()
+  {
+    return clusters;
+  }
+
+  /**
+   * Handles messages routed to this genco. Balancing transactions are
+   * recorded in the imbalance tracker.
+   */
+  @Override
+  public void receiveMessage (Object object)
+  {
+    if (actor != null) {
+      actor.deliver(object);
+    }
+    else if (remoteMessages != null) {
+      if (GencoProtocol.isMarketMessage(object)) {
+        synchronized (remoteMessages) {
+          remoteMessages.add(object);
+        }
+      }
+    }
+    else {
+      handleMessage(object);
+    }
+  }
+
+  /**
+   * Processes a message from the market; called by receiveMessage(), or
+   * by the actor of the genco.
+   */
+  void handleMessage (Object object)
+  {
+    if (object instanceof BalancingTransaction) {
+      handleBalancingTransaction((BalancingTransaction) object);
+    }
+    else if (object instanceof Orderbook) {
+      handleOrderbook((Orderbook) object);
+    }
+    else if (object instanceof ClearedTrade) {
+      ClearedTrade trade = (ClearedTrade) object;
+      if (priceForecaster != null) {
+        priceForecaster.addTrade(trade.getTimeslot(),
+                                 trade.getExecutionMWh(),
+                                 trade.getExecutionPrice());
+      }
+    }
+  }
+
+  /**
+   * Records the clearing price and the range of ask prices of a cleared
+   * timeslot in the price index.
+   */
+  private void handleOrderbook (Orderbook orderbook)
+  {
+    if (priceIndex == null || orderbook.getClearingPrice() == null) {
+      return;
+    }
+    double clearing = Math.abs(orderbook.getClearingPrice());
+    double minAsk = clearing;
+    double maxAsk = clearing;
+    for (OrderbookOrder ask: orderbook.getAsks()) {
+      if (ask.getLimitPrice() == null) {
+        continue; // market order
+      }
+      double price = Math.abs(ask.getLimitPrice());
+      minAsk = Math.min(minAsk, price);
+      maxAsk = Math.max(maxAsk, price);
+    }
+    priceIndex.record(orderbook.getTimeslot().getStartInstant().getMillis(),
+                      clearing, minAsk, maxAsk);
+    priceForecaster.addAskRange(clearing, minAsk, maxAsk);
+  }
+
+  /**
+   * Passes the weather report of the current timeslot to the forecast
+   * error learning.
+   */
+  public void observeWeather (WeatherReport report)
+  {
+    if (forecastScenarios != null) {
+      forecastScenarios.observeWeather(report);
+    }
+  }
+
+  private void handleBalancingTransaction (BalancingTransaction tx)
+  {
+    recordBalancing(tx.getTimeslot(), tx.getKWh(), tx.getCharge());
+  }
+
+  /**
+   * Records the imbalance of a timeslot, in kWh, and its charge in the
+   * imbalance tracker.
+   */
+  void recordBalancing (Timeslot slot, double kWh, double charge)
+  {
+    if (imbalanceTracker == null) {
+      return;
+    }
+    double committed = 0.0;
+    MarketPosition posn = findMarketPositionByTimeslot(slot);
+    if (posn != null) {
+      committed = -posn.getOverallBalance(); // -ve for asks
+    }
+    double imbalance = kWh / 1000.0; // +ve for surplus
+    imbalanceTracker.record(slot.getSerialNumber(), committed,
+                            committed + imbalance, charge);
   }
 
   /**
@@ -112,7 +631,13 @@ public class WindfarmGenco extends Broker
   public void updateModel (Instant currentTime)
   {
     log.info("Update " + getUsername());
-
+    if (availabilityModel != null) {
+      availabilityModel.update();
+      if (availabilityModel.getFailedCount() > 0) {
+        log.info(getUsername() + ": " + availabilityModel.getFailedCount()
+                 + " of " + numberOfTurbines + " turbines out of service");
+      }
+    }
   }
 
   /**
@@ -128,15 +653,53 @@ public class WindfarmGenco extends Broker
    */
   public double getNominalCapacity ()
   {
-    return turbineCapacity * numberOfTurbines;
+    double result = turbineCapacity * numberOfTurbines;
+    for (TurbineCluster cluster: clusters) {
+      result += cluster.getNominalCapacity();
+    }
+    return result;
   }
 
   /**
-   * Current capacity, varies by a mean-reverting random walk.
+   * Current capacity: the turbines in service plus the clusters. Outages
+   * are only modeled for the genco's own turbines.
    */
   double getCurrentCapacity ()
   {
-    return this.turbineCapacity * this.numberOfTurbines;
+    if (availabilityModel == null) {
+      return getNominalCapacity();
+    }
+    double result = turbineCapacity * numberOfTurbines
+                    * availabilityModel.getAvailableFraction();
+    for (TurbineCluster cluster: clusters) {
+      result += cluster.getNominalCapacity();
+    }
+    return result;
+  }
+
+  /**
+   * Outage states and wake losses of the genco's own turbines; null
+   * before init().
+   */
+  public AvailabilityModel getAvailabilityModel ()
+  {
+    return availabilityModel;
+  }
+
+  /**
+   * Per-hour factors of the own turbines' output for the current forecast,
+   * the available fraction times the wake factor of the forecast wind
+   * direction; null before init(), in which case output is not reduced.
+   */
+  double[] getOutputFactors ()
+  {
+    if (availabilityModel == null) {
+      return null;
+    }
+    outputFactors =
+      availabilityModel.getOutputFactors(windForecast.getForecast(),
+                                         outputFactors);
+    return outputFactors;
   }
 
   /**
@@ -161,11 +724,160 @@ public class WindfarmGenco extends Broker
     return this.windForecast;
   }
 
+  /**
+   * Number of open timeslots of the competition, fixed at init(). The
+   * scenarios are sized to it.
+   */
+  public int getHorizon ()
+  {
+    return horizon;
+  }
+
+  /**
+   * Per-hour wind speed and air density factors at the genco's site.
+   */
+  public AtmosphericProfile getAtmosphericProfile ()
+  {
+    return atmosphericProfile;
+  }
+
   public String getLocation ()
   {
     return location;
   }
 
+  public SeasonalPriceIndex getPriceIndex ()
+  {
+    return priceIndex;
+  }
+
+  public PriceForecaster getPriceForecaster ()
+  {
+    return priceForecaster;
+  }
+
+  public ImbalanceTracker getImbalanceTracker ()
+  {
+    return imbalanceTracker;
+  }
+
+  /**
+   * Time spent in the given stage of the last generateOrders() call,
+   * in nanoseconds.
+   */
+  public long getStageNanos (int stage)
+  {
+    return stageNanos[stage];
+  }
+
+  /**
+   * Adds the turbine configuration of this genco to a batch for a
+   * parameter sweep; returns its index in the batch.
+   */
+  int addConfiguration (TurbineConfigurations batch)
+  {
+    return batch.add(numberOfTurbines, turbineCapacity, cutInSpeed,
+                     cutOutSpeed, maxPowerOutputspeed, sweepAreaOfTurbine);
+  }
+
+  WindFarmEfficiencyCurve getEfficiencyCurve ()
+  {
+    return efficiencyCurve;
+  }
+
+  public ScenarioStorage getScenarioStorage ()
+  {
+    return ScenarioStorage.forName(scenarioStorage, scenarioPrecision);
+  }
+
+  /**
+   * Source of the forecast error scenarios: "file" for the configured
+   * scenario file, or "generator" for the AR(1) generator.
+   */
+  public String getErrorScenarioSource ()
+  {
+    return errorScenarioSource;
+  }
+
+  /**
+   * Observed forecast errors kept per lead hour for learning the error
+   * distribution; 0 if learning is disabled.
+   */
+  public int getErrorLearningWindow ()
+  {
+    return errorLearningWindow;
+  }
+
+  /**
+   * Observed errors needed before a lead hour is recalibrated.
+   */
+  public int getErrorLearningMinSamples ()
+  {
+    return errorLearningMinSamples;
+  }
+
+  /**
+   * Weather reports between rebuilds of the error scenarios.
+   */
+  public int getErrorRebuildInterval ()
+  {
+    return errorRebuildInterval;
+  }
+
+  /**
+   * Sets the configured generator of the error scenarios, used if the
+   * error scenario source is generator or no scenario file is
+   * configured. The generator may be shared by gencos. Must be called
+   * before init(); without it, a generator with the default settings is
+   * used.
+   */
+  public void setErrorGenerator (WindForecastErrorGenerator generator)
+  {
+    this.errorGenerator = generator;
+  }
+
+  public WindForecastErrorGenerator getErrorGenerator ()
+  {
+    if (errorGenerator == null) {
+      errorGenerator = new WindForecastErrorGenerator();
+    }
+    return errorGenerator;
+  }
+
+  /**
+   * Width of the error intervals merged into one node of the scenario
+   * tree, or 0 if scenarios are kept as full paths.
+   */
+  public double getScenarioTreeTolerance ()
+  {
+    return scenarioTreeTolerance;
+  }
+
+  /**
+   * Bytes held by the scenario matrices of this genco, on or off the heap
+   * depending on the scenarioStorage setting.
+   */
+  public long getScenarioStorageBytes ()
+  {
+    if (forecastScenarios == null) {
+      return 0;
+    }
+    return forecastScenarios.getStorageBytes();
+  }
+
+  /**
+   * Frees the scenario storage. The genco cannot generate orders after
+   * this call.
+   */
+  public void release ()
+  {
+    log.info("release " + getUsername());
+    inOperation = false;
+    if (forecastScenarios != null) {
+      forecastScenarios.release();
+    }
+  }
+
   /**
    * Generates Orders in the market to sell available capacity. No Orders are
    * submitted if the plant is not in operation.
@@ -179,41 +891,271 @@ public class WindfarmGenco extends Broker
     if (openSlots.isEmpty()) {
       return;
     }
+    // the budget counts from here, but only the refinement of the offers
+    // stops at the deadline: the forecast, the scenario build and the
+    // coarse pass of the offers always run to completion, so a call takes
+    // longer than the budget if they alone exceed it
+    long deadline = 0;
+    if (optimizationBudget > 0) {
+      deadline = System.nanoTime() + optimizationBudget * 1000000L;
+    }
     // 1. get forecast error scenarios
     // this is done only once when forecastScenarios is instantiated
     // this happens in the init() function above.
 
     // 2. get wind speed forecast
+    long t0 = System.nanoTime();
     windForecast.refreshWeatherForecast();
+    for (int i = 0; i < clusters.size(); i++) {
+      clusters.get(i).getWindForecast().refreshWeatherForecast();
+    }
+    long t1 = System.nanoTime();
 
     // 3. generate wind speed scenarios (wind forecast + forecast error)
     forecastScenarios.calcWindSpeedForecastScenarios();
 
     // 4. generate power output scenarios
     forecastScenarios.calcPowerOutputScenarios();
+    long t2 = System.nanoTime();
 
     // 5. run optimization to determine bid quantity for all timeslots
-    List<Double> askQuantities = calcAskQuantities(openSlots);
+    PowerOutputSnapshot power = forecastScenarios.getPowerOutput();
+    List<Double> askQuantities = calcAskQuantities(power, openSlots,
+                                                   deadline);
+    long t3 = System.nanoTime();
+
+    // 6. generate orders, one per open timeslot
+    if (deferOrders) {
+      pendingSlots = openSlots;
+      pendingQuantities = askQuantities;
+    }
+    else {
+      routeOrders(openSlots, askQuantities);
+    }
+    long t4 = System.nanoTime();
+    stageNanos[STAGE_FORECAST] = t1 - t0;
+    stageNanos[STAGE_SCENARIOS] = t2 - t1;
+    stageNanos[STAGE_OFFERS] = t3 - t2;
+    stageNanos[STAGE_ORDERS] = t4 - t3;
+    publishSnapshot(now, power, openSlots, askQuantities);
+    checkpoint(now);
+
+  } // generateOrders()
 
-    // 6. generate orders - assume that we have 24 timeslots open
+  private void routeOrders (List<Timeslot> openSlots,
+                            List<Double> askQuantities)
+  {
     for (int i = 0; i < openSlots.size(); i++) {
       Timeslot slot = openSlots.get(i);
       double askQuantity = askQuantities.get(i);
       Order offer = new Order(this, slot, -askQuantity, askPrice);
       brokerProxyService.routeMessage(offer);
     }
+  }
 
-  } // generateOrders()
+  /**
+   * Runs this genco as the given actor: market messages are queued in its
+   * mailbox, and generateOrders() holds its orders back until
+   * routePendingOrders() is called. Order ids and the broker proxy are
+   * thus only used by the thread that activates the gencos, in a fixed
+   * order. null returns to direct calls.
+   */
+  void setActor (GencoActor actor)
+  {
+    this.actor = actor;
+    setDeferOrders(actor != null);
+  }
+
+  /**
+   * If true, generateOrders() holds its orders back until
+   * routePendingOrders() or takePendingQuantities() is called.
+   */
+  void setDeferOrders (boolean defer)
+  {
+    this.deferOrders = defer;
+  }
+
+  /**
+   * Runs this genco in a worker process, see {@link GencoWorkerPool}:
+   * market messages are kept for the worker until takeRemoteMessages()
+   * is called, and the worker's offers are set by setPendingOrders().
+   */
+  void setRemote (boolean remote)
+  {
+    remoteMessages = remote? new ArrayList<Object>(): null;
+  }
+
+  /**
+   * Market messages received since the last call, in order of arrival.
+   */
+  List<Object> takeRemoteMessages ()
+  {
+    if (remoteMessages == null) {
+      return Collections.emptyList();
+    }
+    synchronized (remoteMessages) {
+      List<Object> result = new ArrayList<Object>(remoteMessages);
+      remoteMessages.clear();
+      return result;
+    }
+  }
+
+  /**
+   * Sets the offers to be routed by routePendingOrders(), as computed for
+   * this genco by a worker.
+   */
+  void setPendingOrders (List<Timeslot> openSlots, List<Double> quantities)
+  {
+    pendingSlots = openSlots;
+    pendingQuantities = quantities;
+  }
+
+  /**
+   * The ask quantities held back by the last generateOrders() call, in
+   * the order of its open timeslots, or null if there are none.
+   */
+  List<Double> takePendingQuantities ()
+  {
+    List<Double> result = pendingQuantities;
+    pendingSlots = null;
+    pendingQuantities = null;
+    return result;
+  }
+
+  /**
+   * Routes the orders held back by the last generateOrders() call.
+   */
+  void routePendingOrders ()
+  {
+    if (pendingSlots != null) {
+      routeOrders(pendingSlots, pendingQuantities);
+      pendingSlots = null;
+      pendingQuantities = null;
+    }
+  }
 
-  private List<Double> calcAskQuantities (List<Timeslot> openSlots)
+  /**
+   * Builds the snapshot of the state computed by generateOrders() and
+   * publishes it for getSnapshot().
+   */
+  private void publishSnapshot (Instant now, PowerOutputSnapshot power,
+                                List<Timeslot> openSlots,
+                                List<Double> askQuantities)
+  {
+    int horizon = power.getHorizon();
+    double[] mean = new double[horizon];
+    double[] stdDev = new double[horizon];
+    double[] p10 = new double[horizon];
+    double[] p50 = new double[horizon];
+    double[] p90 = new double[horizon];
+    for (int h = 0; h < horizon; h++) {
+      mean[h] = power.getMean(h);
+      stdDev[h] = power.getStdDev(h);
+      p10[h] = power.getQuantile(h, 0.1);
+      p50[h] = power.getQuantile(h, 0.5);
+      p90[h] = power.getQuantile(h, 0.9);
+    }
+    int[] timeslots = new int[openSlots.size()];
+    double[] quantities = new double[openSlots.size()];
+    for (int i = 0; i < timeslots.length; i++) {
+      timeslots[i] = openSlots.get(i).getSerialNumber();
+      quantities[i] = askQuantities.get(i);
+    }
+    snapshot.set(new GencoSnapshot(getUsername(), now,
+                                   windForecast.getForecast(), mean, stdDev,
+                                   p10, p50, p90, timeslots, quantities, askPrice,
+                                   stageNanos.clone()));
+  }
+
+  /**
+   * State computed by the last generateOrders() call, or null before the
+   * first call. May be called from any thread.
+   */
+  public GencoSnapshot getSnapshot ()
+  {
+    return snapshot.get();
+  }
+
+  void restoreSnapshot (GencoSnapshot restored)
+  {
+    snapshot.set(restored);
+  }
+
+  ForecastScenarios getForecastScenarios ()
+  {
+    return forecastScenarios;
+  }
+
+  /**
+   * Energy in MWh sold for the timeslot with the given serial number, or
+   * NaN if it is unknown.
+   */
+  private double getCommitment (int serialNumber)
+  {
+    if (timeslotRepo == null) {
+      return Double.NaN;
+    }
+    Timeslot slot = timeslotRepo.findBySerialNumber(serialNumber);
+    if (slot == null) {
+      return Double.NaN;
+    }
+    MarketPosition posn = findMarketPositionByTimeslot(slot);
+    if (posn == null) {
+      return 0;
+    }
+    return -posn.getOverallBalance();
+  }
+
+  /**
+   * True if the offer optimizer needs the full power output scenario
+   * paths; the breakpoint and ramping optimizers only need the quantiles.
+   */
+  boolean needsScenarioPaths ()
+  {
+    return !"breakpoint".equals(offerOptimizer)
+           && !"ramping".equals(offerOptimizer);
+  }
+
+  private List<Double> calcAskQuantities (PowerOutputSnapshot power,
+                                         List<Timeslot> openSlots,
+                                         long deadline)
   {
     // instantiate a calculator
-    double maxCap = this.getNominalCapacity();
-    List<Scenario> wpScenarios =
-      forecastScenarios.getWindPowerOutputScenarios();
+    double maxCap = this.getCurrentCapacity();
     WindFarmOfferCalculator offerCalc =
-      new WindFarmOfferCalculator(maxCap, wpScenarios);
+      new WindFarmOfferCalculator(maxCap, power.getScenarios(), timeslotRepo,
+                                  priceIndex);
+    offerCalc.setDeadline(deadline);
+    offerCalc.setImbalanceTracker(imbalanceTracker);
+    if ("breakpoint".equals(offerOptimizer)
+        || "ramping".equals(offerOptimizer)) {
+      offerCalc.setOutputQuantiles(power.getQuantiles());
+    }
+    if ("ramping".equals(offerOptimizer)) {
+      if (rampingOptimizer == null) {
+        rampingOptimizer = new RampingOfferOptimizer(rampGridSteps);
+      }
+      offerCalc.setRampLimit(rampingOptimizer, rampRate * maxCap,
+                             getCommitment(openSlots.get(0)
+                                     .getSerialNumber() - 1));
+    }
+    priceForecaster.closeTimeslots(openSlots.get(0).getSerialNumber());
+    if (priceForecaster.isReady()) {
+      int n = openSlots.size();
+      double[] clearing = new double[n];
+      double[] minAsk = new double[n];
+      double[] maxAsk = new double[n];
+      priceForecaster.forecast(openSlots, clearing, minAsk, maxAsk);
+      offerCalc.addClearingPrices(clearing);
+      offerCalc.addMinAskPrices(minAsk);
+      offerCalc.addMaxAskPrices(maxAsk);
+    }
     List<Double> optimalOffers = offerCalc.getOptimalOfferCapacities(openSlots);
+    if (offerCalc.getScenarioFraction() < 1.0) {
+      log.warn(getUsername() + ": offers computed from "
+               + offerCalc.getScenarioFraction() + " of the scenarios, delta "
+               + offerCalc.getRefinementDelta() + " MW");
+    }
     List<Double> askQuantities = new ArrayList<Double>();
     for (int i = 0; i < openSlots.size(); i++) 
     {
@@ -248,14 +1190,30 @@ public class WindfarmGenco extends Broker
    * @return estimated power output in MW
    */
   public double getEstimatedPowerOutput (double windSpeed, double airDensity)
+  {
+    return getPowerOutput(windSpeed, airDensity, cutInSpeed, cutOutSpeed,
+                          maxPowerOutputspeed, turbineCapacity,
+                          numberOfTurbines, sweepAreaOfTurbine,
+                          efficiencyCurve);
+  }
+
+  /**
+   * Power output in MW of numberOfTurbines turbines of the given type.
+   */
+  static double getPowerOutput (double windSpeed, double airDensity,
+                                double cutInSpeed, double cutOutSpeed,
+                                double maxPowerOutputspeed,
+                                double turbineCapacity, int numberOfTurbines,
+                                double sweepAreaOfTurbine,
+                                WindFarmEfficiencyCurve efficiencyCurve)
   {
     if (windSpeed < cutInSpeed) {
       return 0;
     }
     else if ((windSpeed >= maxPowerOutputspeed) && (windSpeed < cutOutSpeed)) {
-      return (this.turbineCapacity * this.numberOfTurbines);
+      return (turbineCapacity * numberOfTurbines);
     }
-    else if (windSpeed > this.cutOutSpeed) {
+    else if (windSpeed > cutOutSpeed) {
       return 0;
     }
     else {
@@ -268,6 +1226,7 @@ public class WindfarmGenco extends Broker
     }
   }
 
+
   /**
    * get air density from air pressure in Pa and temperature in centigrade
    * 
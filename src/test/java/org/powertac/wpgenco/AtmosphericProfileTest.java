@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class AtmosphericProfileTest
+{
+  private WeatherForecastCache.Entry forecast (double temperature)
+  {
+    double[] windSpeed = new double[24];
+    double[] temp = new double[24];
+    double[] pressure = new double[24];
+    Arrays.fill(windSpeed, 8.0);
+    Arrays.fill(temp, temperature);
+    Arrays.fill(pressure, WeatherForecastCache.standardAirPressure);
+    return WeatherForecastCache.Entry.of(windSpeed, temp, pressure);
+  }
+
+  @Test
+  public void testStandardDensity ()
+  {
+    AtmosphericProfile profile = new AtmosphericProfile();
+    profile.update(forecast(15.0));
+    assertEquals("standard atmosphere", 1.225, profile.getAirDensity(3), 1e-3);
+    assertEquals(9.0, profile.getWindSpeed(3, 1.0), 1e-12);
+  }
+
+  @Test
+  public void testElevationAndShear ()
+  {
+    AtmosphericProfile profile =
+      new AtmosphericProfile(1000.0, 80.0, 10.0, 1.0 / 7);
+    profile.update(forecast(15.0));
+    // pressure at 1000 m is about 11% lower
+    assertEquals(1.0866, profile.getAirDensity(0), 1e-3);
+    double factor = Math.pow(8.0, 1.0 / 7);
+    assertEquals(factor, profile.getShearFactor(), 1e-12);
+    assertEquals(factor * 7.0, profile.getWindSpeed(0, -1.0), 1e-12);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AvailabilityModelTest
+{
+  @Test
+  public void testAllAvailableInitially ()
+  {
+    AvailabilityModel model = new AvailabilityModel(200, 0.01, 0.1, 0.0, 0.0, 1L);
+    assertEquals(0, model.getFailedCount());
+    assertEquals(1.0, model.getAvailableFraction(), 1e-12);
+  }
+
+  @Test
+  public void testSteadyStateAvailability ()
+  {
+    // two-state chain, stationary availability repair / (failure + repair)
+    AvailabilityModel model = new AvailabilityModel(500, 0.01, 0.09, 0.0, 0.0, 7L);
+    double sum = 0.0;
+    int steps = 5000;
+    for (int t = 0; t < steps; t++) {
+      model.update();
+      if (t >= 500) {
+        sum += model.getAvailableFraction();
+      }
+    }
+    assertEquals(0.9, sum / (steps - 500), 0.01);
+  }
+
+  @Test
+  public void testFailedCountMatchesBits ()
+  {
+    AvailabilityModel model = new AvailabilityModel(300, 0.05, 0.05, 0.0, 0.0, 3L);
+    for (int t = 0; t < 50; t++) {
+      model.update();
+    }
+    int count = 0;
+    for (int i = 0; i < model.getNumberOfTurbines(); i++) {
+      if (model.isFailed(i)) {
+        count++;
+      }
+    }
+    assertEquals(count, model.getFailedCount());
+  }
+
+  @Test
+  public void testWakeFactor ()
+  {
+    AvailabilityModel model = new AvailabilityModel(10, 0.0, 0.0, 0.2, 270.0, 1L);
+    // along the rows, either way
+    assertEquals(0.8, model.getWakeFactor(270.0), 0.01);
+    assertEquals(0.8, model.getWakeFactor(90.0), 0.01);
+    // across the rows
+    assertEquals(1.0, model.getWakeFactor(0.0), 0.01);
+    assertEquals(1.0, model.getWakeFactor(-180.0), 0.01);
+    assertEquals(model.getWakeFactor(10.0), model.getWakeFactor(370.0), 1e-12);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+
+public class BatchSimulationTest
+{
+  private WindfarmGenco genco;
+  private ScenarioMatrix errors;
+
+  @Before
+  public void setUp ()
+  {
+    Competition.newInstance("batch-test");
+    genco = new WindfarmGenco("batch");
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    generator.setNumberOfScenarios(50);
+    generator.setSeed(7L);
+    errors = generator.generate(ScenarioStorage.HEAP);
+  }
+
+  private ColumnarFile run (int threads) throws Exception
+  {
+    BatchSimulation simulation =
+      new BatchSimulation(genco, errors, new SyntheticPriceModel(7L));
+    simulation.generateWeather(5, 7L);
+    return simulation.run(threads);
+  }
+
+  @Test
+  public void testThreadsGiveSameColumns () throws Exception
+  {
+    ColumnarFile single = run(1);
+    ColumnarFile parallel = run(2);
+    assertEquals(5 * 24, single.getRows());
+    assertEquals(single.getColumnNames(), parallel.getColumnNames());
+    for (String name: Arrays.asList("day", "hour", "cleared")) {
+      assertArrayEquals(name, single.getIntColumn(name),
+                        parallel.getIntColumn(name));
+    }
+    for (String name: Arrays.asList("offer", "actual", "mcp", "revenue")) {
+      assertArrayEquals(name, single.getDoubleColumn(name),
+                        parallel.getDoubleColumn(name), 0.0);
+    }
+    double offered = 0.0;
+    for (double offer: single.getDoubleColumn("offer")) {
+      offered += offer;
+    }
+    assertTrue("offers made", offered > 0.0);
+  }
+
+  @Test
+  public void testConfigureGenco ()
+  {
+    BatchSimulation.configure(genco, "numberOfTurbines", "20");
+    BatchSimulation.configure(genco, "hubHeight", "100");
+    BatchSimulation.configure(genco, "windShearExponent", "0.14");
+    BatchSimulation.configure(genco, "cfgPriceFallback", "lastweek, mean");
+    assertEquals(20 * 1.5, genco.getNominalCapacity(), 1e-12);
+    genco.init(null);
+    // forecasts refer to 10 m
+    assertEquals(Math.pow(10.0, 0.14),
+                 genco.getAtmosphericProfile().getShearFactor(), 1e-12);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConfigureUnknown ()
+  {
+    BatchSimulation.configure(genco, "horizon", "48");
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ColumnarFileTest
+{
+  @Test
+  public void testWriteRead () throws Exception
+  {
+    ColumnarFile table = new ColumnarFile(3);
+    table.addColumn("day", new int[] {0, 1, Integer.MAX_VALUE});
+    table.addColumn("revenue", new double[] {-1.5, 0.0, Double.NaN});
+    File file = File.createTempFile("columnar", ".wfc");
+    try {
+      table.write(file.getPath());
+      ColumnarFile read = ColumnarFile.read(file.getPath());
+      assertEquals(3, read.getRows());
+      assertEquals(Arrays.asList("day", "revenue"), read.getColumnNames());
+      assertArrayEquals(new int[] {0, 1, Integer.MAX_VALUE},
+                        read.getIntColumn("day"));
+      assertArrayEquals(new double[] {-1.5, 0.0, Double.NaN},
+                        read.getDoubleColumn("revenue"), 0.0);
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testColumnLength ()
+  {
+    new ColumnarFile(3).addColumn("day", new int[2]);
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotColumnar () throws Exception
+  {
+    File file = File.createTempFile("columnar", ".wfc");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+      out.close();
+      ColumnarFile.read(file.getPath());
+    }
+    finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+
+public class ForecastErrorLearnerTest
+{
+  private WeatherForecastCache.Entry forecast (int serial, double windSpeed)
+  {
+    List<WeatherForecastPrediction> predictions =
+      new ArrayList<WeatherForecastPrediction>();
+    for (int i = 1; i <= 24; i++) {
+      predictions.add(new WeatherForecastPrediction(i, 10.0, windSpeed,
+                                                    0.0, 0.0));
+    }
+    Timeslot slot = new Timeslot(serial, new Instant(serial * 3600000L));
+    return WeatherForecastCache.get("test",
+                                    new WeatherForecast(slot, predictions));
+  }
+
+  @Test
+  public void testRecalibration () throws InterruptedException
+  {
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    generator.setNumberOfScenarios(500);
+    ScenarioMatrix base = generator.generate(ScenarioStorage.HEAP);
+    ForecastErrorLearner learner =
+      new ForecastErrorLearner(base, ScenarioStorage.HEAP, 100, 10, 50);
+
+    // forecasts of 6 m/sec, observed wind always 2 m/sec stronger
+    for (int ts = 0; ts < 60; ts++) {
+      learner.recordObservation(ts, 8.0);
+      learner.recordForecast(forecast(ts, 6.0));
+    }
+    assertEquals(2.0, learner.getErrorMean(0), 1e-9);
+    assertEquals(0.0, learner.getErrorStdDev(0), 1e-9);
+    assertEquals("lead 0 seen for timeslots 1 - 59", 59,
+                 learner.getErrorCount(0));
+
+    ScenarioMatrix rebuilt = null;
+    for (int i = 0; i < 100 && rebuilt == null; i++) {
+      Thread.sleep(10);
+      rebuilt = learner.takeRebuilt();
+    }
+    assertNotNull("rebuilt in background", rebuilt);
+    assertEquals(2.0, rebuilt.get(17, 0), 1e-9);
+    assertEquals(base.getProbability(17), rebuilt.getProbability(17), 1e-12);
+    assertNull("taken only once", learner.takeRebuilt());
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+import org.powertac.common.Timeslot;
+
+public class GencoActorTest
+{
+  private ExecutorService executor;
+
+  // records the order of its events
+  private static class RecordingGenco extends WindfarmGenco
+  {
+    final List<String> events =
+      Collections.synchronizedList(new ArrayList<String>());
+    final boolean fail;
+    // thrown by the next update, if set
+    volatile Error error = null;
+    // awaited by each update, if set
+    volatile CountDownLatch block = null;
+
+    RecordingGenco (String name, boolean fail)
+    {
+      super(name);
+      this.fail = fail;
+    }
+
+    @Override
+    void handleMessage (Object message)
+    {
+      events.add("message " + message);
+    }
+
+    @Override
+    public void updateModel (Instant now)
+    {
+      if (fail) {
+        throw new IllegalStateException("test");
+      }
+      if (error != null) {
+        Error thrown = error;
+        error = null;
+        throw thrown;
+      }
+      if (block != null) {
+        try {
+          block.await();
+        }
+        catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      events.add("update");
+    }
+
+    @Override
+    public void generateOrders (Instant now, List<Timeslot> openSlots)
+    {
+      events.add("orders");
+    }
+
+    @Override
+    void routePendingOrders ()
+    {
+      events.add("routed");
+    }
+  }
+
+  @Before
+  public void setUp ()
+  {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown ()
+  {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testMessagesWaitForActivation () throws Exception
+  {
+    RecordingGenco genco = new RecordingGenco("g", false);
+    GencoActor actor = new GencoActor(genco, executor);
+    genco.setActor(actor);
+    genco.receiveMessage("a");
+    genco.receiveMessage("b");
+    Thread.sleep(20);
+    assertTrue(genco.events.isEmpty());
+
+    CountDownLatch done = new CountDownLatch(1);
+    actor.activate(new Instant(0), new ArrayList<Timeslot>(), null, done);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(4, genco.events.size());
+    assertEquals("message a", genco.events.get(0));
+    assertEquals("message b", genco.events.get(1));
+    assertEquals("update", genco.events.get(2));
+    assertEquals("orders", genco.events.get(3));
+  }
+
+  @Test
+  public void testManyActorsAndFailures () throws Exception
+  {
+    int count = 2000;
+    List<RecordingGenco> gencos = new ArrayList<RecordingGenco>();
+    List<GencoActor> actors = new ArrayList<GencoActor>();
+    for (int i = 0; i < count; i++) {
+      RecordingGenco genco = new RecordingGenco("g" + i, i % 100 == 0);
+      gencos.add(genco);
+      actors.add(new GencoActor(genco, executor));
+    }
+    for (int round = 0; round < 3; round++) {
+      CountDownLatch done = new CountDownLatch(count);
+      for (GencoActor actor: actors) {
+        actor.activate(new Instant(round), new ArrayList<Timeslot>(), null,
+                       done);
+      }
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+    assertEquals(6, gencos.get(1).events.size());
+    assertEquals(0, gencos.get(100).events.size());
+  }
+
+  @Test
+  public void testErrorDoesNotStallActor () throws Exception
+  {
+    RecordingGenco genco = new RecordingGenco("g", false);
+    GencoActor actor = new GencoActor(genco, executor);
+    genco.error = new StackOverflowError("test");
+    CountDownLatch done = new CountDownLatch(1);
+    actor.activate(new Instant(0), new ArrayList<Timeslot>(), null, done);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    done = new CountDownLatch(1);
+    actor.activate(new Instant(1), new ArrayList<Timeslot>(), null, done);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(actor.isDone());
+    assertEquals(Arrays.asList("update", "orders"), genco.events);
+  }
+
+  @Test
+  public void testStuckGencoTimesOut () throws Exception
+  {
+    Competition.newInstance("actor-test");
+    RecordingGenco stuck = new RecordingGenco("stuck", false);
+    RecordingGenco quick = new RecordingGenco("quick", false);
+    stuck.block = new CountDownLatch(1);
+    GameLogReplay.ReplayTimeslotRepo timeslotRepo =
+      new GameLogReplay.ReplayTimeslotRepo(0, 24);
+    timeslotRepo.setCurrent(0);
+    SimpleGencoService service = new SimpleGencoService();
+    service.setExecutionMode("actors", 2);
+    service.setActivationTimeout(200);
+    service.init(Arrays.<WindfarmGenco> asList(stuck, quick));
+    service.setServices(new GameLogReplay.ReplayTimeService(), timeslotRepo,
+                        null);
+    try {
+      long start = System.currentTimeMillis();
+      service.activate(new Instant(0), 1);
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertEquals(Arrays.asList("update", "orders", "routed"), quick.events);
+      assertTrue(stuck.events.isEmpty());
+      stuck.block.countDown();
+      service.activate(new Instant(0), 1);
+      // the late genco caught up and offers again
+      assertEquals(Arrays.asList("update", "orders", "update", "orders",
+                                 "routed"), stuck.events);
+    }
+    finally {
+      stuck.block.countDown();
+      service.stop();
+    }
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.ClearedTrade;
+import org.powertac.common.Competition;
+import org.powertac.common.Order;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.interfaces.BrokerProxy;
+
+public class GencoCheckpointTest
+{
+  private File dir;
+  private GameLogReplay.ReplayTimeslotRepo timeslotRepo;
+  private GameLogReplay.ReplayWeatherForecastRepo weatherRepo;
+  private List<Order> orders;
+  private BrokerProxy proxy;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    Competition.newInstance("checkpoint-test");
+    dir = File.createTempFile("checkpoint", "");
+    dir.delete();
+    dir.mkdirs();
+    timeslotRepo = new GameLogReplay.ReplayTimeslotRepo(0, 24);
+    weatherRepo = new GameLogReplay.ReplayWeatherForecastRepo();
+    orders = new ArrayList<Order>();
+    proxy = (BrokerProxy) Proxy
+            .newProxyInstance(BrokerProxy.class.getClassLoader(),
+                              new Class<?>[] {BrokerProxy.class},
+                              new InvocationHandler() {
+      @Override
+      public Object invoke (Object proxy, Method method, Object[] args)
+      {
+        if ("routeMessage".equals(method.getName())) {
+          orders.add((Order) args[0]);
+        }
+        return null;
+      }
+    });
+  }
+
+  @After
+  public void tearDown ()
+  {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file: files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private WindfarmGenco createGenco (int interval) throws Exception
+  {
+    WindfarmGenco genco = new WindfarmGenco("checkpointed");
+    setField(genco, "checkpointDirectory", dir.getPath());
+    setField(genco, "checkpointInterval", interval);
+    // outages are not part of the checkpoint
+    setField(genco, "turbineFailureRate", 0.0);
+    return genco;
+  }
+
+  // one activation with a forecast, a trade and an imbalance
+  private void activate (WindfarmGenco genco, int t)
+  {
+    Timeslot current = timeslotRepo.slot(t);
+    timeslotRepo.setCurrent(t);
+    List<WeatherForecastPrediction> predictions =
+      new ArrayList<WeatherForecastPrediction>();
+    for (int h = 1; h <= 24; h++) {
+      predictions.add(new WeatherForecastPrediction(h, 10.0,
+              7.0 + 4.0 * Math.sin((t + h) * Math.PI / 12), 200.0, 0.5));
+    }
+    weatherRepo.setCurrent(new WeatherForecast(current, predictions));
+    Instant now = current.getStartInstant();
+    genco.receiveMessage(new ClearedTrade(timeslotRepo.slot(t + 1), 50.0,
+                                          30.0 + 10.0 * Math.sin(t), now));
+    if (t > 0) {
+      genco.recordBalancing(timeslotRepo.slot(t - 1), 2000.0 * (t % 3 - 1),
+                            -40.0);
+    }
+    genco.updateModel(now);
+    genco.generateOrders(now, timeslotRepo.enabledTimeslots());
+  }
+
+  @Test
+  public void testWarmStartContinuesLikeRunningGenco () throws Exception
+  {
+    WindfarmGenco running = createGenco(0);
+    running.init(proxy, timeslotRepo, weatherRepo);
+    for (int t = 0; t < 30; t++) {
+      activate(running, t);
+    }
+    assertTrue(running.getPriceForecaster().isReady());
+    running.writeCheckpoint(29);
+
+    WindfarmGenco restarted = createGenco(0);
+    restarted.init(proxy, timeslotRepo, weatherRepo);
+    assertTrue(restarted.getPriceForecaster().isReady());
+    assertEquals(running.getImbalanceTracker().getMeanImbalance(),
+                 restarted.getImbalanceTracker().getMeanImbalance(), 1e-12);
+    GencoSnapshot snapshot = restarted.getSnapshot();
+    assertNotNull(snapshot);
+    assertEquals(24, snapshot.getOfferCount());
+    for (int i = 0; i < 24; i++) {
+      assertEquals(running.getSnapshot().getOfferQuantity(i),
+                   snapshot.getOfferQuantity(i), 1e-12);
+    }
+    ScenarioMatrix expected =
+      running.getForecastScenarios().getBaseErrorScenarios();
+    ScenarioMatrix actual =
+      restarted.getForecastScenarios().getBaseErrorScenarios();
+    assertTrue(actual.hasShape(expected.getNumberOfScenarios(),
+                               expected.getHorizon()));
+    assertEquals(expected.get(7, 13), actual.get(7, 13), 0.0);
+    assertEquals(running.getErrorScenariosStamp(),
+                 restarted.getErrorScenariosStamp());
+
+    // the next activation gives the same offers
+    orders.clear();
+    activate(running, 30);
+    List<Order> expectedOrders = new ArrayList<Order>(orders);
+    orders.clear();
+    activate(restarted, 30);
+    assertEquals(expectedOrders.size(), orders.size());
+    for (int i = 0; i < orders.size(); i++) {
+      assertEquals(expectedOrders.get(i).getMWh(), orders.get(i).getMWh(),
+                   1e-9);
+    }
+  }
+
+  @Test
+  public void testChangedConfigurationStartsCold () throws Exception
+  {
+    WindfarmGenco running = createGenco(0);
+    running.init(proxy, timeslotRepo, weatherRepo);
+    for (int t = 0; t < 30; t++) {
+      activate(running, t);
+    }
+    running.writeCheckpoint(29);
+
+    WindfarmGenco restarted = createGenco(0);
+    setField(restarted, "imbalanceWindow", 24);
+    restarted.init(proxy, timeslotRepo, weatherRepo);
+    assertFalse(restarted.getPriceForecaster().isReady());
+    assertNull(restarted.getSnapshot());
+    assertEquals(0, restarted.getImbalanceTracker().size());
+  }
+
+  @Test
+  public void testChangedScenarioSettingsStartCold () throws Exception
+  {
+    WindfarmGenco running = createGenco(0);
+    running.init(proxy, timeslotRepo, weatherRepo);
+    for (int t = 0; t < 30; t++) {
+      activate(running, t);
+    }
+    running.writeCheckpoint(29);
+
+    WindfarmGenco restarted = createGenco(0);
+    setField(restarted, "scenarioPrecision", "float");
+    restarted.init(proxy, timeslotRepo, weatherRepo);
+    assertFalse(restarted.getPriceForecaster().isReady());
+    assertNull(restarted.getSnapshot());
+  }
+
+  @Test
+  public void testErrorScenariosWrittenOnce () throws Exception
+  {
+    WindfarmGenco genco = createGenco(0);
+    genco.init(proxy, timeslotRepo, weatherRepo);
+    activate(genco, 0);
+    genco.writeCheckpoint(0);
+    File scenarios = genco.getErrorScenariosFile();
+    assertTrue(scenarios.exists());
+    long stamp = genco.getErrorScenariosStamp();
+    assertTrue(stamp != 0L);
+
+    assertTrue(scenarios.delete());
+    activate(genco, 1);
+    genco.writeCheckpoint(1);
+    assertFalse(scenarios.exists());
+    GencoCheckpoint checkpoint =
+      GencoCheckpoint.open(genco.getCheckpointFile());
+    assertEquals(stamp, checkpoint.getErrorScenariosStamp());
+    assertNull(checkpoint.getSection(GencoCheckpoint.ERROR_SCENARIOS));
+
+    // without its scenarios the checkpoint is not used
+    WindfarmGenco restarted = createGenco(0);
+    restarted.init(proxy, timeslotRepo, weatherRepo);
+    assertNull(restarted.getSnapshot());
+  }
+
+  @Test
+  public void testWrittenInBackground () throws Exception
+  {
+    WindfarmGenco genco = createGenco(3);
+    genco.init(proxy, timeslotRepo, weatherRepo);
+    File file = genco.getCheckpointFile();
+    activate(genco, 0);
+    activate(genco, 1);
+    assertFalse(file.exists());
+    activate(genco, 2);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!file.exists() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(file.exists());
+    GencoCheckpoint checkpoint = GencoCheckpoint.open(file);
+    assertEquals("checkpointed", checkpoint.getGenco());
+    assertEquals(timeslotRepo.slot(2).getStartInstant().getMillis(),
+                 checkpoint.getTime());
+    assertNotNull(checkpoint.getSection(GencoCheckpoint.PRICE_INDEX));
+    assertEquals(genco.getConfigFingerprint(), checkpoint.getFingerprint());
+    assertTrue(genco.getErrorScenariosFile().exists());
+  }
+
+  private static void setField (Object target, String name, Object value)
+    throws Exception
+  {
+    Field field = target.getClass().getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+import org.powertac.common.Order;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.interfaces.BrokerProxy;
+
+public class GencoSnapshotTest
+{
+  private GameLogReplay.ReplayTimeslotRepo timeslotRepo;
+  private GameLogReplay.ReplayWeatherForecastRepo weatherRepo;
+  private List<Order> orders;
+  private WindfarmGenco genco;
+
+  @Before
+  public void setUp ()
+  {
+    Competition.newInstance("snapshot-test");
+    timeslotRepo = new GameLogReplay.ReplayTimeslotRepo(0, 24);
+    weatherRepo = new GameLogReplay.ReplayWeatherForecastRepo();
+    orders = new ArrayList<Order>();
+    BrokerProxy proxy = (BrokerProxy) Proxy
+            .newProxyInstance(BrokerProxy.class.getClassLoader(),
+                              new Class<?>[] {BrokerProxy.class},
+                              new InvocationHandler() {
+      @Override
+      public Object invoke (Object proxy, Method method, Object[] args)
+      {
+        if ("routeMessage".equals(method.getName())) {
+          orders.add((Order) args[0]);
+        }
+        return null;
+      }
+    });
+    genco = new WindfarmGenco("snapshot");
+    genco.init(proxy, timeslotRepo, weatherRepo);
+  }
+
+  private Instant activate (int t, double meanWindSpeed)
+  {
+    Timeslot current = timeslotRepo.slot(t);
+    timeslotRepo.setCurrent(t);
+    List<WeatherForecastPrediction> predictions =
+      new ArrayList<WeatherForecastPrediction>();
+    for (int h = 1; h <= 24; h++) {
+      predictions.add(new WeatherForecastPrediction(h, 10.0,
+              meanWindSpeed + 3.0 * Math.sin((t + h) * Math.PI / 12),
+              200.0, 0.5));
+    }
+    weatherRepo.setCurrent(new WeatherForecast(current, predictions));
+    Instant now = current.getStartInstant();
+    orders.clear();
+    genco.updateModel(now);
+    genco.generateOrders(now, timeslotRepo.enabledTimeslots());
+    return now;
+  }
+
+  @Test
+  public void testNoSnapshotBeforeActivation ()
+  {
+    assertNull(genco.getSnapshot());
+  }
+
+  @Test
+  public void testOffersMatchOrders ()
+  {
+    Instant now = activate(0, 8.0);
+    GencoSnapshot snapshot = genco.getSnapshot();
+    assertNotNull(snapshot);
+    assertEquals("snapshot", snapshot.getGenco());
+    assertEquals(now, snapshot.getTime());
+    assertEquals(orders.size(), snapshot.getOfferCount());
+    assertEquals(24, orders.size());
+    for (int i = 0; i < orders.size(); i++) {
+      Order order = orders.get(i);
+      assertEquals(order.getTimeslot().getSerialNumber(),
+                   snapshot.getOfferTimeslot(i));
+      assertEquals(-order.getMWh(), snapshot.getOfferQuantity(i), 1e-12);
+      assertEquals(order.getLimitPrice(), snapshot.getAskPrice(), 1e-12);
+    }
+    for (int h = 0; h < snapshot.getHorizon(); h++) {
+      assertTrue(snapshot.getPowerP10(h) <= snapshot.getPowerP50(h));
+      assertTrue(snapshot.getPowerP50(h) <= snapshot.getPowerP90(h));
+    }
+  }
+
+  @Test
+  public void testEarlierSnapshotUnchanged ()
+  {
+    activate(0, 8.0);
+    GencoSnapshot first = genco.getSnapshot();
+    int count = first.getOfferCount();
+    int[] timeslots = new int[count];
+    double[] quantities = new double[count];
+    for (int i = 0; i < count; i++) {
+      timeslots[i] = first.getOfferTimeslot(i);
+      quantities[i] = first.getOfferQuantity(i);
+    }
+    int horizon = first.getHorizon();
+    double[] mean = new double[horizon];
+    double[] p90 = new double[horizon];
+    double[] windSpeed = new double[horizon];
+    for (int h = 0; h < horizon; h++) {
+      mean[h] = first.getPowerMean(h);
+      p90[h] = first.getPowerP90(h);
+      windSpeed[h] = first.getForecastWindSpeed(h);
+    }
+    long[] nanos = new long[WindfarmGenco.STAGE_NAMES.length];
+    for (int stage = 0; stage < nanos.length; stage++) {
+      nanos[stage] = first.getStageNanos(stage);
+    }
+
+    // a much windier forecast changes everything the genco computes
+    activate(1, 14.0);
+    GencoSnapshot second = genco.getSnapshot();
+    assertNotSame(first, second);
+    assertTrue(second.getPowerMean(0) != first.getPowerMean(0));
+
+    assertEquals(count, first.getOfferCount());
+    for (int i = 0; i < count; i++) {
+      assertEquals(timeslots[i], first.getOfferTimeslot(i));
+      assertEquals(quantities[i], first.getOfferQuantity(i), 0.0);
+    }
+    assertEquals(horizon, first.getHorizon());
+    for (int h = 0; h < horizon; h++) {
+      assertEquals(mean[h], first.getPowerMean(h), 0.0);
+      assertEquals(p90[h], first.getPowerP90(h), 0.0);
+      assertEquals(windSpeed[h], first.getForecastWindSpeed(h), 0.0);
+    }
+    for (int stage = 0; stage < nanos.length; stage++) {
+      assertEquals(nanos[stage], first.getStageNanos(stage));
+    }
+  }
+}
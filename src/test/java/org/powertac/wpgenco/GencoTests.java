@@ -110,6 +110,49 @@ public class GencoTests
                                        anyInt(), eq("update"));
   }
 
+  @Test
+  public void testConfigureErrorLearning ()
+  {
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("wpgenco.windfarmGenco.errorLearningWindow", "0");
+    map.put("wpgenco.windfarmGenco.errorScenarioSource", "generator");
+    config.setConfiguration(new MapConfiguration(map));
+    WindfarmGenco configured = new WindfarmGenco("Configured");
+    serverConfig.configureMe(configured);
+    assertEquals("learning window", 0, configured.getErrorLearningWindow());
+    assertEquals("scenario source", "generator",
+                 configured.getErrorScenarioSource());
+    configured.init(mockProxy);
+    assertNull("learning disabled",
+               configured.getForecastScenarios().getErrorLearner());
+    assertNotNull("learning enabled by default",
+                  windfarmGenco.getForecastScenarios().getErrorLearner());
+  }
+
+  @Test
+  public void testConfigureErrorGenerator ()
+  {
+    TreeMap<String, String> map = new TreeMap<String, String>();
+    map.put("wpgenco.windfarmGenco.errorScenarioSource", "generator");
+    map.put("wpgenco.windForecastErrorGenerator.numberOfScenarios", "64");
+    map.put("wpgenco.windForecastErrorGenerator.seed", "99");
+    map.put("wpgenco.windForecastErrorGenerator.sampler", "lhs");
+    config.setConfiguration(new MapConfiguration(map));
+    // as SimpleGencoService.initialize() does
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    serverConfig.configureMe(generator);
+    WindfarmGenco configured = new WindfarmGenco("Configured");
+    serverConfig.configureMe(configured);
+    configured.setErrorGenerator(generator);
+    configured.init(mockProxy);
+    assertEquals("configured scenario count", 64,
+                 configured.getForecastScenarios().getBaseErrorScenarios()
+                         .getNumberOfScenarios());
+    assertTrue("seed and sampler in the fingerprint",
+               configured.getConfigFingerprint()
+                       .contains("64 lhs scenarios, seed 99"));
+  }
+
   @Test
   public void testUpdateModel ()
   {
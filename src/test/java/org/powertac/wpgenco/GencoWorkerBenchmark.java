@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import org.powertac.common.Competition;
+
+/**
+ * Measures how the genco activations scale with the number of worker
+ * processes: the same gencos and timeslots are run in this process and on
+ * 1, 2, 4, ... workers, up to the number of processors, and the time per
+ * timeslot and the speedup over this process are printed. Each run
+ * starts new workers, whose code is not yet compiled by the JIT, so use
+ * enough timeslots for the warm up not to dominate. Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.powertac.wpgenco.GencoWorkerBenchmark \
+ *     -Dexec.args="gencos timeslots"
+ * </pre>
+ */
+public class GencoWorkerBenchmark
+{
+  public static void main (String[] args)
+  {
+    int gencos = (args.length > 0)? Integer.parseInt(args[0]): 64;
+    int timeslots = (args.length > 1)? Integer.parseInt(args[1]): 24;
+    int processors = Runtime.getRuntime().availableProcessors();
+    Competition.newInstance("worker-benchmark");
+
+    System.out.println(String.format("%d gencos, %d timeslots, %d processors",
+                                     gencos, timeslots, processors));
+    System.out.println("mode          msec/timeslot  speedup");
+    double sequential = run("sequential", 0, gencos, timeslots);
+    print("sequential", sequential, 1.0);
+    for (int workers = 1; workers <= processors; workers *= 2) {
+      double msec = run("workers", workers, gencos, timeslots);
+      print(workers + " workers", msec, sequential / msec);
+    }
+  }
+
+  // msec per timeslot, after one timeslot of warm up, which includes the
+  // start of the workers
+  private static double run (String mode, int workers, int gencos,
+                             int timeslots)
+  {
+    long start = System.nanoTime();
+    GencoWorkerPoolTest.runGencos(mode, workers, gencos, 1);
+    long warmup = System.nanoTime() - start;
+    start = System.nanoTime();
+    GencoWorkerPoolTest.runGencos(mode, workers, gencos, timeslots + 1);
+    long nanos = System.nanoTime() - start - warmup;
+    return nanos / 1e6 / timeslots;
+  }
+
+  private static void print (String name, double msec, double speedup)
+  {
+    System.out.println(String.format("%-12s %14.2f %8.2f", name, msec,
+                                     speedup));
+  }
+
+} // class GencoWorkerBenchmark
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.ClearedTrade;
+import org.powertac.common.Competition;
+import org.powertac.common.MarketPosition;
+import org.powertac.common.Order;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.interfaces.BrokerProxy;
+
+/**
+ * Runs gencos in worker processes started from the test's class path.
+ */
+public class GencoWorkerPoolTest
+{
+  @Before
+  public void setUp ()
+  {
+    Competition.newInstance("worker-test");
+  }
+
+  @Test
+  public void testConfigRoundTrip () throws Exception
+  {
+    WindfarmGenco source = new WindfarmGenco("source");
+    setField(source, "askPrice", 17.5);
+    setField(source, "offerOptimizer", "ramping");
+    setField(source, "cfgPriceFallback", Arrays.asList("mean"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GencoProtocol.writeConfig(new DataOutputStream(bytes), source);
+
+    WindfarmGenco target = new WindfarmGenco("target");
+    GencoProtocol.readConfig(new DataInputStream(new ByteArrayInputStream(bytes
+            .toByteArray())), target);
+    assertEquals(17.5, target.getAskPrice(), 1e-12);
+    assertEquals("ramping", getField(target, "offerOptimizer"));
+    assertEquals(Arrays.asList("mean"), getField(target, "cfgPriceFallback"));
+  }
+
+  @Test
+  public void testGeneratorConfigRoundTrip () throws Exception
+  {
+    WindForecastErrorGenerator source = new WindForecastErrorGenerator();
+    source.setNumberOfScenarios(64);
+    source.setSeed(99L);
+    source.setSampler("sobol");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GencoProtocol.writeConfig(new DataOutputStream(bytes), source);
+
+    WindForecastErrorGenerator target = new WindForecastErrorGenerator();
+    GencoProtocol.readConfig(new DataInputStream(new ByteArrayInputStream(bytes
+            .toByteArray())), target);
+    assertEquals(source.describe(), target.describe());
+  }
+
+  @Test
+  public void testWorkersMatchSequential ()
+  {
+    List<Order> sequential = runGencos("sequential", 0, 5, 6);
+    assertEquals(5 * 6 * 24, sequential.size());
+    for (int workers = 1; workers <= 3; workers++) {
+      List<Order> remote = runGencos("workers", workers, 5, 6);
+      assertEquals(sequential.size(), remote.size());
+      for (int i = 0; i < sequential.size(); i++) {
+        Order expected = sequential.get(i);
+        Order actual = remote.get(i);
+        assertEquals(expected.getBroker().getUsername(),
+                     actual.getBroker().getUsername());
+        assertEquals(expected.getTimeslot().getSerialNumber(),
+                     actual.getTimeslot().getSerialNumber());
+        assertEquals(expected.getMWh(), actual.getMWh(), 1e-9);
+        assertEquals(expected.getLimitPrice(), actual.getLimitPrice(), 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void testTimedOutWorkerRunsLocally ()
+  {
+    // no worker initializes its gencos within 1 msec
+    List<Order> orders = runGencos("workers", 2, 4, 3, 1);
+    int first = 0;
+    int last = 0;
+    for (Order order: orders) {
+      if (order.getTimeslot().getSerialNumber() == 1) {
+        first += 1;
+      }
+      else if (order.getTimeslot().getSerialNumber() == 2 + 24) {
+        last += 1;
+      }
+    }
+    assertEquals("no offers in the timed out timeslot", 0, first);
+    assertEquals("offers of all gencos once they run locally", 4, last);
+  }
+
+  /**
+   * Runs numGencos gencos for the given number of timeslots, with a
+   * synthetic forecast, a cleared trade and a market position in each
+   * timeslot, and returns the orders in the order they were routed.
+   */
+  static List<Order> runGencos (String mode, int parallelism, int numGencos,
+                                int timeslots)
+  {
+    return runGencos(mode, parallelism, numGencos, timeslots, 60000);
+  }
+
+  /**
+   * As above, with the given activation timeout in msec.
+   */
+  static List<Order> runGencos (String mode, int parallelism, int numGencos,
+                                int timeslots, int timeout)
+  {
+    GameLogReplay.ReplayTimeslotRepo timeslotRepo =
+      new GameLogReplay.ReplayTimeslotRepo(0, 24);
+    GameLogReplay.ReplayWeatherForecastRepo weatherRepo =
+      new GameLogReplay.ReplayWeatherForecastRepo();
+    GameLogReplay.ReplayTimeService timeService =
+      new GameLogReplay.ReplayTimeService();
+    final List<Order> orders =
+      Collections.synchronizedList(new ArrayList<Order>());
+    BrokerProxy proxy = (BrokerProxy) Proxy
+            .newProxyInstance(BrokerProxy.class.getClassLoader(),
+                              new Class<?>[] {BrokerProxy.class},
+                              new InvocationHandler() {
+      @Override
+      public Object invoke (Object proxy, Method method, Object[] args)
+      {
+        if ("routeMessage".equals(method.getName())) {
+          orders.add((Order) args[0]);
+        }
+        return null;
+      }
+    });
+
+    List<WindfarmGenco> gencos = new ArrayList<WindfarmGenco>();
+    for (int i = 0; i < numGencos; i++) {
+      WindfarmGenco genco = new WindfarmGenco("genco-" + i);
+      if ("workers".equals(mode)) {
+        genco.initRemote(proxy, null);
+      }
+      else {
+        genco.init(proxy, timeslotRepo, weatherRepo);
+      }
+      gencos.add(genco);
+    }
+    SimpleGencoService service = new SimpleGencoService();
+    service.setExecutionMode(mode, parallelism);
+    service.setActivationTimeout(timeout);
+    service.init(gencos);
+    service.setServices(timeService, timeslotRepo, weatherRepo);
+    try {
+      for (int t = 0; t < timeslots; t++) {
+        Timeslot current = timeslotRepo.slot(t);
+        timeslotRepo.setCurrent(t);
+        timeService.setNow(current.getStartInstant());
+        List<WeatherForecastPrediction> predictions =
+          new ArrayList<WeatherForecastPrediction>();
+        for (int h = 1; h <= 24; h++) {
+          predictions.add(new WeatherForecastPrediction(h, 10.0,
+                  7.0 + 4.0 * Math.sin((t + h) * Math.PI / 12), 200.0, 0.5));
+        }
+        weatherRepo.setCurrent(new WeatherForecast(current, predictions));
+        Timeslot traded = timeslotRepo.slot(t + 1);
+        ClearedTrade trade =
+          new ClearedTrade(traded, 50.0, 30.0 + t, current.getStartInstant());
+        for (WindfarmGenco genco: gencos) {
+          genco.receiveMessage(trade);
+          genco.addMarketPosition(new MarketPosition(genco, traded, -5.0),
+                                  traded);
+        }
+        service.activate(current.getStartInstant(), 1);
+      }
+    }
+    finally {
+      service.stop();
+    }
+    return new ArrayList<Order>(orders);
+  }
+
+  private static void setField (Object target, String name, Object value)
+    throws Exception
+  {
+    Field field = target.getClass().getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+
+  private static Object getField (Object target, String name)
+    throws Exception
+  {
+    Field field = target.getClass().getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(target);
+  }
+}
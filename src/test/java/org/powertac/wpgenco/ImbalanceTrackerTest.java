@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ImbalanceTrackerTest
+{
+  @Test
+  public void testWindow ()
+  {
+    ImbalanceTracker tracker = new ImbalanceTracker(4, 0.5, 10.0);
+    for (int ts = 0; ts < 6; ts++) {
+      tracker.record(ts, 5.0, 5.0 + ts, 0.0);
+    }
+    assertEquals("window is full", 4, tracker.size());
+    assertEquals("most recent", 5, tracker.getTimeslot(0));
+    assertEquals("oldest", 2, tracker.getTimeslot(3));
+    assertEquals(10.0, tracker.getActual(0), 1e-9);
+    // imbalances 2, 3, 4, 5 remain in the window
+    double median = tracker.getImbalanceQuantile(0.5);
+    assertTrue("median " + median, median > 2.5 && median < 4.0);
+  }
+
+  @Test
+  public void testRealizedPrices ()
+  {
+    ImbalanceTracker tracker = new ImbalanceTracker(100, 0.2, 10.0);
+    assertEquals("assumed before settlements", 15.0,
+                 tracker.getRegulationDownPrice(15.0), 1e-9);
+    for (int ts = 0; ts < 10; ts++) {
+      // surplus of 2 MWh credited at 10/MWh
+      tracker.record(2 * ts, 5.0, 7.0, 20.0);
+      // shortfall of 1 MWh charged at 60/MWh
+      tracker.record(2 * ts + 1, 5.0, 4.0, -60.0);
+    }
+    assertEquals(10.0, tracker.getRegulationDownPrice(15.0), 1e-9);
+    assertEquals(60.0, tracker.getRegulationUpPrice(80.0), 1e-9);
+    assertEquals(1.5, tracker.getMeanAbsImbalance(), 0.2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyWindow ()
+  {
+    new ImbalanceTracker(0, 0.1, 10.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadSmoothing ()
+  {
+    new ImbalanceTracker(24, 0.0, 10.0);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+
+public class PowerOutputSnapshotTest
+{
+  private ForecastScenarios scenarios;
+
+  @Before
+  public void setUp ()
+  {
+    WindfarmGenco genco = new WindfarmGenco("test");
+    genco.init(null);
+    scenarios = new ForecastScenarios(genco);
+  }
+
+  private PowerOutputSnapshot next ()
+  {
+    scenarios.calcWindSpeedForecastScenarios();
+    scenarios.calcPowerOutputScenarios();
+    return scenarios.getPowerOutput();
+  }
+
+  @Test
+  public void testDoubleBuffering ()
+  {
+    assertNull(scenarios.getPowerOutput());
+    PowerOutputSnapshot first = next();
+    assertTrue(first.isValid());
+    PowerOutputSnapshot second = next();
+    assertNotSame(first, second);
+    assertNotSame(first.getScenarios(), second.getScenarios());
+    // the first buffer is still untouched until the third update
+    assertTrue(first.isValid());
+    assertTrue(second.isValid());
+    PowerOutputSnapshot third = next();
+    assertFalse(first.isValid());
+    assertTrue(second.isValid());
+    assertSame(first.getQuantiles(), third.getQuantiles());
+    assertSame(first.getScenarios(), third.getScenarios());
+  }
+
+  @Test
+  public void testReleaseInvalidates ()
+  {
+    PowerOutputSnapshot first = next();
+    scenarios.release();
+    assertFalse(first.isValid());
+    assertNull(scenarios.getPowerOutput());
+  }
+
+  // snapshot for a forecast of the given number of hours
+  private PowerOutputSnapshot next (WindfarmGenco genco,
+                                    GameLogReplay.ReplayWeatherForecastRepo
+                                    repo, int hours)
+  {
+    List<WeatherForecastPrediction> predictions =
+      new ArrayList<WeatherForecastPrediction>();
+    for (int h = 1; h <= hours; h++) {
+      predictions.add(new WeatherForecastPrediction(h, 10.0, 8.0, 200.0,
+                                                    0.5));
+    }
+    repo.setCurrent(new WeatherForecast(new Timeslot(0, new Instant(0)),
+                                        predictions));
+    genco.getWindForecast().refreshWeatherForecast();
+    return next();
+  }
+
+  @Test
+  public void testOldSnapshotSurvivesShapeChange () throws Exception
+  {
+    WindfarmGenco genco = new WindfarmGenco("direct");
+    Field storage = WindfarmGenco.class.getDeclaredField("scenarioStorage");
+    storage.setAccessible(true);
+    storage.set(genco, "direct");
+    GameLogReplay.ReplayWeatherForecastRepo repo =
+      new GameLogReplay.ReplayWeatherForecastRepo();
+    genco.init(null, null, repo);
+    scenarios = new ForecastScenarios(genco);
+    PowerOutputSnapshot first = next(genco, repo, 24);
+    double value = first.get(3, 23);
+    next(genco, repo, 12);
+    // the buffer of the first snapshot needs a shorter matrix now
+    PowerOutputSnapshot third = next(genco, repo, 12);
+    assertEquals(12, third.getHorizon());
+    assertFalse(first.isValid());
+    assertEquals(value, first.get(3, 23), 0.0);
+    next(genco, repo, 24);
+    PowerOutputSnapshot fifth = next(genco, repo, 24);
+    assertSame(first.getScenarios(), fifth.getScenarios());
+    scenarios.release();
+    genco.release();
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.powertac.common.Timeslot;
+
+public class PriceForecasterTest
+{
+  private Timeslot slot (int serial)
+  {
+    return new Timeslot(serial, new Instant(serial * 3600000L));
+  }
+
+  private double price (int serial)
+  {
+    return 40.0 + 10.0 * Math.sin(2 * Math.PI * (serial % 24) / 24);
+  }
+
+  @Test
+  public void testLearnsDailyPattern ()
+  {
+    PriceForecaster forecaster = new PriceForecaster(0.3, 0.05, 0.3);
+    int days = 20;
+    for (int serial = 0; serial < days * 24; serial++) {
+      // two trades at the same price for each timeslot
+      forecaster.addTrade(slot(serial), 5.0, price(serial));
+      forecaster.addTrade(slot(serial), -3.0, -price(serial));
+      forecaster.closeTimeslots(serial + 1);
+    }
+    assertTrue(forecaster.isReady());
+
+    List<Timeslot> open = new ArrayList<Timeslot>();
+    for (int i = 1; i <= 24; i++) {
+      open.add(slot(days * 24 + i));
+    }
+    double[] clearing = new double[24];
+    double[] minAsk = new double[24];
+    double[] maxAsk = new double[24];
+    forecaster.forecast(open, clearing, minAsk, maxAsk);
+    for (int i = 0; i < 24; i++) {
+      assertEquals("slot " + i, price(days * 24 + i + 1), clearing[i], 1.5);
+      assertTrue(minAsk[i] < clearing[i] && clearing[i] < maxAsk[i]);
+    }
+  }
+
+  @Test
+  public void testClosedTimeslotIgnored ()
+  {
+    PriceForecaster forecaster = new PriceForecaster(0.5, 0.0, 0.0);
+    for (int serial = 0; serial < 24; serial++) {
+      forecaster.addTrade(slot(serial), 1.0, 30.0);
+    }
+    forecaster.closeTimeslots(24);
+    assertTrue(forecaster.isReady());
+    // late trade for a closed timeslot
+    forecaster.addTrade(slot(10), 1.0, 1000.0);
+    forecaster.closeTimeslots(25);
+    List<Timeslot> open = new ArrayList<Timeslot>();
+    open.add(slot(26));
+    double[] clearing = new double[1];
+    forecaster.forecast(open, clearing, new double[1], new double[1]);
+    assertEquals(30.0, clearing[0], 1e-9);
+  }
+
+  @Test
+  public void testRepeatedHoursInFirstDay ()
+  {
+    // no trades in timeslots 5 to 7, so the first 24 closed timeslots with
+    // prices reach hours 0 to 2 twice
+    PriceForecaster forecaster = new PriceForecaster(0.5, 0.0, 0.0);
+    for (int serial = 0; serial < 27; serial++) {
+      if (serial < 5 || serial > 7) {
+        forecaster.addTrade(slot(serial), 1.0, 30.0 + serial % 24);
+      }
+      forecaster.closeTimeslots(serial + 1);
+    }
+    assertTrue(forecaster.isReady());
+    // level is the mean of the hours seen, each hour keeps its own price
+    List<Timeslot> open = new ArrayList<Timeslot>();
+    open.add(slot(27));
+    open.add(slot(33));
+    open.add(slot(48));
+    // hour 6 has not been seen, its forecast is the level
+    open.add(slot(30));
+    double[] clearing = new double[4];
+    forecaster.forecast(open, clearing, new double[4], new double[4]);
+    assertEquals(33.0, clearing[0], 1e-9);
+    assertEquals(39.0, clearing[1], 1e-9);
+    assertEquals(30.0, clearing[2], 1e-9);
+    assertEquals(30.0 + 258.0 / 21, clearing[3], 1e-9);
+  }
+
+  @Test
+  public void testLongHorizon ()
+  {
+    PriceForecaster forecaster = new PriceForecaster(0.5, 0.0, 0.0, 72);
+    for (int serial = 0; serial < 24; serial++) {
+      forecaster.addTrade(slot(serial), 1.0, 30.0);
+    }
+    forecaster.closeTimeslots(24);
+    // trades for all 72 open timeslots, the first at a much higher price
+    forecaster.addTrade(slot(24), 1.0, 1000.0);
+    for (int serial = 25; serial < 96; serial++) {
+      forecaster.addTrade(slot(serial), 1.0, 30.0);
+    }
+    forecaster.closeTimeslots(25);
+    List<Timeslot> open = new ArrayList<Timeslot>();
+    open.add(slot(26));
+    double[] clearing = new double[1];
+    forecaster.forecast(open, clearing, new double[1], new double[1]);
+    assertEquals(515.0, clearing[0], 1e-9);
+  }
+
+  @Test
+  public void testRestoreIntoEarlierTimeslots () throws Exception
+  {
+    // two days at 30 in a game that has reached timeslot 500
+    PriceForecaster first = new PriceForecaster(0.5, 0.0, 0.0);
+    for (int serial = 452; serial < 500; serial++) {
+      first.addTrade(slot(serial), 1.0, 30.0);
+      first.closeTimeslots(serial + 1);
+    }
+    first.addTrade(slot(501), 1.0, 30.0);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    first.writeState(new DataOutputStream(bytes));
+
+    // restored into a new game at timeslot 10: the model is kept, the
+    // timeslots of the old game are not
+    PriceForecaster restored = new PriceForecaster(0.5, 0.0, 0.0);
+    restored.readState(ByteBuffer.wrap(bytes.toByteArray()), 10);
+    assertTrue(restored.isReady());
+    List<Timeslot> open = new ArrayList<Timeslot>();
+    open.add(slot(12));
+    double[] clearing = new double[1];
+    restored.forecast(open, clearing, new double[1], new double[1]);
+    assertEquals(30.0, clearing[0], 1e-9);
+    restored.addTrade(slot(11), 1.0, 50.0);
+    restored.closeTimeslots(12);
+    restored.forecast(open, clearing, new double[1], new double[1]);
+    assertEquals("new trades move the forecast", 40.0, clearing[0], 1e-9);
+
+    // restored on the same timeline, the pending trade is kept
+    PriceForecaster continued = new PriceForecaster(0.5, 0.0, 0.0);
+    continued.readState(ByteBuffer.wrap(bytes.toByteArray()), 500);
+    continued.addTrade(slot(500), 1.0, 50.0);
+    continued.addTrade(slot(501), 1.0, 50.0);
+    continued.closeTimeslots(502);
+    open.set(0, slot(502));
+    continued.forecast(open, clearing, new double[1], new double[1]);
+    // 500 clears at 50, 501 at the mean of the restored and new trades
+    assertEquals(40.0, clearing[0], 1e-9);
+  }
+
+  @Test
+  public void testTimeslotsStartOver ()
+  {
+    PriceForecaster forecaster = new PriceForecaster(0.5, 0.0, 0.0);
+    for (int serial = 452; serial < 500; serial++) {
+      forecaster.addTrade(slot(serial), 1.0, 30.0);
+      forecaster.closeTimeslots(serial + 1);
+    }
+    // timeslots behind the closed ones start a new timeline
+    forecaster.closeTimeslots(11);
+    forecaster.addTrade(slot(11), 1.0, 50.0);
+    forecaster.closeTimeslots(12);
+    List<Timeslot> open = new ArrayList<Timeslot>();
+    open.add(slot(12));
+    double[] clearing = new double[1];
+    forecaster.forecast(open, clearing, new double[1], new double[1]);
+    assertEquals(40.0, clearing[0], 1e-9);
+  }
+}
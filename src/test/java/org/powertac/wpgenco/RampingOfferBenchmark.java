@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import java.util.Random;
+
+/**
+ * Compares the ramping offer optimizer with the independent per-timeslot
+ * solvers on 24 timeslots of 1000 power scenarios: time per run, total
+ * expected revenue, and the largest change between consecutive offers.
+ * Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.powertac.wpgenco.RampingOfferBenchmark
+ * </pre>
+ */
+public class RampingOfferBenchmark
+{
+  private static final int SLOTS = 24;
+  private static final int SCENARIOS = 1000;
+  private static final int REPETITIONS = 2000;
+  private static final double CAPACITY = 150.0;
+  private static final double RAMP = 0.1 * CAPACITY;
+  private static final int GRID_STEPS = 100;
+
+  public static void main (String[] args)
+  {
+    Random random = new Random(1);
+    ScenarioMatrix power =
+      ScenarioMatrix.create(SCENARIOS, SLOTS, ScenarioStorage.HEAP);
+    double[] mcp = new double[SLOTS];
+    double[] crd = new double[SLOTS];
+    double[] cru = new double[SLOTS];
+    for (int h = 0; h < SLOTS; h++) {
+      double level = CAPACITY * (0.5 + 0.4 * Math.sin(h * Math.PI / 6));
+      for (int s = 0; s < SCENARIOS; s++) {
+        double p = level + 0.2 * CAPACITY * random.nextGaussian();
+        power.set(s, h, Math.max(0, Math.min(CAPACITY, p)));
+      }
+      mcp[h] = 40.0 + 10.0 * Math.sin(h * Math.PI / 12);
+      crd[h] = 15.0;
+      cru[h] = 80.0;
+    }
+    for (int s = 0; s < SCENARIOS; s++) {
+      power.setProbability(s, 1.0 / SCENARIOS);
+    }
+    ScenarioQuantiles quantiles = new ScenarioQuantiles();
+    quantiles.update(power);
+
+    double[] breakpoint = new double[SLOTS];
+    double[] grid = new double[SLOTS];
+    double[] ramped = new double[SLOTS];
+    RampingOfferOptimizer optimizer = new RampingOfferOptimizer(GRID_STEPS);
+
+    // warm up
+    for (int rep = 0; rep < REPETITIONS; rep++) {
+      optimizer.optimize(quantiles, SLOTS, CAPACITY, mcp, crd, cru, null,
+                         RAMP, Double.NaN, ramped);
+    }
+
+    long start = System.nanoTime();
+    for (int rep = 0; rep < REPETITIONS; rep++) {
+      for (int h = 0; h < SLOTS; h++) {
+        breakpoint[h] = WindFarmOfferCalculator
+                .findBreakpointOffer(quantiles, h, CAPACITY, mcp[h], crd[h],
+                                     cru[h]);
+      }
+    }
+    long breakpointNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int rep = 0; rep < REPETITIONS / 20; rep++) {
+      for (int h = 0; h < SLOTS; h++) {
+        grid[h] = WindFarmOfferCalculator
+                .findOfferCapacity(power, h, CAPACITY, mcp[h], crd[h],
+                                   cru[h], 1);
+      }
+    }
+    long gridNanos = (System.nanoTime() - start) * 20;
+
+    start = System.nanoTime();
+    for (int rep = 0; rep < REPETITIONS; rep++) {
+      optimizer.optimize(quantiles, SLOTS, CAPACITY, mcp, crd, cru, null,
+                         RAMP, Double.NaN, ramped);
+    }
+    long rampedNanos = System.nanoTime() - start;
+
+    System.out.println(String.format("%d timeslots, %d scenarios, ramp limit %.1f MW",
+                                     SLOTS, SCENARIOS, RAMP));
+    System.out.println("solver       msec/run   revenue  max-ramp[MW]");
+    print("breakpoint", breakpointNanos, quantiles, breakpoint, mcp, crd, cru);
+    print("grid", gridNanos, quantiles, grid, mcp, crd, cru);
+    print("ramping", rampedNanos, quantiles, ramped, mcp, crd, cru);
+  }
+
+  private static void print (String name, long nanos,
+                             ScenarioQuantiles quantiles, double[] offers,
+                             double[] mcp, double[] crd, double[] cru)
+  {
+    double revenue = 0;
+    double maxRamp = 0;
+    for (int h = 0; h < SLOTS; h++) {
+      revenue += WindFarmOfferCalculator.getRevenue(quantiles, h, offers[h],
+                                                    mcp[h], crd[h], cru[h]);
+      if (h > 0) {
+        maxRamp = Math.max(maxRamp, Math.abs(offers[h] - offers[h - 1]));
+      }
+    }
+    System.out.println(String.format("%-10s %10.4f %9.1f %13.1f", name,
+                                     nanos / 1e6 / REPETITIONS, revenue,
+                                     maxRamp));
+  }
+
+} // class RampingOfferBenchmark
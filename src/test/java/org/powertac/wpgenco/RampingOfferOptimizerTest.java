@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RampingOfferOptimizerTest
+{
+  private static final double CAPACITY = 100.0;
+  private static final int SLOTS = 4;
+
+  private ScenarioQuantiles quantiles;
+  private double[] mcp = {40.0, 30.0, 45.0, 20.0};
+  private double[] crd = {10.0, 10.0, 10.0, 10.0};
+  private double[] cru = {70.0, 70.0, 70.0, 70.0};
+
+  @Before
+  public void setUp ()
+  {
+    Random random = new Random(17);
+    int scenarios = 200;
+    double[] level = {20.0, 80.0, 30.0, 90.0};
+    ScenarioMatrix power =
+      ScenarioMatrix.create(scenarios, SLOTS, ScenarioStorage.HEAP);
+    for (int s = 0; s < scenarios; s++) {
+      power.setProbability(s, 1.0 / scenarios);
+      for (int h = 0; h < SLOTS; h++) {
+        double p = level[h] + 15.0 * random.nextGaussian();
+        power.set(s, h, Math.max(0, Math.min(CAPACITY, p)));
+      }
+    }
+    quantiles = new ScenarioQuantiles();
+    quantiles.update(power);
+  }
+
+  @Test
+  public void testUnconstrainedMatchesPerSlot ()
+  {
+    RampingOfferOptimizer optimizer = new RampingOfferOptimizer(1000);
+    double[] offers = new double[SLOTS];
+    optimizer.optimize(quantiles, SLOTS, CAPACITY, mcp, crd, cru, null,
+                       CAPACITY, Double.NaN, offers);
+    for (int h = 0; h < SLOTS; h++) {
+      double exact = WindFarmOfferCalculator
+              .findBreakpointOffer(quantiles, h, CAPACITY, mcp[h], crd[h],
+                                   cru[h]);
+      double gap = revenue(h, exact) - revenue(h, offers[h]);
+      assertTrue("hour " + h + " gap " + gap, gap < 0.5);
+    }
+  }
+
+  @Test
+  public void testMatchesExhaustiveSearch ()
+  {
+    int steps = 10;
+    double step = CAPACITY / steps;
+    double ramp = 2 * step;
+    RampingOfferOptimizer optimizer = new RampingOfferOptimizer(steps);
+    double[] offers = new double[SLOTS];
+    double total = optimizer.optimize(quantiles, SLOTS, CAPACITY, mcp, crd,
+                                      cru, null, ramp, 3 * step, offers);
+    for (int h = 0; h < SLOTS; h++) {
+      double before = (h == 0)? 3 * step: offers[h - 1];
+      assertTrue(Math.abs(offers[h] - before) <= ramp + 1e-9);
+    }
+    double best = Double.NEGATIVE_INFINITY;
+    int[] path = new int[SLOTS];
+    int count = (int) Math.pow(steps + 1, SLOTS);
+    for (int code = 0; code < count; code++) {
+      int c = code;
+      boolean feasible = true;
+      double sum = 0;
+      for (int h = 0; h < SLOTS; h++) {
+        path[h] = c % (steps + 1);
+        c /= steps + 1;
+        int before = (h == 0)? 3: path[h - 1];
+        feasible &= Math.abs(path[h] - before) <= 2;
+        sum += revenue(h, path[h] * step);
+      }
+      if (feasible) {
+        best = Math.max(best, sum);
+      }
+    }
+    assertEquals(best, total, 1e-6);
+  }
+
+  @Test
+  public void testCurtailment ()
+  {
+    RampingOfferOptimizer optimizer = new RampingOfferOptimizer(100);
+    double[] upper = {CAPACITY, 10.0, CAPACITY, 50.0};
+    double[] offers = new double[SLOTS];
+    optimizer.optimize(quantiles, SLOTS, CAPACITY, mcp, crd, cru, upper,
+                       30.0, Double.NaN, offers);
+    for (int h = 0; h < SLOTS; h++) {
+      assertTrue(offers[h] <= upper[h] + 1e-9);
+      if (h > 0) {
+        assertTrue(Math.abs(offers[h] - offers[h - 1]) <= 30.0 + 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testBeyondHorizon ()
+  {
+    RampingOfferOptimizer optimizer = new RampingOfferOptimizer(10);
+    double[] price = {40.0, 40.0, 40.0, 40.0, 40.0, 40.0};
+    double[] offers = new double[6];
+    optimizer.optimize(quantiles, 6, CAPACITY, price, price, price, null,
+                       CAPACITY, Double.NaN, offers);
+    assertEquals(CAPACITY, offers[5], 1e-9);
+  }
+
+  private double revenue (int h, double offer)
+  {
+    return WindFarmOfferCalculator.getRevenue(quantiles, h, offer, mcp[h],
+                                              crd[h], cru[h]);
+  }
+}
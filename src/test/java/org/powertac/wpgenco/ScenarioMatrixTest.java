@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ScenarioMatrixTest
+{
+  private List<Scenario> scenarios (int hours)
+  {
+    List<Scenario> result = new ArrayList<Scenario>();
+    for (int s = 0; s < 3; s++) {
+      Scenario scenario = new Scenario(s + 1, 1.0 / 3);
+      for (int h = 1; h <= hours; h++) {
+        scenario.addValue(new Scenario.ScenarioValue(h, s * 100 + h));
+      }
+      result.add(scenario);
+    }
+    return result;
+  }
+
+  @Test
+  public void testLongerHorizonRepeatsLastHour ()
+  {
+    ScenarioMatrix matrix =
+      ScenarioMatrix.fromScenarios(scenarios(24), 48, ScenarioStorage.HEAP);
+    assertEquals(48, matrix.getHorizon());
+    assertEquals(3, matrix.getNumberOfScenarios());
+    assertEquals(201.0, matrix.get(2, 0), 1e-12);
+    assertEquals(224.0, matrix.get(2, 23), 1e-12);
+    assertEquals(224.0, matrix.get(2, 47), 1e-12);
+    assertEquals(1.0 / 3, matrix.getProbability(1), 1e-12);
+  }
+
+  @Test
+  public void testShorterHorizonDropsHours ()
+  {
+    ScenarioMatrix matrix =
+      ScenarioMatrix.fromScenarios(scenarios(24), 6, ScenarioStorage.HEAP);
+    assertEquals(6, matrix.getHorizon());
+    assertEquals(106.0, matrix.get(1, 5), 1e-12);
+  }
+
+  @Test
+  public void testMissingHours ()
+  {
+    List<Scenario> list = new ArrayList<Scenario>();
+    Scenario scenario = new Scenario(1, 1.0);
+    scenario.addValue(new Scenario.ScenarioValue(2, 5.0));
+    scenario.addValue(new Scenario.ScenarioValue(5, 7.0));
+    list.add(scenario);
+    ScenarioMatrix matrix =
+      ScenarioMatrix.fromScenarios(list, 6, ScenarioStorage.HEAP);
+    double[] expected = {0.0, 5.0, 5.0, 5.0, 7.0, 7.0};
+    for (int h = 0; h < expected.length; h++) {
+      assertEquals(expected[h], matrix.get(0, h), 1e-12);
+    }
+  }
+}
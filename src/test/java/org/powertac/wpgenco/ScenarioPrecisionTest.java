@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares offer quantities computed from float precision scenario
+ * matrices with those from double precision matrices.
+ */
+public class ScenarioPrecisionTest
+{
+  private static final double CAPACITY = 150.0;
+  private static final double MCP = 40.0;
+  private static final double CRD = 15.0;
+  private static final double CRU = 80.0;
+  // grid step of WindFarmOfferCalculator.findOfferCapacity()
+  private static final double GRID_STEP = CAPACITY * 0.1;
+
+  private WindForecastErrorGenerator generator;
+  private double[] forecast;
+
+  @Before
+  public void setUp ()
+  {
+    generator = new WindForecastErrorGenerator();
+    generator.setNumberOfScenarios(2000);
+    generator.setSeed(42);
+    forecast = new double[generator.getHorizon()];
+    for (int h = 0; h < forecast.length; h++) {
+      forecast[h] = 6.0 + 0.25 * h;
+    }
+  }
+
+  @Test
+  public void testStorageSize ()
+  {
+    ScenarioMatrix doubles = ScenarioMatrix.create(100, 24, ScenarioStorage.HEAP);
+    ScenarioMatrix floats =
+      ScenarioMatrix.create(100, 24, ScenarioStorage.HEAP_FLOAT);
+    assertEquals("float storage is half the size",
+                 doubles.getStorageBytes() / 2, floats.getStorageBytes());
+  }
+
+  @Test
+  public void testHeapFloatOffers ()
+  {
+    checkOffers(ScenarioStorage.HEAP_FLOAT);
+  }
+
+  @Test
+  public void testDirectFloatOffers ()
+  {
+    checkOffers(ScenarioStorage.DIRECT_FLOAT);
+  }
+
+  private void checkOffers (ScenarioStorage compact)
+  {
+    ScenarioMatrix doubles = toPower(generator.generate(ScenarioStorage.HEAP),
+                                     ScenarioStorage.HEAP);
+    ScenarioMatrix floats = toPower(generator.generate(compact), compact);
+    int differing = 0;
+    for (int h = 0; h < forecast.length; h++) {
+      double offerD = WindFarmOfferCalculator
+              .findOfferCapacity(doubles, h, CAPACITY, MCP, CRD, CRU, 1);
+      double offerF = WindFarmOfferCalculator
+              .findOfferCapacity(floats, h, CAPACITY, MCP, CRD, CRU, 1);
+      // offers may only move to a neighbouring grid point
+      assertEquals("offer in hour " + h, offerD, offerF, GRID_STEP + 1e-9);
+      if (Math.abs(offerD - offerF) > 1e-9) {
+        differing += 1;
+      }
+      // expected revenue of the double precision offer
+      double revD = WindFarmOfferCalculator
+              .getRevenue(doubles, h, offerD, MCP, CRD, CRU, 1);
+      double revF = WindFarmOfferCalculator
+              .getRevenue(floats, h, offerD, MCP, CRD, CRU, 1);
+      assertEquals("revenue in hour " + h, revD, revF,
+                   1e-5 * Math.max(1.0, Math.abs(revD)));
+    }
+    assertTrue("at most one offer changes", differing <= 1);
+    floats.release();
+  }
+
+  private ScenarioMatrix toPower (ScenarioMatrix errors,
+                                  ScenarioStorage storage)
+  {
+    int scenarios = errors.getNumberOfScenarios();
+    int horizon = errors.getHorizon();
+    ScenarioMatrix power = ScenarioMatrix.create(scenarios, horizon, storage);
+    for (int s = 0; s < scenarios; s++) {
+      power.setProbability(s, errors.getProbability(s));
+    }
+    for (int h = 0; h < horizon; h++) {
+      for (int s = 0; s < scenarios; s++) {
+        double x = (forecast[h] + errors.get(s, h) - 4.0) / 10.0;
+        x = Math.max(0.0, Math.min(1.0, x));
+        power.set(s, h, CAPACITY * x * x * x);
+      }
+    }
+    errors.release();
+    return power;
+  }
+}
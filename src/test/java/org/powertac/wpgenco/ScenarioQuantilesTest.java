@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScenarioQuantilesTest
+{
+  private static final int S = 1000;
+  private static final int H = 3;
+  private ScenarioMatrix power;
+  private ScenarioQuantiles quantiles;
+
+  @Before
+  public void setUp ()
+  {
+    ScenarioRandom rng = new ScenarioRandom(7);
+    power = ScenarioMatrix.create(S, H, ScenarioStorage.HEAP);
+    for (int s = 0; s < S; s++) {
+      power.setProbability(s, 1.0 / S);
+      for (int h = 0; h < H; h++) {
+        power.set(s, h, Math.min(150.0, 150.0 * rng.nextDouble() * (h + 1) / H));
+      }
+    }
+    quantiles = new ScenarioQuantiles();
+    quantiles.update(power);
+  }
+
+  @Test
+  public void testQuantiles ()
+  {
+    for (int h = 0; h < H; h++) {
+      double[] column = new double[S];
+      double mean = 0.0;
+      for (int s = 0; s < S; s++) {
+        column[s] = power.get(s, h);
+        mean += column[s] / S;
+      }
+      Arrays.sort(column);
+      assertEquals(column[99], quantiles.getQuantile(h, 0.1), 1e-12);
+      assertEquals(column[499], quantiles.getQuantile(h, 0.5), 1e-12);
+      assertEquals(column[899], quantiles.getQuantile(h, 0.9), 1e-12);
+      assertEquals(0.1, quantiles.getExceedanceProbability(h, column[899]),
+                   1e-9);
+      assertEquals(mean, quantiles.getMean(h), 1e-9);
+    }
+  }
+
+  @Test
+  public void testRevenueMatchesScenarios ()
+  {
+    for (double offer = 0; offer <= 150; offer += 12.5) {
+      assertEquals(WindFarmOfferCalculator.getRevenue(power, 1, offer, 40.0,
+                                                      15.0, 80.0, 1),
+                   WindFarmOfferCalculator.getRevenue(quantiles, 1, offer,
+                                                      40.0, 15.0, 80.0),
+                   1e-6);
+    }
+  }
+
+  @Test
+  public void testBreakpointBeatsGrid ()
+  {
+    for (int h = 0; h < H; h++) {
+      double grid =
+        WindFarmOfferCalculator.findOfferCapacity(power, h, 150.0, 40.0,
+                                                  15.0, 80.0, 1);
+      double exact =
+        WindFarmOfferCalculator.findBreakpointOffer(quantiles, h, 150.0,
+                                                    40.0, 15.0, 80.0);
+      assertTrue(WindFarmOfferCalculator.getRevenue(quantiles, h, exact,
+                                                    40.0, 15.0, 80.0)
+                 >= WindFarmOfferCalculator.getRevenue(quantiles, h, grid,
+                                                       40.0, 15.0, 80.0)
+                    - 1e-9);
+    }
+  }
+
+  @Test
+  public void testGridIncludesCapacity ()
+  {
+    // output always above capacity, so the full capacity is the best
+    // offer; with a summed grid step the last point fell short of 3.3
+    ScenarioMatrix high = ScenarioMatrix.create(2, 1, ScenarioStorage.HEAP);
+    for (int s = 0; s < 2; s++) {
+      high.setProbability(s, 0.5);
+      high.set(s, 0, 10.0);
+    }
+    assertEquals(3.3, WindFarmOfferCalculator.findOfferCapacity(high, 0, 3.3,
+                                                                40.0, 15.0,
+                                                                80.0, 1),
+                 0.0);
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+/**
+ * Measures how the accuracy of the offer quantities depends on the number
+ * of error scenarios, for each {@link ScenarioSampler}. A Monte Carlo run
+ * with a large number of scenarios serves as reference; for each sampler
+ * and scenario count the offers of a number of differently seeded runs are
+ * compared against it. Run with
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.powertac.wpgenco.ScenarioSamplerBenchmark
+ * </pre>
+ */
+public class ScenarioSamplerBenchmark
+{
+  private static final String[] SAMPLERS = {"montecarlo", "lhs", "sobol"};
+  private static final int[] SCENARIO_COUNTS = {16, 64, 256, 1024, 4096};
+  private static final int REFERENCE_COUNT = 200000;
+  private static final int REPETITIONS = 20;
+
+  // a 150 MW farm with a simple cubic power curve
+  private static final double CAPACITY = 150.0;
+  private static final double CUT_IN = 4.0;
+  private static final double RATED = 14.0;
+  private static final double CUT_OUT = 25.0;
+
+  // clearing, regulation down and regulation up prices
+  private static final double MCP = 40.0;
+  private static final double CRD = 15.0;
+  private static final double CRU = 80.0;
+
+  public static void main (String[] args)
+  {
+    double[] forecast = new double[24];
+    for (int h = 0; h < forecast.length; h++) {
+      forecast[h] = 8.0 + 3.0 * Math.sin(h * Math.PI / 12);
+    }
+
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    generator.setSampler("montecarlo");
+    generator.setNumberOfScenarios(REFERENCE_COUNT);
+    generator.setSeed(1);
+    ScenarioMatrix reference =
+      toPower(generator.generate(ScenarioStorage.HEAP), forecast);
+    double[] refOffers = offers(reference);
+    double[] refImbalance = expectedImbalance(reference, refOffers);
+
+    System.out.println("sampler     scenarios  offer-rmse[MW]  imbalance-rmse[MW]  msec/run");
+    for (String sampler: SAMPLERS) {
+      generator.setSampler(sampler);
+      for (int count: SCENARIO_COUNTS) {
+        generator.setNumberOfScenarios(count);
+        double offerSq = 0;
+        double imbalanceSq = 0;
+        long nanos = 0;
+        for (int rep = 0; rep < REPETITIONS; rep++) {
+          generator.setSeed(1000 + rep);
+          long start = System.nanoTime();
+          ScenarioMatrix power =
+            toPower(generator.generate(ScenarioStorage.HEAP), forecast);
+          double[] result = offers(power);
+          nanos += System.nanoTime() - start;
+          double[] imbalance = expectedImbalance(power, refOffers);
+          for (int h = 0; h < result.length; h++) {
+            offerSq += sq(result[h] - refOffers[h]);
+            imbalanceSq += sq(imbalance[h] - refImbalance[h]);
+          }
+        }
+        int n = REPETITIONS * refOffers.length;
+        System.out.println(String.format("%-10s %10d %15.3f %19.4f %9.2f",
+                                         sampler, count,
+                                         Math.sqrt(offerSq / n),
+                                         Math.sqrt(imbalanceSq / n),
+                                         nanos / 1e6 / REPETITIONS));
+      }
+    }
+  }
+
+  private static ScenarioMatrix toPower (ScenarioMatrix errors,
+                                         double[] forecast)
+  {
+    int scenarios = errors.getNumberOfScenarios();
+    int horizon = errors.getHorizon();
+    ScenarioMatrix power =
+      ScenarioMatrix.create(scenarios, horizon, ScenarioStorage.HEAP);
+    for (int s = 0; s < scenarios; s++) {
+      power.setProbability(s, errors.getProbability(s));
+    }
+    for (int h = 0; h < horizon; h++) {
+      for (int s = 0; s < scenarios; s++) {
+        power.set(s, h, powerCurve(forecast[h] + errors.get(s, h)));
+      }
+    }
+    return power;
+  }
+
+  private static double powerCurve (double windSpeed)
+  {
+    if (windSpeed < CUT_IN || windSpeed > CUT_OUT) {
+      return 0;
+    }
+    if (windSpeed >= RATED) {
+      return CAPACITY;
+    }
+    double x = (windSpeed - CUT_IN) / (RATED - CUT_IN);
+    return CAPACITY * x * x * x;
+  }
+
+  private static double[] offers (ScenarioMatrix power)
+  {
+    double[] result = new double[power.getHorizon()];
+    for (int h = 0; h < result.length; h++) {
+      result[h] = WindFarmOfferCalculator
+              .findOfferCapacity(power, h, CAPACITY, MCP, CRD, CRU, 1);
+    }
+    return result;
+  }
+
+  // expected absolute imbalance when offering the given quantities
+  private static double[] expectedImbalance (ScenarioMatrix power,
+                                             double[] offers)
+  {
+    double[] result = new double[power.getHorizon()];
+    for (int h = 0; h < result.length; h++) {
+      double sum = 0;
+      for (int s = 0; s < power.getNumberOfScenarios(); s++) {
+        sum += power.getProbability(s) * Math.abs(power.get(s, h) - offers[h]);
+      }
+      result[h] = sum;
+    }
+    return result;
+  }
+
+  private static double sq (double x)
+  {
+    return x * x;
+  }
+
+} // class ScenarioSamplerBenchmark
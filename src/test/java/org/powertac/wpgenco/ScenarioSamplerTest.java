@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+import org.powertac.common.Competition;
+
+public class ScenarioSamplerTest
+{
+  @Test
+  public void testLatinHypercubeStrata ()
+  {
+    ScenarioSampler sampler = new LatinHypercubeSampler();
+    ScenarioRandom root = new ScenarioRandom(42L);
+    sampler.prepare(100, 24, root.split(-1));
+    assertOnePerStratum(sampler, 100, 0, 24, root.split(0));
+  }
+
+  @Test
+  public void testSobolReferencePoints ()
+  {
+    // first points of the Sobol sequence after the origin
+    double[][] expected = {
+      {0.5, 0.75, 0.25, 0.375, 0.875, 0.625, 0.125},
+      {0.5, 0.25, 0.75, 0.375, 0.875, 0.125, 0.625},
+      {0.5, 0.25, 0.75, 0.625, 0.125, 0.875, 0.375}};
+    for (int d = 0; d < expected.length; d++) {
+      for (int s = 0; s < expected[d].length; s++) {
+        assertEquals("dimension " + d + ", point " + s, expected[d][s],
+                     SobolSampler.getPoint(s, d), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testSobolBeyondDirectionNumbers ()
+  {
+    int dimensions = SobolSampler.MAX_DIMENSIONS + 3;
+    ScenarioSampler sampler = new SobolSampler();
+    ScenarioRandom root = new ScenarioRandom(42L);
+    sampler.prepare(64, dimensions, root.split(-1));
+    ScenarioRandom rng = root.split(0);
+    for (int s = 0; s < 64; s++) {
+      for (int d = 0; d < dimensions; d++) {
+        assertFalse(Double.isInfinite(sampler.nextGaussian(s, d, rng)));
+      }
+    }
+    // the remaining dimensions are Latin hypercube columns
+    assertOnePerStratum(sampler, 64, SobolSampler.MAX_DIMENSIONS, dimensions,
+                        root.split(1));
+  }
+
+  @Test
+  public void testSameSeedSameScenarios ()
+  {
+    for (String name: new String[] {"montecarlo", "lhs", "sobol"}) {
+      ScenarioMatrix first = generate(name, 42L);
+      ScenarioMatrix second = generate(name, 42L);
+      ScenarioMatrix other = generate(name, 43L);
+      boolean differs = false;
+      for (int s = 0; s < first.getNumberOfScenarios(); s++) {
+        for (int h = 0; h < first.getHorizon(); h++) {
+          assertEquals(name, first.get(s, h), second.get(s, h), 0.0);
+          differs |= first.get(s, h) != other.get(s, h);
+        }
+      }
+      assertTrue(name + " depends on the seed", differs);
+    }
+  }
+
+  @Test
+  public void testGencoUsesConfiguredSampler () throws Exception
+  {
+    Competition.newInstance("sampler-test");
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    generator.setNumberOfScenarios(64);
+    generator.setSampler("sobol");
+    WindfarmGenco genco = new WindfarmGenco("sampled");
+    Field source = WindfarmGenco.class.getDeclaredField("errorScenarioSource");
+    source.setAccessible(true);
+    source.set(genco, "generator");
+    genco.setErrorGenerator(generator);
+    genco.init(null);
+    ScenarioMatrix errors =
+      genco.getForecastScenarios().getBaseErrorScenarios();
+    ScenarioMatrix expected =
+      generator.generate(ScenarioStorage.HEAP, genco.getHorizon());
+    for (int s = 0; s < 64; s++) {
+      assertEquals(expected.get(s, 3), errors.get(s, 3), 0.0);
+    }
+  }
+
+  private static ScenarioMatrix generate (String sampler, long seed)
+  {
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    generator.setNumberOfScenarios(200);
+    generator.setSampler(sampler);
+    generator.setSeed(seed);
+    return generator.generate(ScenarioStorage.HEAP);
+  }
+
+  // each of the dimensions first .. last - 1 has exactly one value in
+  // each of the n equally likely strata of the normal distribution
+  private static void assertOnePerStratum (ScenarioSampler sampler, int n,
+                                           int first, int last,
+                                           ScenarioRandom rng)
+  {
+    for (int d = first; d < last; d++) {
+      int[] count = new int[n];
+      for (int s = 0; s < n; s++) {
+        double value = sampler.nextGaussian(s, d, rng);
+        int stratum = 0;
+        while (stratum < n - 1
+               && value >= ScenarioSampler.inverseNormal((stratum + 1.0) / n)) {
+          stratum += 1;
+        }
+        count[stratum] += 1;
+      }
+      for (int k = 0; k < n; k++) {
+        assertEquals("dimension " + d + ", stratum " + k, 1, count[k]);
+      }
+    }
+  }
+}
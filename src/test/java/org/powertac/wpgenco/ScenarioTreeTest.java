@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ScenarioTreeTest
+{
+  // 8 scenarios that share hour 0, split in two at hour 1, in four at
+  // hour 2 and into all eight at hour 3
+  private ScenarioMatrix binaryTree ()
+  {
+    ScenarioMatrix matrix = ScenarioMatrix.create(8, 4, ScenarioStorage.HEAP);
+    for (int s = 0; s < 8; s++) {
+      matrix.setProbability(s, 1.0 / 8);
+      matrix.set(s, 0, 1.0);
+      matrix.set(s, 1, (s >> 2) * 2.0);
+      matrix.set(s, 2, ((s >> 1) & 1) * 2.0 + 0.01 * s);
+      matrix.set(s, 3, s);
+    }
+    return matrix;
+  }
+
+  @Test
+  public void testSharedPrefixes ()
+  {
+    ScenarioTree tree = ScenarioTree.build(binaryTree(), 0.5);
+    assertEquals(4, tree.getHorizon());
+    assertEquals(1 + 2 + 4 + 8, tree.getNodeCount());
+    assertEquals(0, tree.getFirstNode(0));
+    assertEquals(1, tree.getFirstNode(1));
+    assertEquals(3, tree.getFirstNode(2));
+    assertEquals(7, tree.getFirstNode(3));
+    assertEquals(1.0, tree.getProbability(0), 1e-12);
+    assertEquals(0.5, tree.getProbability(1), 1e-12);
+    // the value of a node is the mean of its scenarios
+    int node = tree.getParent(tree.getLeaf(0));
+    assertEquals(0.005, tree.getValue(node), 1e-12);
+  }
+
+  @Test
+  public void testExpandRestoresPaths ()
+  {
+    ScenarioMatrix matrix = binaryTree();
+    ScenarioTree tree = ScenarioTree.build(matrix, 0.0);
+    double[] values = new double[tree.getNodeCount()];
+    for (int n = 0; n < values.length; n++) {
+      values[n] = tree.getValue(n);
+    }
+    ScenarioMatrix paths = ScenarioMatrix.create(8, 4, ScenarioStorage.HEAP);
+    tree.expand(values, paths);
+    for (int s = 0; s < 8; s++) {
+      for (int h = 0; h < 4; h++) {
+        assertEquals(matrix.get(s, h), paths.get(s, h), 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void testQuantilesMatchMatrix ()
+  {
+    ScenarioMatrix matrix = binaryTree();
+    ScenarioTree tree = ScenarioTree.build(matrix, 0.0);
+    double[] values = new double[tree.getNodeCount()];
+    for (int n = 0; n < values.length; n++) {
+      values[n] = tree.getValue(n);
+    }
+    ScenarioQuantiles fromTree = new ScenarioQuantiles();
+    fromTree.update(tree, 4, values);
+    ScenarioQuantiles fromMatrix = new ScenarioQuantiles();
+    fromMatrix.update(matrix);
+    for (int h = 0; h < 4; h++) {
+      assertEquals(fromMatrix.getMean(h), fromTree.getMean(h), 1e-12);
+      assertEquals(fromMatrix.getStdDev(h), fromTree.getStdDev(h), 1e-12);
+      for (double x = -0.5; x < 8; x += 0.5) {
+        assertEquals(fromMatrix.getExpectedShortfall(h, x),
+                     fromTree.getExpectedShortfall(h, x), 1e-12);
+      }
+      assertEquals(fromMatrix.getQuantile(h, 0.3),
+                   fromTree.getQuantile(h, 0.3), 1e-12);
+    }
+  }
+}
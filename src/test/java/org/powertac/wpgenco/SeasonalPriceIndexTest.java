@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SeasonalPriceIndexTest
+{
+  private static final long HOUR = 3600000L;
+
+  @Test
+  public void testExactAndFallbacks ()
+  {
+    SeasonalPriceIndex index = new SeasonalPriceIndex();
+    double[] prices = new double[3];
+    assertFalse("empty index", index.getPrices(1000 * HOUR, prices));
+
+    index.record(1000 * HOUR, 40.0, 20.0, 80.0);
+    assertTrue(index.getPrices(1000 * HOUR + 5, prices));
+    assertEquals(40.0, prices[SeasonalPriceIndex.CLEARING], 1e-9);
+    assertEquals(20.0, prices[SeasonalPriceIndex.MIN_ASK], 1e-9);
+    assertEquals(80.0, prices[SeasonalPriceIndex.MAX_ASK], 1e-9);
+
+    index.record(857 * HOUR, 30.0, 15.0, 60.0);
+    // same hour yesterday
+    assertTrue(index.getPrices(1024 * HOUR, prices));
+    assertEquals(40.0, prices[0], 1e-9);
+    // same hour last week
+    assertTrue(index.getPrices(1025 * HOUR, prices));
+    assertEquals(30.0, prices[0], 1e-9);
+    // mean of both hours
+    assertTrue(index.getPrices(1005 * HOUR, prices));
+    assertEquals(35.0, prices[0], 1e-9);
+    assertEquals(70.0, prices[2], 1e-9);
+  }
+
+  @Test
+  public void testEvictionAndChain ()
+  {
+    SeasonalPriceIndex index =
+      new SeasonalPriceIndex(SeasonalPriceIndex
+              .parseFallbackChain(Arrays.asList("lastweek")));
+    double[] prices = new double[3];
+    index.record(10 * HOUR, 40.0, 20.0, 80.0);
+    assertFalse("no fallback to yesterday", index.getPrices(34 * HOUR, prices));
+    assertTrue(index.getPrices(178 * HOUR, prices));
+    // two weeks later the ring entry is replaced
+    index.record(346 * HOUR, 50.0, 25.0, 90.0);
+    assertFalse("evicted", index.getPrices(10 * HOUR, prices));
+    assertTrue(index.getPrices(346 * HOUR, prices));
+    assertEquals(50.0, prices[0], 1e-9);
+  }
+
+  @Test
+  public void testPartialEntry ()
+  {
+    SeasonalPriceIndex index = new SeasonalPriceIndex();
+    double[] prices = new double[3];
+    index.set(10 * HOUR, SeasonalPriceIndex.CLEARING, 40.0);
+    assertFalse("incomplete", index.getPrices(10 * HOUR, prices));
+    index.set(10 * HOUR, SeasonalPriceIndex.MIN_ASK, 20.0);
+    index.set(10 * HOUR, SeasonalPriceIndex.MAX_ASK, 80.0);
+    assertTrue(index.getPrices(10 * HOUR, prices));
+  }
+}
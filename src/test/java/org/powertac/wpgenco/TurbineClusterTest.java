@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+import org.powertac.common.Timeslot;
+import org.powertac.common.WeatherForecast;
+import org.powertac.common.WeatherForecastPrediction;
+import org.powertac.common.interfaces.BrokerProxy;
+
+public class TurbineClusterTest
+{
+  private GameLogReplay.ReplayTimeslotRepo timeslotRepo;
+  private GameLogReplay.ReplayWeatherForecastRepo weatherRepo;
+  private BrokerProxy proxy;
+
+  @Before
+  public void setUp ()
+  {
+    Competition.newInstance("cluster-test");
+    timeslotRepo = new GameLogReplay.ReplayTimeslotRepo(0, 24);
+    weatherRepo = new GameLogReplay.ReplayWeatherForecastRepo();
+    proxy = (BrokerProxy) Proxy
+            .newProxyInstance(BrokerProxy.class.getClassLoader(),
+                              new Class<?>[] {BrokerProxy.class},
+                              new InvocationHandler() {
+      @Override
+      public Object invoke (Object proxy, Method method, Object[] args)
+      {
+        return null;
+      }
+    });
+  }
+
+  private TurbineCluster createCluster (String name, String genco)
+    throws Exception
+  {
+    TurbineCluster cluster = new TurbineCluster(name);
+    setField(cluster, "genco", genco);
+    setField(cluster, "numberOfTurbines", 40);
+    setField(cluster, "hubHeight", 100.0);
+    setField(cluster, "windShearExponent", 0.14);
+    return cluster;
+  }
+
+  private void activate (WindfarmGenco genco, int t)
+  {
+    Timeslot current = timeslotRepo.slot(t);
+    timeslotRepo.setCurrent(t);
+    List<WeatherForecastPrediction> predictions =
+      new ArrayList<WeatherForecastPrediction>();
+    for (int h = 1; h <= 24; h++) {
+      predictions.add(new WeatherForecastPrediction(h, 10.0,
+              7.0 + 4.0 * Math.sin((t + h) * Math.PI / 12), 200.0, 0.5));
+    }
+    weatherRepo.setCurrent(new WeatherForecast(current, predictions));
+    Instant now = current.getStartInstant();
+    genco.updateModel(now);
+    genco.generateOrders(now, timeslotRepo.enabledTimeslots());
+  }
+
+  @Test
+  public void testClusterAddsPowerAndCapacity () throws Exception
+  {
+    WindfarmGenco plain = new WindfarmGenco("plain");
+    plain.init(proxy, timeslotRepo, weatherRepo);
+    WindfarmGenco clustered = new WindfarmGenco("clustered");
+    TurbineCluster cluster = createCluster("ridge", "clustered");
+    clustered.addCluster(cluster);
+    clustered.init(proxy, timeslotRepo, weatherRepo);
+    activate(plain, 0);
+    activate(clustered, 0);
+
+    // same errors, so the difference is the output of the cluster
+    ForecastScenarios scenarios = clustered.getForecastScenarios();
+    ScenarioMatrix own = plain.getForecastScenarios()
+            .getWindPowerOutputScenarios();
+    ScenarioMatrix total = scenarios.getWindPowerOutputScenarios();
+    ScenarioMatrix errors = scenarios.getBaseErrorScenarios();
+    ScenarioMatrix expected =
+      ScenarioMatrix.create(total.getNumberOfScenarios(), total.getHorizon(),
+                            ScenarioStorage.HEAP);
+    ForecastScenarios.addClusterPower(cluster, errors, expected);
+    double clusterTotal = 0.0;
+    for (int s = 0; s < total.getNumberOfScenarios(); s++) {
+      for (int h = 0; h < total.getHorizon(); h++) {
+        assertEquals(own.get(s, h) + expected.get(s, h), total.get(s, h),
+                     1e-9);
+        clusterTotal += expected.get(s, h);
+      }
+    }
+    assertTrue("cluster produces", clusterTotal > 0.0);
+
+    assertEquals(60.0, cluster.getNominalCapacity(), 1e-12);
+    assertEquals(plain.getNominalCapacity() + 60.0,
+                 clustered.getNominalCapacity(), 1e-12);
+    // outages only reduce the genco's own turbines
+    AvailabilityModel availability = clustered.getAvailabilityModel();
+    assertEquals(plain.getNominalCapacity()
+                 * availability.getAvailableFraction() + 60.0,
+                 clustered.getCurrentCapacity(), 1e-9);
+  }
+
+  @Test
+  public void testUnknownGencoSkipped () throws Exception
+  {
+    WindfarmGenco first = new WindfarmGenco("first");
+    WindfarmGenco second = new WindfarmGenco("second");
+    List<WindfarmGenco> gencos = new ArrayList<WindfarmGenco>();
+    gencos.add(first);
+    gencos.add(second);
+    SimpleGencoService service = new SimpleGencoService();
+    service.init(gencos);
+
+    TurbineCluster ridge = createCluster("ridge", "second");
+    TurbineCluster lost = createCluster("lost", "nobody");
+    service.addClusters(Arrays.asList(lost, ridge));
+    assertEquals(0, first.getClusters().size());
+    assertEquals(1, second.getClusters().size());
+    assertSame(ridge, second.getClusters().get(0));
+  }
+
+  @Test
+  public void testConfigRoundTrip () throws Exception
+  {
+    TurbineCluster source = createCluster("ridge", "WindfarmGenco1");
+    setField(source, "turbineCapacity", 2.5);
+    setField(source, "elevation", 350.0);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(source.getName());
+    GencoProtocol.writeConfig(out, source);
+
+    DataInputStream in =
+      new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    TurbineCluster target = new TurbineCluster(in.readUTF());
+    GencoProtocol.readConfig(in, target);
+    assertEquals("ridge", target.getName());
+    assertEquals("WindfarmGenco1", target.getGenco());
+    assertEquals(100.0, target.getNominalCapacity(), 1e-12);
+    source.init(null, "here");
+    target.init(null, "here");
+    for (double speed = 0.0; speed < 30.0; speed += 2.5) {
+      assertEquals(source.getEstimatedPowerOutput(speed, 1.2),
+                   target.getEstimatedPowerOutput(speed, 1.2), 0.0);
+    }
+  }
+
+  private static void setField (Object target, String name, Object value)
+    throws Exception
+  {
+    Field field = target.getClass().getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+}
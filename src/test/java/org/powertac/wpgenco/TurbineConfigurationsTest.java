@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+
+/**
+ * Checks the batch evaluation of turbine configurations against the
+ * power curve of a single genco.
+ */
+public class TurbineConfigurationsTest
+{
+  private WindfarmGenco genco;
+  private ScenarioMatrix windSpeeds;
+  private double[] airDensity;
+
+  @Before
+  public void setUp ()
+  {
+    Competition.newInstance("test");
+    genco = new WindfarmGenco("test");
+    windSpeeds = ScenarioMatrix.create(50, 24, ScenarioStorage.HEAP);
+    airDensity = new double[24];
+    for (int h = 0; h < 24; h++) {
+      airDensity[h] = 1.2 + 0.001 * h;
+      for (int s = 0; s < 50; s++) {
+        // covers calm, cubic, full power and cut-out regions
+        windSpeeds.set(s, h, 0.6 * s);
+      }
+    }
+    for (int s = 0; s < 50; s++) {
+      windSpeeds.setProbability(s, 0.02);
+    }
+  }
+
+  @Test
+  public void testMatchesGenco ()
+  {
+    TurbineConfigurations batch =
+      new TurbineConfigurations(genco.getEfficiencyCurve());
+    int c = genco.addConfiguration(batch);
+    ScenarioMatrix[] power = batch.evaluate(windSpeeds, airDensity);
+    for (int h = 0; h < 24; h++) {
+      for (int s = 0; s < 50; s++) {
+        assertEquals("s=" + s + " h=" + h,
+                     genco.getEstimatedPowerOutput(windSpeeds.get(s, h),
+                                                   airDensity[h]),
+                     power[c].get(s, h), 1e-9);
+      }
+    }
+    assertEquals("probability", 0.02, power[c].getProbability(7), 1e-12);
+  }
+
+  @Test
+  public void testScalesWithTurbines ()
+  {
+    TurbineConfigurations batch =
+      new TurbineConfigurations(genco.getEfficiencyCurve());
+    batch.add(100, 1.5, 4.0, 25.0, 14.0, 2391.2);
+    batch.add(50, 1.5, 4.0, 25.0, 14.0, 2391.2);
+    ScenarioMatrix[] power = batch.evaluate(windSpeeds, airDensity);
+    for (int s = 0; s < 50; s++) {
+      assertEquals(power[0].get(s, 5) / 2, power[1].get(s, 5), 1e-9);
+    }
+    assertEquals(75.0, batch.getCapacity(1), 1e-9);
+  }
+}
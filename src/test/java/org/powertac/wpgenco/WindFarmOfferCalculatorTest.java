@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class WindFarmOfferCalculatorTest
+{
+  private static final double MCP = 40.0;
+  private static final double CRD = 20.0;
+  private static final double CRU = 60.0;
+
+  // equally likely scenarios of one lead hour
+  private ScenarioMatrix power (double... values)
+  {
+    ScenarioMatrix result =
+      ScenarioMatrix.create(values.length, 1, ScenarioStorage.HEAP);
+    for (int s = 0; s < values.length; s++) {
+      result.set(s, 0, values[s]);
+      result.setProbability(s, 1.0 / values.length);
+    }
+    return result;
+  }
+
+  private ScenarioQuantiles quantiles (ScenarioMatrix power)
+  {
+    ScenarioQuantiles result = new ScenarioQuantiles();
+    result.update(power);
+    return result;
+  }
+
+  @Test
+  public void testSurplusSoldAtRegulationDown ()
+  {
+    // 8 MWh offered, 10 or 14 produced: 4 MWh expected surplus
+    ScenarioMatrix power = power(10.0, 14.0);
+    double expected = 8.0 * MCP + 4.0 * CRD;
+    assertEquals(expected,
+                 WindFarmOfferCalculator.getRevenue(power, 0, 8.0, MCP, CRD,
+                                                    CRU, 1), 1e-9);
+    assertEquals(expected,
+                 WindFarmOfferCalculator.getRevenue(quantiles(power), 0, 8.0,
+                                                    MCP, CRD, CRU), 1e-9);
+  }
+
+  @Test
+  public void testShortfallBoughtAtRegulationUp ()
+  {
+    // 8 MWh offered, 2 or 4 produced: 5 MWh expected shortfall
+    ScenarioMatrix power = power(2.0, 4.0);
+    double expected = 8.0 * MCP - 5.0 * CRU;
+    assertEquals(expected,
+                 WindFarmOfferCalculator.getRevenue(power, 0, 8.0, MCP, CRD,
+                                                    CRU, 1), 1e-9);
+    assertEquals(expected,
+                 WindFarmOfferCalculator.getRevenue(quantiles(power), 0, 8.0,
+                                                    MCP, CRD, CRU), 1e-9);
+  }
+
+  @Test
+  public void testStrideRenormalizes ()
+  {
+    // every other scenario: 10 and 14 MWh
+    ScenarioMatrix power = power(10.0, 0.0, 14.0, 0.0);
+    assertEquals(8.0 * MCP + 4.0 * CRD,
+                 WindFarmOfferCalculator.getRevenue(power, 0, 8.0, MCP, CRD,
+                                                    CRU, 2), 1e-9);
+  }
+
+  @Test
+  public void testOfferDoesNotExceedCertainOutput ()
+  {
+    // with crd < mcp < cru, the certain output is the best offer
+    ScenarioMatrix power = power(6.0, 6.0);
+    assertEquals(6.0,
+                 WindFarmOfferCalculator.findOfferCapacity(power, 0, 10.0,
+                                                           MCP, CRD, CRU, 1),
+                 1e-9);
+  }
+}
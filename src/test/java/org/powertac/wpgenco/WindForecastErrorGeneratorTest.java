@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an
+ * "AS IS" BASIS,  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.powertac.wpgenco;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Field;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Competition;
+
+public class WindForecastErrorGeneratorTest
+{
+  @Before
+  public void setUp ()
+  {
+    Competition.newInstance("generator-test");
+  }
+
+  @Test
+  public void testGencoUsesItsGenerator () throws Exception
+  {
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    generator.setNumberOfScenarios(50);
+    generator.setSeed(99L);
+    WindfarmGenco genco = new WindfarmGenco("generated");
+    setField(genco, "errorScenarioSource", "generator");
+    genco.setErrorGenerator(generator);
+    genco.init(null);
+
+    ScenarioMatrix errors =
+      genco.getForecastScenarios().getBaseErrorScenarios();
+    assertEquals(50, errors.getNumberOfScenarios());
+    assertEquals(genco.getHorizon(), errors.getHorizon());
+    ScenarioMatrix expected =
+      generator.generate(ScenarioStorage.HEAP, genco.getHorizon());
+    assertEquals(expected.get(17, 5), errors.get(17, 5), 1e-12);
+    assertTrue(genco.getConfigFingerprint().contains(generator.describe()));
+
+    WindForecastErrorGenerator other = new WindForecastErrorGenerator();
+    other.setNumberOfScenarios(50);
+    assertFalse(other.describe().equals(generator.describe()));
+  }
+
+  @Test
+  public void testHorizonOfGenerateCall ()
+  {
+    WindForecastErrorGenerator generator = new WindForecastErrorGenerator();
+    generator.setNumberOfScenarios(20);
+    ScenarioMatrix errors = generator.generate(ScenarioStorage.HEAP, 48);
+    assertTrue(errors.hasShape(20, 48));
+    assertEquals(24, generator.getHorizon());
+    // the first scenario starts the same stream of innovations
+    assertEquals(generator.generate(ScenarioStorage.HEAP).get(0, 10),
+                 errors.get(0, 10), 0.0);
+  }
+
+  private static void setField (Object target, String name, Object value)
+    throws Exception
+  {
+    Field field = target.getClass().getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(target, value);
+  }
+}